@@ -23,6 +23,7 @@ package elki.clustering.affinitypropagation;
 import elki.data.type.TypeInformation;
 import elki.database.ids.ArrayDBIDs;
 import elki.database.relation.Relation;
+import elki.utilities.datastructures.heap.DoubleIntegerMinHeap;
 import elki.utilities.optionhandling.OptionID;
 
 /**
@@ -46,6 +47,66 @@ public interface AffinityPropagationInitialization<O> {
    */
   double[][] getSimilarityMatrix(Relation<O> relation, ArrayDBIDs ids);
 
+  /**
+   * Compute a sparse similarity graph, containing the k most similar objects
+   * of every object.
+   * <p>
+   * The default implementation sparsifies the full similarity matrix, and
+   * hence needs quadratic memory; implementations should override this.
+   *
+   * @param relation Data relation
+   * @param ids indexed DBIDs
+   * @param k Number of neighbors
+   * @return Sparse similarities
+   */
+  default SparseSimilarities getKNNSimilarities(Relation<O> relation, ArrayDBIDs ids, int k) {
+    final double[][] mat = getSimilarityMatrix(relation, ids);
+    final int size = ids.size();
+    SparseSimilarities.Builder builder = new SparseSimilarities.Builder(ids, k);
+    DoubleIntegerMinHeap heap = new DoubleIntegerMinHeap(k);
+    for(int i = 0; i < size; i++) {
+      builder.nextRow();
+      final double[] mati = mat[i];
+      for(int j = 0; j < size; j++) {
+        if(j != i) {
+          heap.add(mati[j], j, k);
+        }
+      }
+      for(; !heap.isEmpty(); heap.poll()) {
+        builder.add(heap.peekValue(), heap.peekKey());
+      }
+    }
+    return builder.build(.5);
+  }
+
+  /**
+   * Compute a sparse similarity graph, containing the pairs with a similarity
+   * of at least epsilon.
+   * <p>
+   * The default implementation sparsifies the full similarity matrix, and
+   * hence needs quadratic memory; implementations should override this.
+   *
+   * @param relation Data relation
+   * @param ids indexed DBIDs
+   * @param epsilon Similarity threshold
+   * @return Sparse similarities
+   */
+  default SparseSimilarities getRangeSimilarities(Relation<O> relation, ArrayDBIDs ids, double epsilon) {
+    final double[][] mat = getSimilarityMatrix(relation, ids);
+    final int size = ids.size();
+    SparseSimilarities.Builder builder = new SparseSimilarities.Builder(ids, 10);
+    for(int i = 0; i < size; i++) {
+      builder.nextRow();
+      final double[] mati = mat[i];
+      for(int j = 0; j < size; j++) {
+        if(mati[j] >= epsilon) {
+          builder.add(j, mati[j]);
+        }
+      }
+    }
+    return builder.build(.5);
+  }
+
   /**
    * Get the data type information for the similarity computations.
    * 
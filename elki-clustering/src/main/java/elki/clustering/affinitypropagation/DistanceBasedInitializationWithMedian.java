@@ -23,8 +23,15 @@ package elki.clustering.affinitypropagation;
 import elki.data.type.TypeInformation;
 import elki.database.ids.ArrayDBIDs;
 import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DoubleDBIDListIter;
+import elki.database.ids.KNNList;
+import elki.database.ids.ModifiableDoubleDBIDList;
 import elki.database.query.QueryBuilder;
 import elki.database.query.distance.DistanceQuery;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.query.range.RangeSearcher;
 import elki.database.relation.Relation;
 import elki.distance.Distance;
 import elki.distance.minkowski.SquaredEuclideanDistance;
@@ -92,6 +99,40 @@ public class DistanceBasedInitializationWithMedian<O> implements AffinityPropaga
     return mat;
   }
 
+  @Override
+  public SparseSimilarities getKNNSimilarities(Relation<O> relation, ArrayDBIDs ids, int k) {
+    KNNSearcher<DBIDRef> knnq = new QueryBuilder<>(relation, distance).kNNByDBID(k + 1);
+    SparseSimilarities.Builder builder = new SparseSimilarities.Builder(ids, k);
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      builder.nextRow();
+      KNNList knn = knnq.getKNN(it, k + 1);
+      for(DoubleDBIDListIter n = knn.iter(); n.valid(); n.advance()) {
+        builder.add(n, -n.doubleValue());
+      }
+    }
+    return builder.build(quantile);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Here, epsilon is the maximum distance.
+   */
+  @Override
+  public SparseSimilarities getRangeSimilarities(Relation<O> relation, ArrayDBIDs ids, double epsilon) {
+    RangeSearcher<DBIDRef> rq = new QueryBuilder<>(relation, distance).rangeByDBID(epsilon);
+    SparseSimilarities.Builder builder = new SparseSimilarities.Builder(ids, 10);
+    ModifiableDoubleDBIDList neighbors = DBIDUtil.newDistanceDBIDList();
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      builder.nextRow();
+      neighbors.clear();
+      for(DoubleDBIDListIter n = rq.getRange(it, epsilon, neighbors).iter(); n.valid(); n.advance()) {
+        builder.add(n, -n.doubleValue());
+      }
+    }
+    return builder.build(quantile);
+  }
+
   @Override
   public TypeInformation getInputTypeRestriction() {
     return distance.getInputTypeRestriction();
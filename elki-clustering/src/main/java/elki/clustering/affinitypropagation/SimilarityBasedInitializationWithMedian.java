@@ -23,12 +23,18 @@ package elki.clustering.affinitypropagation;
 import elki.data.type.TypeInformation;
 import elki.database.ids.ArrayDBIDs;
 import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DoubleDBIDListIter;
+import elki.database.ids.ModifiableDoubleDBIDList;
 import elki.database.query.QueryBuilder;
+import elki.database.query.range.RangeSearcher;
 import elki.database.query.similarity.SimilarityQuery;
 import elki.database.relation.Relation;
 import elki.similarity.Similarity;
 import elki.similarity.kernel.LinearKernel;
 import elki.utilities.datastructures.QuickSelect;
+import elki.utilities.datastructures.heap.DoubleIntegerMinHeap;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.parameterization.Parameterization;
@@ -97,6 +103,71 @@ public class SimilarityBasedInitializationWithMedian<O> implements AffinityPropa
     return mat;
   }
 
+  @Override
+  public SparseSimilarities getKNNSimilarities(Relation<O> relation, ArrayDBIDs ids, int k) {
+    final int size = ids.size();
+    SimilarityQuery<O> sq = new QueryBuilder<>(relation, similarity).similarityQuery();
+    double[] self = selfSimilarities(sq, ids);
+    SparseSimilarities.Builder builder = new SparseSimilarities.Builder(ids, k);
+    DoubleIntegerMinHeap heap = new DoubleIntegerMinHeap(k);
+    DBIDArrayIter i1 = ids.iter(), i2 = ids.iter();
+    for(int i = 0; i < size; i++, i1.advance()) {
+      builder.nextRow();
+      i2.seek(0);
+      for(int j = 0; j < size; j++, i2.advance()) {
+        if(j != i) {
+          heap.add(sq.similarity(i1, i2) - self[i] - self[j], j, k);
+        }
+      }
+      for(; !heap.isEmpty(); heap.poll()) {
+        builder.add(heap.peekValue(), heap.peekKey());
+      }
+    }
+    return builder.build(quantile);
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Here, epsilon is the minimum similarity before centering.
+   */
+  @Override
+  public SparseSimilarities getRangeSimilarities(Relation<O> relation, ArrayDBIDs ids, double epsilon) {
+    QueryBuilder<O> qb = new QueryBuilder<>(relation, similarity);
+    double[] self = selfSimilarities(qb.similarityQuery(), ids);
+    RangeSearcher<DBIDRef> rq = qb.similarityRangeByDBID(epsilon);
+    SparseSimilarities.Builder builder = new SparseSimilarities.Builder(ids, 10);
+    ModifiableDoubleDBIDList neighbors = DBIDUtil.newDistanceDBIDList();
+    int i = 0;
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance(), i++) {
+      builder.nextRow();
+      neighbors.clear();
+      for(DoubleDBIDListIter n = rq.getRange(it, epsilon, neighbors).iter(); n.valid(); n.advance()) {
+        final int j = builder.indexOf(n);
+        if(j >= 0) {
+          builder.add(j, n.doubleValue() - self[i] - self[j]);
+        }
+      }
+    }
+    return builder.build(quantile);
+  }
+
+  /**
+   * Compute the (halved) self-similarities, for centering.
+   *
+   * @param sq Similarity query
+   * @param ids Indexed DBIDs
+   * @return Half of the self-similarities
+   */
+  private static <O> double[] selfSimilarities(SimilarityQuery<O> sq, ArrayDBIDs ids) {
+    double[] self = new double[ids.size()];
+    int i = 0;
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance(), i++) {
+      self[i] = sq.similarity(it, it) * .5;
+    }
+    return self;
+  }
+
   @Override
   public TypeInformation getInputTypeRestriction() {
     return similarity.getInputTypeRestriction();
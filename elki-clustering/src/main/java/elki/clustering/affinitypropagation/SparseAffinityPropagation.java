@@ -0,0 +1,368 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.affinitypropagation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.IntBinaryOperator;
+
+import elki.data.Clustering;
+import elki.data.model.MedoidModel;
+import elki.database.ids.ArrayDBIDs;
+import elki.database.ids.DBIDUtil;
+import elki.database.relation.Relation;
+import elki.logging.Logging;
+import elki.logging.progress.IndefiniteProgress;
+import elki.logging.progress.MutableProgress;
+import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelCore;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.DoubleParameter;
+import elki.utilities.optionhandling.parameters.IntParameter;
+
+/**
+ * Sparse affinity propagation, where messages are only passed along the edges
+ * of a k-nearest-neighbor or epsilon-similarity graph.
+ * <p>
+ * Instead of three dense matrices, the similarities, responsibilities, and
+ * availabilities are stored as arrays in compressed sparse row format, and
+ * hence the memory is linear in the number of edges. The graph is built using
+ * the {@link elki.database.query.QueryBuilder}, so that indexes can be used,
+ * and the preference is a quantile of the edge similarities. Responsibilities
+ * are updated row-wise, availabilities column-wise, in blocks that are
+ * processed in parallel.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @composed - - - SparseSimilarities
+ *
+ * @param <O> object type
+ */
+public class SparseAffinityPropagation<O> extends AffinityPropagation<O> {
+  /**
+   * Class logger
+   */
+  private static final Logging LOG = Logging.getLogger(SparseAffinityPropagation.class);
+
+  /**
+   * Minimum number of objects per block.
+   */
+  private static final int MIN_BLOCK_SIZE = 256;
+
+  /**
+   * Number of neighbors.
+   */
+  int k;
+
+  /**
+   * Radius of the epsilon-similarity graph, or NaN to use the kNN graph.
+   */
+  double epsilon;
+
+  /**
+   * Constructor.
+   *
+   * @param initialization Similarity initialization
+   * @param lambda Damping factor
+   * @param convergence Termination threshold (Number of stable iterations)
+   * @param maxiter Maximum number of iterations
+   * @param k Number of neighbors
+   * @param epsilon Radius of the epsilon-similarity graph, NaN to use k
+   */
+  public SparseAffinityPropagation(AffinityPropagationInitialization<O> initialization, double lambda, int convergence, int maxiter, int k, double epsilon) {
+    super(initialization, lambda, convergence, maxiter);
+    this.k = k;
+    this.epsilon = epsilon;
+  }
+
+  /**
+   * Perform sparse affinity propagation clustering.
+   *
+   * @param relation Relation
+   * @return Clustering result
+   */
+  @Override
+  public Clustering<MedoidModel> run(Relation<O> relation) {
+    ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size();
+
+    SparseSimilarities s = Double.isNaN(epsilon) ? //
+        initialization.getKNNSimilarities(relation, ids, k) : //
+        initialization.getRangeSimilarities(relation, ids, epsilon);
+    final int m = s.numEdges();
+    LOG.statistics(new LongStatistic(SparseAffinityPropagation.class.getName() + ".edges", m));
+    final int[] coloff = new int[size + 1], coledges = new int[m];
+    transpose(s, coloff, coledges);
+    final double[] r = new double[m], a = new double[m];
+    final int[] assignment = new int[size];
+
+    ParallelCore core = ParallelCore.getCore();
+    core.connect();
+    try {
+      final int numblocks = Math.max(1, Math.min(core.getParallelism() << 2, size / MIN_BLOCK_SIZE));
+      IndefiniteProgress prog = LOG.isVerbose() ? new IndefiniteProgress("Affinity Propagation Iteration", LOG) : null;
+      MutableProgress aprog = LOG.isVerbose() ? new MutableProgress("Stable assignments", size + 1, LOG) : null;
+      int inactive = 0;
+      for(int iteration = 0; iteration < maxiter && inactive < convergence; iteration++) {
+        inBlocks(size, numblocks, (start, end) -> updateResponsibilities(s, a, r, start, end));
+        inBlocks(size, numblocks, (start, end) -> updateAvailabilities(s.offsets, coloff, coledges, r, a, start, end));
+        int changed = inBlocks(size, numblocks, (start, end) -> updateAssignment(s, r, a, assignment, start, end));
+        inactive = changed > 0 ? 0 : (inactive + 1);
+        LOG.incrementProcessed(prog);
+        if(aprog != null) {
+          aprog.setProcessed(size - changed, LOG);
+        }
+      }
+      if(aprog != null) {
+        aprog.setProcessed(aprog.getTotal(), LOG);
+      }
+      LOG.setCompleted(prog);
+    }
+    finally {
+      core.disconnect();
+    }
+    return buildResult(ids, assignment);
+  }
+
+  /**
+   * Build the column index of the sparse graph.
+   *
+   * @param s Sparse similarities
+   * @param coloff Output: column offsets
+   * @param coledges Output: edge positions, by column
+   */
+  private static void transpose(SparseSimilarities s, int[] coloff, int[] coledges) {
+    final int[] targets = s.targets;
+    for(int t : targets) {
+      coloff[t + 1]++;
+    }
+    for(int i = 1; i < coloff.length; i++) {
+      coloff[i] += coloff[i - 1];
+    }
+    int[] pos = new int[coloff.length - 1];
+    System.arraycopy(coloff, 0, pos, 0, pos.length);
+    for(int e = 0; e < targets.length; e++) {
+      coledges[pos[targets[e]]++] = e;
+    }
+  }
+
+  /**
+   * Process the objects in blocks, concurrently if more than one block is
+   * used.
+   *
+   * @param size Number of objects
+   * @param numblocks Number of blocks
+   * @param block Block processor, returning a count
+   * @return Sum of the block counts
+   */
+  private static int inBlocks(int size, int numblocks, IntBinaryOperator block) {
+    if(numblocks == 1) {
+      return block.applyAsInt(0, size);
+    }
+    List<Future<Integer>> futures = new ArrayList<>(numblocks);
+    ParallelCore core = ParallelCore.getCore();
+    for(int b = 0; b < numblocks; b++) {
+      final int start = (int) ((long) size * b / numblocks), end = (int) ((long) size * (b + 1) / numblocks);
+      futures.add(core.submit(() -> block.applyAsInt(start, end)));
+    }
+    try {
+      int sum = 0;
+      for(Future<Integer> f : futures) {
+        sum += f.get();
+      }
+      return sum;
+    }
+    catch(ExecutionException e) {
+      throw new RuntimeException("Processor execution failed.", e);
+    }
+    catch(InterruptedException e) {
+      throw new RuntimeException("Parallel execution interrupted.");
+    }
+  }
+
+  /**
+   * Update the responsibilities of a block of rows.
+   *
+   * @param s Similarities
+   * @param a Availability
+   * @param r Responsibilities
+   * @param start First row
+   * @param end End row (exclusive)
+   * @return 0
+   */
+  private int updateResponsibilities(SparseSimilarities s, double[] a, double[] r, int start, int end) {
+    final int[] offsets = s.offsets;
+    final double[] sim = s.similarities;
+    for(int i = start; i < end; i++) {
+      final int rbegin = offsets[i], rend = offsets[i + 1];
+      // Find the two largest values
+      double max1 = Double.NEGATIVE_INFINITY, max2 = Double.NEGATIVE_INFINITY;
+      int maxe = -1;
+      for(int e = rbegin; e < rend; e++) {
+        double val = a[e] + sim[e];
+        if(val > max1) {
+          max2 = max1;
+          max1 = val;
+          maxe = e;
+        }
+        else if(val > max2) {
+          max2 = val;
+        }
+      }
+      // Isolated objects only have the self-edge
+      max2 = max2 > Double.NEGATIVE_INFINITY ? max2 : 0.;
+      // With the maximum value known, update r:
+      for(int e = rbegin; e < rend; e++) {
+        double val = sim[e] - ((e != maxe) ? max1 : max2);
+        r[e] = r[e] * lambda + val * (1. - lambda);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Update the availabilities of a block of columns.
+   *
+   * @param offsets Row offsets, to identify the self-edges
+   * @param coloff Column offsets
+   * @param coledges Edge positions, by column
+   * @param r Responsibilities
+   * @param a Availability
+   * @param start First column
+   * @param end End column (exclusive)
+   * @return 0
+   */
+  private int updateAvailabilities(int[] offsets, int[] coloff, int[] coledges, double[] r, double[] a, int start, int end) {
+    for(int k = start; k < end; k++) {
+      final int cbegin = coloff[k], cend = coloff[k + 1], self = offsets[k];
+      // Compute sum of max(0, r_ik) for all i.
+      // For r_kk, don't apply the max.
+      double colposum = 0.;
+      for(int c = cbegin; c < cend; c++) {
+        final int e = coledges[c];
+        if(e == self || r[e] > 0.) {
+          colposum += r[e];
+        }
+      }
+      for(int c = cbegin; c < cend; c++) {
+        final int e = coledges[c];
+        double val = colposum;
+        // Adjust column sum by the one extra term.
+        if(e == self || r[e] > 0.) {
+          val -= r[e];
+        }
+        if(e != self && val > 0.) { // min
+          val = 0.;
+        }
+        a[e] = a[e] * lambda + val * (1 - lambda);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Update the cluster assignment of a block of rows.
+   *
+   * @param s Similarities
+   * @param r Responsibilities
+   * @param a Availabilities
+   * @param assignment Assignment storage
+   * @param start First row
+   * @param end End row (exclusive)
+   * @return Number of changed entries
+   */
+  private static int updateAssignment(SparseSimilarities s, double[] r, double[] a, int[] assignment, int start, int end) {
+    final int[] offsets = s.offsets, targets = s.targets;
+    int changed = 0;
+    for(int i = start; i < end; i++) {
+      // The self-edge comes first, and wins ties.
+      final int rbegin = offsets[i], rend = offsets[i + 1];
+      double max = a[rbegin] + r[rbegin];
+      int maxj = i;
+      for(int e = rbegin + 1; e < rend; e++) {
+        double v = a[e] + r[e];
+        if(v > max) {
+          max = v;
+          maxj = targets[e];
+        }
+      }
+      if(assignment[i] != maxj) {
+        changed += 1;
+        assignment[i] = maxj;
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @hidden
+   *
+   * @param <O> object type
+   */
+  public static class Par<O> extends AffinityPropagation.Par<O> {
+    /**
+     * Parameter for the number of neighbors.
+     */
+    public static final OptionID K_ID = new OptionID("ap.sparse.k", "Number of nearest neighbors to pass messages to.");
+
+    /**
+     * Parameter for the radius of the epsilon-similarity graph.
+     */
+    public static final OptionID EPSILON_ID = new OptionID("ap.sparse.epsilon", "Maximum distance (or minimum similarity) of neighbors to pass messages to. If set, the k nearest neighbors are not used.");
+
+    /**
+     * Number of neighbors.
+     */
+    int k;
+
+    /**
+     * Radius of the epsilon-similarity graph.
+     */
+    double epsilon = Double.NaN;
+
+    @Override
+    public void configure(Parameterization config) {
+      super.configure(config);
+      new DoubleParameter(EPSILON_ID) //
+          .setOptional(true) //
+          .grab(config, x -> epsilon = x);
+      if(Double.isNaN(epsilon)) {
+        new IntParameter(K_ID, 30) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+            .grab(config, x -> k = x);
+      }
+    }
+
+    @Override
+    public SparseAffinityPropagation<O> make() {
+      return new SparseAffinityPropagation<>(initialization, lambda, convergence, maxiter, k, epsilon);
+    }
+  }
+}
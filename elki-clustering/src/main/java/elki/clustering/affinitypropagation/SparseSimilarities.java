@@ -0,0 +1,219 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.affinitypropagation;
+
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableIntegerDataStore;
+import elki.database.ids.ArrayDBIDs;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDRef;
+import elki.utilities.datastructures.QuickSelect;
+import elki.utilities.datastructures.arraylike.DoubleArray;
+import elki.utilities.datastructures.arraylike.IntegerArray;
+
+/**
+ * Sparse similarity graph for affinity propagation, stored in compressed
+ * sparse row (CSR) format.
+ * <p>
+ * The edges of row {@code i} are stored at positions
+ * {@code offsets[i] <= e < offsets[i + 1]}, and the first edge of every row is
+ * the self-edge, which holds the preference of object {@code i}.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class SparseSimilarities {
+  /**
+   * Row offsets, of length size + 1.
+   */
+  public final int[] offsets;
+
+  /**
+   * Target (column) of each edge.
+   */
+  public final int[] targets;
+
+  /**
+   * Similarity of each edge.
+   */
+  public final double[] similarities;
+
+  /**
+   * Constructor.
+   *
+   * @param offsets Row offsets
+   * @param targets Edge targets
+   * @param similarities Edge similarities
+   */
+  public SparseSimilarities(int[] offsets, int[] targets, double[] similarities) {
+    super();
+    this.offsets = offsets;
+    this.targets = targets;
+    this.similarities = similarities;
+  }
+
+  /**
+   * Number of objects.
+   *
+   * @return Number of rows
+   */
+  public int size() {
+    return offsets.length - 1;
+  }
+
+  /**
+   * Number of edges, including the self-edges.
+   *
+   * @return Number of edges
+   */
+  public int numEdges() {
+    return targets.length;
+  }
+
+  /**
+   * Incremental builder, adding one row at a time.
+   *
+   * @author Erich Schubert
+   */
+  static class Builder {
+    /**
+     * Indexed DBIDs.
+     */
+    private ArrayDBIDs ids;
+
+    /**
+     * Map from DBIDs to offsets, initialized on demand.
+     */
+    private WritableIntegerDataStore index;
+
+    /**
+     * Row offsets.
+     */
+    private int[] offsets;
+
+    /**
+     * Edge targets.
+     */
+    private IntegerArray targets;
+
+    /**
+     * Edge similarities.
+     */
+    private DoubleArray similarities;
+
+    /**
+     * Current row.
+     */
+    private int row = -1;
+
+    /**
+     * Constructor.
+     *
+     * @param ids Indexed DBIDs
+     * @param expected Expected number of edges per object
+     */
+    Builder(ArrayDBIDs ids, int expected) {
+      final int size = ids.size();
+      this.ids = ids;
+      offsets = new int[size + 1];
+      targets = new IntegerArray(size * (expected + 1));
+      similarities = new DoubleArray(size * (expected + 1));
+    }
+
+    /**
+     * Begin the next row, adding the self-edge.
+     */
+    void nextRow() {
+      offsets[++row] = targets.size;
+      targets.add(row);
+      similarities.add(0.);
+    }
+
+    /**
+     * Add an edge to the current row. Self-edges are ignored.
+     *
+     * @param target Edge target
+     * @param sim Similarity
+     */
+    void add(int target, double sim) {
+      if(target != row && target >= 0) {
+        targets.add(target);
+        similarities.add(sim);
+      }
+    }
+
+    /**
+     * Add an edge to the current row. Self-edges are ignored.
+     *
+     * @param target Edge target
+     * @param sim Similarity
+     */
+    void add(DBIDRef target, double sim) {
+      add(indexOf(target), sim);
+    }
+
+    /**
+     * Get the offset of an object.
+     *
+     * @param target Object
+     * @return Offset, or -1 if not indexed
+     */
+    int indexOf(DBIDRef target) {
+      if(index == null) {
+        index = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, -1);
+        for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+          index.putInt(it, it.getOffset());
+        }
+      }
+      return index.intValue(target);
+    }
+
+    /**
+     * Build the sparse similarity graph, using the given quantile of the edge
+     * similarities as preference.
+     *
+     * @param quantile Quantile for the self-similarities
+     * @return Sparse similarities
+     */
+    SparseSimilarities build(double quantile) {
+      assert row == offsets.length - 2;
+      final int size = offsets.length - 1, m = targets.size;
+      offsets[size] = m;
+      double[] sims = similarities.toArray();
+      double[] flat = new double[m - size];
+      for(int i = 0, j = 0; i < size; i++) {
+        for(int e = offsets[i] + 1; e < offsets[i + 1]; e++) {
+          flat[j++] = sims[e];
+        }
+      }
+      // On the diagonal, we place the median of the edges
+      double median = flat.length > 0 ? QuickSelect.quantile(flat, quantile) : 0.;
+      for(int i = 0; i < size; i++) {
+        sims[offsets[i]] = median;
+      }
+      if(index != null) {
+        index.destroy();
+      }
+      return new SparseSimilarities(offsets, targets.toArray(), sims);
+    }
+  }
+}
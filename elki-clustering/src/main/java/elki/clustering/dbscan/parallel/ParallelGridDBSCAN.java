@@ -0,0 +1,1018 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.dbscan.parallel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import elki.clustering.ClusteringAlgorithm;
+import elki.clustering.dbscan.DBSCAN;
+import elki.data.Cluster;
+import elki.data.Clustering;
+import elki.data.NumberVector;
+import elki.data.model.ClusterModel;
+import elki.data.model.Model;
+import elki.data.type.TypeInformation;
+import elki.data.type.TypeUtil;
+import elki.database.ids.ArrayDBIDs;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.ModifiableDBIDs;
+import elki.database.relation.Relation;
+import elki.database.relation.RelationUtil;
+import elki.logging.Logging;
+import elki.logging.statistics.Duration;
+import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelCore;
+import elki.result.Metadata;
+import elki.utilities.datastructures.arraylike.IntegerArray;
+import elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
+import elki.utilities.datastructures.arrays.IntegerArrayQuickSort;
+import elki.utilities.documentation.Reference;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.optionhandling.Parameterizer;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.DoubleParameter;
+import elki.utilities.optionhandling.parameters.IntParameter;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+
+/**
+ * Exact grid-based parallel DBSCAN for low-dimensional data with Euclidean
+ * distance.
+ * <p>
+ * The data is partitioned into grid cells of width \(\varepsilon/\sqrt{d}\),
+ * such that any two points in the same cell are neighbors. Cells with at least
+ * minPts points hence only contain core points, while for all other points the
+ * neighbors are counted in the nearby cells only. Core cells are merged with a
+ * lock-free union-find data structure whenever a bichromatic closest pair
+ * check finds two core points within distance epsilon. Finally, border points
+ * are assigned to the cluster of a core point in their neighborhood.
+ * <p>
+ * All phases are processed in parallel, except for the final merge step when
+ * sorting the points by their grid cell. The result is the same as for DBSCAN
+ * with Euclidean distance, up to the assignment of border points that are
+ * reachable from multiple clusters, and it does not depend on the number of
+ * threads.
+ * <p>
+ * The number of neighbor cells grows exponentially with the dimensionality,
+ * hence this is meant for low-dimensional data such as geo coordinates.
+ * Coordinates are stored in one array per dimension, so the data size is only
+ * limited by the number of objects that can be indexed (as for all
+ * algorithms, at most {@code Integer.MAX_VALUE}).
+ * <p>
+ * Reference:
+ * <p>
+ * J. Gan, Y. Tao<br>
+ * DBSCAN Revisited: Mis-Claim, Un-Fixability, and Approximation<br>
+ * Proc. 2015 ACM SIGMOD Int. Conf. on Management of Data
+ * <p>
+ * Y. Wang, Y. Gu, J. Shun<br>
+ * Theoretically-Efficient and Practical Parallel DBSCAN<br>
+ * Proc. 2020 ACM SIGMOD Int. Conf. on Management of Data
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+@Reference(authors = "J. Gan, Y. Tao", //
+    title = "DBSCAN Revisited: Mis-Claim, Un-Fixability, and Approximation", //
+    booktitle = "Proc. 2015 ACM SIGMOD Int. Conf. on Management of Data", //
+    url = "https://doi.org/10.1145/2723372.2737792", //
+    bibkey = "DBLP:conf/sigmod/GanT15")
+@Reference(authors = "Y. Wang, Y. Gu, J. Shun", //
+    title = "Theoretically-Efficient and Practical Parallel DBSCAN", //
+    booktitle = "Proc. 2020 ACM SIGMOD Int. Conf. on Management of Data", //
+    url = "https://doi.org/10.1145/3318464.3380582", //
+    bibkey = "DBLP:conf/sigmod/WangGS20")
+public class ParallelGridDBSCAN implements ClusteringAlgorithm<Clustering<Model>> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelGridDBSCAN.class);
+
+  /**
+   * Minimum number of points or cells per block.
+   */
+  private static final int MIN_BLOCK_SIZE = 256;
+
+  /**
+   * Maximum number of candidate pairs to compare without sorting.
+   */
+  private static final int BRUTE_FORCE_PAIRS = 256;
+
+  /**
+   * Holds the epsilon radius threshold.
+   */
+  protected double epsilon;
+
+  /**
+   * Holds the minimum cluster size.
+   */
+  protected int minpts;
+
+  /**
+   * Constructor with parameters.
+   *
+   * @param epsilon Epsilon value
+   * @param minpts Minpts parameter
+   */
+  public ParallelGridDBSCAN(double epsilon, int minpts) {
+    super();
+    this.epsilon = epsilon;
+    this.minpts = minpts;
+  }
+
+  @Override
+  public TypeInformation[] getInputTypeRestriction() {
+    return TypeUtil.array(TypeUtil.NUMBER_VECTOR_FIELD);
+  }
+
+  /**
+   * Performs the DBSCAN algorithm on the given relation.
+   *
+   * @param relation Relation
+   * @return Clustering result
+   */
+  public Clustering<Model> run(Relation<? extends NumberVector> relation) {
+    if(relation.size() < minpts) {
+      Clustering<Model> result = new Clustering<>();
+      Metadata.of(result).setLongName("DBSCAN Clustering");
+      result.addToplevelCluster(new Cluster<Model>(relation.getDBIDs(), true, ClusterModel.CLUSTER));
+      return result;
+    }
+    ParallelCore core = ParallelCore.getCore();
+    core.connect();
+    try {
+      return new Instance(relation).run(core.getParallelism());
+    }
+    finally {
+      core.disconnect();
+    }
+  }
+
+  /**
+   * Instance for a single data set.
+   *
+   * @author Erich Schubert
+   */
+  private class Instance {
+    /**
+     * Indexed object ids.
+     */
+    ArrayDBIDs ids;
+
+    /**
+     * Data relation.
+     */
+    Relation<? extends NumberVector> relation;
+
+    /**
+     * Dimensionality.
+     */
+    int dim;
+
+    /**
+     * Squared epsilon.
+     */
+    double epssq;
+
+    /**
+     * Parallelism.
+     */
+    int parallelism;
+
+    /**
+     * Object offsets, sorted by grid cell.
+     */
+    int[] order;
+
+    /**
+     * Object coordinates, by dimension, in cell order.
+     */
+    double[][] data;
+
+    /**
+     * Start of each cell in the sorted order, of length numcells + 1.
+     */
+    int[] cellstart;
+
+    /**
+     * Grid coordinates of each cell, by dimension.
+     */
+    int[][] cellcoord;
+
+    /**
+     * Neighbor cells of each cell, in compressed sparse row format.
+     */
+    int[] neighstart, neighbors;
+
+    /**
+     * Core point flags, in cell order.
+     */
+    boolean[] core;
+
+    /**
+     * Number of core points in each cell.
+     */
+    int[] corecount;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Data relation
+     */
+    Instance(Relation<? extends NumberVector> relation) {
+      this.relation = relation;
+      this.ids = DBIDUtil.ensureArray(relation.getDBIDs());
+      this.dim = RelationUtil.dimensionality(relation);
+      this.epssq = epsilon * epsilon;
+    }
+
+    /**
+     * Run the clustering.
+     *
+     * @param parallelism Number of threads
+     * @return Clustering
+     */
+    Clustering<Model> run(int parallelism) {
+      this.parallelism = parallelism;
+      Duration dur = LOG.newDuration(ParallelGridDBSCAN.class.getName() + ".grid.time").begin();
+      buildGrid();
+      findNeighborCells();
+      LOG.statistics(dur.end());
+      LOG.statistics(new LongStatistic(ParallelGridDBSCAN.class.getName() + ".cells", cellstart.length - 1));
+      dur = LOG.newDuration(ParallelGridDBSCAN.class.getName() + ".core.time").begin();
+      int numcore = findCorePoints();
+      LOG.statistics(dur.end());
+      LOG.statistics(new LongStatistic(ParallelGridDBSCAN.class.getName() + ".core-points", numcore));
+      dur = LOG.newDuration(ParallelGridDBSCAN.class.getName() + ".merge.time").begin();
+      int[] cellcluster = connectCoreCells();
+      int[] assignment = assignPoints(cellcluster);
+      LOG.statistics(dur.end());
+      return buildResult(cellcluster, assignment);
+    }
+
+    /**
+     * Map the points to grid cells, and sort them by their cell.
+     */
+    private void buildGrid() {
+      final int size = ids.size();
+      final int numblocks = numBlocks(size);
+      final double[][] raw = data = new double[dim][size];
+      List<double[]> blockmins = inBlocks(size, numblocks, (start, end) -> {
+        double[] min = new double[dim];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        DBIDArrayIter it = ids.iter().seek(start);
+        for(int i = start; i < end; i++, it.advance()) {
+          NumberVector vec = relation.get(it);
+          for(int d = 0; d < dim; d++) {
+            final double v = raw[d][i] = vec.doubleValue(d);
+            min[d] = v < min[d] ? v : min[d];
+          }
+        }
+        return min;
+      });
+      final double[] min = blockmins.get(0);
+      for(double[] bmin : blockmins) {
+        for(int d = 0; d < dim; d++) {
+          min[d] = bmin[d] < min[d] ? bmin[d] : min[d];
+        }
+      }
+      // Cell width, such that the cell diameter is epsilon.
+      final double iwidth = Math.sqrt(dim) / epsilon;
+      final int[][] coords = new int[dim][size];
+      inBlocks(size, numblocks, (start, end) -> {
+        for(int d = 0; d < dim; d++) {
+          final double[] rd = raw[d];
+          final int[] cd = coords[d];
+          final double md = min[d];
+          for(int i = start; i < end; i++) {
+            final double c = Math.floor((rd[i] - md) * iwidth);
+            if(!(c < Integer.MAX_VALUE)) {
+              throw new AbortException("Epsilon is too small for the extent of the data, or the data contains invalid values.");
+            }
+            cd[i] = (int) c;
+          }
+        }
+        return null;
+      });
+      order = new int[size];
+      for(int i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      sortByCell(coords, numblocks);
+      // Find the cells, and reorder the data for locality
+      IntegerArray starts = new IntegerArray();
+      starts.add(0);
+      for(int i = 1; i < size; i++) {
+        if(compareCoords(coords, order[i - 1], order[i]) != 0) {
+          starts.add(i);
+        }
+      }
+      starts.add(size);
+      cellstart = starts.toArray();
+      final int numcells = cellstart.length - 1;
+      cellcoord = new int[dim][numcells];
+      for(int d = 0; d < dim; d++) {
+        for(int c = 0; c < numcells; c++) {
+          cellcoord[d][c] = coords[d][order[cellstart[c]]];
+        }
+      }
+      // Permute one dimension at a time, reusing the previous array.
+      double[] buf = new double[size];
+      for(int d = 0; d < dim; d++) {
+        final double[] src = data[d], dst = buf;
+        inBlocks(size, numblocks, (start, end) -> {
+          for(int i = start; i < end; i++) {
+            dst[i] = src[order[i]];
+          }
+          return null;
+        });
+        data[d] = dst;
+        buf = src;
+      }
+    }
+
+    /**
+     * Sort the points by their grid cell. Blocks are sorted concurrently, and
+     * then merged pairwise.
+     *
+     * @param coords Grid coordinates, by dimension
+     * @param numblocks Number of blocks
+     */
+    private void sortByCell(int[][] coords, int numblocks) {
+      final int size = order.length;
+      final IntComparator comp = (a, b) -> compareCoords(coords, a, b);
+      inBlocks(size, numblocks, (start, end) -> {
+        IntegerArrayQuickSort.sort(order, start, end, comp);
+        return null;
+      });
+      if(numblocks == 1) {
+        return;
+      }
+      int[] bounds = new int[numblocks + 1];
+      for(int b = 0; b <= numblocks; b++) {
+        bounds[b] = (int) ((long) size * b / numblocks);
+      }
+      int[] src = order, dst = new int[size];
+      for(int runs = numblocks; runs > 1; runs = (runs + 1) >>> 1) {
+        final int[] from = src, to = dst, rb = bounds;
+        final int nruns = (runs + 1) >>> 1, last = runs;
+        inBlocks(nruns, nruns, (start, end) -> {
+          for(int r = start; r < end; r++) {
+            final int lo = rb[r << 1], mid = rb[Math.min((r << 1) + 1, last)], hi = rb[Math.min((r << 1) + 2, last)];
+            merge(from, lo, mid, hi, to, comp);
+          }
+          return null;
+        });
+        int[] nbounds = new int[nruns + 1];
+        for(int r = 0; r <= nruns; r++) {
+          nbounds[r] = bounds[Math.min(r << 1, runs)];
+        }
+        bounds = nbounds;
+        src = to;
+        dst = from;
+      }
+      order = src;
+    }
+
+    /**
+     * Merge two sorted runs.
+     *
+     * @param src Source array
+     * @param lo Start of the first run
+     * @param mid Start of the second run
+     * @param hi End of the second run (exclusive)
+     * @param dst Destination array
+     * @param comp Comparator
+     */
+    private void merge(int[] src, int lo, int mid, int hi, int[] dst, IntComparator comp) {
+      int i = lo, j = mid, o = lo;
+      while(i < mid && j < hi) {
+        dst[o++] = comp.compare(src[j], src[i]) < 0 ? src[j++] : src[i++];
+      }
+      while(i < mid) {
+        dst[o++] = src[i++];
+      }
+      while(j < hi) {
+        dst[o++] = src[j++];
+      }
+    }
+
+    /**
+     * Find the neighbor cells of every cell, which may contain points within
+     * distance epsilon. The cell itself is always the first entry.
+     */
+    private void findNeighborCells() {
+      final int numcells = cellstart.length - 1;
+      // Offsets of cells that can contain neighbors, by their minimum distance
+      final int[] offsets = neighborOffsets(dim);
+      final int noff = offsets.length / dim;
+      final int[] counts = new int[numcells];
+      List<IntegerArray> blocks = inBlocks(numcells, numBlocks(numcells), (start, end) -> {
+        IntegerArray found = new IntegerArray();
+        int[] probe = new int[dim];
+        for(int c = start; c < end; c++) {
+          final int before = found.size;
+          for(int o = 0; o < noff; o++) {
+            for(int d = 0; d < dim; d++) {
+              probe[d] = cellcoord[d][c] + offsets[o * dim + d];
+            }
+            final int n = findCell(probe);
+            if(n >= 0) {
+              found.add(n);
+            }
+          }
+          counts[c] = found.size - before;
+        }
+        return found;
+      });
+      neighstart = new int[numcells + 1];
+      for(int c = 0; c < numcells; c++) {
+        neighstart[c + 1] = neighstart[c] + counts[c];
+      }
+      neighbors = new int[neighstart[numcells]];
+      int pos = 0;
+      for(IntegerArray block : blocks) {
+        System.arraycopy(block.data, 0, neighbors, pos, block.size);
+        pos += block.size;
+      }
+    }
+
+    /**
+     * Find a cell by its grid coordinates.
+     *
+     * @param probe Grid coordinates
+     * @return Cell number, or -1
+     */
+    private int findCell(int[] probe) {
+      int lo = 0, hi = cellstart.length - 2;
+      while(lo <= hi) {
+        final int mid = (lo + hi) >>> 1;
+        final int cmp = compareCell(mid, probe);
+        if(cmp < 0) {
+          lo = mid + 1;
+        }
+        else if(cmp > 0) {
+          hi = mid - 1;
+        }
+        else {
+          return mid;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Compare the grid coordinates of two points lexicographically.
+     *
+     * @param coords Grid coordinates, by dimension
+     * @param a First point
+     * @param b Second point
+     * @return Comparison result
+     */
+    private int compareCoords(int[][] coords, int a, int b) {
+      for(int d = 0; d < dim; d++) {
+        final int cmp = Integer.compare(coords[d][a], coords[d][b]);
+        if(cmp != 0) {
+          return cmp;
+        }
+      }
+      return 0;
+    }
+
+    /**
+     * Compare the grid coordinates of a cell lexicographically.
+     *
+     * @param c Cell
+     * @param probe Grid coordinates
+     * @return Comparison result
+     */
+    private int compareCell(int c, int[] probe) {
+      for(int d = 0; d < dim; d++) {
+        final int cmp = Integer.compare(cellcoord[d][c], probe[d]);
+        if(cmp != 0) {
+          return cmp;
+        }
+      }
+      return 0;
+    }
+
+    /**
+     * Determine the core points, by counting the neighbors in the neighbor
+     * cells only.
+     *
+     * @return Number of core points
+     */
+    private int findCorePoints() {
+      final int numcells = cellstart.length - 1;
+      core = new boolean[order.length];
+      corecount = new int[numcells];
+      int numcore = 0;
+      for(int blockcount : inBlocks(numcells, numBlocks(numcells), (start, end) -> {
+        int count = 0;
+        for(int c = start; c < end; c++) {
+          final int cbegin = cellstart[c], cend = cellstart[c + 1];
+          if(cend - cbegin >= minpts) {
+            // All points within the cell are neighbors.
+            Arrays.fill(core, cbegin, cend, true);
+            count += corecount[c] = cend - cbegin;
+            continue;
+          }
+          for(int i = cbegin; i < cend; i++) {
+            int n = cend - cbegin;
+            for(int j = neighstart[c], je = neighstart[c + 1]; j < je && n < minpts; j++) {
+              final int nc = neighbors[j];
+              if(nc == c) {
+                continue; // Already counted.
+              }
+              for(int p = cellstart[nc], pe = cellstart[nc + 1]; p < pe && n < minpts; p++) {
+                if(squaredDistance(i, p) <= epssq) {
+                  ++n;
+                }
+              }
+            }
+            if(n >= minpts) {
+              core[i] = true;
+              ++corecount[c];
+            }
+          }
+          count += corecount[c];
+        }
+        return count;
+      })) {
+        numcore += blockcount;
+      }
+      return numcore;
+    }
+
+    /**
+     * Connect the cells containing core points, using a bichromatic closest
+     * pair test.
+     *
+     * @return Cluster number of each cell, -1 for cells without core points
+     */
+    private int[] connectCoreCells() {
+      final int numcells = cellstart.length - 1;
+      final ConcurrentUnionFind uf = new ConcurrentUnionFind(numcells);
+      inBlocks(numcells, numBlocks(numcells), (start, end) -> {
+        for(int c = start; c < end; c++) {
+          if(corecount[c] == 0) {
+            continue;
+          }
+          for(int j = neighstart[c], je = neighstart[c + 1]; j < je; j++) {
+            final int nc = neighbors[j];
+            // Process each pair only once
+            if(nc > c && corecount[nc] > 0 && uf.find(c) != uf.find(nc) && hasCorePair(c, nc)) {
+              uf.union(c, nc);
+            }
+          }
+        }
+        return null;
+      });
+      // Number the clusters in cell order, for deterministic results
+      final int[] cellcluster = new int[numcells];
+      Arrays.fill(cellcluster, -1);
+      int numclusters = 0;
+      for(int c = 0; c < numcells; c++) {
+        if(corecount[c] > 0) {
+          final int root = uf.find(c);
+          cellcluster[c] = cellcluster[root] >= 0 ? cellcluster[root] : (cellcluster[root] = numclusters++);
+        }
+      }
+      return cellcluster;
+    }
+
+    /**
+     * Test whether two cells contain core points within distance epsilon.
+     * <p>
+     * Only core points within epsilon of the bounding box of the core points
+     * in the other cell are candidates. For larger candidate sets, both sets
+     * are sorted along the axis in which the cells are farthest apart, and
+     * only pairs within epsilon along this axis are compared.
+     *
+     * @param c1 First cell
+     * @param c2 Second cell
+     * @return {@code true} if the cells are connected
+     */
+    private boolean hasCorePair(int c1, int c2) {
+      final int[] cand1 = candidates(c1, c2), cand2 = cand1 != null ? candidates(c2, c1) : null;
+      if(cand1 == null || cand2 == null) {
+        return false;
+      }
+      final int n1 = cand1.length, n2 = cand2.length;
+      if(n1 * (long) n2 <= BRUTE_FORCE_PAIRS) {
+        for(int i : cand1) {
+          for(int j : cand2) {
+            if(squaredDistance(i, j) <= epssq) {
+              return true;
+            }
+          }
+        }
+        return false;
+      }
+      // Sweep along the axis of largest separation of the cells.
+      int axis = 0;
+      for(int d = 1; d < dim; d++) {
+        if(Math.abs(cellcoord[d][c1] - cellcoord[d][c2]) > Math.abs(cellcoord[axis][c1] - cellcoord[axis][c2])) {
+          axis = d;
+        }
+      }
+      final double[] x = data[axis];
+      double[] k1 = new double[n1], k2 = new double[n2];
+      for(int i = 0; i < n1; i++) {
+        k1[i] = x[cand1[i]];
+      }
+      for(int j = 0; j < n2; j++) {
+        k2[j] = x[cand2[j]];
+      }
+      DoubleIntegerArrayQuickSort.sort(k1, cand1, n1);
+      DoubleIntegerArrayQuickSort.sort(k2, cand2, n2);
+      for(int i = 0, lo = 0; i < n1; i++) {
+        final double xi = k1[i];
+        while(lo < n2 && k2[lo] < xi - epsilon) {
+          lo++;
+        }
+        for(int j = lo; j < n2 && k2[j] <= xi + epsilon; j++) {
+          if(squaredDistance(cand1[i], cand2[j]) <= epssq) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Find the core points of a cell within epsilon of the bounding box of the
+     * core points of another cell.
+     *
+     * @param c Cell
+     * @param other Other cell
+     * @return Candidate points, or {@code null} if none
+     */
+    private int[] candidates(int c, int other) {
+      double[] min = new double[dim], max = new double[dim];
+      Arrays.fill(min, Double.POSITIVE_INFINITY);
+      Arrays.fill(max, Double.NEGATIVE_INFINITY);
+      for(int j = cellstart[other], je = cellstart[other + 1]; j < je; j++) {
+        if(core[j]) {
+          for(int d = 0; d < dim; d++) {
+            final double v = data[d][j];
+            min[d] = v < min[d] ? v : min[d];
+            max[d] = v > max[d] ? v : max[d];
+          }
+        }
+      }
+      IntegerArray cand = new IntegerArray();
+      for(int i = cellstart[c], ie = cellstart[c + 1]; i < ie; i++) {
+        if(!core[i]) {
+          continue;
+        }
+        double sum = 0.;
+        for(int d = 0; d < dim && sum <= epssq; d++) {
+          final double v = data[d][i];
+          final double delta = v < min[d] ? min[d] - v : v > max[d] ? v - max[d] : 0.;
+          sum += delta * delta;
+        }
+        if(sum <= epssq) {
+          cand.add(i);
+        }
+      }
+      return cand.size > 0 ? cand.toArray() : null;
+    }
+
+    /**
+     * Assign all points to clusters: core points to the cluster of their cell,
+     * border points to the cluster of the first core point found within
+     * distance epsilon.
+     *
+     * @param cellcluster Cluster numbers of the cells
+     * @return Cluster assignment, in cell order; -1 for noise
+     */
+    private int[] assignPoints(int[] cellcluster) {
+      final int numcells = cellstart.length - 1;
+      final int[] assignment = new int[order.length];
+      inBlocks(numcells, numBlocks(numcells), (start, end) -> {
+        for(int c = start; c < end; c++) {
+          final int cbegin = cellstart[c], cend = cellstart[c + 1];
+          if(corecount[c] > 0) {
+            // Any point is within epsilon of the core points in the same cell.
+            Arrays.fill(assignment, cbegin, cend, cellcluster[c]);
+            continue;
+          }
+          for(int i = cbegin; i < cend; i++) {
+            assignment[i] = findBorderCluster(c, i, cellcluster);
+          }
+        }
+        return null;
+      });
+      return assignment;
+    }
+
+    /**
+     * Find the cluster of a border point.
+     *
+     * @param c Cell of the point
+     * @param i Point
+     * @param cellcluster Cluster numbers of the cells
+     * @return Cluster number, or -1 for noise
+     */
+    private int findBorderCluster(int c, int i, int[] cellcluster) {
+      for(int j = neighstart[c], je = neighstart[c + 1]; j < je; j++) {
+        final int nc = neighbors[j];
+        if(corecount[nc] == 0) {
+          continue;
+        }
+        for(int p = cellstart[nc], pe = cellstart[nc + 1]; p < pe; p++) {
+          if(core[p] && squaredDistance(i, p) <= epssq) {
+            return cellcluster[nc];
+          }
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Squared Euclidean distance of two points.
+     *
+     * @param i First point, in cell order
+     * @param j Second point, in cell order
+     * @return Squared distance
+     */
+    private double squaredDistance(int i, int j) {
+      double sum = 0.;
+      for(int d = 0; d < dim; d++) {
+        final double v = data[d][i] - data[d][j];
+        sum += v * v;
+      }
+      return sum;
+    }
+
+    /**
+     * Build the clustering result.
+     *
+     * @param cellcluster Cluster numbers of the cells
+     * @param assignment Cluster assignment, in cell order
+     * @return Clustering
+     */
+    private Clustering<Model> buildResult(int[] cellcluster, int[] assignment) {
+      int numclusters = 0;
+      for(int c : cellcluster) {
+        numclusters = c >= numclusters ? c + 1 : numclusters;
+      }
+      List<ModifiableDBIDs> clusters = new ArrayList<>(numclusters);
+      for(int i = 0; i < numclusters; i++) {
+        clusters.add(DBIDUtil.newArray());
+      }
+      ModifiableDBIDs noise = DBIDUtil.newArray();
+      DBIDArrayIter it = ids.iter();
+      for(int i = 0; i < order.length; i++) {
+        it.seek(order[i]);
+        (assignment[i] >= 0 ? clusters.get(assignment[i]) : noise).add(it);
+      }
+      Clustering<Model> result = new Clustering<>();
+      Metadata.of(result).setLongName("DBSCAN Clustering");
+      for(ModifiableDBIDs res : clusters) {
+        result.addToplevelCluster(new Cluster<Model>(res, ClusterModel.CLUSTER));
+      }
+      result.addToplevelCluster(new Cluster<Model>(noise, true, ClusterModel.CLUSTER));
+      return result;
+    }
+
+    /**
+     * Number of blocks to use.
+     *
+     * @param size Number of items
+     * @return Number of blocks
+     */
+    private int numBlocks(int size) {
+      return Math.max(1, Math.min(parallelism << 2, size / MIN_BLOCK_SIZE));
+    }
+  }
+
+  /**
+   * Compute the grid offsets of the cells that may contain neighbors, i.e.,
+   * where the minimum distance of the cells is at most epsilon.
+   *
+   * @param dim Dimensionality
+   * @return Offsets, packed, including the zero offset first
+   */
+  protected static int[] neighborOffsets(int dim) {
+    // Cell width is eps / sqrt(dim), so we need a squared minimum gap <= dim.
+    int r = 1;
+    while((r * r) <= dim) {
+      r++;
+    }
+    IntegerArray offsets = new IntegerArray();
+    for(int d = 0; d < dim; d++) {
+      offsets.add(0);
+    }
+    int[] cur = new int[dim];
+    Arrays.fill(cur, -r);
+    while(true) {
+      int gap = 0;
+      boolean zero = true;
+      for(int d = 0; d < dim; d++) {
+        final int a = Math.abs(cur[d]) - 1;
+        gap += a > 0 ? a * a : 0;
+        zero &= cur[d] == 0;
+      }
+      if(gap <= dim && !zero) {
+        for(int d = 0; d < dim; d++) {
+          offsets.add(cur[d]);
+        }
+      }
+      // Advance to the next offset
+      int d = 0;
+      while(d < dim && cur[d] == r) {
+        cur[d++] = -r;
+      }
+      if(d == dim) {
+        break;
+      }
+      cur[d]++;
+    }
+    return offsets.toArray();
+  }
+
+  /**
+   * Process a range in blocks, concurrently if more than one block is used.
+   *
+   * @param size Number of items
+   * @param numblocks Number of blocks
+   * @param block Block processor
+   * @param <T> Block result type
+   * @return Block results, in block order
+   */
+  private static <T> List<T> inBlocks(int size, int numblocks, Block<T> block) {
+    List<T> results = new ArrayList<>(numblocks);
+    if(numblocks == 1) {
+      results.add(block.process(0, size));
+      return results;
+    }
+    List<Future<T>> futures = new ArrayList<>(numblocks);
+    ParallelCore core = ParallelCore.getCore();
+    for(int b = 0; b < numblocks; b++) {
+      final int start = (int) ((long) size * b / numblocks), end = (int) ((long) size * (b + 1) / numblocks);
+      futures.add(core.submit(() -> block.process(start, end)));
+    }
+    try {
+      for(Future<T> f : futures) {
+        results.add(f.get());
+      }
+      return results;
+    }
+    catch(ExecutionException e) {
+      if(e.getCause() instanceof AbortException) {
+        throw (AbortException) e.getCause();
+      }
+      throw new RuntimeException("Processor execution failed.", e);
+    }
+    catch(InterruptedException e) {
+      throw new RuntimeException("Parallel execution interrupted.");
+    }
+  }
+
+  /**
+   * Processor for a block of items.
+   *
+   * @author Erich Schubert
+   *
+   * @param <T> Result type
+   */
+  @FunctionalInterface
+  private interface Block<T> {
+    /**
+     * Process a block of items.
+     *
+     * @param start First item
+     * @param end End of block (exclusive)
+     * @return Result
+     */
+    T process(int start, int end);
+  }
+
+  /**
+   * Lock-free union-find data structure, linking by index with path halving.
+   *
+   * @author Erich Schubert
+   */
+  protected static class ConcurrentUnionFind {
+    /**
+     * Parent pointers.
+     */
+    private final AtomicIntegerArray parent;
+
+    /**
+     * Constructor.
+     *
+     * @param size Number of elements
+     */
+    protected ConcurrentUnionFind(int size) {
+      parent = new AtomicIntegerArray(size);
+      for(int i = 0; i < size; i++) {
+        parent.set(i, i);
+      }
+    }
+
+    /**
+     * Find the root of an element.
+     *
+     * @param x Element
+     * @return Root
+     */
+    protected int find(int x) {
+      while(true) {
+        final int p = parent.get(x);
+        if(p == x) {
+          return x;
+        }
+        final int gp = parent.get(p);
+        if(gp != p) {
+          parent.compareAndSet(x, p, gp); // Path halving
+        }
+        x = gp;
+      }
+    }
+
+    /**
+     * Join the components of two elements.
+     *
+     * @param a First element
+     * @param b Second element
+     * @return {@code true} if the components were different
+     */
+    protected boolean union(int a, int b) {
+      while(true) {
+        a = find(a);
+        b = find(b);
+        if(a == b) {
+          return false;
+        }
+        // Link the larger root to the smaller, to avoid cycles.
+        if(a < b) {
+          final int t = a;
+          a = b;
+          b = t;
+        }
+        if(parent.compareAndSet(a, a, b)) {
+          return true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par implements Parameterizer {
+    /**
+     * Holds the epsilon radius threshold.
+     */
+    protected double epsilon;
+
+    /**
+     * Holds the minimum cluster size.
+     */
+    protected int minpts;
+
+    @Override
+    public void configure(Parameterization config) {
+      new DoubleParameter(DBSCAN.Par.EPSILON_ID) //
+          .addConstraint(CommonConstraints.GREATER_THAN_ZERO_DOUBLE) //
+          .grab(config, x -> epsilon = x);
+      new IntParameter(DBSCAN.Par.MINPTS_ID) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> minpts = x);
+    }
+
+    @Override
+    public ParallelGridDBSCAN make() {
+      return new ParallelGridDBSCAN(epsilon, minpts);
+    }
+  }
+}
@@ -20,10 +20,10 @@
  */
 package elki.clustering.em;
 
-import static elki.math.linearalgebra.VMath.argmax;
-
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import elki.clustering.ClusteringAlgorithm;
 import elki.clustering.kmeans.KMeans;
@@ -36,6 +36,8 @@ import elki.data.type.TypeUtil;
 import elki.database.datastore.DataStoreFactory;
 import elki.database.datastore.DataStoreUtil;
 import elki.database.datastore.WritableDataStore;
+import elki.database.ids.ArrayDBIDs;
+import elki.database.ids.DBIDArrayIter;
 import elki.database.ids.DBIDIter;
 import elki.database.ids.DBIDUtil;
 import elki.database.ids.ModifiableDBIDs;
@@ -44,6 +46,7 @@ import elki.database.relation.Relation;
 import elki.logging.Logging;
 import elki.logging.statistics.DoubleStatistic;
 import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelCore;
 import elki.result.Metadata;
 import elki.utilities.Priority;
 import elki.utilities.documentation.Description;
@@ -149,6 +152,11 @@ public class EM<O, M extends MeanModel> implements ClusteringAlgorithm<Clusterin
    */
   private static final double MIN_LOGLIKELIHOOD = -100000;
 
+  /**
+   * Minimum number of objects per block for parallel processing.
+   */
+  private static final int MIN_BLOCK_SIZE = 256;
+
   /**
    * Soft assignment result type.
    */
@@ -234,31 +242,45 @@ public class EM<O, M extends MeanModel> implements ClusteringAlgorithm<Clusterin
     if(relation.size() == 0) {
       throw new IllegalArgumentException("database empty: must contain elements");
     }
+    ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    if((long) ids.size() * k > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Too many objects and clusters to store all cluster probabilities.");
+    }
     // initial models
     List<? extends EMClusterModel<O, M>> models = mfactory.buildInitialModels(relation, k);
-    WritableDataStore<double[]> probClusterIGivenX = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_SORTED, double[].class);
-    double loglikelihood = assignProbabilitiesToInstances(relation, models, probClusterIGivenX);
-    DoubleStatistic likestat = new DoubleStatistic(this.getClass().getName() + ".loglikelihood");
-    LOG.statistics(likestat.setDouble(loglikelihood));
-
-    // iteration unless no change
-    int it = 0, lastimprovement = 0;
-    double bestloglikelihood = loglikelihood; // For detecting instabilities.
-    for(++it; it < maxiter || maxiter < 0; it++) {
-      final double oldloglikelihood = loglikelihood;
-      recomputeCovarianceMatrices(relation, probClusterIGivenX, models, prior);
-      // reassign probabilities
-      loglikelihood = assignProbabilitiesToInstances(relation, models, probClusterIGivenX);
-
+    // Cluster probabilities, packed row-wise
+    float[] probClusterIGivenX = new float[ids.size() * k];
+    ParallelCore core = ParallelCore.getCore();
+    core.connect();
+    int it = 0;
+    try {
+      final int numblocks = Math.max(1, Math.min(core.getParallelism() << 2, ids.size() / MIN_BLOCK_SIZE));
+      double loglikelihood = assignProbabilities(relation, ids, models, probClusterIGivenX, numblocks);
+      DoubleStatistic likestat = new DoubleStatistic(this.getClass().getName() + ".loglikelihood");
       LOG.statistics(likestat.setDouble(loglikelihood));
-      if(loglikelihood - bestloglikelihood > delta) {
-        lastimprovement = it;
-        bestloglikelihood = loglikelihood;
-      }
-      if(it >= miniter && (Math.abs(loglikelihood - oldloglikelihood) <= delta || lastimprovement < it >> 1)) {
-        break;
+
+      // iteration unless no change
+      int lastimprovement = 0;
+      double bestloglikelihood = loglikelihood; // For detecting instabilities.
+      for(++it; it < maxiter || maxiter < 0; it++) {
+        final double oldloglikelihood = loglikelihood;
+        recomputeModels(relation, ids, probClusterIGivenX, models, prior, numblocks);
+        // reassign probabilities
+        loglikelihood = assignProbabilities(relation, ids, models, probClusterIGivenX, numblocks);
+
+        LOG.statistics(likestat.setDouble(loglikelihood));
+        if(loglikelihood - bestloglikelihood > delta) {
+          lastimprovement = it;
+          bestloglikelihood = loglikelihood;
+        }
+        if(it >= miniter && (Math.abs(loglikelihood - oldloglikelihood) <= delta || lastimprovement < it >> 1)) {
+          break;
+        }
       }
     }
+    finally {
+      core.disconnect();
+    }
     LOG.statistics(new LongStatistic(KEY + ".iterations", it));
 
     // fill result with clusters and models
@@ -268,8 +290,13 @@ public class EM<O, M extends MeanModel> implements ClusteringAlgorithm<Clusterin
     }
 
     // provide a hard clustering
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      hardClusters.get(argmax(probClusterIGivenX.get(iditer))).add(iditer);
+    for(DBIDArrayIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
+      final int off = iditer.getOffset() * k;
+      int best = 0;
+      for(int i = 1; i < k; i++) {
+        best = probClusterIGivenX[off + i] > probClusterIGivenX[off + best] ? i : best;
+      }
+      hardClusters.get(best).add(iditer);
     }
     Clustering<M> result = new Clustering<>();
     Metadata.of(result).setLongName("EM Clustering");
@@ -278,12 +305,237 @@ public class EM<O, M extends MeanModel> implements ClusteringAlgorithm<Clusterin
       result.addToplevelCluster(new Cluster<>(hardClusters.get(i), models.get(i).finalizeCluster()));
     }
     if(soft) {
-      Metadata.hierarchyOf(result).addChild(new MaterializedRelation<>("EM Cluster Probabilities", SOFT_TYPE, relation.getDBIDs(), probClusterIGivenX));
+      WritableDataStore<double[]> softassign = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_SORTED, double[].class);
+      for(DBIDArrayIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
+        final int off = iditer.getOffset() * k;
+        double[] probs = new double[k];
+        for(int i = 0; i < k; i++) {
+          probs[i] = probClusterIGivenX[off + i];
+        }
+        softassign.put(iditer, probs);
+      }
+      Metadata.hierarchyOf(result).addChild(new MaterializedRelation<>("EM Cluster Probabilities", SOFT_TYPE, ids, softassign));
+    }
+    return result;
+  }
+
+  /**
+   * Recompute the cluster models from packed cluster probabilities.
+   * <p>
+   * If all models support partial aggregation, blocks of the data are
+   * processed concurrently, and the partial statistics are merged in block
+   * order.
+   *
+   * @param relation Vector data
+   * @param ids Indexed object ids
+   * @param probClusterIGivenX Packed object probabilities
+   * @param models Cluster models to update
+   * @param prior MAP prior (use 0 for MLE)
+   * @param numblocks Number of blocks
+   */
+  private void recomputeModels(Relation<O> relation, ArrayDBIDs ids, float[] probClusterIGivenX, List<? extends EMClusterModel<O, M>> models, double prior, int numblocks) {
+    boolean needsTwoPass = false;
+    for(EMClusterModel<?, ?> m : models) {
+      m.beginEStep();
+      needsTwoPass |= m.needsTwoPass();
+    }
+    double[] wsum = new double[k];
+    if(numblocks > 1 && !needsTwoPass && mergePartialModels(relation, ids, probClusterIGivenX, models, numblocks)) {
+      computeWeightSums(ids.size(), probClusterIGivenX, wsum);
     }
     else {
-      probClusterIGivenX.destroy();
+      // Sequential processing, including the first pass for two-pass models.
+      if(needsTwoPass) {
+        for(DBIDArrayIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
+          O instance = relation.get(iditer);
+          for(int i = 0, off = iditer.getOffset() * k; i < k; i++) {
+            final double prob = probClusterIGivenX[off + i];
+            if(prob > 1e-10) {
+              models.get(i).firstPassE(instance, prob);
+            }
+          }
+        }
+        for(EMClusterModel<?, ?> m : models) {
+          m.finalizeFirstPassE();
+        }
+      }
+      updateModels(relation, ids, probClusterIGivenX, models, wsum, 0, ids.size());
     }
-    return result;
+    for(int i = 0; i < k; i++) {
+      // MLE / MAP
+      final double weight = prior <= 0. ? wsum[i] / relation.size() : (wsum[i] + prior - 1) / (relation.size() + prior * k - k);
+      models.get(i).finalizeEStep(weight, prior);
+    }
+  }
+
+  /**
+   * Aggregate partial models for blocks of the data concurrently, and merge
+   * them into the models in block order.
+   *
+   * @param relation Vector data
+   * @param ids Indexed object ids
+   * @param probClusterIGivenX Packed object probabilities
+   * @param models Cluster models to update
+   * @param numblocks Number of blocks
+   * @return {@code false} if partial aggregation is not supported by the
+   *         models, and the models were not modified
+   */
+  private boolean mergePartialModels(Relation<O> relation, ArrayDBIDs ids, float[] probClusterIGivenX, List<? extends EMClusterModel<O, M>> models, int numblocks) {
+    List<List<EMClusterModel<O, M>>> partials = inBlocks(ids.size(), numblocks, (start, end) -> {
+      List<EMClusterModel<O, M>> partial = new ArrayList<>(k);
+      for(EMClusterModel<O, M> m : models) {
+        EMClusterModel<O, M> p = m.newPartialE();
+        if(p == null) {
+          return null; // Not supported.
+        }
+        partial.add(p);
+      }
+      updateModels(relation, ids, probClusterIGivenX, partial, new double[k], start, end);
+      return partial;
+    });
+    for(List<EMClusterModel<O, M>> partial : partials) {
+      if(partial == null) {
+        return false;
+      }
+    }
+    for(List<EMClusterModel<O, M>> partial : partials) {
+      for(int i = 0; i < k; i++) {
+        models.get(i).mergeE(partial.get(i));
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Update the statistics of the models with a block of the data.
+   *
+   * @param relation Vector data
+   * @param ids Indexed object ids
+   * @param probClusterIGivenX Packed object probabilities
+   * @param models Cluster models to update
+   * @param wsum Output: sum of probabilities
+   * @param start First object
+   * @param end End of block (exclusive)
+   */
+  private void updateModels(Relation<O> relation, ArrayDBIDs ids, float[] probClusterIGivenX, List<? extends EMClusterModel<O, M>> models, double[] wsum, int start, int end) {
+    DBIDArrayIter iditer = ids.iter().seek(start);
+    for(int j = start; j < end; j++, iditer.advance()) {
+      O instance = relation.get(iditer);
+      for(int i = 0, off = j * k; i < k; i++) {
+        final double prob = probClusterIGivenX[off + i];
+        if(prob > 1e-10) {
+          models.get(i).updateE(instance, prob);
+        }
+        wsum[i] += prob;
+      }
+    }
+  }
+
+  /**
+   * Compute the sum of probabilities of each cluster.
+   *
+   * @param size Number of objects
+   * @param probClusterIGivenX Packed object probabilities
+   * @param wsum Output: sum of probabilities
+   */
+  private void computeWeightSums(int size, float[] probClusterIGivenX, double[] wsum) {
+    for(int j = 0, off = 0; j < size; j++) {
+      for(int i = 0; i < k; i++, off++) {
+        wsum[i] += probClusterIGivenX[off];
+      }
+    }
+  }
+
+  /**
+   * Assign the current probability values to the instances, concurrently in
+   * blocks, and compute the expectation value of the current mixture of
+   * distributions.
+   *
+   * @param relation the database used for assignment to instances
+   * @param ids Indexed object ids
+   * @param models Cluster models
+   * @param probClusterIGivenX Output storage for packed cluster probabilities
+   * @param numblocks Number of blocks
+   * @return the expectation value of the current mixture of distributions
+   */
+  private double assignProbabilities(Relation<O> relation, ArrayDBIDs ids, List<? extends EMClusterModel<O, M>> models, float[] probClusterIGivenX, int numblocks) {
+    double emSum = 0.;
+    for(double blockSum : inBlocks(ids.size(), numblocks, (start, end) -> {
+      double[] probs = new double[k];
+      double sum = 0.;
+      DBIDArrayIter iditer = ids.iter().seek(start);
+      for(int j = start; j < end; j++, iditer.advance()) {
+        O vec = relation.get(iditer);
+        for(int i = 0; i < k; i++) {
+          double v = models.get(i).estimateLogDensity(vec);
+          probs[i] = v > MIN_LOGLIKELIHOOD ? v : MIN_LOGLIKELIHOOD;
+        }
+        final double logP = logSumExp(probs);
+        for(int i = 0, off = j * k; i < k; i++) {
+          probClusterIGivenX[off + i] = (float) FastMath.exp(probs[i] - logP);
+        }
+        sum += logP;
+      }
+      return sum;
+    })) {
+      emSum += blockSum;
+    }
+    return emSum / ids.size();
+  }
+
+  /**
+   * Process the objects in blocks, concurrently if more than one block is
+   * used.
+   *
+   * @param size Number of objects
+   * @param numblocks Number of blocks
+   * @param block Block processor
+   * @param <T> Block result type
+   * @return Block results, in block order
+   */
+  private static <T> List<T> inBlocks(int size, int numblocks, Block<T> block) {
+    List<T> results = new ArrayList<>(numblocks);
+    if(numblocks == 1) {
+      results.add(block.process(0, size));
+      return results;
+    }
+    List<Future<T>> futures = new ArrayList<>(numblocks);
+    ParallelCore core = ParallelCore.getCore();
+    for(int b = 0; b < numblocks; b++) {
+      final int start = (int) ((long) size * b / numblocks), end = (int) ((long) size * (b + 1) / numblocks);
+      futures.add(core.submit(() -> block.process(start, end)));
+    }
+    try {
+      for(Future<T> f : futures) {
+        results.add(f.get());
+      }
+      return results;
+    }
+    catch(ExecutionException e) {
+      throw new RuntimeException("Processor execution failed.", e);
+    }
+    catch(InterruptedException e) {
+      throw new RuntimeException("Parallel execution interrupted.");
+    }
+  }
+
+  /**
+   * Processor for a block of objects.
+   *
+   * @author Erich Schubert
+   *
+   * @param <T> Result type
+   */
+  @FunctionalInterface
+  private interface Block<T> {
+    /**
+     * Process a block of objects.
+     *
+     * @param start First object
+     * @param end End of block (exclusive)
+     * @return Result
+     */
+    T process(int start, int end);
   }
 
   /**
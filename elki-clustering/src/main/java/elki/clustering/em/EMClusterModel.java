@@ -83,8 +83,39 @@ public interface EMClusterModel<O, M extends Model> {
    */
   void finalizeEStep(double weight, double prior);
 
+  /**
+   * Create a new, empty model to aggregate the E step statistics of a part of
+   * the data, such that parts can be processed concurrently. The partial
+   * aggregates are combined with {@link #mergeE}.
+   * <p>
+   * By default, this is not supported, and the E step is run sequentially.
+   *
+   * @return Empty partial model, or {@code null} if not supported
+   */
+  default EMClusterModel<O, M> newPartialE() {
+    return null;
+  }
+
+  /**
+   * Merge the statistics of a partial model obtained from
+   * {@link #newPartialE()} into this model, after {@link #beginEStep()} and
+   * before {@link #finalizeEStep}.
+   * <p>
+   * This is only called if {@link #newPartialE()} returned a partial model,
+   * hence models that do not support partial E steps never reach the default
+   * implementation, and models overriding {@link #newPartialE()} must also
+   * override this method.
+   *
+   * @param partial Partial model
+   */
+  default void mergeE(EMClusterModel<O, M> partial) {
+    throw new UnsupportedOperationException("Partial E steps are not supported by " + getClass().getName());
+  }
+
   /**
    * Estimate the log likelihood of a vector.
+   * <p>
+   * This may be called concurrently, and must not modify the model.
    * 
    * @param vec Vector
    * @return log likelihood.
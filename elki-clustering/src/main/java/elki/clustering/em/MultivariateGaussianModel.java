@@ -111,6 +111,17 @@ public class MultivariateGaussianModel implements EMClusterModel<NumberVector, E
     this.logNormDet = FastMath.log(weight) - .5 * logNorm - getHalfLogDeterminant(this.chol);
   }
 
+  /**
+   * Constructor for partial aggregates.
+   *
+   * @param dim Dimensionality
+   */
+  private MultivariateGaussianModel(int dim) {
+    this.mean = new double[dim];
+    this.nmea = new double[dim];
+    this.covariance = new double[dim][dim];
+  }
+
   @Override
   public void beginEStep() {
     wsum = 0.;
@@ -151,6 +162,37 @@ public class MultivariateGaussianModel implements EMClusterModel<NumberVector, E
     System.arraycopy(nmea, 0, mean, 0, nmea.length);
   }
 
+  @Override
+  public MultivariateGaussianModel newPartialE() {
+    return new MultivariateGaussianModel(mean.length);
+  }
+
+  @Override
+  public void mergeE(EMClusterModel<NumberVector, EMModel> partial) {
+    final MultivariateGaussianModel other = (MultivariateGaussianModel) partial;
+    if(!(other.wsum > 0)) {
+      return;
+    }
+    final int dim = mean.length;
+    final double nwsum = wsum + other.wsum;
+    final double f = other.wsum / nwsum, g = wsum * f;
+    for(int i = 0; i < dim; i++) {
+      nmea[i] = other.mean[i] - mean[i]; // Difference of the means
+    }
+    // Update the lower half of the covariance matrix, c.f. updateE
+    for(int i = 0; i < dim; i++) {
+      final double[] cov_i = covariance[i], ocov_i = other.covariance[i];
+      final double delta_i = nmea[i] * g;
+      for(int j = 0; j <= i; j++) {
+        cov_i[j] += ocov_i[j] + delta_i * nmea[j];
+      }
+    }
+    for(int i = 0; i < dim; i++) {
+      mean[i] += nmea[i] * f;
+    }
+    wsum = nwsum;
+  }
+
   @Override
   public void finalizeEStep(double weight, double prior) {
     final int dim = covariance.length;
@@ -0,0 +1,635 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.hierarchical;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import elki.Algorithm;
+import elki.data.ModifiableHyperBoundingBox;
+import elki.data.NumberVector;
+import elki.data.type.TypeInformation;
+import elki.data.type.TypeUtil;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableDBIDDataStore;
+import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.ids.ArrayDBIDs;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDUtil;
+import elki.database.relation.Relation;
+import elki.distance.SpatialPrimitiveDistance;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.logging.Logging;
+import elki.logging.progress.FiniteProgress;
+import elki.utilities.datastructures.heap.DoubleLongHeap;
+import elki.utilities.datastructures.heap.DoubleLongMinHeap;
+import elki.utilities.datastructures.unionfind.WeightedQuickUnionInteger;
+import elki.utilities.documentation.Reference;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.IntParameter;
+import elki.utilities.optionhandling.parameters.ObjectParameter;
+
+/**
+ * HDBSCAN* using a dual-tree Borůvka algorithm to build the minimum spanning
+ * tree of the mutual reachability graph.
+ * <p>
+ * In contrast to {@link HDBSCANLinearMemory}, which uses Prim's algorithm and
+ * hence always computes a quadratic number of distances, this variant builds
+ * a kd-tree on the data, computes the core distances with kd-tree kNN queries,
+ * and then merges components using Borůvka rounds. In each round, a dual-tree
+ * traversal finds the shortest mutual reachability edge leaving every
+ * component, pruning pairs of nodes that belong to the same component, or
+ * where the minimum distance of the bounding boxes (or the minimum core
+ * distance in either node) exceeds the best candidate edge found so far.
+ * On low-dimensional data, this needs only a small fraction of the distance
+ * computations.
+ * <p>
+ * Because a bounding box based tree is used, this requires a
+ * {@link SpatialPrimitiveDistance} such as the Euclidean distance. The result
+ * is the same pointer representation as produced by the other HDBSCAN
+ * variants, and can hence be used with
+ * {@link elki.clustering.hierarchical.extraction.HDBSCANHierarchyExtraction}.
+ * <p>
+ * References:
+ * <p>
+ * W. B. March, P. Ram, A. G. Gray<br>
+ * Fast Euclidean Minimum Spanning Tree: Algorithm, Analysis, and
+ * Applications<br>
+ * Proc. 16th ACM SIGKDD Int. Conf. Knowledge Discovery and Data Mining
+ * <p>
+ * L. McInnes, J. Healy<br>
+ * Accelerated Hierarchical Density Based Clustering<br>
+ * IEEE Int. Conf. Data Mining Workshops (ICDMW)
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @has - - - PointerDensityHierarchyRepresentationResult
+ *
+ * @param <O> Vector type
+ */
+@Reference(authors = "W. B. March, P. Ram, A. G. Gray", //
+    title = "Fast Euclidean Minimum Spanning Tree: Algorithm, Analysis, and Applications", //
+    booktitle = "Proc. 16th ACM SIGKDD Int. Conf. Knowledge Discovery and Data Mining", //
+    url = "https://doi.org/10.1145/1835804.1835882", //
+    bibkey = "DBLP:conf/kdd/MarchRG10")
+@Reference(authors = "L. McInnes, J. Healy", //
+    title = "Accelerated Hierarchical Density Based Clustering", //
+    booktitle = "IEEE Int. Conf. Data Mining Workshops (ICDMW)", //
+    url = "https://doi.org/10.1109/ICDMW.2017.12", //
+    bibkey = "DBLP:conf/icdm/McInnesH17")
+public class BoruvkaHDBSCAN<O extends NumberVector> extends AbstractHDBSCAN<O> implements HierarchicalClusteringAlgorithm {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(BoruvkaHDBSCAN.class);
+
+  /**
+   * Maximum number of points in a kd-tree leaf.
+   */
+  private static final int LEAF_SIZE = 16;
+
+  /**
+   * Spatial distance function.
+   */
+  protected SpatialPrimitiveDistance<? super O> spatialDistance;
+
+  /**
+   * Constructor.
+   *
+   * @param distance Distance function
+   * @param minPts Minimum number of points for density
+   */
+  public BoruvkaHDBSCAN(SpatialPrimitiveDistance<? super O> distance, int minPts) {
+    super(distance, minPts);
+    this.spatialDistance = distance;
+  }
+
+  @Override
+  public TypeInformation[] getInputTypeRestriction() {
+    return TypeUtil.array(distance.getInputTypeRestriction());
+  }
+
+  /**
+   * Run the algorithm
+   *
+   * @param relation Relation
+   * @return Clustering hierarchy
+   */
+  public PointerDensityHierarchyRepresentationResult run(Relation<O> relation) {
+    // We need array addressing later.
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    Instance inst = new Instance(relation, ids);
+    // 1. Compute the core distances
+    WritableDoubleDataStore coredists = inst.computeCoreDistances();
+    // 2. Build spanning tree.
+    DoubleLongHeap heap = new DoubleLongMinHeap(Math.max(1, ids.size() - 1));
+    inst.boruvka(heap);
+    // Storage for pointer representation:
+    WritableDBIDDataStore pi = DataStoreUtil.makeDBIDStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_STATIC);
+    WritableDoubleDataStore lambda = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_STATIC, Double.POSITIVE_INFINITY);
+    convertToPointerRepresentation(ids, heap, pi, lambda);
+
+    return new PointerDensityHierarchyRepresentationResult(ids, pi, lambda, distance.isSquared(), coredists);
+  }
+
+  /**
+   * Instance for a single data set, with the kd-tree and the component state
+   * of the Borůvka algorithm.
+   * <p>
+   * Points are addressed by their position in the tree order; {@link #perm}
+   * maps them back to the offsets in the DBID array. Nodes are numbered in
+   * preorder, so every child has a larger index than its parent.
+   *
+   * @author Erich Schubert
+   */
+  private class Instance {
+    /**
+     * Object ids.
+     */
+    ArrayDBIDs ids;
+
+    /**
+     * Vectors, in tree order.
+     */
+    ArrayList<O> vecs;
+
+    /**
+     * Map from tree positions to DBID array offsets.
+     */
+    int[] perm;
+
+    /**
+     * Core distances, in tree order.
+     */
+    double[] core;
+
+    /**
+     * Node ranges: start (inclusive) and end (exclusive).
+     */
+    int[] nstart, nend;
+
+    /**
+     * Right child of each node, or -1 for leaves. The left child is always the
+     * next node.
+     */
+    int[] nright;
+
+    /**
+     * Bounding boxes of the nodes.
+     */
+    ModifiableHyperBoundingBox[] nbox;
+
+    /**
+     * Minimum core distance within each node.
+     */
+    double[] nmincore;
+
+    /**
+     * Number of nodes.
+     */
+    int numnodes;
+
+    /**
+     * Component of each point (root in the union-find).
+     */
+    int[] comp;
+
+    /**
+     * Component of each node, or -1 if mixed.
+     */
+    int[] ncomp;
+
+    /**
+     * Upper bound on the best candidate edge of all points in a node.
+     */
+    double[] nbound;
+
+    /**
+     * Best candidate edge of each component.
+     */
+    double[] best;
+
+    /**
+     * Endpoints of the best candidate edge of each component.
+     */
+    int[] bestfrom, bestto;
+
+    /**
+     * Constructor, builds the kd-tree.
+     *
+     * @param relation Data relation
+     * @param ids Object ids
+     */
+    Instance(Relation<O> relation, ArrayDBIDs ids) {
+      this.ids = ids;
+      final int n = ids.size();
+      ArrayList<O> data = new ArrayList<>(n);
+      perm = new int[n];
+      for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+        data.add(relation.get(it));
+        perm[it.getOffset()] = it.getOffset();
+      }
+      final int cap = (n << 2) / LEAF_SIZE + 2;
+      nstart = new int[cap];
+      nend = new int[cap];
+      nright = new int[cap];
+      nbox = new ModifiableHyperBoundingBox[cap];
+      if(n > 0) {
+        buildTree(data, 0, n);
+      }
+      vecs = new ArrayList<>(n);
+      for(int i = 0; i < n; i++) {
+        vecs.add(data.get(perm[i]));
+      }
+    }
+
+    /**
+     * Build a kd-tree node, splitting at the median of the widest dimension.
+     *
+     * @param data Data, by DBID offset
+     * @param start Range start (inclusive)
+     * @param end Range end (exclusive)
+     * @return Node number
+     */
+    private int buildTree(ArrayList<O> data, int start, int end) {
+      final int node = numnodes++;
+      final int dim = data.get(perm[start]).getDimensionality();
+      double[] min = new double[dim], max = new double[dim];
+      Arrays.fill(min, Double.POSITIVE_INFINITY);
+      Arrays.fill(max, Double.NEGATIVE_INFINITY);
+      for(int i = start; i < end; i++) {
+        final O v = data.get(perm[i]);
+        for(int d = 0; d < dim; d++) {
+          final double x = v.doubleValue(d);
+          min[d] = x < min[d] ? x : min[d];
+          max[d] = x > max[d] ? x : max[d];
+        }
+      }
+      nstart[node] = start;
+      nend[node] = end;
+      nbox[node] = new ModifiableHyperBoundingBox(min, max);
+      int sdim = 0;
+      for(int d = 1; d < dim; d++) {
+        if(max[d] - min[d] > max[sdim] - min[sdim]) {
+          sdim = d;
+        }
+      }
+      if(end - start <= LEAF_SIZE || !(max[sdim] > min[sdim])) {
+        nright[node] = -1;
+        return node;
+      }
+      final int mid = (start + end) >>> 1;
+      select(data, start, end, mid, sdim);
+      buildTree(data, start, mid);
+      nright[node] = buildTree(data, mid, end);
+      return node;
+    }
+
+    /**
+     * Partially sort the permutation (quickselect), such that position k holds
+     * the k-th smallest value in the given dimension.
+     *
+     * @param data Data, by DBID offset
+     * @param start Range start (inclusive)
+     * @param end Range end (exclusive)
+     * @param k Target position
+     * @param d Dimension
+     */
+    private void select(ArrayList<O> data, int start, int end, int k, int d) {
+      int lo = start, hi = end - 1;
+      while(lo < hi) {
+        final double pivot = data.get(perm[(lo + hi) >>> 1]).doubleValue(d);
+        int i = lo, j = hi;
+        while(i <= j) {
+          while(data.get(perm[i]).doubleValue(d) < pivot) {
+            i++;
+          }
+          while(data.get(perm[j]).doubleValue(d) > pivot) {
+            j--;
+          }
+          if(i <= j) {
+            final int tmp = perm[i];
+            perm[i++] = perm[j];
+            perm[j--] = tmp;
+          }
+        }
+        if(k <= j) {
+          hi = j;
+        }
+        else if(k >= i) {
+          lo = i;
+        }
+        else {
+          return;
+        }
+      }
+    }
+
+    /**
+     * Compute the core distances using kd-tree kNN queries.
+     *
+     * @return Core distances
+     */
+    WritableDoubleDataStore computeCoreDistances() {
+      final int n = ids.size(), k = Math.min(minPts, n);
+      core = new double[n];
+      FiniteProgress cprog = LOG.isVerbose() ? new FiniteProgress("Computing core sizes", n, LOG) : null;
+      double[] knn = new double[k];
+      for(int p = 0; p < n; p++) {
+        Arrays.fill(knn, Double.POSITIVE_INFINITY);
+        knnSearch(0, vecs.get(p), knn);
+        core[p] = knn[k - 1];
+        LOG.incrementProcessed(cprog);
+      }
+      LOG.ensureCompleted(cprog);
+      // Minimum core distance per node, children before parents:
+      nmincore = new double[numnodes];
+      for(int node = numnodes - 1; node >= 0; node--) {
+        if(nright[node] < 0) {
+          double m = Double.POSITIVE_INFINITY;
+          for(int i = nstart[node]; i < nend[node]; i++) {
+            m = core[i] < m ? core[i] : m;
+          }
+          nmincore[node] = m;
+        }
+        else {
+          nmincore[node] = Math.min(nmincore[node + 1], nmincore[nright[node]]);
+        }
+      }
+      WritableDoubleDataStore coredists = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_DB);
+      DBIDArrayIter it = ids.iter();
+      for(int p = 0; p < n; p++) {
+        coredists.putDouble(it.seek(perm[p]), core[p]);
+      }
+      return coredists;
+    }
+
+    /**
+     * kNN search in the kd-tree, with a sorted array of distances.
+     *
+     * @param node Current node
+     * @param q Query vector
+     * @param knn Sorted kNN distances (output)
+     */
+    private void knnSearch(int node, O q, double[] knn) {
+      final int last = knn.length - 1;
+      if(nright[node] < 0) {
+        for(int i = nstart[node]; i < nend[node]; i++) {
+          final double d = spatialDistance.distance(q, vecs.get(i));
+          if(d < knn[last]) {
+            int j = last;
+            for(; j > 0 && knn[j - 1] > d; j--) {
+              knn[j] = knn[j - 1];
+            }
+            knn[j] = d;
+          }
+        }
+        return;
+      }
+      final int l = node + 1, r = nright[node];
+      final double dl = spatialDistance.minDist(q, nbox[l]);
+      final double dr = spatialDistance.minDist(q, nbox[r]);
+      if(dl <= dr) {
+        if(dl <= knn[last]) {
+          knnSearch(l, q, knn);
+        }
+        if(dr <= knn[last]) {
+          knnSearch(r, q, knn);
+        }
+      }
+      else {
+        if(dr <= knn[last]) {
+          knnSearch(r, q, knn);
+        }
+        if(dl <= knn[last]) {
+          knnSearch(l, q, knn);
+        }
+      }
+    }
+
+    /**
+     * Build the minimum spanning tree of the mutual reachability graph.
+     *
+     * @param heap Output heap of edges
+     */
+    void boruvka(DoubleLongHeap heap) {
+      final int n = ids.size();
+      WeightedQuickUnionInteger uf = new WeightedQuickUnionInteger();
+      for(int i = 0; i < n; i++) {
+        uf.nextIndex(1);
+      }
+      comp = new int[n];
+      ncomp = new int[numnodes];
+      nbound = new double[numnodes];
+      best = new double[n];
+      bestfrom = new int[n];
+      bestto = new int[n];
+      FiniteProgress mprog = LOG.isVerbose() ? new FiniteProgress("Computing minimum spanning tree (n-1 edges)", Math.max(0, n - 1), LOG) : null;
+      int components = n;
+      while(components > 1) {
+        updateComponents(uf);
+        Arrays.fill(best, Double.POSITIVE_INFINITY);
+        Arrays.fill(nbound, Double.POSITIVE_INFINITY);
+        dualTree(0, 0);
+        int added = 0;
+        for(int c = 0; c < n; c++) {
+          if(comp[c] != c || best[c] == Double.POSITIVE_INFINITY) {
+            continue;
+          }
+          final int a = uf.find(bestfrom[c]), b = uf.find(bestto[c]);
+          if(a != b) {
+            uf.union(a, b);
+            final int i = perm[bestfrom[c]], j = perm[bestto[c]];
+            heap.add(best[c], (((long) i) << 31) | j);
+            ++added;
+            LOG.incrementProcessed(mprog);
+          }
+        }
+        if(added == 0) {
+          throw new IllegalStateException("No edge between " + components + " components found. Are there infinite distances in the data set?");
+        }
+        components -= added;
+      }
+      LOG.ensureCompleted(mprog);
+    }
+
+    /**
+     * Update the component labels of points and nodes.
+     *
+     * @param uf Union-find
+     */
+    private void updateComponents(WeightedQuickUnionInteger uf) {
+      for(int p = 0; p < comp.length; p++) {
+        comp[p] = uf.find(p);
+      }
+      for(int node = numnodes - 1; node >= 0; node--) {
+        if(nright[node] < 0) {
+          int c = comp[nstart[node]];
+          for(int i = nstart[node] + 1; i < nend[node] && c >= 0; i++) {
+            c = comp[i] == c ? c : -1;
+          }
+          ncomp[node] = c;
+        }
+        else {
+          final int c = ncomp[node + 1];
+          ncomp[node] = c == ncomp[nright[node]] ? c : -1;
+        }
+      }
+    }
+
+    /**
+     * Dual-tree traversal to find the best edge leaving each component.
+     *
+     * @param q Query node
+     * @param r Reference node
+     */
+    private void dualTree(int q, int r) {
+      // Both nodes are entirely in the same component:
+      if(ncomp[q] >= 0 && ncomp[q] == ncomp[r]) {
+        return;
+      }
+      // Lower bound of the mutual reachability distance:
+      if(lowerBound(q, r) >= nbound[q]) {
+        return;
+      }
+      final int qr = nright[q], rr = nright[r];
+      if(qr < 0) {
+        if(rr < 0) {
+          baseCase(q, r);
+          return;
+        }
+        dualTreeOrdered(q, r + 1, rr);
+        return;
+      }
+      if(rr < 0) {
+        dualTree(q + 1, r);
+        dualTree(qr, r);
+      }
+      else {
+        dualTreeOrdered(q + 1, r + 1, rr);
+        dualTreeOrdered(qr, r + 1, rr);
+      }
+      nbound[q] = Math.max(nbound[q + 1], nbound[qr]);
+    }
+
+    /**
+     * Visit the closer of two reference nodes first.
+     *
+     * @param q Query node
+     * @param r1 First reference node
+     * @param r2 Second reference node
+     */
+    private void dualTreeOrdered(int q, int r1, int r2) {
+      if(spatialDistance.minDist(nbox[q], nbox[r1]) <= spatialDistance.minDist(nbox[q], nbox[r2])) {
+        dualTree(q, r1);
+        dualTree(q, r2);
+      }
+      else {
+        dualTree(q, r2);
+        dualTree(q, r1);
+      }
+    }
+
+    /**
+     * Lower bound of the mutual reachability distance of two nodes.
+     *
+     * @param q First node
+     * @param r Second node
+     * @return Lower bound
+     */
+    private double lowerBound(int q, int r) {
+      final double c = Math.max(nmincore[q], nmincore[r]);
+      final double d = spatialDistance.minDist(nbox[q], nbox[r]);
+      return d > c ? d : c;
+    }
+
+    /**
+     * Compare all pairs of points in two leaf nodes.
+     *
+     * @param q Query leaf
+     * @param r Reference leaf
+     */
+    private void baseCase(int q, int r) {
+      final int qe = nend[q], rs = nstart[r], re = nend[r];
+      double bound = 0;
+      for(int i = nstart[q]; i < qe; i++) {
+        final int ci = comp[i];
+        final O vi = vecs.get(i);
+        for(int j = rs; j < re; j++) {
+          if(comp[j] == ci) {
+            continue;
+          }
+          final double c = core[i] > core[j] ? core[i] : core[j];
+          if(c >= best[ci]) {
+            continue;
+          }
+          final double d = spatialDistance.distance(vi, vecs.get(j));
+          final double mrd = d > c ? d : c;
+          if(mrd < best[ci]) {
+            best[ci] = mrd;
+            bestfrom[ci] = i;
+            bestto[ci] = j;
+          }
+        }
+        bound = best[ci] > bound ? best[ci] : bound;
+      }
+      nbound[q] = bound;
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class
+   *
+   * @author Erich Schubert
+   *
+   * @hidden
+   *
+   * @param <O> Vector type
+   */
+  public static class Par<O extends NumberVector> extends AbstractHDBSCAN.Par<O> {
+    /**
+     * Spatial distance function.
+     */
+    protected SpatialPrimitiveDistance<? super O> spatialDistance;
+
+    @Override
+    public void configure(Parameterization config) {
+      new ObjectParameter<SpatialPrimitiveDistance<? super O>>(Algorithm.Utils.DISTANCE_FUNCTION_ID, SpatialPrimitiveDistance.class, EuclideanDistance.class) //
+          .grab(config, x -> distance = spatialDistance = x);
+      new IntParameter(MIN_PTS_ID) //
+          .addConstraint(CommonConstraints.GREATER_THAN_ONE_INT) //
+          .grab(config, x -> minPts = x);
+    }
+
+    @Override
+    public BoruvkaHDBSCAN<O> make() {
+      return new BoruvkaHDBSCAN<>(spatialDistance, minPts);
+    }
+  }
+}
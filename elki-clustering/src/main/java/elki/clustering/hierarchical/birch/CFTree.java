@@ -22,15 +22,26 @@ package elki.clustering.hierarchical.birch;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import elki.data.NumberVector;
-import elki.database.ids.DBIDIter;
+import elki.data.type.TypeUtil;
+import elki.database.ids.ArrayDBIDs;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDUtil;
 import elki.database.ids.DBIDs;
 import elki.database.relation.Relation;
+import elki.datasource.bundle.BundleMeta;
+import elki.datasource.bundle.BundleStreamSource;
 import elki.logging.Logging;
 import elki.logging.progress.FiniteProgress;
+import elki.logging.progress.IndefiniteProgress;
+import elki.parallel.ParallelCore;
 import elki.utilities.datastructures.iterator.Iter;
 import elki.utilities.documentation.Reference;
+import elki.utilities.exceptions.AbortException;
 import elki.utilities.io.FormatUtil;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.OptionID;
@@ -166,7 +177,6 @@ public class CFTree {
    * Rebuild the CFTree to condense it to approximately half the size.
    */
   protected void rebuildTree() {
-    final int dim = root.getDimensionality();
     double t = estimateThreshold(root) / leaves;
     t *= t;
     // Never decrease the threshold.
@@ -175,24 +185,68 @@ public class CFTree {
 
     LeafIterator iter = new LeafIterator(root); // Will keep the old root.
     assert (iter.valid());
-    ClusteringFeature first = iter.get();
-
+    root = null;
     leaves = 0;
-    // Make a new root node:
-    root = new TreeNode(dim, capacity);
-    root.children[0] = first;
-    root.addToStatistics(first);
-    ++leaves;
-    for(iter.advance(); iter.valid(); iter.advance()) {
-      TreeNode other = insert(root, iter.get());
-      // Handle root overflow:
-      if(other != null) {
-        TreeNode newnode = new TreeNode(dim, capacity);
-        newnode.addToStatistics(newnode.children[0] = root);
-        newnode.addToStatistics(newnode.children[1] = other);
-        root = newnode;
+    for(; iter.valid(); iter.advance()) {
+      insert(iter.get());
+    }
+  }
+
+  /**
+   * Insert a leaf entry (e.g., from another tree) into the tree.
+   * <p>
+   * The entry may be absorbed by an existing leaf entry, or become a new leaf
+   * entry of this tree, hence it must not be used elsewhere afterwards.
+   *
+   * @param leaf Leaf entry to insert
+   */
+  public void insert(ClusteringFeature leaf) {
+    final int dim = leaf.getDimensionality();
+    // No root created yet:
+    if(root == null) {
+      root = new TreeNode(dim, capacity);
+      root.children[0] = leaf;
+      root.addToStatistics(leaf);
+      ++leaves;
+      return;
+    }
+    TreeNode other = insert(root, leaf);
+    // Handle root overflow:
+    if(other != null) {
+      TreeNode newnode = new TreeNode(dim, capacity);
+      newnode.addToStatistics(newnode.children[0] = root);
+      newnode.addToStatistics(newnode.children[1] = other);
+      root = newnode;
+    }
+  }
+
+  /**
+   * Merge another tree into this tree, by reinserting its leaf entries.
+   * <p>
+   * The threshold of the merged tree is the larger of both thresholds, and the
+   * tree is rebuilt with an increased threshold whenever it exceeds the
+   * maximum number of leaves. The other tree must not be used afterwards, as
+   * its leaf entries are reused.
+   *
+   * @param other Other tree
+   * @param maxleaves Maximum number of leaves
+   */
+  public void merge(CFTree other, double maxleaves) {
+    thresholdsq = other.thresholdsq > thresholdsq ? other.thresholdsq : thresholdsq;
+    if(other.root == null) {
+      return;
+    }
+    for(LeafIterator iter = other.leafIterator(); iter.valid(); iter.advance()) {
+      insert(iter.get());
+      if(leaves > maxleaves) {
+        if(LOG.isVerbose()) {
+          LOG.verbose("Compacting CF-tree.");
+        }
+        rebuildTree();
       }
     }
+    other.root = null;
+    other.leaves = 0;
   }
 
   private double estimateThreshold(TreeNode current) {
@@ -598,6 +652,11 @@ public class CFTree {
    * @author Erich Schubert
    */
   public static class Factory {
+    /**
+     * Minimum number of objects per partition for parallel construction.
+     */
+    private static final int MIN_PARTITION_SIZE = 10000;
+
     /**
      * BIRCH distance function to use
      */
@@ -642,29 +701,150 @@ public class CFTree {
 
     /**
      * Make a new tree.
+     * <p>
+     * On large data sets, independent trees are built on partitions of the
+     * data in parallel, and then merged by reinserting their leaf entries.
      *
      * @param ids DBIDs to insert
      * @param relation Data relation
      * @return New tree
      */
     public CFTree newTree(DBIDs ids, Relation<? extends NumberVector> relation) {
-      CFTree tree = new CFTree(distance, absorption, threshold, branchingFactor);
-      final double max = maxleaves <= 1 ? maxleaves * ids.size() : maxleaves;
-      FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Building tree", relation.size(), LOG) : null;
-      for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
-        tree.insert(relation.get(it));
-        if(tree.leaves > max) {
-          if(LOG.isVerbose()) {
-            LOG.verbose("Compacting CF-tree.");
+      return newTree(ids, relation, ParallelCore.getCore().getParallelism());
+    }
+
+    /**
+     * Make a new tree, using at most the given number of partitions.
+     *
+     * @param ids DBIDs to insert
+     * @param relation Data relation
+     * @param parallelism Maximum number of partitions
+     * @return New tree
+     */
+    CFTree newTree(DBIDs ids, Relation<? extends NumberVector> relation, int parallelism) {
+      final ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
+      final int size = aids.size();
+      final double max = maxleaves <= 1 ? maxleaves * size : maxleaves;
+      FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Building tree", size, LOG) : null;
+      ParallelCore core = ParallelCore.getCore();
+      core.connect();
+      try {
+        final int numparts = Math.max(1, Math.min(parallelism, size / MIN_PARTITION_SIZE));
+        if(numparts == 1) {
+          CFTree tree = buildPartition(aids, 0, size, relation, max, prog);
+          LOG.ensureCompleted(prog);
+          return tree;
+        }
+        List<Future<CFTree>> futures = new ArrayList<>(numparts);
+        for(int p = 0; p < numparts; p++) {
+          final int start = (int) ((long) size * p / numparts), end = (int) ((long) size * (p + 1) / numparts);
+          futures.add(core.submit(() -> buildPartition(aids, start, end, relation, max, prog)));
+        }
+        CFTree tree = null;
+        for(Future<CFTree> f : futures) {
+          CFTree part = f.get();
+          if(tree == null) {
+            tree = part;
+          }
+          else {
+            tree.merge(part, max);
           }
-          tree.rebuildTree();
         }
+        LOG.ensureCompleted(prog);
+        return tree;
+      }
+      catch(ExecutionException e) {
+        throw new RuntimeException("Processor execution failed.", e);
+      }
+      catch(InterruptedException e) {
+        throw new RuntimeException("Parallel execution interrupted.");
+      }
+      finally {
+        core.disconnect();
+      }
+    }
+
+    /**
+     * Build a tree on a partition of the data.
+     *
+     * @param ids DBIDs to insert
+     * @param start First offset
+     * @param end End offset (exclusive)
+     * @param relation Data relation
+     * @param max Maximum number of leaves
+     * @param prog Progress (may be {@code null})
+     * @return New tree
+     */
+    private CFTree buildPartition(ArrayDBIDs ids, int start, int end, Relation<? extends NumberVector> relation, double max, FiniteProgress prog) {
+      CFTree tree = new CFTree(distance, absorption, threshold, branchingFactor);
+      for(DBIDArrayIter it = ids.iter().seek(start); it.getOffset() < end; it.advance()) {
+        insert(tree, relation.get(it), max);
         LOG.incrementProcessed(prog);
       }
-      LOG.ensureCompleted(prog);
       return tree;
     }
 
+    /**
+     * Make a new tree from a stream of vectors, without materializing the
+     * data. This requires an absolute maximum number of leaves.
+     * <p>
+     * This is library API for callers that process data too large to load
+     * into a database; the BIRCH algorithms themselves always work on a
+     * relation.
+     *
+     * @param source Stream source, containing a number vector column
+     * @return New tree
+     */
+    public CFTree newTree(BundleStreamSource source) {
+      if(maxleaves <= 1) {
+        throw new AbortException("Streaming requires an absolute maximum number of leaves.");
+      }
+      CFTree tree = new CFTree(distance, absorption, threshold, branchingFactor);
+      IndefiniteProgress prog = LOG.isVerbose() ? new IndefiniteProgress("Building tree") : null;
+      int col = -1;
+      stream: while(true) {
+        switch(source.nextEvent()){
+        case END_OF_STREAM:
+          break stream;
+        case META_CHANGED:
+          BundleMeta meta = source.getMeta();
+          col = -1;
+          for(int i = 0; i < meta.size() && col < 0; i++) {
+            col = TypeUtil.NUMBER_VECTOR_FIELD.isAssignableFromType(meta.get(i)) ? i : -1;
+          }
+          continue;
+        case NEXT_OBJECT:
+          if(col < 0) {
+            throw new AbortException("The stream does not contain a number vector column.");
+          }
+          insert(tree, (NumberVector) source.data(col), maxleaves);
+          LOG.incrementProcessed(prog);
+        }
+      }
+      LOG.setCompleted(prog);
+      if(tree.root == null) {
+        throw new AbortException("The stream did not contain any objects.");
+      }
+      return tree;
+    }
+
+    /**
+     * Insert a vector, and rebuild the tree if it has too many leaves.
+     *
+     * @param tree Tree
+     * @param nv Vector to insert
+     * @param max Maximum number of leaves
+     */
+    private static void insert(CFTree tree, NumberVector nv, double max) {
+      tree.insert(nv);
+      if(tree.leaves > max) {
+        if(LOG.isVerbose()) {
+          LOG.verbose("Compacting CF-tree.");
+        }
+        tree.rebuildTree();
+      }
+    }
+
     /**
      * Parameterization class for CFTrees.
      *
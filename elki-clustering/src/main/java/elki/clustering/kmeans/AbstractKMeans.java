@@ -343,7 +343,7 @@ public abstract class AbstractKMeans<V extends NumberVector, M extends Model> im
     /**
      * Cluster means.
      */
-    double[][] means;
+    protected double[][] means;
 
     /**
      * Store the elements per cluster.
@@ -753,7 +753,7 @@ public abstract class AbstractKMeans<V extends NumberVector, M extends Model> im
      *
      * @return Logger
      */
-    abstract Logging getLogger();
+    protected abstract Logging getLogger();
   }
 
   /**
@@ -20,6 +20,12 @@
  */
 package elki.clustering.kmeans;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 import elki.clustering.kmeans.initialization.KMeansInitialization;
 import elki.clustering.kmeans.quality.KMeansQualityMeasure;
 import elki.data.Clustering;
@@ -30,15 +36,27 @@ import elki.database.relation.Relation;
 import elki.distance.NumberVectorDistance;
 import elki.logging.Logging;
 import elki.logging.progress.FiniteProgress;
+import elki.parallel.ParallelCore;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.ChainedParameterization;
+import elki.utilities.optionhandling.parameterization.ListParameterization;
+import elki.utilities.optionhandling.parameterization.MergedParameterization;
 import elki.utilities.optionhandling.parameterization.Parameterization;
 import elki.utilities.optionhandling.parameters.IntParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
+import elki.utilities.optionhandling.parameters.RandomParameter;
+import elki.utilities.random.RandomFactory;
 
 /**
  * Run K-Means multiple times, and keep the best run.
+ * <p>
+ * When configured with one k-means instance per trial, the trials are run
+ * concurrently. Each instance then uses its own random generator derived from
+ * the random seed with {@link RandomFactory#split}, and the best result is
+ * chosen in the order of the trials, so the result is the same as when running
+ * the trials one after another.
  *
  * @author Stephan Baier
  * @author Erich Schubert
@@ -66,6 +84,11 @@ public class BestOfMultipleKMeans<V extends NumberVector, M extends MeanModel> i
    */
   private KMeans<V, M> innerkMeans;
 
+  /**
+   * Independent instances for concurrent trials, may be {@code null}.
+   */
+  private List<KMeans<V, M>> trialkMeans;
+
   /**
    * Quality measure which should be used.
    */
@@ -85,6 +108,17 @@ public class BestOfMultipleKMeans<V extends NumberVector, M extends MeanModel> i
     this.qualityMeasure = qualityMeasure;
   }
 
+  /**
+   * Constructor for concurrent trials.
+   *
+   * @param trialkMeans Independent K-Means instances, one for each trial
+   * @param qualityMeasure Quality measure
+   */
+  public BestOfMultipleKMeans(List<KMeans<V, M>> trialkMeans, KMeansQualityMeasure<? super V> qualityMeasure) {
+    this(trialkMeans.size(), trialkMeans.get(0), qualityMeasure);
+    this.trialkMeans = trialkMeans.size() > 1 ? trialkMeans : null;
+  }
+
   @Override
   public TypeInformation[] getInputTypeRestriction() {
     return innerkMeans.getInputTypeRestriction();
@@ -94,7 +128,17 @@ public class BestOfMultipleKMeans<V extends NumberVector, M extends MeanModel> i
   public Clustering<M> run(Relation<V> relation) {
     @SuppressWarnings("unchecked")
     NumberVectorDistance<? super NumberVector> df = (NumberVectorDistance<? super NumberVector>) innerkMeans.getDistance();
+    return trialkMeans != null ? runConcurrent(relation, df) : runSequential(relation, df);
+  }
 
+  /**
+   * Run the trials one after another.
+   *
+   * @param relation Data relation
+   * @param df Distance function
+   * @return Best clustering
+   */
+  private Clustering<M> runSequential(Relation<V> relation, NumberVectorDistance<? super NumberVector> df) {
     Clustering<M> bestResult = null;
     double bestCost = Double.NaN;
     FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("K-means iterations", trials, LOG) : null;
@@ -115,6 +159,52 @@ public class BestOfMultipleKMeans<V extends NumberVector, M extends MeanModel> i
     return bestResult;
   }
 
+  /**
+   * Run the trials concurrently, on independent instances.
+   *
+   * @param relation Data relation
+   * @param df Distance function
+   * @return Best clustering
+   */
+  private Clustering<M> runConcurrent(Relation<V> relation, NumberVectorDistance<? super NumberVector> df) {
+    Clustering<M> bestResult = null;
+    double bestCost = Double.NaN;
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("K-means iterations", trials, LOG) : null;
+    ParallelCore core = ParallelCore.getCore();
+    core.connect();
+    try {
+      List<Future<Clustering<M>>> futures = new ArrayList<>(trials);
+      for(KMeans<V, M> kmeans : trialkMeans) {
+        futures.add(core.submit(() -> kmeans.run(relation)));
+      }
+      // Collect in order of the trials, to break ties deterministically
+      for(int i = 0; i < trials; i++) {
+        Clustering<M> currentCandidate = futures.get(i).get();
+        double currentCost = qualityMeasure.quality(currentCandidate, df, relation);
+        if(LOG.isVerbose()) {
+          LOG.verbose("Cost of candidate " + i + ": " + currentCost);
+        }
+
+        if(qualityMeasure.isBetter(currentCost, bestCost)) {
+          bestResult = currentCandidate;
+          bestCost = currentCost;
+        }
+        LOG.incrementProcessed(prog);
+      }
+    }
+    catch(ExecutionException e) {
+      throw new RuntimeException("Processor execution failed.", e);
+    }
+    catch(InterruptedException e) {
+      throw new RuntimeException("Parallel execution interrupted.");
+    }
+    finally {
+      core.disconnect();
+    }
+    LOG.ensureCompleted(prog);
+    return bestResult;
+  }
+
   @Override
   public NumberVectorDistance<? super V> getDistance() {
     return innerkMeans.getDistance();
@@ -122,16 +212,22 @@ public class BestOfMultipleKMeans<V extends NumberVector, M extends MeanModel> i
 
   @Override
   public void setK(int k) {
-    innerkMeans.setK(k);
+    for(KMeans<V, M> kmeans : trialkMeans != null ? trialkMeans : Arrays.asList(innerkMeans)) {
+      kmeans.setK(k);
+    }
   }
 
   @Override
   public void setDistance(NumberVectorDistance<? super V> distance) {
-    innerkMeans.setDistance(distance);
+    for(KMeans<V, M> kmeans : trialkMeans != null ? trialkMeans : Arrays.asList(innerkMeans)) {
+      kmeans.setDistance(distance);
+    }
   }
 
   @Override
   public void setInitializer(KMeansInitialization init) {
+    // A shared initializer is not safe for concurrent use: run sequentially.
+    trialkMeans = null;
     innerkMeans.setInitializer(init);
   }
 
@@ -172,6 +268,16 @@ public class BestOfMultipleKMeans<V extends NumberVector, M extends MeanModel> i
      */
     protected KMeans<V, M> kMeansVariant;
 
+    /**
+     * Independent instances, one for each trial.
+     */
+    protected List<KMeans<V, M>> trialVariants;
+
+    /**
+     * Random generator factory.
+     */
+    protected RandomFactory random;
+
     /**
      * Quality measure.
      */
@@ -182,15 +288,35 @@ public class BestOfMultipleKMeans<V extends NumberVector, M extends MeanModel> i
       new IntParameter(TRIALS_ID) //
           .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
           .grab(config, x -> trials = x);
-      new ObjectParameter<KMeans<V, M>>(KMEANS_ID, KMeans.class) //
-          .grab(config, x -> kMeansVariant = x);
+      // Consume the seed here, to derive one random generator for each trial
+      new RandomParameter(KMeans.SEED_ID).grab(config, x -> random = x);
+      ObjectParameter<KMeans<V, M>> kMeansP = new ObjectParameter<>(KMEANS_ID, KMeans.class);
+      if(config.grab(kMeansP) && trials > 0 && random != null) {
+        RandomFactory[] rnds = random.split(trials);
+        MergedParameterization merged = new MergedParameterization(config);
+        trialVariants = new ArrayList<>(trials);
+        for(int i = 0; i < trials; i++) {
+          merged.rewind();
+          ChainedParameterization combinedConfig = new ChainedParameterization(new ListParameterization() //
+              .addParameter(KMeans.SEED_ID, rnds[i]), merged);
+          combinedConfig.errorsTo(config);
+          KMeans<V, M> kmeans = i == 0 ? kMeansP.instantiateClass(combinedConfig) : kMeansP.instantiateCopy(combinedConfig);
+          if(kmeans == null) {
+            break; // Given as instance, or failed.
+          }
+          trialVariants.add(kmeans);
+        }
+        kMeansVariant = trialVariants.isEmpty() ? null : trialVariants.get(0);
+        trialVariants = trialVariants.size() == trials ? trialVariants : null;
+      }
       new ObjectParameter<KMeansQualityMeasure<V>>(QUALITYMEASURE_ID, KMeansQualityMeasure.class) //
           .grab(config, x -> qualityMeasure = x);
     }
 
     @Override
     public BestOfMultipleKMeans<V, M> make() {
-      return new BestOfMultipleKMeans<>(trials, kMeansVariant, qualityMeasure);
+      return trialVariants != null ? new BestOfMultipleKMeans<>(trialVariants, qualityMeasure) : //
+          new BestOfMultipleKMeans<>(trials, kMeansVariant, qualityMeasure);
     }
   }
 }
@@ -0,0 +1,566 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.kmeans;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Random;
+
+import elki.clustering.kmeans.initialization.KMeansInitialization;
+import elki.data.Clustering;
+import elki.data.NumberVector;
+import elki.data.model.KMeansModel;
+import elki.data.type.SimpleTypeInformation;
+import elki.data.type.TypeUtil;
+import elki.database.ids.ArrayDBIDs;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDRange;
+import elki.database.ids.DBIDUtil;
+import elki.database.relation.MaterializedRelation;
+import elki.database.relation.Relation;
+import elki.datasource.bundle.BundleMeta;
+import elki.datasource.bundle.BundleStreamSource;
+import elki.datasource.parser.NumberVectorLabelParser;
+import elki.datasource.parser.StreamingParser;
+import elki.distance.NumberVectorDistance;
+import elki.logging.Logging;
+import elki.logging.progress.IndefiniteProgress;
+import elki.logging.statistics.DoubleStatistic;
+import elki.logging.statistics.LongStatistic;
+import elki.utilities.documentation.Reference;
+import elki.utilities.documentation.Title;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.io.FileUtil;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.FileParameter;
+import elki.utilities.optionhandling.parameters.IntParameter;
+import elki.utilities.optionhandling.parameters.ObjectParameter;
+import elki.utilities.optionhandling.parameters.RandomParameter;
+import elki.utilities.random.RandomFactory;
+
+/**
+ * Mini-batch k-means, which updates the means using small random samples of
+ * the data only, with a per-center learning rate that decreases with the
+ * number of points assigned to the center so far.
+ * <p>
+ * The iterations stop when an exponentially smoothed estimate of the inertia
+ * (the mean squared deviation of the batch points) did not improve for a
+ * number of batches, or the maximum number of batches is reached. A final
+ * pass assigns all points to their nearest center.
+ * <p>
+ * With {@link #runStream}, the algorithm can also be run over a
+ * {@link BundleStreamSource} such as a streaming parser, in a single pass and
+ * without materializing the relation. As there is no relation, only the
+ * cluster centers are returned then. When a stream file is configured, the
+ * centers are fitted on the stream, and the relation is only used for the
+ * final assignment.
+ * <p>
+ * Reference:
+ * <p>
+ * D. Sculley<br>
+ * Web-scale k-means clustering<br>
+ * Proc. 19th Int. Conf. on World Wide Web (WWW 2010)
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @navassoc - - - KMeansModel
+ *
+ * @param <V> vector type to use
+ */
+@Title("Mini-Batch k-Means")
+@Reference(authors = "D. Sculley", //
+    title = "Web-scale k-means clustering", //
+    booktitle = "Proc. 19th Int. Conf. on World Wide Web (WWW 2010)", //
+    url = "https://doi.org/10.1145/1772690.1772862", //
+    bibkey = "DBLP:conf/www/Sculley10")
+public class MiniBatchKMeans<V extends NumberVector> extends AbstractKMeans<V, KMeansModel> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(MiniBatchKMeans.class);
+
+  /**
+   * Smoothing window (in batches) when the data size is unknown.
+   */
+  private static final int STREAM_WINDOW = 10;
+
+  /**
+   * Number of points in each batch.
+   */
+  protected int batchsize;
+
+  /**
+   * Number of batches without improvement before stopping.
+   */
+  protected int patience;
+
+  /**
+   * Random generator for sampling the batches.
+   */
+  protected RandomFactory rnd;
+
+  /**
+   * File to fit the centers on, may be {@code null}.
+   */
+  protected URI stream;
+
+  /**
+   * Parser for the stream file.
+   */
+  protected StreamingParser parser;
+
+  /**
+   * Constructor.
+   *
+   * @param distance distance function
+   * @param k k parameter
+   * @param maxiter Maximum number of batches
+   * @param initializer Initialization method
+   * @param batchsize Batch size
+   * @param patience Number of batches without improvement before stopping
+   * @param rnd Random generator for sampling the batches
+   */
+  public MiniBatchKMeans(NumberVectorDistance<? super V> distance, int k, int maxiter, KMeansInitialization initializer, int batchsize, int patience, RandomFactory rnd) {
+    this(distance, k, maxiter, initializer, batchsize, patience, rnd, null, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distance distance function
+   * @param k k parameter
+   * @param maxiter Maximum number of batches
+   * @param initializer Initialization method
+   * @param batchsize Batch size
+   * @param patience Number of batches without improvement before stopping
+   * @param rnd Random generator for sampling the batches
+   * @param stream File to fit the centers on, may be {@code null}
+   * @param parser Parser for the stream file
+   */
+  public MiniBatchKMeans(NumberVectorDistance<? super V> distance, int k, int maxiter, KMeansInitialization initializer, int batchsize, int patience, RandomFactory rnd, URI stream, StreamingParser parser) {
+    super(distance, k, maxiter, initializer);
+    this.batchsize = batchsize;
+    this.patience = patience;
+    this.rnd = rnd;
+    this.stream = stream;
+    this.parser = parser;
+  }
+
+  @Override
+  public Clustering<KMeansModel> run(Relation<V> relation) {
+    if(stream != null) {
+      return runStream(relation);
+    }
+    Instance instance = new Instance(relation, distance, initialMeans(relation), batchsize, patience);
+    instance.sampleFrom(DBIDUtil.ensureArray(relation.getDBIDs()), rnd.getSingleThreadedRandom());
+    instance.run(maxiter);
+    return instance.buildResult();
+  }
+
+  /**
+   * Fit the centers on the configured stream file, then assign the objects of
+   * the relation to the nearest center.
+   *
+   * @param relation Relation to assign
+   * @return Clustering result
+   */
+  protected Clustering<KMeansModel> runStream(Relation<V> relation) {
+    double[][] means;
+    try (InputStream in = new BufferedInputStream(FileUtil.open(stream))) {
+      parser.initStream(in);
+      means = runStream(parser);
+    }
+    catch(IOException e) {
+      throw new AbortException("IO error reading the stream file.", e);
+    }
+    finally {
+      parser.cleanup();
+    }
+    Instance instance = new Instance(relation, distance, means, batchsize, patience);
+    instance.assignToNearestCluster();
+    return instance.buildResult();
+  }
+
+  /**
+   * Run mini-batch k-means in a single pass over a stream of vectors, without
+   * materializing the data. The first batch is used for initialization.
+   *
+   * @param source Stream source, containing a number vector column
+   * @return Cluster centers
+   */
+  public double[][] runStream(BundleStreamSource source) {
+    NumberVector[] batch = new NumberVector[Math.max(batchsize, k)];
+    BundleMeta meta = null;
+    int col = -1, size = 0, iteration = 0;
+    Instance instance = null;
+    IndefiniteProgress prog = LOG.isVerbose() ? new IndefiniteProgress("Mini-batches") : null;
+    stream: while(true) {
+      switch(source.nextEvent()){
+      case END_OF_STREAM:
+        break stream;
+      case META_CHANGED:
+        meta = source.getMeta();
+        col = -1;
+        for(int i = 0; i < meta.size() && col < 0; i++) {
+          col = TypeUtil.NUMBER_VECTOR_FIELD.isAssignableFromType(meta.get(i)) ? i : -1;
+        }
+        continue;
+      case NEXT_OBJECT:
+        if(col < 0) {
+          throw new AbortException("The stream does not contain a number vector column.");
+        }
+        batch[size++] = (NumberVector) source.data(col);
+        if(size < batch.length) {
+          continue;
+        }
+        if(instance == null) {
+          instance = streamInstance(meta.get(col), batch, size);
+        }
+        LOG.incrementProcessed(prog);
+        size = 0;
+        if(instance.update(batch, batch.length) || ++iteration >= maxiter) {
+          break stream;
+        }
+      }
+    }
+    if(instance == null) {
+      if(size < k) {
+        throw new AbortException("The stream contained less than k objects.");
+      }
+      instance = streamInstance(meta.get(col), batch, size);
+    }
+    if(size > 0) {
+      LOG.incrementProcessed(prog);
+      instance.update(batch, size);
+    }
+    LOG.setCompleted(prog);
+    instance.logStatistics();
+    return instance.means;
+  }
+
+  /**
+   * Initialize an instance for stream processing, using the first batch.
+   *
+   * @param type Vector type
+   * @param batch First batch
+   * @param size Batch size
+   * @return Instance
+   */
+  private Instance streamInstance(SimpleTypeInformation<?> type, NumberVector[] batch, int size) {
+    DBIDRange ids = DBIDUtil.generateStaticDBIDRange(size);
+    @SuppressWarnings("unchecked")
+    MaterializedRelation<NumberVector> rel = new MaterializedRelation<>((SimpleTypeInformation<NumberVector>) type, ids);
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      rel.insert(it, batch[it.getOffset()]);
+    }
+    return new Instance(rel, distance, initializer.chooseInitialMeans(rel, k, distance), batchsize, patience);
+  }
+
+  /**
+   * Inner instance, storing state for a single data set.
+   *
+   * @author Erich Schubert
+   */
+  protected static class Instance extends AbstractKMeans.Instance {
+    /**
+     * Number of points in each batch.
+     */
+    int batchsize;
+
+    /**
+     * Number of batches without improvement before stopping.
+     */
+    int patience;
+
+    /**
+     * Number of points assigned to each center so far.
+     */
+    long[] counts;
+
+    /**
+     * Cluster assignment of the batch points.
+     */
+    int[] bassign;
+
+    /**
+     * Smoothing factor for the inertia.
+     */
+    double alpha;
+
+    /**
+     * Smoothed inertia.
+     */
+    double smoothed = Double.NaN;
+
+    /**
+     * Best smoothed inertia so far.
+     */
+    double best = Double.POSITIVE_INFINITY;
+
+    /**
+     * Number of batches without improvement.
+     */
+    int noimprove;
+
+    /**
+     * Number of batches processed.
+     */
+    int batches;
+
+    /**
+     * Object ids to sample from.
+     */
+    ArrayDBIDs ids;
+
+    /**
+     * Random generator for sampling.
+     */
+    Random random;
+
+    /**
+     * Current batch.
+     */
+    NumberVector[] batch;
+
+    /**
+     * Iterator for sampling.
+     */
+    DBIDArrayIter iter;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Relation
+     * @param df Distance function
+     * @param means Initial means
+     * @param batchsize Batch size
+     * @param patience Number of batches without improvement before stopping
+     */
+    public Instance(Relation<? extends NumberVector> relation, NumberVectorDistance<?> df, double[][] means, int batchsize, int patience) {
+      super(relation, df, means);
+      this.batchsize = batchsize;
+      this.patience = patience;
+      this.counts = new long[k];
+      this.alpha = 2. / (STREAM_WINDOW + 1);
+    }
+
+    /**
+     * Sample the batches from a data set of known size.
+     *
+     * @param ids Object ids
+     * @param random Random generator
+     */
+    protected void sampleFrom(ArrayDBIDs ids, Random random) {
+      this.ids = ids;
+      this.random = random;
+      // Smooth over approximately one pass over the data:
+      this.alpha = Math.min(1., batchsize * 2. / (ids.size() + 1.));
+    }
+
+    @Override
+    protected void run(int maxiter) {
+      final Logging log = getLogger();
+      IndefiniteProgress prog = log.isVerbose() ? new IndefiniteProgress("Mini-batches") : null;
+      for(int iteration = 1; iteration <= maxiter; iteration++) {
+        log.incrementProcessed(prog);
+        if(iterate(iteration) == 0) {
+          break;
+        }
+      }
+      log.setCompleted(prog);
+      logStatistics();
+      // Final assignment of all points:
+      assignToNearestCluster();
+    }
+
+    @Override
+    protected int iterate(int iteration) {
+      if(batch == null) {
+        batch = new NumberVector[batchsize];
+        iter = ids.iter();
+      }
+      // Sample with replacement:
+      final int n = ids.size();
+      for(int i = 0; i < batchsize; i++) {
+        batch[i] = relation.get(iter.seek(random.nextInt(n)));
+      }
+      return update(batch, batchsize) ? 0 : batchsize;
+    }
+
+    /**
+     * Process a single batch: assign all points to the nearest center first,
+     * then move each center towards its points, with a learning rate of one
+     * over the number of points assigned to the center so far.
+     *
+     * @param batch Batch of points
+     * @param size Number of points in the batch
+     * @return {@code true} when the smoothed inertia has stopped improving
+     */
+    protected boolean update(NumberVector[] batch, int size) {
+      if(bassign == null || bassign.length < size) {
+        bassign = new int[size];
+      }
+      double inertia = 0.;
+      for(int i = 0; i < size; i++) {
+        final NumberVector fv = batch[i];
+        double mindist = distance(fv, means[0]);
+        int minIndex = 0;
+        for(int j = 1; j < k; j++) {
+          double dist = distance(fv, means[j]);
+          if(dist < mindist) {
+            minIndex = j;
+            mindist = dist;
+          }
+        }
+        bassign[i] = minIndex;
+        inertia += isSquared ? mindist : (mindist * mindist);
+      }
+      for(int i = 0; i < size; i++) {
+        final int c = bassign[i];
+        final NumberVector fv = batch[i];
+        final double[] mean = means[c];
+        final double eta = 1. / ++counts[c];
+        for(int d = 0; d < mean.length; d++) {
+          mean[d] += eta * (fv.doubleValue(d) - mean[d]);
+        }
+      }
+      ++batches;
+      // Early stopping on the smoothed inertia:
+      inertia /= size;
+      smoothed = batches > 1 ? smoothed + alpha * (inertia - smoothed) : inertia;
+      if(smoothed < best) {
+        best = smoothed;
+        noimprove = 0;
+        return false;
+      }
+      return ++noimprove >= patience;
+    }
+
+    /**
+     * Log the statistics of the batch iterations.
+     */
+    protected void logStatistics() {
+      final Logging log = getLogger();
+      if(log.isStatistics()) {
+        log.statistics(new LongStatistic(key + ".batches", batches));
+        log.statistics(new DoubleStatistic(key + ".smoothed-inertia", smoothed));
+        log.statistics(new LongStatistic(key + ".batch.distance-computations", diststat));
+      }
+    }
+
+    @Override
+    protected Logging getLogger() {
+      return LOG;
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par<V extends NumberVector> extends AbstractKMeans.Par<V> {
+    /**
+     * Parameter for the batch size.
+     */
+    public static final OptionID BATCHSIZE_ID = new OptionID("kmeans.minibatch.size", "Number of points in each mini-batch.");
+
+    /**
+     * Parameter for early stopping.
+     */
+    public static final OptionID PATIENCE_ID = new OptionID("kmeans.minibatch.patience", "Stop after this many mini-batches without improvement of the smoothed inertia.");
+
+    /**
+     * Randomization seed for sampling the batches.
+     */
+    public static final OptionID SEED_ID = new OptionID("kmeans.minibatch.seed", "Random seed for sampling the mini-batches.");
+
+    /**
+     * File to fit the centers on in a single pass, instead of sampling from
+     * the relation.
+     */
+    public static final OptionID STREAM_ID = new OptionID("kmeans.minibatch.stream", "File to fit the centers on in a single streaming pass; the relation is then only used for the final assignment.");
+
+    /**
+     * Parser for the stream file.
+     */
+    public static final OptionID PARSER_ID = new OptionID("kmeans.minibatch.parser", "Parser for the stream file.");
+
+    /**
+     * Number of points in each batch.
+     */
+    protected int batchsize;
+
+    /**
+     * Number of batches without improvement before stopping.
+     */
+    protected int patience;
+
+    /**
+     * Random generator for sampling the batches.
+     */
+    protected RandomFactory rnd;
+
+    /**
+     * File to fit the centers on, may be {@code null}.
+     */
+    protected URI stream;
+
+    /**
+     * Parser for the stream file.
+     */
+    protected StreamingParser parser;
+
+    @Override
+    public void configure(Parameterization config) {
+      super.configure(config);
+      new IntParameter(BATCHSIZE_ID, 1000) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> batchsize = x);
+      new IntParameter(PATIENCE_ID, 10) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> patience = x);
+      new RandomParameter(SEED_ID).grab(config, x -> rnd = x);
+      new FileParameter(STREAM_ID, FileParameter.FileType.INPUT_FILE) //
+          .setOptional(true) //
+          .grab(config, x -> stream = x);
+      if(stream != null) {
+        new ObjectParameter<StreamingParser>(PARSER_ID, StreamingParser.class, NumberVectorLabelParser.class) //
+            .grab(config, x -> parser = x);
+      }
+    }
+
+    @Override
+    public MiniBatchKMeans<V> make() {
+      return new MiniBatchKMeans<>(distance, k, maxiter, initializer, batchsize, patience, rnd, stream, parser);
+    }
+  }
+}
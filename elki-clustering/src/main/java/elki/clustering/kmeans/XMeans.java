@@ -26,6 +26,8 @@ import static elki.math.linearalgebra.VMath.timesEquals;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import elki.clustering.kmeans.initialization.KMeansInitialization;
 import elki.clustering.kmeans.initialization.Predefined;
@@ -48,6 +50,7 @@ import elki.logging.progress.MutableProgress;
 import elki.logging.statistics.LongStatistic;
 import elki.logging.statistics.StringStatistic;
 import elki.math.MathUtil;
+import elki.parallel.ParallelCore;
 import elki.result.Metadata;
 import elki.utilities.documentation.Reference;
 import elki.utilities.optionhandling.OptionID;
@@ -55,6 +58,7 @@ import elki.utilities.optionhandling.WrongParameterValueException;
 import elki.utilities.optionhandling.constraints.CommonConstraints;
 import elki.utilities.optionhandling.parameterization.ChainedParameterization;
 import elki.utilities.optionhandling.parameterization.ListParameterization;
+import elki.utilities.optionhandling.parameterization.MergedParameterization;
 import elki.utilities.optionhandling.parameterization.Parameterization;
 import elki.utilities.optionhandling.parameters.IntParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
@@ -69,6 +73,10 @@ import elki.utilities.random.RandomFactory;
  * acceleration. Also note that kmax is not a hard threshold - the algorithm
  * can return up to 2*kmax clusters!
  * <p>
+ * When several instances of the inner k-means are given, the candidate splits
+ * are evaluated concurrently. The split centroids are still chosen in order of
+ * the clusters, so the result does not change.
+ * <p>
  * Reference:
  * <p>
  * D. Pelleg, A. Moore<br>
@@ -117,6 +125,17 @@ public class XMeans<V extends NumberVector, M extends MeanModel> extends Abstrac
    */
   Predefined splitInitializer;
 
+  /**
+   * Independent inner k-means instances for concurrent splitting, with their
+   * initializers; {@code null} when splitting sequentially.
+   */
+  private List<KMeans<V, M>> splitKMeans;
+
+  /**
+   * Initializers of the independent instances.
+   */
+  private Predefined[] splitInitializers;
+
   /**
    * Information criterion to choose the better split.
    */
@@ -135,6 +154,7 @@ public class XMeans<V extends NumberVector, M extends MeanModel> extends Abstrac
    * @param k_max k_max parameter - maximum number of result clusters
    * @param maxiter Maximum number of iterations each.
    * @param innerKMeans K-Means variant to use inside.
+   * @param initializer Initializer for the first k_min clusters
    * @param informationCriterion The information criterion used for the
    *        splitting step
    * @param random Random factory
@@ -152,6 +172,34 @@ public class XMeans<V extends NumberVector, M extends MeanModel> extends Abstrac
     this.rnd = random;
   }
 
+  /**
+   * Constructor for concurrent splitting.
+   *
+   * @param distance Distance function
+   * @param k_min k_min parameter - minimum number of result clusters
+   * @param k_max k_max parameter - maximum number of result clusters
+   * @param maxiter Maximum number of iterations each.
+   * @param splitKMeans Independent instances of the K-Means variant to use
+   *        inside, the first is also used for refining all clusters.
+   * @param initializer Initializer for the first k_min clusters
+   * @param informationCriterion The information criterion used for the
+   *        splitting step
+   * @param random Random factory
+   */
+  public XMeans(NumberVectorDistance<? super V> distance, int k_min, int k_max, int maxiter, List<KMeans<V, M>> splitKMeans, KMeansInitialization initializer, KMeansQualityMeasure<V> informationCriterion, RandomFactory random) {
+    this(distance, k_min, k_max, maxiter, splitKMeans.get(0), initializer, informationCriterion, random);
+    if(splitKMeans.size() > 1) {
+      this.splitKMeans = splitKMeans;
+      this.splitInitializers = new Predefined[splitKMeans.size()];
+      splitInitializers[0] = splitInitializer;
+      for(int i = 1; i < splitInitializers.length; i++) {
+        KMeans<V, M> kmeans = splitKMeans.get(i);
+        kmeans.setInitializer(splitInitializers[i] = new Predefined((double[][]) null));
+        kmeans.setDistance(distance);
+      }
+    }
+  }
+
   /**
    * Run the algorithm on a database and relation.
    *
@@ -176,9 +224,7 @@ public class XMeans<V extends NumberVector, M extends MeanModel> extends Abstrac
     while(clusters.size() <= k_max) {
       // Improve-Structure:
       ArrayList<Cluster<M>> nextClusters = new ArrayList<>();
-      for(Cluster<M> cluster : clusters) {
-        // Try to split this cluster:
-        List<Cluster<M>> childClusterList = splitCluster(cluster, relation);
+      for(List<Cluster<M>> childClusterList : splitClusters(clusters, relation)) {
         nextClusters.addAll(childClusterList);
         if(childClusterList.size() > 1) {
           k += childClusterList.size() - 1;
@@ -212,6 +258,65 @@ public class XMeans<V extends NumberVector, M extends MeanModel> extends Abstrac
     return result;
   }
 
+  /**
+   * Try to split every cluster, concurrently if independent inner k-means
+   * instances are available.
+   *
+   * @param clusters Clusters to split
+   * @param relation Data relation
+   * @return Result of {@link #splitCluster} for each cluster, in order
+   */
+  private List<List<Cluster<M>>> splitClusters(List<Cluster<M>> clusters, Relation<V> relation) {
+    final int size = clusters.size();
+    List<List<Cluster<M>>> results = new ArrayList<>(size);
+    if(splitKMeans == null || size == 1) {
+      for(int i = 0; i < size; i++) {
+        results.add(splitCluster(clusters.get(i), relation));
+      }
+      return results;
+    }
+    // Filled by the workers, at distinct positions.
+    for(int i = 0; i < size; i++) {
+      results.add(null);
+    }
+    // Choose the random split centroids in order, as in the sequential case.
+    double[][][] centroids = new double[size][][];
+    for(int i = 0; i < size; i++) {
+      Cluster<M> cluster = clusters.get(i);
+      centroids[i] = cluster.size() > 1 ? splitCentroid(cluster, relation) : null;
+    }
+    final int workers = Math.min(splitKMeans.size(), size);
+    ParallelCore core = ParallelCore.getCore();
+    core.connect();
+    try {
+      List<Future<?>> futures = new ArrayList<>(workers);
+      for(int w = 0; w < workers; w++) {
+        final KMeans<V, M> kmeans = splitKMeans.get(w);
+        final Predefined init = splitInitializers[w];
+        final int start = w;
+        futures.add(core.submit(() -> {
+          for(int i = start; i < size; i += workers) {
+            results.set(i, splitCluster(clusters.get(i), centroids[i], relation, kmeans, init));
+          }
+          return null;
+        }));
+      }
+      for(Future<?> future : futures) {
+        future.get();
+      }
+    }
+    catch(ExecutionException e) {
+      throw new RuntimeException("Processor execution failed.", e);
+    }
+    catch(InterruptedException e) {
+      throw new RuntimeException("Parallel execution interrupted.");
+    }
+    finally {
+      core.disconnect();
+    }
+    return results;
+  }
+
   /**
    * Conditionally splits the clusters based on the information criterion.
    *
@@ -221,6 +326,21 @@ public class XMeans<V extends NumberVector, M extends MeanModel> extends Abstrac
    *         clusters when split improves clustering.
    */
   protected List<Cluster<M>> splitCluster(Cluster<M> parentCluster, Relation<V> relation) {
+    return splitCluster(parentCluster, parentCluster.size() > 1 ? splitCentroid(parentCluster, relation) : null, relation, innerKMeans, splitInitializer);
+  }
+
+  /**
+   * Conditionally splits the clusters based on the information criterion.
+   *
+   * @param parentCluster Cluster to split
+   * @param centroids Initial centroids of the split
+   * @param relation Data relation
+   * @param kmeans K-means instance to use
+   * @param init Initializer of this k-means instance
+   * @return Parent cluster when split decreases clustering quality or child
+   *         clusters when split improves clustering.
+   */
+  private List<Cluster<M>> splitCluster(Cluster<M> parentCluster, double[][] centroids, Relation<V> relation, KMeans<V, M> kmeans, Predefined init) {
     // Transform parent cluster into a clustering
     ArrayList<Cluster<M>> parentClusterList = new ArrayList<>(1);
     parentClusterList.add(parentCluster);
@@ -229,9 +349,9 @@ public class XMeans<V extends NumberVector, M extends MeanModel> extends Abstrac
       return parentClusterList;
     }
     Clustering<M> parentClustering = new Clustering<>(parentClusterList);
-    splitInitializer.setInitialMeans(splitCentroid(parentCluster, relation));
-    innerKMeans.setK(2);
-    Clustering<M> childClustering = innerKMeans.run(new ProxyView<V>(parentCluster.getIDs(), relation));
+    init.setInitialMeans(centroids);
+    kmeans.setK(2);
+    Clustering<M> childClustering = kmeans.run(new ProxyView<V>(parentCluster.getIDs(), relation));
 
     double parentEvaluation = informationCriterion.quality(parentClustering, distance, relation);
     double childrenEvaluation = informationCriterion.quality(childClustering, distance, relation);
@@ -335,6 +455,11 @@ public class XMeans<V extends NumberVector, M extends MeanModel> extends Abstrac
      */
     protected int k_min, k_max;
 
+    /**
+     * Independent instances for concurrent splitting.
+     */
+    protected List<KMeans<V, M>> splitKMeans;
+
     /**
      * Random number generator.
      */
@@ -361,16 +486,28 @@ public class XMeans<V extends NumberVector, M extends MeanModel> extends Abstrac
       new RandomParameter(SEED_ID).grab(config, x -> random = x);
       ObjectParameter<KMeans<V, M>> innerKMeansP = new ObjectParameter<>(INNER_KMEANS_ID, KMeans.class, LloydKMeans.class);
       if(config.grab(innerKMeansP)) {
-        ChainedParameterization combinedConfig = new ChainedParameterization(new ListParameterization() //
-            .addParameter(KMeans.K_ID, k_min) //
-            .addParameter(KMeans.INIT_ID, new Predefined((double[][]) null)) //
-            .addParameter(KMeans.MAXITER_ID, maxiter) //
-            // Setting the distance to null if undefined at this point will
-            // cause validation errors later. So fall back to the default.
-            .addParameter(KMeans.DISTANCE_FUNCTION_ID, distance != null ? //
-                distance : SquaredEuclideanDistance.STATIC), config);
-        combinedConfig.errorsTo(config);
-        innerKMeans = innerKMeansP.instantiateClass(combinedConfig);
+        // One instance per thread, to evaluate the splits concurrently
+        final int instances = ParallelCore.getCore().getParallelism();
+        MergedParameterization merged = new MergedParameterization(config);
+        splitKMeans = new ArrayList<>(instances);
+        for(int i = 0; i < instances; i++) {
+          merged.rewind();
+          ChainedParameterization combinedConfig = new ChainedParameterization(new ListParameterization() //
+              .addParameter(KMeans.K_ID, k_min) //
+              .addParameter(KMeans.INIT_ID, new Predefined((double[][]) null)) //
+              .addParameter(KMeans.MAXITER_ID, maxiter) //
+              // Setting the distance to null if undefined at this point will
+              // cause validation errors later. So fall back to the default.
+              .addParameter(KMeans.DISTANCE_FUNCTION_ID, distance != null ? //
+                  distance : SquaredEuclideanDistance.STATIC), merged);
+          combinedConfig.errorsTo(config);
+          KMeans<V, M> kmeans = i == 0 ? innerKMeansP.instantiateClass(combinedConfig) : innerKMeansP.instantiateCopy(combinedConfig);
+          if(kmeans == null) {
+            break; // Given as instance, or failed.
+          }
+          splitKMeans.add(kmeans);
+        }
+        innerKMeans = splitKMeans.isEmpty() ? null : splitKMeans.get(0);
       }
 
       new ObjectParameter<KMeansQualityMeasure<V>>(INFORMATION_CRITERION_ID, KMeansQualityMeasure.class, BayesianInformationCriterionXMeans.class) //
@@ -379,7 +516,9 @@ public class XMeans<V extends NumberVector, M extends MeanModel> extends Abstrac
 
     @Override
     public XMeans<V, M> make() {
-      return new XMeans<>(distance, k_min, k_max, maxiter, innerKMeans, initializer, informationCriterion, random);
+      return splitKMeans != null && !splitKMeans.isEmpty() ? //
+          new XMeans<>(distance, k_min, k_max, maxiter, splitKMeans, initializer, informationCriterion, random) : //
+          new XMeans<>(distance, k_min, k_max, maxiter, innerKMeans, initializer, informationCriterion, random);
     }
   }
 }
@@ -78,7 +78,7 @@ public class YinYangKMeans<V extends NumberVector> extends AbstractKMeans<V, KMe
   /**
    * Number of cluster center groups t
    */
-  private int t;
+  protected int t;
 
   /**
    * Constructor.
@@ -177,112 +177,14 @@ public class YinYangKMeans<V extends NumberVector> extends AbstractKMeans<V, KMe
      * @return a list of groups containing mean indices.
      */
     private int[][] groupKMeans(int t) {
-      if(t <= 1) {
-        Arrays.fill(glabel, 0);
-        return new int[][] { MathUtil.sequence(0, means.length) };
-      }
       long before = diststat;
-      double[][] gmean = new double[t][];
-      int[] gweight = new int[t];
-      initialGroupAssignment(t, gmean, gweight);
-      // At most five iterations of center refinement:
-      for(int it = 1; it <= GROUP_KMEANS_MAXITER; it++) {
-        if(!updateGroupAssignment(t, gmean, gweight)) {
-          break;
-        }
-      }
-      // Invert to static groupid -> means table
-      int[][] meanGroups = new int[t][];
-      for(int i = 0; i < t; i++) {
-        meanGroups[i] = new int[gweight[i]];
-        for(int j = 0, p = 0; j < k; j++) {
-          if(glabel[j] == i) {
-            meanGroups[i][p++] = j;
-          }
-        }
-      }
+      int[][] meanGroups = groupMeans(this, means, glabel, t);
       if(getLogger().isStatistics()) {
         getLogger().statistics(new LongStatistic(key + ".yinyang-grouping.distance-computations", diststat - before));
       }
       return meanGroups;
     }
 
-    /**
-     * Initial k-means assignment for centers to groups.
-     *
-     * @param t Number of groups
-     * @param scratch Scratch space for means
-     * @param gweight group weights
-     */
-    private void initialGroupAssignment(int t, double[][] scratch, int[] gweight) {
-      // Initial means
-      for(int i = 0; i < t; i++) {
-        scratch[i] = means[i].clone();
-        glabel[i] = i;
-      }
-      Arrays.fill(gweight, 1);
-      // remaining points
-      for(int i = t; i < k; i++) {
-        final double[] cur = means[i];
-        int best = 0;
-        double bestd = distance(cur, means[0]);
-        for(int j = 1; j < t; j++) {
-          double d = distance(cur, means[j]);
-          if(d < bestd) {
-            bestd = d;
-            best = j;
-          }
-        }
-        VMath.plusEquals(scratch[best], cur);
-        glabel[i] = best;
-        ++gweight[best];
-      }
-      // scale centers
-      for(int i = 0; i < t; i++) {
-        VMath.timesEquals(scratch[i], 1. / gweight[i]);
-      }
-    }
-
-    /**
-     * Perform one step of Voronoi refinement.
-     *
-     * @param t Number of groups
-     * @param gmeans current group means
-     * @param gweight Group weight
-     * @return true if changed
-     */
-    private boolean updateGroupAssignment(int t, double[][] gmeans, int[] gweight) {
-      boolean changed = false;
-      for(int i = 0; i < t; i++) {
-        Arrays.fill(sums[i], 0);
-      }
-      Arrays.fill(gweight, 0);
-      for(int i = 0; i < k; i++) {
-        final double[] cur = means[i];
-        final int prev = glabel[i];
-        double bestd = distance(cur, gmeans[0]);
-        int best = 0;
-        for(int j = 1; j < t; j++) {
-          double d = distance(cur, gmeans[j]);
-          if(d < bestd || (d == bestd && j == prev)) {
-            best = j;
-            bestd = d;
-          }
-        }
-        VMath.plusEquals(sums[best], cur);
-        ++gweight[best];
-        glabel[i] = best;
-        changed |= best != prev;
-      }
-      // Scale centers
-      for(int i = 0; i < t; i++) {
-        if(gweight[i] > 0) {
-          VMath.overwriteTimes(gmeans[i], sums[i], 1. / gweight[i]);
-        }
-      }
-      return changed;
-    }
-
     @Override
     protected int iterate(int iteration) {
       if(iteration == 1) {
@@ -464,11 +366,132 @@ public class YinYangKMeans<V extends NumberVector> extends AbstractKMeans<V, KMe
     }
 
     @Override
-    Logging getLogger() {
+    protected Logging getLogger() {
       return LOG;
     }
   }
 
+  /**
+   * Group the cluster centers into t groups, using a few iterations of k-means
+   * on the centers.
+   *
+   * @param inst Instance, used for computing distances
+   * @param means Cluster centers
+   * @param glabel Output: group label of each center
+   * @param t Number of groups
+   * @return a list of groups containing mean indices.
+   */
+  public static int[][] groupMeans(AbstractKMeans.Instance inst, double[][] means, int[] glabel, int t) {
+    final int k = means.length;
+    if(t <= 1) {
+      Arrays.fill(glabel, 0);
+      return new int[][] { MathUtil.sequence(0, k) };
+    }
+    double[][] gmean = new double[t][], sums = new double[t][means[0].length];
+    int[] gweight = new int[t];
+    initialGroupAssignment(inst, means, glabel, gmean, gweight);
+    // At most five iterations of center refinement:
+    for(int it = 1; it <= GROUP_KMEANS_MAXITER; it++) {
+      if(!updateGroupAssignment(inst, means, glabel, gmean, gweight, sums)) {
+        break;
+      }
+    }
+    // Invert to static groupid -> means table
+    int[][] meanGroups = new int[t][];
+    for(int i = 0; i < t; i++) {
+      meanGroups[i] = new int[gweight[i]];
+      for(int j = 0, p = 0; j < k; j++) {
+        if(glabel[j] == i) {
+          meanGroups[i][p++] = j;
+        }
+      }
+    }
+    return meanGroups;
+  }
+
+  /**
+   * Initial k-means assignment for centers to groups.
+   *
+   * @param inst Instance, used for computing distances
+   * @param means Cluster centers
+   * @param glabel Group labels
+   * @param scratch Scratch space for means
+   * @param gweight group weights
+   */
+  private static void initialGroupAssignment(AbstractKMeans.Instance inst, double[][] means, int[] glabel, double[][] scratch, int[] gweight) {
+    final int t = scratch.length, k = means.length;
+    // Initial means
+    for(int i = 0; i < t; i++) {
+      scratch[i] = means[i].clone();
+      glabel[i] = i;
+    }
+    Arrays.fill(gweight, 1);
+    // remaining points
+    for(int i = t; i < k; i++) {
+      final double[] cur = means[i];
+      int best = 0;
+      double bestd = inst.distance(cur, means[0]);
+      for(int j = 1; j < t; j++) {
+        double d = inst.distance(cur, means[j]);
+        if(d < bestd) {
+          bestd = d;
+          best = j;
+        }
+      }
+      VMath.plusEquals(scratch[best], cur);
+      glabel[i] = best;
+      ++gweight[best];
+    }
+    // scale centers
+    for(int i = 0; i < t; i++) {
+      VMath.timesEquals(scratch[i], 1. / gweight[i]);
+    }
+  }
+
+  /**
+   * Perform one step of Voronoi refinement.
+   *
+   * @param inst Instance, used for computing distances
+   * @param means Cluster centers
+   * @param glabel Group labels
+   * @param gmeans current group means
+   * @param gweight Group weight
+   * @param sums Scratch space for group sums
+   * @return true if changed
+   */
+  private static boolean updateGroupAssignment(AbstractKMeans.Instance inst, double[][] means, int[] glabel, double[][] gmeans, int[] gweight, double[][] sums) {
+    final int t = gmeans.length, k = means.length;
+    boolean changed = false;
+    for(int i = 0; i < t; i++) {
+      Arrays.fill(sums[i], 0);
+    }
+    Arrays.fill(gweight, 0);
+    for(int i = 0; i < k; i++) {
+      final double[] cur = means[i];
+      final int prev = glabel[i];
+      double bestd = inst.distance(cur, gmeans[0]);
+      int best = 0;
+      for(int j = 1; j < t; j++) {
+        double d = inst.distance(cur, gmeans[j]);
+        if(d < bestd || (d == bestd && j == prev)) {
+          best = j;
+          bestd = d;
+        }
+      }
+      VMath.plusEquals(sums[best], cur);
+      ++gweight[best];
+      glabel[i] = best;
+      changed |= best != prev;
+    }
+    // Scale centers
+    for(int i = 0; i < t; i++) {
+      if(gweight[i] > 0) {
+        VMath.overwriteTimes(gmeans[i], sums[i], 1. / gweight[i]);
+      }
+    }
+    return changed;
+  }
+
   @Override
   protected Logging getLogger() {
     return LOG;
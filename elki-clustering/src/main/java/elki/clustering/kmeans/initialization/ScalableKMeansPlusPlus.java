@@ -0,0 +1,453 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.kmeans.initialization;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import elki.data.NumberVector;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableDoubleDataStore;
+import elki.database.datastore.WritableIntegerDataStore;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDRef;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DBIDVar;
+import elki.database.ids.DBIDs;
+import elki.database.relation.Relation;
+import elki.distance.NumberVectorDistance;
+import elki.logging.Logging;
+import elki.logging.statistics.LongStatistic;
+import elki.parallel.Executor;
+import elki.parallel.ParallelExecutor;
+import elki.parallel.processor.Processor;
+import elki.utilities.documentation.Reference;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.DoubleParameter;
+import elki.utilities.optionhandling.parameters.IntParameter;
+import elki.utilities.random.RandomFactory;
+
+/**
+ * Scalable k-means++ (k-means||) initialization for k-means.
+ * <p>
+ * Rather than choosing one center per pass over the data as in
+ * {@link KMeansPlusPlus}, each round samples every point independently with a
+ * probability proportional to its squared distance to the current candidates,
+ * oversampling by a factor of ℓ = oversampling · k. After a few rounds, the
+ * candidates are weighted by the number of points closest to them, and
+ * reduced to k centers with weighted k-means++.
+ * <p>
+ * The distance updates of each round are run in parallel.
+ * <p>
+ * Reference:
+ * <p>
+ * B. Bahmani, B. Moseley, A. Vattani, R. Kumar, S. Vassilvitskii<br>
+ * Scalable K-Means++<br>
+ * Proc. VLDB Endowment 5(7)
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+@Reference(authors = "B. Bahmani, B. Moseley, A. Vattani, R. Kumar, S. Vassilvitskii", //
+    title = "Scalable K-Means++", //
+    booktitle = "Proc. VLDB Endowment 5(7)", //
+    url = "https://doi.org/10.14778/2180912.2180915", //
+    bibkey = "DBLP:journals/pvldb/BahmaniMVKV12")
+public class ScalableKMeansPlusPlus extends AbstractKMeansInitialization {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(ScalableKMeansPlusPlus.class);
+
+  /**
+   * Oversampling factor, relative to k.
+   */
+  protected double oversampling;
+
+  /**
+   * Number of sampling rounds.
+   */
+  protected int rounds;
+
+  /**
+   * Constructor.
+   *
+   * @param rnd Random generator.
+   * @param oversampling Oversampling factor, relative to k
+   * @param rounds Number of sampling rounds
+   */
+  public ScalableKMeansPlusPlus(RandomFactory rnd, double oversampling, int rounds) {
+    super(rnd);
+    this.oversampling = oversampling;
+    this.rounds = rounds;
+  }
+
+  @Override
+  public double[][] chooseInitialMeans(Relation<? extends NumberVector> relation, int k, NumberVectorDistance<?> distance) {
+    if(relation.size() < k) {
+      throw new IllegalArgumentException("Cannot choose k=" + k + " means from N=" + relation.size() + " < k objects.");
+    }
+    DBIDs ids = relation.getDBIDs();
+    Random random = rnd.getSingleThreadedRandom();
+    WritableDoubleDataStore weights = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, Double.POSITIVE_INFINITY);
+    WritableIntegerDataStore nearest = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, -1);
+    List<NumberVector> cands = new ArrayList<>();
+    cands.add(relation.get(DBIDUtil.randomSample(ids, random)));
+    UpdateProcessor proc = new UpdateProcessor(relation, distance, cands, weights, nearest);
+    double cost = proc.update(0);
+    final double ell = oversampling * k;
+    for(int round = 0; round < rounds || cands.size() < k; round++) {
+      if(!(cost > 0) || cost > Double.MAX_VALUE) {
+        break; // All points chosen, or numeric problems
+      }
+      final int before = cands.size();
+      final double scale = ell / cost;
+      for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+        final double w = weights.doubleValue(it);
+        if(w > 0 && random.nextDouble() < w * scale) {
+          cands.add(relation.get(it));
+        }
+      }
+      if(cands.size() == before) {
+        if(round >= rounds) {
+          break;
+        }
+        continue;
+      }
+      cost = proc.update(before);
+    }
+    if(cands.size() < k) {
+      LOG.warning("Could not choose enough candidates - too few unique data points?");
+      while(cands.size() < k) {
+        cands.add(relation.get(DBIDUtil.randomSample(ids, random)));
+      }
+    }
+    // Weight candidates by the number of points closest to them:
+    double[] cweight = new double[cands.size()];
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      final int c = nearest.intValue(it);
+      if(c >= 0) {
+        cweight[c] += 1;
+      }
+    }
+    weights.destroy();
+    nearest.destroy();
+    long diststat = proc.diststat;
+    List<NumberVector> means = new ArrayList<>(k);
+    diststat += weightedKMeansPlusPlus(cands, cweight, k, distance, random, means);
+    if(LOG.isStatistics()) {
+      LOG.statistics(new LongStatistic(ScalableKMeansPlusPlus.class.getName() + ".candidates", cands.size()));
+      LOG.statistics(new LongStatistic(ScalableKMeansPlusPlus.class.getName() + ".distance-computations", diststat));
+    }
+    return unboxVectors(means);
+  }
+
+  /**
+   * Reduce the weighted candidates to k means with k-means++.
+   *
+   * @param cands Candidates
+   * @param cweight Candidate weights
+   * @param k Number of means
+   * @param distance Distance function
+   * @param random Random generator
+   * @param means Output means
+   * @return Number of distance computations
+   */
+  protected static long weightedKMeansPlusPlus(List<NumberVector> cands, double[] cweight, int k, NumberVectorDistance<?> distance, Random random, List<NumberVector> means) {
+    final int m = cands.size();
+    double[] mind = new double[m];
+    // Choose the first mean by weight only:
+    int c = choose(cweight, null, random);
+    NumberVector latest = cands.get(c);
+    means.add(latest);
+    for(int i = 0; i < m; i++) {
+      mind[i] = i == c ? 0. : distance.distance(latest, cands.get(i));
+    }
+    long diststat = m;
+    while(means.size() < k) {
+      c = choose(cweight, mind, random);
+      latest = cands.get(c);
+      means.add(latest);
+      mind[c] = 0.;
+      for(int i = 0; i < m; i++) {
+        if(mind[i] > 0) {
+          // Distances are assumed to be squared already
+          double d = distance.distance(latest, cands.get(i));
+          mind[i] = d < mind[i] ? d : mind[i];
+          ++diststat;
+        }
+      }
+    }
+    return diststat;
+  }
+
+  /**
+   * Choose a candidate with probability proportional to its weight.
+   *
+   * @param weight Candidate weights
+   * @param mind Distance factors, may be {@code null}
+   * @param random Random generator
+   * @return Chosen candidate
+   */
+  private static int choose(double[] weight, double[] mind, Random random) {
+    double sum = 0.;
+    for(int i = 0; i < weight.length; i++) {
+      sum += mind != null ? weight[i] * mind[i] : weight[i];
+    }
+    if(!(sum > Double.MIN_NORMAL)) {
+      LOG.warning("Could not choose a reasonable mean - to few unique data points?");
+      // Choose any candidate not yet chosen:
+      for(int i = 0; i < weight.length; i++) {
+        if(mind == null || mind[i] > 0) {
+          return i;
+        }
+      }
+      return random.nextInt(weight.length);
+    }
+    double r = random.nextDouble() * sum;
+    int last = -1;
+    for(int i = 0; i < weight.length; i++) {
+      final double w = mind != null ? weight[i] * mind[i] : weight[i];
+      if(w > 0) {
+        last = i;
+        if((r -= w) <= 0) {
+          return i;
+        }
+      }
+    }
+    return last; // Rare case, due to floating math
+  }
+
+  /**
+   * Processor to update the distances to the nearest candidate, in parallel.
+   *
+   * @author Erich Schubert
+   */
+  private static class UpdateProcessor implements Processor {
+    /**
+     * Data relation.
+     */
+    Relation<? extends NumberVector> relation;
+
+    /**
+     * Distance function.
+     */
+    NumberVectorDistance<?> distance;
+
+    /**
+     * Candidates.
+     */
+    List<NumberVector> cands;
+
+    /**
+     * Distance to the nearest candidate.
+     */
+    WritableDoubleDataStore weights;
+
+    /**
+     * Nearest candidate.
+     */
+    WritableIntegerDataStore nearest;
+
+    /**
+     * First new candidate.
+     */
+    int start;
+
+    /**
+     * Partial results of the instances.
+     */
+    List<Instance> partials = new ArrayList<>();
+
+    /**
+     * Number of distance computations.
+     */
+    long diststat;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Data relation
+     * @param distance Distance function
+     * @param cands Candidates
+     * @param weights Distance to the nearest candidate
+     * @param nearest Nearest candidate
+     */
+    UpdateProcessor(Relation<? extends NumberVector> relation, NumberVectorDistance<?> distance, List<NumberVector> cands, WritableDoubleDataStore weights, WritableIntegerDataStore nearest) {
+      this.relation = relation;
+      this.distance = distance;
+      this.cands = cands;
+      this.weights = weights;
+      this.nearest = nearest;
+    }
+
+    /**
+     * Update the distances with the new candidates.
+     *
+     * @param start First new candidate
+     * @return New cost (sum of weights)
+     */
+    double update(int start) {
+      this.start = start;
+      partials.clear();
+      ParallelExecutor.run(relation.getDBIDs(), this);
+      // Sum up in a fixed order, to be independent of thread timing:
+      partials.sort((a, b) -> DBIDUtil.compare(a.first, b.first));
+      double cost = 0.;
+      for(Instance instance : partials) {
+        cost += instance.cost;
+        diststat += instance.diststat;
+      }
+      return cost;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance(cands.subList(start, cands.size()), start);
+    }
+
+    @Override
+    public synchronized void cleanup(Processor.Instance inst) {
+      Instance instance = (Instance) inst;
+      if(instance.first.isSet()) {
+        partials.add(instance);
+      }
+    }
+
+    /**
+     * Instance to process part of the data set.
+     *
+     * @author Erich Schubert
+     */
+    private class Instance implements Processor.Instance {
+      /**
+       * New candidates.
+       */
+      List<NumberVector> cands;
+
+      /**
+       * Index of the first new candidate.
+       */
+      int start;
+
+      /**
+       * First object processed, to order the partial results.
+       */
+      DBIDVar first = DBIDUtil.newVar();
+
+      /**
+       * Partial cost.
+       */
+      double cost;
+
+      /**
+       * Number of distance computations.
+       */
+      long diststat;
+
+      /**
+       * Constructor.
+       *
+       * @param cands New candidates
+       * @param start Index of the first new candidate
+       */
+      Instance(List<NumberVector> cands, int start) {
+        this.cands = cands;
+        this.start = start;
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        if(!first.isSet()) {
+          first.set(id);
+        }
+        double w = weights.doubleValue(id);
+        if(w <= 0.) {
+          cost += w;
+          return; // Duplicate, or already chosen.
+        }
+        final NumberVector fv = relation.get(id);
+        int best = -1;
+        for(int i = 0; i < cands.size(); i++) {
+          // Distances are assumed to be squared already
+          double d = distance.distance(fv, cands.get(i));
+          if(d < w) {
+            w = d;
+            best = i;
+          }
+        }
+        diststat += cands.size();
+        if(best >= 0) {
+          weights.putDouble(id, w);
+          nearest.putInt(id, start + best);
+        }
+        cost += w;
+      }
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par extends AbstractKMeansInitialization.Par {
+    /**
+     * Oversampling factor, relative to k.
+     */
+    public static final OptionID OVERSAMPLING_ID = new OptionID("kmeans.scalable.oversampling", "Oversampling factor, relative to k, for each sampling round.");
+
+    /**
+     * Number of sampling rounds.
+     */
+    public static final OptionID ROUNDS_ID = new OptionID("kmeans.scalable.rounds", "Number of sampling rounds.");
+
+    /**
+     * Oversampling factor, relative to k.
+     */
+    protected double oversampling;
+
+    /**
+     * Number of sampling rounds.
+     */
+    protected int rounds;
+
+    @Override
+    public void configure(Parameterization config) {
+      super.configure(config);
+      new DoubleParameter(OVERSAMPLING_ID, 2.) //
+          .addConstraint(CommonConstraints.GREATER_THAN_ZERO_DOUBLE) //
+          .grab(config, x -> oversampling = x);
+      new IntParameter(ROUNDS_ID, 5) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+          .grab(config, x -> rounds = x);
+    }
+
+    @Override
+    public ScalableKMeansPlusPlus make() {
+      return new ScalableKMeansPlusPlus(rnd, oversampling, rounds);
+    }
+  }
+}
@@ -0,0 +1,490 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.kmeans.parallel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import elki.clustering.kmeans.AbstractKMeans;
+import elki.clustering.kmeans.initialization.KMeansInitialization;
+import elki.data.Clustering;
+import elki.data.DoubleVector;
+import elki.data.NumberVector;
+import elki.data.model.KMeansModel;
+import elki.database.ids.ArrayDBIDs;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.ids.DBIDUtil;
+import elki.database.relation.Relation;
+import elki.distance.NumberVectorDistance;
+import elki.distance.minkowski.SquaredEuclideanDistance;
+import elki.math.linearalgebra.VMath;
+import elki.parallel.ParallelCore;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+
+import net.jafama.FastMath;
+
+/**
+ * Abstract base class for parallel k-means variants that maintain distance
+ * bounds for every point.
+ * <p>
+ * The data set is split into contiguous blocks, and the bounds are stored in
+ * plain arrays indexed by the position of the point, such that every worker
+ * only touches the bounds of its own block. Each block accumulates the
+ * changes to the cluster sums locally; these are merged in block order after
+ * each pass, so the result does not depend on thread scheduling. Center
+ * updates and the center-center distance tables are computed sequentially
+ * between the passes, and are only read by the workers.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @param <V> Vector type
+ */
+public abstract class AbstractParallelKMeans<V extends NumberVector> extends AbstractKMeans<V, KMeansModel> {
+  /**
+   * Minimum number of points per block.
+   */
+  private static final int MIN_BLOCK_SIZE = 256;
+
+  /**
+   * Flag whether to compute the final variance statistic.
+   */
+  protected boolean varstat = false;
+
+  /**
+   * Constructor.
+   *
+   * @param distance distance function
+   * @param k k parameter
+   * @param maxiter Maxiter parameter
+   * @param initializer Initialization method
+   * @param varstat Compute the variance statistic
+   */
+  public AbstractParallelKMeans(NumberVectorDistance<? super V> distance, int k, int maxiter, KMeansInitialization initializer, boolean varstat) {
+    super(distance, k, maxiter, initializer);
+    this.varstat = varstat;
+  }
+
+  @Override
+  public Clustering<KMeansModel> run(Relation<V> relation) {
+    Instance instance = makeInstance(relation, initialMeans(relation));
+    instance.run(maxiter);
+    return instance.buildResult(varstat, relation);
+  }
+
+  /**
+   * Make the instance for a particular data set.
+   *
+   * @param relation Data relation
+   * @param means Initial means
+   * @return Instance
+   */
+  protected abstract Instance makeInstance(Relation<V> relation, double[][] means);
+
+  /**
+   * Inner instance, storing state for a single data set.
+   *
+   * @author Erich Schubert
+   */
+  protected abstract static class Instance extends AbstractKMeans.Instance {
+    /**
+     * Distance function.
+     */
+    protected final NumberVectorDistance<?> df;
+
+    /**
+     * Use the fast path for squared Euclidean distance.
+     */
+    protected final boolean fastpath;
+
+    /**
+     * Object ids, in block order.
+     */
+    protected final ArrayDBIDs ids;
+
+    /**
+     * Cluster assignment, by position in {@link #ids}.
+     */
+    protected final int[] assign;
+
+    /**
+     * Sums of clusters.
+     */
+    protected final double[][] sums;
+
+    /**
+     * Cluster sizes.
+     */
+    protected final int[] sizes;
+
+    /**
+     * Scratch space for new means.
+     */
+    protected final double[][] newmeans;
+
+    /**
+     * Distance moved by each center in the last update.
+     */
+    protected final double[] move;
+
+    /**
+     * Maximum distance moved in the last update.
+     */
+    protected double maxmove;
+
+    /**
+     * Data blocks processed by the workers.
+     */
+    protected final Block[] blocks;
+
+    /**
+     * Parallel executor core.
+     */
+    private ParallelCore core;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Relation
+     * @param df Distance function
+     * @param means Initial means
+     */
+    public Instance(Relation<? extends NumberVector> relation, NumberVectorDistance<?> df, double[][] means) {
+      super(relation, df, means);
+      this.df = df;
+      this.fastpath = df.getClass() == SquaredEuclideanDistance.class;
+      this.ids = DBIDUtil.ensureArray(relation.getDBIDs());
+      final int n = ids.size(), dim = means[0].length;
+      this.assign = new int[n];
+      this.sums = new double[k][dim];
+      this.sizes = new int[k];
+      this.newmeans = new double[k][dim];
+      this.move = new double[k];
+      final int numblocks = Math.max(1, Math.min(ParallelCore.getCore().getParallelism() << 2, n / MIN_BLOCK_SIZE));
+      this.blocks = new Block[numblocks];
+      for(int i = 0; i < numblocks; i++) {
+        blocks[i] = new Block((int) (i * (long) n / numblocks), (int) ((i + 1) * (long) n / numblocks), dim);
+      }
+    }
+
+    @Override
+    protected void run(int maxiter) {
+      core = ParallelCore.getCore();
+      core.connect();
+      try {
+        super.run(maxiter);
+      }
+      finally {
+        core.disconnect();
+      }
+      for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+        clusters.get(assign[it.getOffset()]).add(it);
+      }
+    }
+
+    @Override
+    protected Clustering<KMeansModel> buildResult(boolean varstat, Relation<? extends NumberVector> relation) {
+      // Make accessible to the outer class.
+      return super.buildResult(varstat, relation);
+    }
+
+    @Override
+    protected int iterate(int iteration) {
+      final boolean initial = iteration == 1;
+      if(!initial) {
+        updateMeans();
+      }
+      prepare(initial);
+      return processBlocks(initial);
+    }
+
+    /**
+     * Update the means from the sums, and compute how far they moved. Empty
+     * clusters keep their previous mean.
+     */
+    protected void updateMeans() {
+      double max = 0.;
+      for(int i = 0; i < k; i++) {
+        if(sizes[i] == 0) {
+          System.arraycopy(means[i], 0, newmeans[i], 0, means[i].length);
+          move[i] = 0.;
+          continue;
+        }
+        VMath.overwriteTimes(newmeans[i], sums[i], 1. / sizes[i]);
+        double d = move[i] = sqrtdistance(means[i], newmeans[i]);
+        max = d > max ? d : max;
+      }
+      maxmove = max;
+      copyMeans(newmeans, means);
+    }
+
+    /**
+     * Prepare the shared, read-only data for the next pass, such as center
+     * separation tables.
+     *
+     * @param initial Initial assignment pass
+     */
+    protected void prepare(boolean initial) {
+      // Nothing to do by default.
+    }
+
+    /**
+     * Process all blocks in parallel, then merge the block results in order.
+     *
+     * @param initial Initial assignment pass
+     * @return Number of reassigned points
+     */
+    protected int processBlocks(boolean initial) {
+      List<Future<Block>> parts = new ArrayList<>(blocks.length);
+      try {
+        for(Block block : blocks) {
+          block.initial = initial;
+          parts.add(core.submit(block));
+        }
+        for(Future<Block> fut : parts) {
+          fut.get();
+        }
+      }
+      catch(ExecutionException e) {
+        throw new RuntimeException("Processor execution failed.", e);
+      }
+      catch(InterruptedException e) {
+        throw new RuntimeException("Parallel execution interrupted.");
+      }
+      int changed = 0;
+      for(Block block : blocks) {
+        changed += block.changed;
+        diststat += block.diststat;
+        for(int i = 0; i < k; i++) {
+          if(block.touched[i]) {
+            VMath.plusEquals(sums[i], block.dsums[i]);
+            sizes[i] += block.dsizes[i];
+          }
+        }
+      }
+      return changed;
+    }
+
+    /**
+     * Initial assignment of a single point, using {@link Block#add}.
+     *
+     * @param b Block, for local aggregation
+     * @param it Point, positioned iterator
+     */
+    protected abstract void initialAssign(Block b, DBIDArrayIter it);
+
+    /**
+     * Update the bounds of a single point, and reassign it if necessary using
+     * {@link Block#reassign}.
+     *
+     * @param b Block, for local aggregation
+     * @param it Point, positioned iterator
+     */
+    protected abstract void assign(Block b, DBIDArrayIter it);
+
+    /**
+     * A contiguous block of the data, with local aggregates.
+     *
+     * @author Erich Schubert
+     */
+    protected class Block implements Callable<Block> {
+      /**
+       * Block range.
+       */
+      private final int start, end;
+
+      /**
+       * Changes to the cluster sums.
+       */
+      private final double[][] dsums;
+
+      /**
+       * Changes to the cluster sizes.
+       */
+      private final int[] dsizes;
+
+      /**
+       * Clusters modified in this block.
+       */
+      private final boolean[] touched;
+
+      /**
+       * Scratch space.
+       */
+      private double[] scratch;
+
+      /**
+       * Initial assignment pass.
+       */
+      boolean initial;
+
+      /**
+       * Number of reassigned points.
+       */
+      int changed;
+
+      /**
+       * Number of distance computations.
+       */
+      long diststat;
+
+      /**
+       * Constructor.
+       *
+       * @param start First position
+       * @param end End position (exclusive)
+       * @param dim Dimensionality
+       */
+      protected Block(int start, int end, int dim) {
+        this.start = start;
+        this.end = end;
+        this.dsums = new double[k][dim];
+        this.dsizes = new int[k];
+        this.touched = new boolean[k];
+      }
+
+      @Override
+      public Block call() {
+        for(int i = 0; i < k; i++) {
+          if(touched[i]) {
+            Arrays.fill(dsums[i], 0.);
+            dsizes[i] = 0;
+            touched[i] = false;
+          }
+        }
+        changed = 0;
+        diststat = 0;
+        DBIDArrayIter it = ids.iter().seek(start);
+        if(initial) {
+          for(; it.getOffset() < end; it.advance()) {
+            initialAssign(this, it);
+          }
+        }
+        else {
+          for(; it.getOffset() < end; it.advance()) {
+            assign(this, it);
+          }
+        }
+        return this;
+      }
+
+      /**
+       * Assign a point in the initial pass.
+       *
+       * @param i Point position
+       * @param fv Point
+       * @param c Cluster
+       */
+      public void add(int i, NumberVector fv, int c) {
+        assign[i] = c;
+        AbstractKMeans.plusEquals(dsums[c], fv);
+        ++dsizes[c];
+        touched[c] = true;
+        ++changed;
+      }
+
+      /**
+       * Move a point to a different cluster.
+       *
+       * @param i Point position
+       * @param fv Point
+       * @param from Previous cluster
+       * @param to New cluster
+       */
+      public void reassign(int i, NumberVector fv, int from, int to) {
+        assign[i] = to;
+        AbstractKMeans.plusMinusEquals(dsums[to], dsums[from], fv);
+        ++dsizes[to];
+        --dsizes[from];
+        touched[to] = touched[from] = true;
+        ++changed;
+      }
+
+      /**
+       * Get the scratch array, of at least the given size.
+       *
+       * @param size Minimum size
+       * @return Scratch array
+       */
+      public double[] scratch(int size) {
+        return scratch != null && scratch.length >= size ? scratch : (scratch = new double[size]);
+      }
+
+      /**
+       * Compute the distance (and count the distance computations).
+       *
+       * @param x Point
+       * @param y Mean
+       * @return Distance
+       */
+      public double distance(NumberVector x, double[] y) {
+        ++diststat;
+        if(fastpath) {
+          if(y.length != x.getDimensionality()) {
+            throw new IllegalArgumentException("Objects do not have the same dimensionality.");
+          }
+          double v = 0;
+          for(int i = 0; i < y.length; i++) {
+            double d = x.doubleValue(i) - y[i];
+            v += d * d;
+          }
+          return v;
+        }
+        return df.distance(x, DoubleVector.wrap(y));
+      }
+
+      /**
+       * Compute the distance (and count the distance computations).
+       * If the distance is squared, also compute the square root.
+       *
+       * @param x Point
+       * @param y Mean
+       * @return Distance
+       */
+      public double sqrtdistance(NumberVector x, double[] y) {
+        final double d = distance(x, y);
+        return isSquared ? FastMath.sqrt(d) : d;
+      }
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public abstract static class Par<V extends NumberVector> extends AbstractKMeans.Par<V> {
+    @Override
+    protected boolean needsMetric() {
+      return true;
+    }
+
+    @Override
+    public void configure(Parameterization config) {
+      super.configure(config);
+      super.getParameterVarstat(config);
+    }
+  }
+}
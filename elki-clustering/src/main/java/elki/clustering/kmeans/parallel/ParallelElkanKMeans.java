@@ -0,0 +1,157 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.kmeans.parallel;
+
+import elki.clustering.kmeans.ElkanKMeans;
+import elki.clustering.kmeans.initialization.KMeansInitialization;
+import elki.data.NumberVector;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.relation.Relation;
+import elki.distance.NumberVectorDistance;
+import elki.logging.Logging;
+
+/**
+ * Parallel version of Elkan's k-means, {@link ElkanKMeans}.
+ * <p>
+ * The center-center distance table is computed once per iteration, and shared
+ * by all workers.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @param <V> vector datatype
+ */
+public class ParallelElkanKMeans<V extends NumberVector> extends ParallelSimplifiedElkanKMeans<V> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelElkanKMeans.class);
+
+  /**
+   * Constructor.
+   *
+   * @param distance distance function
+   * @param k k parameter
+   * @param maxiter Maxiter parameter
+   * @param initializer Initialization method
+   * @param varstat Compute the variance statistic
+   */
+  public ParallelElkanKMeans(NumberVectorDistance<? super V> distance, int k, int maxiter, KMeansInitialization initializer, boolean varstat) {
+    super(distance, k, maxiter, initializer, varstat);
+  }
+
+  @Override
+  protected Instance makeInstance(Relation<V> relation, double[][] means) {
+    return new Instance(relation, distance, means);
+  }
+
+  /**
+   * Inner instance, storing state for a single data set.
+   *
+   * @author Erich Schubert
+   */
+  protected static class Instance extends ParallelSimplifiedElkanKMeans.Instance {
+    /**
+     * Separation of means.
+     */
+    double[] sep;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Relation
+     * @param df Distance function
+     * @param means Initial means
+     */
+    public Instance(Relation<? extends NumberVector> relation, NumberVectorDistance<?> df, double[][] means) {
+      super(relation, df, means);
+      sep = new double[k];
+    }
+
+    @Override
+    protected void prepare(boolean initial) {
+      super.prepare(initial);
+      if(!initial) {
+        recomputeSeperation(sep, cdist); // #1
+      }
+    }
+
+    @Override
+    protected void assign(Block b, DBIDArrayIter it) {
+      final int p = it.getOffset(), orig = assign[p];
+      double u = updateBounds(p, orig);
+      // Upper bound check (#2):
+      if(u <= sep[orig]) {
+        return;
+      }
+      boolean recompute_u = true; // Elkan's r(x)
+      NumberVector fv = null;
+      double[] l = lower[p];
+      // Check all (other) means:
+      int cur = orig;
+      for(int j = 0; j < k; j++) {
+        if(orig == j || u <= l[j] || u <= cdist[cur][j]) {
+          continue; // Condition #3 i-iii not satisfied
+        }
+        if(recompute_u) { // Need to update bound? #3a
+          fv = relation.get(it);
+          upper[p] = u = b.sqrtdistance(fv, means[cur]);
+          recompute_u = false; // Once only
+          if(u <= l[j] || u <= cdist[cur][j]) { // #3b
+            continue;
+          }
+        }
+        double dist = l[j] = b.sqrtdistance(fv, means[j]);
+        if(dist < u) {
+          cur = j;
+          u = dist;
+        }
+      }
+      // Object is to be reassigned.
+      if(cur != orig) {
+        upper[p] = u; // Remember bound.
+        b.reassign(p, fv, orig, cur);
+      }
+    }
+
+    @Override
+    protected Logging getLogger() {
+      return LOG;
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par<V extends NumberVector> extends ParallelSimplifiedElkanKMeans.Par<V> {
+    @Override
+    public ParallelElkanKMeans<V> make() {
+      return new ParallelElkanKMeans<>(distance, k, maxiter, initializer, varstat);
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.kmeans.parallel;
+
+import elki.clustering.kmeans.ExponionKMeans;
+import elki.clustering.kmeans.initialization.KMeansInitialization;
+import elki.data.NumberVector;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.relation.Relation;
+import elki.distance.NumberVectorDistance;
+import elki.logging.Logging;
+
+import net.jafama.FastMath;
+
+/**
+ * Parallel version of Newling's exponion k-means, {@link ExponionKMeans}.
+ * <p>
+ * The sorted center neighborhoods are computed once per iteration, and shared
+ * by all workers.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @param <V> vector datatype
+ */
+public class ParallelExponionKMeans<V extends NumberVector> extends ParallelHamerlyKMeans<V> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelExponionKMeans.class);
+
+  /**
+   * Constructor.
+   *
+   * @param distance distance function
+   * @param k k parameter
+   * @param maxiter Maxiter parameter
+   * @param initializer Initialization method
+   * @param varstat Compute the variance statistic
+   */
+  public ParallelExponionKMeans(NumberVectorDistance<? super V> distance, int k, int maxiter, KMeansInitialization initializer, boolean varstat) {
+    super(distance, k, maxiter, initializer, varstat);
+  }
+
+  @Override
+  protected Instance makeInstance(Relation<V> relation, double[][] means) {
+    return new Instance(relation, distance, means);
+  }
+
+  /**
+   * Inner instance, storing state for a single data set.
+   *
+   * @author Erich Schubert
+   */
+  protected static class Instance extends ParallelHamerlyKMeans.Instance {
+    /**
+     * Sorted neighbors
+     */
+    int[][] cnum;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Relation
+     * @param df Distance function
+     * @param means Initial means
+     */
+    public Instance(Relation<? extends NumberVector> relation, NumberVectorDistance<?> df, double[][] means) {
+      super(relation, df, means);
+      cnum = new int[k][k - 1];
+    }
+
+    @Override
+    protected void prepare(boolean initial) {
+      super.prepare(initial);
+      if(!initial) {
+        nearestMeans(cdist, cnum);
+      }
+    }
+
+    @Override
+    protected void assign(Block b, DBIDArrayIter it) {
+      final int p = it.getOffset(), cur = assign[p];
+      // Update the bounds by the distance moved:
+      double u = upper[p] += move[cur];
+      final double z = lower[p] -= maxmove;
+      final double sa = sep[cur];
+      if(u <= z || u <= sa) {
+        return;
+      }
+      // Update the upper bound
+      NumberVector fv = relation.get(it);
+      double curd2 = b.distance(fv, means[cur]);
+      u = upper[p] = isSquared ? FastMath.sqrt(curd2) : curd2;
+      if(u <= z || u <= sa) {
+        return;
+      }
+      double r = u + 0.5 * sa; // Our cdist are scaled 0.5
+      // Find closest center, and distance to two closest centers
+      double min1 = curd2, min2 = Double.POSITIVE_INFINITY;
+      int minIndex = cur;
+      final int[] cn = cnum[cur];
+      final double[] cd = cdist[cur];
+      for(int i = 0; i < k - 1; i++) {
+        int c = cn[i];
+        if(cd[c] > r) {
+          break;
+        }
+        double dist = b.distance(fv, means[c]);
+        if(dist < min1) {
+          minIndex = c;
+          min2 = min1;
+          min1 = dist;
+        }
+        else if(dist < min2) {
+          min2 = dist;
+        }
+      }
+      if(minIndex != cur) {
+        b.reassign(p, fv, cur, minIndex);
+        upper[p] = min1 == curd2 ? u : isSquared ? FastMath.sqrt(min1) : min1;
+      }
+      lower[p] = min2 == curd2 ? u : isSquared ? FastMath.sqrt(min2) : min2;
+    }
+
+    @Override
+    protected Logging getLogger() {
+      return LOG;
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par<V extends NumberVector> extends ParallelHamerlyKMeans.Par<V> {
+    @Override
+    public ParallelExponionKMeans<V> make() {
+      return new ParallelExponionKMeans<>(distance, k, maxiter, initializer, varstat);
+    }
+  }
+}
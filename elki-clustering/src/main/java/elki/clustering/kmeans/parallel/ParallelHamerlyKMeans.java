@@ -0,0 +1,213 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.kmeans.parallel;
+
+import elki.clustering.kmeans.HamerlyKMeans;
+import elki.clustering.kmeans.initialization.KMeansInitialization;
+import elki.data.NumberVector;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.relation.Relation;
+import elki.distance.NumberVectorDistance;
+import elki.logging.Logging;
+
+import net.jafama.FastMath;
+
+/**
+ * Parallel version of Hamerly's k-means, {@link HamerlyKMeans}.
+ * <p>
+ * The bounds are updated lazily during the assignment pass of each block,
+ * rather than in a separate pass over the data.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @param <V> vector datatype
+ */
+public class ParallelHamerlyKMeans<V extends NumberVector> extends AbstractParallelKMeans<V> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelHamerlyKMeans.class);
+
+  /**
+   * Constructor.
+   *
+   * @param distance distance function
+   * @param k k parameter
+   * @param maxiter Maxiter parameter
+   * @param initializer Initialization method
+   * @param varstat Compute the variance statistic
+   */
+  public ParallelHamerlyKMeans(NumberVectorDistance<? super V> distance, int k, int maxiter, KMeansInitialization initializer, boolean varstat) {
+    super(distance, k, maxiter, initializer, varstat);
+  }
+
+  @Override
+  protected Instance makeInstance(Relation<V> relation, double[][] means) {
+    return new Instance(relation, distance, means);
+  }
+
+  /**
+   * Inner instance, storing state for a single data set.
+   *
+   * @author Erich Schubert
+   */
+  protected static class Instance extends AbstractParallelKMeans.Instance {
+    /**
+     * Upper bounding distance, by position.
+     */
+    double[] upper;
+
+    /**
+     * Lower bounding distance, by position.
+     */
+    double[] lower;
+
+    /**
+     * Separation of means.
+     */
+    double[] sep;
+
+    /**
+     * Cluster center distances.
+     */
+    double[][] cdist;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Relation
+     * @param df Distance function
+     * @param means Initial means
+     */
+    public Instance(Relation<? extends NumberVector> relation, NumberVectorDistance<?> df, double[][] means) {
+      super(relation, df, means);
+      upper = new double[ids.size()];
+      lower = new double[ids.size()];
+      sep = new double[k];
+      cdist = new double[k][k];
+    }
+
+    @Override
+    protected void prepare(boolean initial) {
+      if(initial) {
+        computeSquaredSeparation(cdist);
+      }
+      else {
+        recomputeSeperation(sep, cdist);
+      }
+    }
+
+    @Override
+    protected void initialAssign(Block b, DBIDArrayIter it) {
+      NumberVector fv = relation.get(it);
+      // Find closest center, and distance to two closest centers
+      double min1 = b.distance(fv, means[0]), min2 = b.distance(fv, means[1]);
+      int minIndex = 0;
+      if(min2 < min1) {
+        double tmp = min1;
+        min1 = min2;
+        min2 = tmp;
+        minIndex = 1;
+      }
+      for(int i = 2; i < k; i++) {
+        if(min2 > cdist[minIndex][i]) {
+          double dist = b.distance(fv, means[i]);
+          if(dist < min1) {
+            minIndex = i;
+            min2 = min1;
+            min1 = dist;
+          }
+          else if(dist < min2) {
+            min2 = dist;
+          }
+        }
+      }
+      final int p = it.getOffset();
+      b.add(p, fv, minIndex);
+      upper[p] = isSquared ? FastMath.sqrt(min1) : min1;
+      lower[p] = isSquared ? FastMath.sqrt(min2) : min2;
+    }
+
+    @Override
+    protected void assign(Block b, DBIDArrayIter it) {
+      final int p = it.getOffset(), cur = assign[p];
+      // Update the bounds by the distance moved:
+      double u = upper[p] += move[cur];
+      final double z = lower[p] -= maxmove;
+      final double sa = sep[cur];
+      if(u <= z || u <= sa) {
+        return;
+      }
+      // Update the upper bound
+      NumberVector fv = relation.get(it);
+      double curd2 = b.distance(fv, means[cur]);
+      u = upper[p] = isSquared ? FastMath.sqrt(curd2) : curd2;
+      if(u <= z || u <= sa) {
+        return;
+      }
+      // Find closest center, and distance to two closest centers
+      double min1 = curd2, min2 = Double.POSITIVE_INFINITY;
+      int minIndex = cur;
+      for(int i = 0; i < k; i++) {
+        if(i == cur) {
+          continue;
+        }
+        double dist = b.distance(fv, means[i]);
+        if(dist < min1) {
+          minIndex = i;
+          min2 = min1;
+          min1 = dist;
+        }
+        else if(dist < min2) {
+          min2 = dist;
+        }
+      }
+      if(minIndex != cur) {
+        b.reassign(p, fv, cur, minIndex);
+        upper[p] = min1 == curd2 ? u : isSquared ? FastMath.sqrt(min1) : min1;
+      }
+      lower[p] = min2 == curd2 ? u : isSquared ? FastMath.sqrt(min2) : min2;
+    }
+
+    @Override
+    protected Logging getLogger() {
+      return LOG;
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par<V extends NumberVector> extends AbstractParallelKMeans.Par<V> {
+    @Override
+    public ParallelHamerlyKMeans<V> make() {
+      return new ParallelHamerlyKMeans<>(distance, k, maxiter, initializer, varstat);
+    }
+  }
+}
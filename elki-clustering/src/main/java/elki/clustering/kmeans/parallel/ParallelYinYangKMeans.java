@@ -0,0 +1,300 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.kmeans.parallel;
+
+import elki.clustering.kmeans.YinYangKMeans;
+import elki.clustering.kmeans.initialization.KMeansInitialization;
+import elki.data.NumberVector;
+import elki.database.ids.DBIDArrayIter;
+import elki.database.relation.Relation;
+import elki.distance.NumberVectorDistance;
+import elki.logging.Logging;
+import elki.logging.statistics.LongStatistic;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.IntParameter;
+
+import net.jafama.FastMath;
+
+/**
+ * Parallel version of Yin-Yang k-means, {@link YinYangKMeans}.
+ * <p>
+ * The center groups and the group drifts are computed sequentially, and shared
+ * by all workers.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @param <V> vector datatype
+ */
+public class ParallelYinYangKMeans<V extends NumberVector> extends AbstractParallelKMeans<V> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelYinYangKMeans.class);
+
+  /**
+   * Number of cluster center groups t
+   */
+  protected int t;
+
+  /**
+   * Constructor.
+   *
+   * @param distance distance function
+   * @param k k parameter
+   * @param maxiter Maxiter parameter
+   * @param initializer Initialization method
+   * @param varstat Compute the variance statistic
+   * @param t Number of cluster center groups for pruning
+   */
+  public ParallelYinYangKMeans(NumberVectorDistance<? super V> distance, int k, int maxiter, KMeansInitialization initializer, boolean varstat, int t) {
+    super(distance, k, maxiter, initializer, varstat);
+    this.t = t;
+  }
+
+  @Override
+  protected Instance makeInstance(Relation<V> relation, double[][] means) {
+    return new Instance(relation, distance, means, t);
+  }
+
+  /**
+   * Inner instance, storing state for a single data set.
+   *
+   * @author Erich Schubert
+   */
+  protected static class Instance extends AbstractParallelKMeans.Instance {
+    /**
+     * Center list for each group
+     */
+    int[][] groups;
+
+    /**
+     * Group label of each mean
+     */
+    int[] glabel;
+
+    /**
+     * Maximum distance moved within each group.
+     */
+    double[] gdrift;
+
+    /**
+     * Upper bound, by position.
+     */
+    double[] upper;
+
+    /**
+     * Lower bound for each group, by position.
+     */
+    double[][] lower;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Data relation
+     * @param df Distance function
+     * @param means Initial means
+     * @param t Number of groups to use
+     */
+    public Instance(Relation<? extends NumberVector> relation, NumberVectorDistance<?> df, double[][] means, int t) {
+      super(relation, df, means);
+      t = t > 0 ? (t < k ? t : k) : (k >= 10 ? k / 10 : k / 2);
+      t = t > 0 ? t : 1;
+      final int n = ids.size();
+      this.upper = new double[n];
+      this.lower = new double[n][t];
+      this.glabel = new int[k];
+      this.gdrift = new double[t];
+    }
+
+    @Override
+    protected void run(int maxiter) {
+      long before = diststat;
+      groups = YinYangKMeans.groupMeans(this, means, glabel, gdrift.length /* = t */);
+      if(getLogger().isStatistics()) {
+        getLogger().statistics(new LongStatistic(key + ".yinyang-grouping.distance-computations", diststat - before));
+      }
+      super.run(maxiter);
+    }
+
+    @Override
+    protected void prepare(boolean initial) {
+      if(initial) {
+        return;
+      }
+      for(int g = 0; g < groups.length; g++) {
+        double gd = 0;
+        for(int i : groups[g]) {
+          gd = move[i] > gd ? move[i] : gd;
+        }
+        gdrift[g] = gd;
+      }
+    }
+
+    @Override
+    protected void initialAssign(Block b, DBIDArrayIter it) {
+      final int p = it.getOffset();
+      NumberVector point = relation.get(it);
+      double[] lower = this.lower[p];
+      double min = Double.POSITIVE_INFINITY;
+      int globalindex = -1;
+      for(int g = 0; g < groups.length; g++) {
+        final int[] group = groups[g];
+        if(group.length == 0) {
+          continue;
+        }
+        // First center in group
+        double min1 = b.distance(point, means[group[0]]);
+        double min2 = Double.POSITIVE_INFINITY;
+        int best = group[0];
+        // remaining centers in group
+        for(int c = 1; c < group.length; c++) {
+          int center = group[c];
+          double dist = b.distance(point, means[center]);
+          if(dist < min1) {
+            min2 = min1;
+            best = center;
+            min1 = dist;
+          }
+          else if(dist < min2) {
+            min2 = dist;
+          }
+        }
+        // For the triangle inequality, we need Euclidean not squared
+        min1 = isSquared ? FastMath.sqrt(min1) : min1;
+        min2 = min2 < Double.POSITIVE_INFINITY ? (isSquared ? FastMath.sqrt(min2) : min2) : min1;
+        if(min1 < min) {
+          if(globalindex != -1) {
+            lower[glabel[globalindex]] = min;
+          }
+          min = min1;
+          globalindex = best;
+          lower[g] = min2;
+        }
+        else {
+          lower[g] = min1;
+        }
+      }
+      b.add(p, point, globalindex);
+      upper[p] = min;
+    }
+
+    @Override
+    protected void assign(Block b, DBIDArrayIter it) {
+      final int t = gdrift.length, p = it.getOffset();
+      final int prev = assign[p];
+      final double[] lbs = lower[p];
+      // Update the upper bound
+      double ub = upper[p] += move[prev];
+      final double[] prevlb = b.scratch(t);
+      double minlb = Double.POSITIVE_INFINITY;
+      // Update lower bounds with the maximum distance moved within each group
+      for(int g = 0; g < t; g++) {
+        prevlb[g] = lbs[g];
+        double lb = lbs[g] -= gdrift[g];
+        minlb = lb < minlb ? lb : minlb;
+      }
+      // Global filter
+      if(minlb >= ub) {
+        return;
+      }
+      // tighten ub(x) and check again
+      NumberVector cur = relation.get(it);
+      upper[p] = ub = b.sqrtdistance(cur, means[prev]);
+      // Global filter with ub tight
+      if(minlb >= ub) {
+        return;
+      }
+      int best = prev;
+      for(int g = 0; g < t; ++g) {
+        // Group filter
+        if(lbs[g] >= ub) {
+          continue;
+        }
+        double plb = prevlb[g];
+        double sc = Double.POSITIVE_INFINITY;
+        for(int i : groups[g]) {
+          if(i == prev) { // Already computed above
+            continue;
+          }
+          // Local filter.
+          if(sc < plb - move[i]) {
+            continue;
+          }
+          double di = b.sqrtdistance(cur, means[i]);
+          if(di < sc) { // at least second closest
+            if(di < ub) { // closest
+              sc = ub; // previous closest is now second
+              ub = di;
+              best = i;
+            }
+            else {
+              sc = di;
+            }
+          }
+        }
+        lbs[g] = sc;
+      }
+      if(prev != best) {
+        upper[p] = ub;
+        b.reassign(p, cur, prev, best);
+      }
+    }
+
+    @Override
+    protected Logging getLogger() {
+      return LOG;
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   */
+  public static class Par<V extends NumberVector> extends AbstractParallelKMeans.Par<V> {
+    /**
+     * Number of groups in the initial clustering of the centroids.
+     */
+    protected int t;
+
+    @Override
+    public void configure(Parameterization config) {
+      super.configure(config);
+      int deft = k > 10 ? k / 10 : k / 2;
+      new IntParameter(YinYangKMeans.Par.T_ID) //
+          .setDefaultValue(deft) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT)//
+          .grab(config, x -> t = x);
+    }
+
+    @Override
+    public ParallelYinYangKMeans<V> make() {
+      return new ParallelYinYangKMeans<>(distance, k, maxiter, initializer, varstat, t);
+    }
+  }
+}
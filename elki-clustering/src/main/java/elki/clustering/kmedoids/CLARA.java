@@ -20,7 +20,11 @@
  */
 package elki.clustering.kmedoids;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import elki.clustering.ClusteringAlgorithmUtil;
 import elki.clustering.kmedoids.initialization.KMedoidsInitialization;
@@ -38,6 +42,7 @@ import elki.distance.Distance;
 import elki.logging.Logging;
 import elki.logging.progress.FiniteProgress;
 import elki.logging.statistics.DoubleStatistic;
+import elki.parallel.ParallelCore;
 import elki.result.Metadata;
 import elki.utilities.documentation.Reference;
 import elki.utilities.optionhandling.OptionID;
@@ -56,6 +61,10 @@ import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
  * sets based on PAM, partitioning around medoids ({@link PAM}) based on
  * sampling.
  * <p>
+ * If the samples are drawn independently, they are processed concurrently.
+ * Samples and initial medoids are still chosen in order, so the result is the
+ * same as with sequential processing.
+ * <p>
  * TODO: use a triangular distance matrix, rather than a hash-map based cache,
  * for a bit better performance and less memory.
  * <p>
@@ -134,47 +143,121 @@ public class CLARA<V> extends PAM<V> {
 
   @Override
   public Clustering<MedoidModel> run(Relation<V> relation) {
+    return run(relation, distance, k, initializer, numsamples, sampling, keepmed, random, LOG, getClass().getName(), //
+        (cachedQ, rids, medoids, assignment) -> new /* PAM */Instance(cachedQ, rids, assignment).run(medoids, maxiter));
+  }
+
+  /**
+   * Optimization of the medoids of a single sample.
+   *
+   * @author Erich Schubert
+   */
+  @FunctionalInterface
+  interface SampleOptimizer {
+    /**
+     * Optimize the medoids of the sample.
+     *
+     * @param distQ Distance query, on the sample
+     * @param rids Sample
+     * @param medoids Initial medoids, will be modified
+     * @param assignment Cluster assignment output
+     * @return Cost of the sample
+     */
+    double run(DistanceQuery<?> distQ, DBIDs rids, ArrayModifiableDBIDs medoids, WritableIntegerDataStore assignment);
+  }
+
+  /**
+   * Run CLARA, with the given optimizer for each sample.
+   *
+   * @param relation Data relation
+   * @param distance Distance function
+   * @param k Number of clusters
+   * @param initializer Initialization function
+   * @param numsamples Number of samples
+   * @param sampling Sampling rate (absolute or relative)
+   * @param keepmed Keep the previous medoids in the next sample
+   * @param random Random generator
+   * @param log Logger
+   * @param key Key for statistics logging
+   * @param optimizer Optimization of each sample
+   * @return Clustering
+   */
+  static <V> Clustering<MedoidModel> run(Relation<V> relation, Distance<? super V> distance, int k, KMedoidsInitialization<V> initializer, int numsamples, double sampling, boolean keepmed, RandomFactory random, Logging log, String key, SampleOptimizer optimizer) {
     DBIDs ids = relation.getDBIDs();
     DistanceQuery<V> distQ = new QueryBuilder<>(relation, distance).distanceQuery();
     int samplesize = Math.min(ids.size(), (int) (sampling <= 1 ? sampling * ids.size() : sampling));
     if(samplesize < 3 * k) {
-      LOG.warning("The sampling size is set to a very small value, it should be much larger than k.");
+      log.warning("The sampling size is set to a very small value, it should be much larger than k.");
     }
-
-    CachedDistanceQuery<V> cachedQ = new CachedDistanceQuery<V>(distQ, (samplesize * (samplesize - 1)) >> 1);
+    // Dependent samples must be processed sequentially.
+    final boolean concurrent = !keepmed && numsamples > 1;
+    ParallelCore core = ParallelCore.getCore();
+    List<Future<Double>> futures = new ArrayList<>(numsamples);
+    List<ArrayModifiableDBIDs> samplemedoids = new ArrayList<>(numsamples);
+    List<WritableIntegerDataStore> sampleclusters = new ArrayList<>(numsamples);
+    List<CachedDistanceQuery<V>> samplequeries = new ArrayList<>(numsamples);
 
     double best = Double.POSITIVE_INFINITY;
     ArrayModifiableDBIDs bestmedoids = null;
     WritableIntegerDataStore bestclusters = null;
 
     Random rnd = random.getSingleThreadedRandom();
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Processing random samples", numsamples, LOG) : null;
-    for(int j = 0; j < numsamples; j++) {
-      DBIDs rids = randomSample(ids, samplesize, rnd, keepmed ? bestmedoids : null);
-      cachedQ.clear(); // TODO: an actual matrix would be better.
-
-      // Choose initial medoids
-      ArrayModifiableDBIDs medoids = DBIDUtil.newArray(initializer.chooseInitialMedoids(k, rids, cachedQ));
-      // Setup cluster assignment store
-      WritableIntegerDataStore assignment = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, -1);
-      double score = new /* PAM */Instance(cachedQ, rids, assignment).run(medoids, maxiter) //
-          + assignRemainingToNearestCluster(medoids, ids, rids, assignment, distQ);
-      if(LOG.isStatistics()) {
-        LOG.statistics(new DoubleStatistic(getClass().getName() + ".sample-" + j + ".cost", score));
+    FiniteProgress prog = log.isVerbose() ? new FiniteProgress("Processing random samples", numsamples, log) : null;
+    if(concurrent) {
+      core.connect();
+    }
+    try {
+      for(int j = 0; j < numsamples; j++) {
+        DBIDs rids = randomSample(ids, samplesize, rnd, keepmed ? bestmedoids : null);
+        // TODO: an actual matrix would be better.
+        CachedDistanceQuery<V> cachedQ = new CachedDistanceQuery<V>(distQ, (samplesize * (samplesize - 1)) >> 1);
+
+        // Choose initial medoids
+        ArrayModifiableDBIDs medoids = DBIDUtil.newArray(initializer.chooseInitialMedoids(k, rids, cachedQ));
+        // Setup cluster assignment store
+        WritableIntegerDataStore assignment = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, -1);
+        if(concurrent) {
+          futures.add(core.submit(() -> optimizer.run(cachedQ, rids, medoids, assignment) //
+              + assignRemainingToNearestCluster(medoids, ids, rids, assignment, distQ)));
+          samplemedoids.add(medoids);
+          sampleclusters.add(assignment);
+          samplequeries.add(cachedQ);
+          continue;
+        }
+        double score = optimizer.run(cachedQ, rids, medoids, assignment) //
+            + assignRemainingToNearestCluster(medoids, ids, rids, assignment, distQ);
+        if(score < best) {
+          best = score;
+          bestmedoids = medoids;
+          bestclusters = assignment;
+        }
+        logSample(log, key, j, score, cachedQ, prog);
       }
-      if(score < best) {
-        best = score;
-        bestmedoids = medoids;
-        bestclusters = assignment;
+      // Collect concurrent results in order.
+      for(int j = 0; j < futures.size(); j++) {
+        double score = futures.get(j).get();
+        if(score < best) {
+          best = score;
+          bestmedoids = samplemedoids.get(j);
+          bestclusters = sampleclusters.get(j);
+        }
+        logSample(log, key, j, score, samplequeries.get(j), prog);
       }
-      if(cachedQ.hasUncachedQueries()) {
-        LOG.warning("Some distance queries were not cached; maybe the initialization is not optimized for k-medoids.");
+    }
+    catch(ExecutionException e) {
+      throw new RuntimeException("Processor execution failed.", e);
+    }
+    catch(InterruptedException e) {
+      throw new RuntimeException("Parallel execution interrupted.");
+    }
+    finally {
+      if(concurrent) {
+        core.disconnect();
       }
-      LOG.incrementProcessed(prog);
     }
-    LOG.ensureCompleted(prog);
-    if(LOG.isStatistics()) {
-      LOG.statistics(new DoubleStatistic(getClass().getName() + ".final-cost", best));
+    log.ensureCompleted(prog);
+    if(log.isStatistics()) {
+      log.statistics(new DoubleStatistic(key + ".final-cost", best));
     }
     if(bestmedoids == null) {
       throw new IllegalStateException("numsamples must be larger than 0.");
@@ -192,6 +275,26 @@ public class CLARA<V> extends PAM<V> {
     return result;
   }
 
+  /**
+   * Log the result of a sample.
+   *
+   * @param log Logger
+   * @param key Key for statistics logging
+   * @param j Sample number
+   * @param score Cost of the sample
+   * @param cachedQ Distance query of the sample
+   * @param prog Progress
+   */
+  private static void logSample(Logging log, String key, int j, double score, CachedDistanceQuery<?> cachedQ, FiniteProgress prog) {
+    if(log.isStatistics()) {
+      log.statistics(new DoubleStatistic(key + ".sample-" + j + ".cost", score));
+    }
+    if(cachedQ.hasUncachedQueries()) {
+      log.warning("Some distance queries were not cached; maybe the initialization is not optimized for k-medoids.");
+    }
+    log.incrementProcessed(prog);
+  }
+
   /**
    * Draw a random sample of the desired size.
    * 
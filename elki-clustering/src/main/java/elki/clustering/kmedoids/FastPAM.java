@@ -20,7 +20,11 @@
  */
 package elki.clustering.kmedoids;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import elki.clustering.kmeans.initialization.RandomlyChosen;
 import elki.clustering.kmedoids.initialization.KMedoidsInitialization;
@@ -32,6 +36,7 @@ import elki.logging.Logging;
 import elki.logging.progress.IndefiniteProgress;
 import elki.logging.statistics.DoubleStatistic;
 import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelCore;
 import elki.utilities.Priority;
 import elki.utilities.documentation.Reference;
 import elki.utilities.optionhandling.OptionID;
@@ -59,6 +64,10 @@ import elki.utilities.optionhandling.parameters.DoubleParameter;
  * LAB (linear approximative BUILD, the third component of FastPAM)
  * initialization, and try multiple times if the runtime permits.
  * <p>
+ * The swap candidates are evaluated concurrently; as the best swaps are reduced
+ * in the order of the candidates, the result is the same as when evaluating
+ * them sequentially.
+ * <p>
  * Reference:
  * <p>
  * Erich Schubert, Peter J. Rousseeuw<br>
@@ -121,7 +130,14 @@ public class FastPAM<V> extends FastPAM1<V> {
 
   @Override
   protected void run(DistanceQuery<V> distQ, DBIDs ids, ArrayModifiableDBIDs medoids, WritableIntegerDataStore assignment) {
-    new Instance(distQ, ids, assignment, fasttol).run(medoids, maxiter);
+    ParallelCore core = ParallelCore.getCore();
+    core.connect();
+    try {
+      new Instance(distQ, ids, assignment, fasttol).parallel().run(medoids, maxiter);
+    }
+    finally {
+      core.disconnect();
+    }
   }
 
   /**
@@ -130,11 +146,31 @@ public class FastPAM<V> extends FastPAM1<V> {
    * @author Erich Schubert
    */
   protected static class Instance extends FastPAM1.Instance {
+    /**
+     * Minimum number of swap candidates per block for concurrent evaluation.
+     */
+    private static final int MIN_BLOCK_SIZE = 64;
+
     /**
      * Tolerance for fast swapping behavior (may perform worse swaps).
      */
     protected double fastswap = 0.;
 
+    /**
+     * Swap candidates, as array.
+     */
+    protected ArrayDBIDs aids;
+
+    /**
+     * Number of blocks for concurrent evaluation, 1 if sequential.
+     */
+    protected int numblocks = 1;
+
+    /**
+     * Current medoids, used by concurrent evaluation.
+     */
+    protected ArrayDBIDs medoids;
+
     /**
      * Constructor.
      *
@@ -146,6 +182,19 @@ public class FastPAM<V> extends FastPAM1<V> {
     public Instance(DistanceQuery<?> distQ, DBIDs ids, WritableIntegerDataStore assignment, double fasttol) {
       super(distQ, ids, assignment);
       this.fastswap = 1 - fasttol;
+      this.aids = DBIDUtil.ensureArray(ids);
+    }
+
+    /**
+     * Evaluate swap candidates concurrently. This requires a thread-safe
+     * distance query, and the caller must be connected to the
+     * {@link ParallelCore}.
+     *
+     * @return this
+     */
+    protected Instance parallel() {
+      numblocks = Math.max(1, Math.min(ParallelCore.getCore().getParallelism() << 2, aids.size() / MIN_BLOCK_SIZE));
+      return this;
     }
 
     /**
@@ -157,6 +206,7 @@ public class FastPAM<V> extends FastPAM1<V> {
      */
     protected double run(ArrayModifiableDBIDs medoids, int maxiter) {
       final int k = medoids.size();
+      this.medoids = medoids;
       // Initial assignment to nearest medoids
       // TODO: reuse distance information, from the build phase, when possible?
       double tc = assignToNearestCluster(medoids);
@@ -235,6 +285,10 @@ public class FastPAM<V> extends FastPAM1<V> {
     protected void findBestSwaps(DBIDArrayIter m, ArrayModifiableDBIDs bestids, double[] best, double[] cost, double[] pcost) {
       updatePriorCost(pcost);
       Arrays.fill(best, Double.POSITIVE_INFINITY);
+      if(numblocks > 1) {
+        findBestSwapsParallel(bestids, best, pcost);
+        return;
+      }
       // Iterate over all non-medoids:
       for(DBIDIter h = ids.iter(); h.valid(); h.advance()) {
         // Compare object to its own medoid.
@@ -254,6 +308,78 @@ public class FastPAM<V> extends FastPAM1<V> {
       }
     }
 
+    /**
+     * Find the best swaps, evaluating blocks of candidates concurrently.
+     * The block results are merged in order, so ties are resolved as in the
+     * sequential case.
+     *
+     * @param bestids Storage for best non-medois
+     * @param best Storage for best cost
+     * @param pcost Prior cost
+     */
+    private void findBestSwapsParallel(ArrayModifiableDBIDs bestids, double[] best, double[] pcost) {
+      final int n = aids.size(), k = best.length;
+      final int[][] bestoff = new int[numblocks][k];
+      List<Future<double[]>> futures = new ArrayList<>(numblocks);
+      ParallelCore core = ParallelCore.getCore();
+      for(int b = 0; b < numblocks; b++) {
+        final int start = (int) ((long) n * b / numblocks), end = (int) ((long) n * (b + 1) / numblocks);
+        final int[] off = bestoff[b];
+        futures.add(core.submit(() -> findBestSwapsInBlock(start, end, off, pcost)));
+      }
+      try {
+        DBIDArrayIter h = aids.iter();
+        for(int b = 0; b < numblocks; b++) {
+          final double[] bbest = futures.get(b).get();
+          for(int i = 0; i < k; i++) {
+            if(bbest[i] < best[i]) {
+              best[i] = bbest[i];
+              bestids.set(i, h.seek(bestoff[b][i]));
+            }
+          }
+        }
+      }
+      catch(ExecutionException e) {
+        throw new RuntimeException("Processor execution failed.", e);
+      }
+      catch(InterruptedException e) {
+        throw new RuntimeException("Parallel execution interrupted.");
+      }
+    }
+
+    /**
+     * Find the best swaps within one block of candidates.
+     *
+     * @param start First candidate
+     * @param end End of block (exclusive)
+     * @param bestoff Output: offsets of the best candidate for each medoid
+     * @param pcost Prior cost (read only)
+     * @return Best cost for each medoid
+     */
+    private double[] findBestSwapsInBlock(int start, int end, int[] bestoff, double[] pcost) {
+      final int k = pcost.length;
+      double[] best = new double[k], cost = new double[k];
+      Arrays.fill(best, Double.POSITIVE_INFINITY);
+      DBIDArrayIter m = medoids.iter();
+      for(DBIDArrayIter h = aids.iter().seek(start); h.getOffset() < end; h.advance()) {
+        // Compare object to its own medoid.
+        if(DBIDUtil.equal(m.seek(assignment.intValue(h) & 0x7FFF), h)) {
+          continue; // This is a medoid.
+        }
+        System.arraycopy(pcost, 0, cost, 0, k);
+        double acc = computeReassignmentCost(h, cost);
+        // Find the best possible swap for each medoid:
+        for(int i = 0; i < k; i++) {
+          final double costi = cost[i] + acc;
+          if(costi < best[i]) {
+            best[i] = costi;
+            bestoff[i] = h.getOffset();
+          }
+        }
+      }
+      return best;
+    }
+
     /**
      * Find the smallest (most negative) value.
      * 
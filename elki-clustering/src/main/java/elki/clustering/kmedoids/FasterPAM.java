@@ -20,6 +20,11 @@
  */
 package elki.clustering.kmedoids;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 import elki.clustering.kmedoids.initialization.KMedoidsInitialization;
 import elki.database.datastore.WritableIntegerDataStore;
 import elki.database.ids.*;
@@ -29,6 +34,7 @@ import elki.logging.Logging;
 import elki.logging.progress.IndefiniteProgress;
 import elki.logging.statistics.DoubleStatistic;
 import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelCore;
 import elki.utilities.documentation.Reference;
 
 /**
@@ -38,6 +44,11 @@ import elki.utilities.documentation.Reference;
  * computing candidate swaps O(k) times faster, it will also be able to
  * sometimes choose better swaps.
  * <p>
+ * A window of swap candidates is evaluated concurrently, and then processed
+ * in order. After performing a swap, the evaluation of the remaining window is
+ * discarded, and evaluation restarts after the swapped object; hence the result
+ * is the same as with sequential evaluation.
+ * <p>
  * Reference:
  * <p>
  * Erich Schubert and Peter J. Rousseeuw<br>
@@ -90,7 +101,14 @@ public class FasterPAM<O> extends FastPAM<O> {
    * @param assignment Cluster assignment output
    */
   protected void run(DistanceQuery<O> distQ, DBIDs ids, ArrayModifiableDBIDs medoids, WritableIntegerDataStore assignment) {
-    new Instance(distQ, ids, assignment).run(medoids, maxiter);
+    ParallelCore core = ParallelCore.getCore();
+    core.connect();
+    try {
+      new Instance(distQ, ids, assignment).parallel().run(medoids, maxiter);
+    }
+    finally {
+      core.disconnect();
+    }
   }
 
   /**
@@ -123,6 +141,7 @@ public class FasterPAM<O> extends FastPAM<O> {
      */
     protected double run(ArrayModifiableDBIDs medoids, int maxiter) {
       final int k = medoids.size();
+      this.medoids = medoids;
       // Initial assignment to nearest medoids
       // TODO: reuse distance information, from the build phase, when possible?
       double tc = assignToNearestCluster(medoids);
@@ -134,7 +153,12 @@ public class FasterPAM<O> extends FastPAM<O> {
       // Swap phase
       DBIDArrayIter m = medoids.iter();
       DBIDVar lastswap = DBIDUtil.newVar();
+      final int n = aids.size(), window = numblocks;
       double[] cost = new double[k], pcost = new double[k];
+      // Best swap for each candidate in the current window
+      double[] bestcost = new double[window];
+      int[] bestmed = new int[window];
+      DBIDArrayIter h = aids.iter();
       int iteration = 0, prevswaps = 0, swaps = 0;
       while(iteration < maxiter || maxiter <= 0) {
         ++iteration;
@@ -142,35 +166,33 @@ public class FasterPAM<O> extends FastPAM<O> {
         // Compute costs of reassigning to the second closest medoid.
         updatePriorCost(pcost);
         // Iterate over all non-medoids:
-        for(DBIDIter h = ids.iter(); h.valid(); h.advance()) {
-          // Check if we completed an entire round without swapping:
-          if(DBIDUtil.equal(h, lastswap)) {
+        candidates: for(int start = 0; start < n;) {
+          final int end = Math.min(start + window, n);
+          evaluateSwaps(start, end, m, cost, pcost, bestmed, bestcost);
+          int next = end;
+          for(h.seek(start); h.getOffset() < end; h.advance()) {
+            // Check if we completed an entire round without swapping:
+            if(DBIDUtil.equal(h, lastswap)) {
+              break candidates;
+            }
+            final int i = h.getOffset() - start;
+            if(!(bestcost[i] < -1e-12 * tc)) {
+              continue; // Includes medoids, which are NaN.
+            }
+            ++swaps;
+            lastswap.set(h);
+            updateAssignment(medoids, m, h, bestmed[i]);
+            updatePriorCost(pcost);
+            tc += bestcost[i];
+            assert tc >= 0;
+            if(LOG.isStatistics()) {
+              LOG.statistics(new DoubleStatistic(KEY + ".swap-" + swaps + ".cost", tc));
+            }
+            // Discard the remaining evaluations, which are outdated now.
+            next = h.getOffset() + 1;
             break;
           }
-          // Compare object to its own medoid.
-          if(DBIDUtil.equal(m.seek(assignment.intValue(h) & 0x7FFF), h)) {
-            continue; // This is a medoid.
-          }
-          // Initialize with medoid removal cost:
-          System.arraycopy(pcost, 0, cost, 0, pcost.length);
-          // The cost we get back by making the non-medoid h medoid.
-          double acc = computeReassignmentCost(h, cost);
-
-          // Find the best possible swap for each medoid:
-          int min = argmin(cost);
-          double bestcost = cost[min] + acc;
-          if(!(bestcost < -1e-12 * tc)) {
-            continue;
-          }
-          ++swaps;
-          lastswap.set(h);
-          updateAssignment(medoids, m, h, min);
-          updatePriorCost(pcost);
-          tc += bestcost;
-          assert tc >= 0;
-          if(LOG.isStatistics()) {
-            LOG.statistics(new DoubleStatistic(KEY + ".swap-" + swaps + ".cost", tc));
-          }
+          start = next;
         }
         if(LOG.isStatistics()) {
           LOG.statistics(new LongStatistic(KEY + ".iteration-" + iteration + ".swaps", swaps - prevswaps));
@@ -196,6 +218,72 @@ public class FasterPAM<O> extends FastPAM<O> {
       }
       return tc;
     }
+
+    /**
+     * Evaluate the best swap of each candidate in a window, concurrently if
+     * the window has more than one candidate.
+     *
+     * @param start First candidate
+     * @param end End of window (exclusive)
+     * @param m Medoid iterator, for sequential evaluation
+     * @param cost Scratch space, for sequential evaluation
+     * @param pcost Prior cost (read only)
+     * @param bestmed Output: best medoid to replace
+     * @param bestcost Output: cost change of the best swap, NaN for medoids
+     */
+    protected void evaluateSwaps(int start, int end, DBIDArrayIter m, double[] cost, double[] pcost, int[] bestmed, double[] bestcost) {
+      if(end - start == 1) {
+        evaluateSwap(aids.iter().seek(start), m, cost, pcost, bestmed, bestcost, 0);
+        return;
+      }
+      List<Future<?>> futures = new ArrayList<>(end - start);
+      ParallelCore core = ParallelCore.getCore();
+      for(int c = start; c < end; c++) {
+        final int i = c - start;
+        futures.add(core.submit(() -> {
+          evaluateSwap(aids.iter().seek(start + i), medoids.iter(), new double[pcost.length], pcost, bestmed, bestcost, i);
+          return null;
+        }));
+      }
+      try {
+        for(Future<?> future : futures) {
+          future.get();
+        }
+      }
+      catch(ExecutionException e) {
+        throw new RuntimeException("Processor execution failed.", e);
+      }
+      catch(InterruptedException e) {
+        throw new RuntimeException("Parallel execution interrupted.");
+      }
+    }
+
+    /**
+     * Evaluate the best swap of a single candidate.
+     *
+     * @param h Candidate
+     * @param m Medoid iterator
+     * @param cost Scratch space
+     * @param pcost Prior cost (read only)
+     * @param bestmed Output: best medoid to replace
+     * @param bestcost Output: cost change of the best swap, NaN for medoids
+     * @param i Output position
+     */
+    private void evaluateSwap(DBIDRef h, DBIDArrayIter m, double[] cost, double[] pcost, int[] bestmed, double[] bestcost, int i) {
+      // Compare object to its own medoid.
+      if(DBIDUtil.equal(m.seek(assignment.intValue(h) & 0x7FFF), h)) {
+        bestcost[i] = Double.NaN; // This is a medoid.
+        return;
+      }
+      // Initialize with medoid removal cost:
+      System.arraycopy(pcost, 0, cost, 0, pcost.length);
+      // The cost we get back by making the non-medoid h medoid.
+      double acc = computeReassignmentCost(h, cost);
+      // Find the best possible swap for each medoid:
+      int min = argmin(cost);
+      bestmed[i] = min;
+      bestcost[i] = cost[min] + acc;
+    }
   }
 
   /**
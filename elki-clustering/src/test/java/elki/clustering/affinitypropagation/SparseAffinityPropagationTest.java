@@ -0,0 +1,87 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.affinitypropagation;
+
+import org.junit.Test;
+
+import elki.clustering.AbstractClusterAlgorithmTest;
+import elki.data.Clustering;
+import elki.data.DoubleVector;
+import elki.data.model.MedoidModel;
+import elki.database.Database;
+import elki.similarity.kernel.PolynomialKernel;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Test sparse Affinity Propagation
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class SparseAffinityPropagationTest extends AbstractClusterAlgorithmTest {
+  @Test
+  public void testSparseAffinityPropagation() {
+    Database db = makeSimpleDatabase(UNITTEST + "3clusters-and-noise-2d.csv", 330);
+    Clustering<MedoidModel> result = new ELKIBuilder<SparseAffinityPropagation<DoubleVector>>(SparseAffinityPropagation.class)//
+        .with(AffinityPropagationInitialization.QUANTILE_ID, 0.) //
+        .build().autorun(db);
+    assertFMeasure(db, result, 0.461833973);
+    assertClusterSizes(result, new int[] { 5, 6, 7, 18, 25, 29, 32, 33, 33, 37, 50, 55 });
+  }
+
+  /**
+   * With the full graph, the result must be the same as with dense affinity
+   * propagation.
+   */
+  @Test
+  public void testFullGraph() {
+    Database db = makeSimpleDatabase(UNITTEST + "3clusters-and-noise-2d.csv", 330);
+    Clustering<MedoidModel> result = new ELKIBuilder<SparseAffinityPropagation<DoubleVector>>(SparseAffinityPropagation.class)//
+        .with(SparseAffinityPropagation.Par.K_ID, 329) //
+        .build().autorun(db);
+    assertFMeasure(db, result, 0.957227259);
+    assertClusterSizes(result, new int[] { 5, 5, 7, 55, 105, 153 });
+  }
+
+  @Test
+  public void testSparseEpsilon() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    Clustering<MedoidModel> result = new ELKIBuilder<SparseAffinityPropagation<DoubleVector>>(SparseAffinityPropagation.class) //
+        .with(SparseAffinityPropagation.Par.EPSILON_ID, 900) //
+        .with(AffinityPropagationInitialization.QUANTILE_ID, 0.) //
+        .build().autorun(db);
+    assertFMeasure(db, result, 0.337473755);
+    assertClusterSizes(result, new int[] { 26, 32, 33, 35, 35, 38, 38, 39, 40, 41, 41, 43, 47, 47, 48, 55 });
+  }
+
+  @Test
+  public void testSparseSimilarity() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    Clustering<MedoidModel> result = new ELKIBuilder<SparseAffinityPropagation<DoubleVector>>(SparseAffinityPropagation.class) //
+        .with(AffinityPropagation.Par.INITIALIZATION_ID, SimilarityBasedInitializationWithMedian.class) //
+        .with(SimilarityBasedInitializationWithMedian.Par.SIMILARITY_ID, PolynomialKernel.class) //
+        .with(AffinityPropagationInitialization.QUANTILE_ID, 0.) //
+        .build().autorun(db);
+    assertFMeasure(db, result, 0.157134849);
+    assertClusterSizes(result, new int[] { 6, 10, 10, 11, 11, 12, 12, 12, 13, 13, 13, 13, 14, 14, 14, 14, 14, 14, 15, 15, //
+        15, 15, 15, 16, 16, 16, 16, 16, 17, 17, 17, 19, 19, 19, 19, 21, 21, 23, 23, 24, 24 });
+  }
+}
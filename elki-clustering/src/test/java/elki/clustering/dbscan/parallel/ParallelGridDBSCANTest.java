@@ -0,0 +1,105 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.dbscan.parallel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import elki.clustering.AbstractClusterAlgorithmTest;
+import elki.clustering.dbscan.DBSCAN;
+import elki.data.Clustering;
+import elki.data.NumberVector;
+import elki.data.model.Model;
+import elki.data.type.VectorFieldTypeInformation;
+import elki.database.Database;
+import elki.database.ids.DBIDUtil;
+import elki.database.relation.MaterializedRelation;
+import elki.database.relation.Relation;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Performs a full DBSCAN run, and compares the result with a clustering derived
+ * from the data set labels. This test ensures that DBSCAN performance doesn't
+ * unexpectedly drop on this data set (and also ensures that the algorithms
+ * work, as a side effect).
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class ParallelGridDBSCANTest extends AbstractClusterAlgorithmTest {
+  /**
+   * Run grid-based DBSCAN with fixed parameters and compare the result to a
+   * golden standard.
+   */
+  @Test
+  public void testGridDBSCANResults() {
+    Database db = makeSimpleDatabase(UNITTEST + "3clusters-and-noise-2d.csv", 330);
+    Clustering<Model> result = new ELKIBuilder<>(ParallelGridDBSCAN.class) //
+        .with(DBSCAN.Par.EPSILON_ID, 0.04) //
+        .with(DBSCAN.Par.MINPTS_ID, 20) //
+        .build().autorun(db);
+    assertFMeasure(db, result, 0.996413);
+    assertClusterSizes(result, new int[] { 29, 50, 101, 150 });
+  }
+
+  /**
+   * Run grid-based DBSCAN with fixed parameters and compare the result to a
+   * golden standard.
+   */
+  @Test
+  public void testDBSCANOnSingleLinkDataset() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    Clustering<Model> result = new ELKIBuilder<>(ParallelGridDBSCAN.class) //
+        .with(DBSCAN.Par.EPSILON_ID, 11.5) //
+        .with(DBSCAN.Par.MINPTS_ID, 120) //
+        .build().autorun(db);
+    assertFMeasure(db, result, 0.954382);
+    assertClusterSizes(result, new int[] { 11, 200, 203, 224 });
+  }
+
+  /**
+   * Run grid-based DBSCAN on five-dimensional data.
+   */
+  @Test
+  public void testGridDBSCAN5D() {
+    Database db = makeSimpleDatabase(UNITTEST + "subspace-overlapping-4-5d.ascii", 1100);
+    Clustering<Model> result = new ELKIBuilder<>(ParallelGridDBSCAN.class) //
+        .with(DBSCAN.Par.EPSILON_ID, 0.3) //
+        .with(DBSCAN.Par.MINPTS_ID, 10) //
+        .build().autorun(db);
+    assertFMeasure(db, result, 0.917823729);
+    assertClusterSizes(result, new int[] { 200, 405, 495 });
+  }
+
+  /**
+   * Run grid-based DBSCAN on an empty relation.
+   */
+  @Test
+  public void testEmpty() {
+    Relation<NumberVector> rel = new MaterializedRelation<>(null, VectorFieldTypeInformation.typeRequest(NumberVector.class, 2, 2), DBIDUtil.EMPTYDBIDS);
+    Clustering<Model> result = new ParallelGridDBSCAN(0.04, 20).run(rel);
+    assertEquals("Wrong number of clusters.", 1, result.getAllClusters().size());
+    assertTrue("Expected a noise cluster.", result.getAllClusters().get(0).isNoise());
+    assertEquals("Expected an empty cluster.", 0, result.getAllClusters().get(0).size());
+  }
+}
@@ -84,4 +84,13 @@ public class DiagonalGaussianModelTest extends AbstractClusterAlgorithmTest {
     assertFMeasure(db, result, 1.);
     assertClusterSizes(result, new int[] { 100, 100 });
   }
+
+  /**
+   * Merging partial aggregates must yield the same model as sequential
+   * aggregation.
+   */
+  @Test
+  public void testMergeE() {
+    EMClusterModelMergeCheck.checkMergeE(() -> new DiagonalGaussianModel(1., new double[3]));
+  }
 }
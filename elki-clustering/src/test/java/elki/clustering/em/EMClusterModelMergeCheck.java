@@ -0,0 +1,83 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.em;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Random;
+import java.util.function.Supplier;
+
+import elki.data.DoubleVector;
+import elki.data.NumberVector;
+import elki.data.model.EMModel;
+
+/**
+ * Check that merging partial E steps gives the same model as a sequential E
+ * step, for models supporting concurrent E steps.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+final class EMClusterModelMergeCheck {
+  /**
+   * Private constructor. Static methods only.
+   */
+  private EMClusterModelMergeCheck() {
+    // Do not use.
+  }
+
+  /**
+   * Compare a sequential E step with three merged partial E steps.
+   *
+   * @param factory Factory for new (three-dimensional) models
+   */
+  static void checkMergeE(Supplier<EMClusterModel<NumberVector, EMModel>> factory) {
+    Random rnd = new Random(0L);
+    DoubleVector[] data = new DoubleVector[100];
+    double[] weights = new double[data.length];
+    for(int i = 0; i < data.length; i++) {
+      data[i] = DoubleVector.wrap(new double[] { rnd.nextGaussian(), rnd.nextGaussian() * 2 + 1, rnd.nextDouble() });
+      weights[i] = rnd.nextDouble();
+    }
+    EMClusterModel<NumberVector, EMModel> seq = factory.get(), par = factory.get();
+    seq.beginEStep();
+    par.beginEStep();
+    for(int i = 0; i < data.length; i++) {
+      seq.updateE(data[i], weights[i]);
+    }
+    for(int b = 0; b < 3; b++) {
+      EMClusterModel<NumberVector, EMModel> partial = par.newPartialE();
+      assertNotNull("Partial E steps not supported.", partial);
+      for(int i = b * 40; i < Math.min(data.length, (b + 1) * 40); i++) {
+        partial.updateE(data[i], weights[i]);
+      }
+      par.mergeE(partial);
+    }
+    seq.finalizeEStep(1., 0.);
+    par.finalizeEStep(1., 0.);
+    EMModel m1 = seq.finalizeCluster(), m2 = par.finalizeCluster();
+    assertArrayEquals("Means differ.", m1.getMean(), m2.getMean(), 1e-12);
+    for(int i = 0; i < 3; i++) {
+      assertArrayEquals("Covariances differ.", m1.getCovarianceMatrix()[i], m2.getCovarianceMatrix()[i], 1e-12);
+    }
+  }
+}
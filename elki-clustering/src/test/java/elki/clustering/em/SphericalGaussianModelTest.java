@@ -83,4 +83,13 @@ public class SphericalGaussianModelTest extends AbstractClusterAlgorithmTest {
     assertFMeasure(db, result, 1.);
     assertClusterSizes(result, new int[] { 100, 100 });
   }
+
+  /**
+   * Merging partial aggregates must yield the same model as sequential
+   * aggregation.
+   */
+  @Test
+  public void testMergeE() {
+    EMClusterModelMergeCheck.checkMergeE(() -> new SphericalGaussianModel(1., new double[3]));
+  }
 }
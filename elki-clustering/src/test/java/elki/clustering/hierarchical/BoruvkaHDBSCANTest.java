@@ -0,0 +1,130 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.hierarchical;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import elki.Algorithm;
+import elki.clustering.AbstractClusterAlgorithmTest;
+import elki.clustering.hierarchical.extraction.CutDendrogramByNumberOfClusters;
+import elki.clustering.hierarchical.extraction.HDBSCANHierarchyExtraction;
+import elki.data.Clustering;
+import elki.data.NumberVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.database.ids.DBIDIter;
+import elki.database.relation.Relation;
+import elki.datasource.ArrayAdapterDatabaseConnection;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.distance.minkowski.SquaredEuclideanDistance;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Perform HDBSCAN unit test with the dual-tree Borůvka algorithm.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class BoruvkaHDBSCANTest extends AbstractClusterAlgorithmTest {
+  /**
+   * Run agglomerative hierarchical clustering with fixed parameters and compare
+   * the result to a golden standard.
+   */
+  @Test
+  public void testHDBSCAN() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    Clustering<?> clustering = new ELKIBuilder<>(CutDendrogramByNumberOfClusters.class) //
+        .with(CutDendrogramByNumberOfClusters.Par.MINCLUSTERS_ID, 3) //
+        .with(Algorithm.Utils.ALGORITHM_ID, BoruvkaHDBSCAN.class) //
+        .with(BoruvkaHDBSCAN.Par.MIN_PTS_ID, 20) //
+        .build().autorun(db);
+    assertFMeasure(db, clustering, 0.686953412);
+    assertClusterSizes(clustering, new int[] { 1, 200, 437 });
+  }
+
+  /**
+   * Use with the HDBSCAN* cluster extraction, same result as with
+   * {@link HDBSCANLinearMemory}.
+   */
+  @Test
+  public void testHDBSCANExtraction() {
+    Database db = makeSimpleDatabase(UNITTEST + "3clusters-and-noise-2d.csv", 330);
+    Clustering<?> clustering = new ELKIBuilder<>(HDBSCANHierarchyExtraction.class) //
+        .with(HDBSCANHierarchyExtraction.Par.MINCLUSTERSIZE_ID, 50) //
+        .with(Algorithm.Utils.ALGORITHM_ID, BoruvkaHDBSCAN.class) //
+        .with(BoruvkaHDBSCAN.Par.MIN_PTS_ID, 20) //
+        .build().autorun(db);
+    assertFMeasure(db, clustering, 0.97218);
+    assertClusterSizes(clustering, new int[] { 21, 54, 103, 152 });
+  }
+
+  /**
+   * The spanning tree must have the same edge weights as the one computed
+   * with Prim's algorithm, and the same core distances.
+   */
+  @Test
+  public void testSameAsPrim() {
+    Database db = makeSimpleDatabase(UNITTEST + "subspace-overlapping-4-5d.ascii", 1100);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    PointerDensityHierarchyRepresentationResult exp = new HDBSCANLinearMemory<NumberVector>(EuclideanDistance.STATIC, 5).run(rel);
+    PointerDensityHierarchyRepresentationResult res = new BoruvkaHDBSCAN<NumberVector>(EuclideanDistance.STATIC, 5).run(rel);
+    final int n = rel.size();
+    double[] el = new double[n], rl = new double[n], ec = new double[n], rc = new double[n];
+    int i = 0;
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance(), i++) {
+      el[i] = exp.getParentDistanceStore().doubleValue(it);
+      rl[i] = res.getParentDistanceStore().doubleValue(it);
+      ec[i] = exp.getCoreDistanceStore().doubleValue(it);
+      rc[i] = res.getCoreDistanceStore().doubleValue(it);
+    }
+    assertArrayEquals("Core distances differ.", ec, rc, 1e-15);
+    Arrays.sort(el);
+    Arrays.sort(rl);
+    assertArrayEquals("Spanning tree differs.", el, rl, 1e-15);
+  }
+
+  /**
+   * Regression test against github #46O
+   */
+  @Test
+  public void testHDBSCANCornerCase() {
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(new double[][] { { 1, 0 }, { 0, 1 } }), null);
+    db.initialize();
+    new ELKIBuilder<>(CutDendrogramByNumberOfClusters.class) //
+        .with(CutDendrogramByNumberOfClusters.Par.MINCLUSTERS_ID, 3) //
+        .with(Algorithm.Utils.ALGORITHM_ID, BoruvkaHDBSCAN.class) //
+        .with(BoruvkaHDBSCAN.Par.MIN_PTS_ID, 20) //
+        .build().autorun(db);
+    db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(new double[][] { { 0 } }), null);
+    db.initialize();
+    new ELKIBuilder<>(CutDendrogramByNumberOfClusters.class) //
+        .with(CutDendrogramByNumberOfClusters.Par.MINCLUSTERS_ID, 3) //
+        .with(Algorithm.Utils.ALGORITHM_ID, BoruvkaHDBSCAN.class) //
+        .with(Algorithm.Utils.DISTANCE_FUNCTION_ID, SquaredEuclideanDistance.class) //
+        .with(BoruvkaHDBSCAN.Par.MIN_PTS_ID, 20) //
+        .build().autorun(db);
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.hierarchical.birch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import elki.algorithm.AbstractSimpleAlgorithmTest;
+import elki.clustering.hierarchical.birch.CFTree.LeafIterator;
+import elki.data.NumberVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.database.ids.ArrayDBIDs;
+import elki.database.ids.DBIDUtil;
+import elki.database.relation.Relation;
+import elki.datasource.ArrayAdapterDatabaseConnection;
+import elki.datasource.bundle.StreamFromBundle;
+
+/**
+ * Test merging and streaming construction of CF-trees.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class CFTreeTest {
+  /**
+   * Maximum number of leaves.
+   */
+  private static final int MAXLEAVES = 50;
+
+  /**
+   * Merging two trees must preserve all statistics.
+   */
+  @Test
+  public void testMerge() {
+    double[][] data = AbstractSimpleAlgorithmTest.makeRandomData(20000, 2, 4, 0L);
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db.initialize();
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    ArrayDBIDs ids = DBIDUtil.ensureArray(rel.getDBIDs());
+    CFTree.Factory factory = makeFactory();
+    CFTree tree = factory.newTree(DBIDUtil.newArray(ids.slice(0, 8000)), rel);
+    CFTree other = factory.newTree(DBIDUtil.newArray(ids.slice(8000, ids.size())), rel);
+    final double t1 = tree.thresholdsq, t2 = other.thresholdsq;
+    tree.merge(other, MAXLEAVES);
+    assertTrue("Threshold decreased.", tree.thresholdsq >= Math.max(t1, t2));
+    checkTree(tree, data);
+  }
+
+  /**
+   * Build a tree on several partitions, which are merged.
+   */
+  @Test
+  public void testPartitions() {
+    // More than two minimum partition sizes:
+    double[][] data = AbstractSimpleAlgorithmTest.makeRandomData(30000, 2, 4, 0L);
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db.initialize();
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    CFTree tree = makeFactory().newTree(rel.getDBIDs(), rel, 4);
+    checkTree(tree, data);
+  }
+
+  /**
+   * Build a tree from a stream.
+   */
+  @Test
+  public void testStream() {
+    double[][] data = AbstractSimpleAlgorithmTest.makeRandomData(20000, 2, 4, 0L);
+    CFTree tree = makeFactory().newTree(new StreamFromBundle(new ArrayAdapterDatabaseConnection(data).loadData()));
+    checkTree(tree, data);
+  }
+
+  /**
+   * Check the leaves of the tree against the data.
+   *
+   * @param tree Tree
+   * @param data Data
+   */
+  private static void checkTree(CFTree tree, double[][] data) {
+    final int dim = data[0].length;
+    double[] els = new double[dim], ls = new double[dim];
+    double ess = 0, ss = 0;
+    for(double[] v : data) {
+      for(int d = 0; d < dim; d++) {
+        els[d] += v[d];
+        ess += v[d] * v[d];
+      }
+    }
+    int n = 0, leaves = 0;
+    for(LeafIterator it = tree.leafIterator(); it.valid(); it.advance(), leaves++) {
+      ClusteringFeature cf = it.get();
+      n += cf.n;
+      for(int d = 0; d < dim; d++) {
+        ls[d] += cf.ls[d];
+      }
+      ss += cf.ss;
+    }
+    assertEquals("Leaf count incorrect.", tree.leaves, leaves);
+    assertTrue("Too many leaves: " + leaves, leaves <= MAXLEAVES);
+    assertEquals("Objects lost.", data.length, n);
+    assertEquals("Objects lost.", data.length, tree.root.n);
+    assertArrayEquals("Linear sums differ.", els, ls, 1e-8);
+    assertEquals("Sum of squares differs.", ess, ss, 1e-6);
+  }
+
+  /**
+   * Make the tree factory.
+   *
+   * @return Factory
+   */
+  private static CFTree.Factory makeFactory() {
+    return new CFTree.Factory(VarianceIncreaseDistance.STATIC, DiameterCriterion.STATIC, 0., 16, MAXLEAVES);
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.kmeans;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import elki.clustering.AbstractClusterAlgorithmTest;
+import elki.clustering.kmeans.initialization.RandomlyChosen;
+import elki.clustering.kmeans.quality.WithinClusterVariance;
+import elki.data.Cluster;
+import elki.data.Clustering;
+import elki.data.DoubleVector;
+import elki.data.model.KMeansModel;
+import elki.database.Database;
+import elki.database.ids.DBIDUtil;
+import elki.database.relation.Relation;
+import elki.distance.minkowski.SquaredEuclideanDistance;
+import elki.utilities.ELKIBuilder;
+import elki.utilities.random.RandomFactory;
+
+/**
+ * Test the best-of-multiple k-means restarts.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class BestOfMultipleKMeansTest extends AbstractClusterAlgorithmTest {
+  /**
+   * Concurrent trials must produce the same result as sequential trials.
+   */
+  @Test
+  public void testConcurrentTrials() {
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d-no-noise.ascii", 1000);
+    Relation<DoubleVector> rel = db.getRelation(DoubleVector.FIELD);
+    Clustering<KMeansModel> concurrent = new ELKIBuilder<BestOfMultipleKMeans<DoubleVector, KMeansModel>>(BestOfMultipleKMeans.class) //
+        .with(KMeans.K_ID, 5) //
+        .with(KMeans.SEED_ID, 3) //
+        .with(BestOfMultipleKMeans.Par.TRIALS_ID, 5) //
+        .with(BestOfMultipleKMeans.Par.KMEANS_ID, LloydKMeans.class) //
+        .with(BestOfMultipleKMeans.Par.QUALITYMEASURE_ID, WithinClusterVariance.class) //
+        .build().run(rel);
+    Clustering<KMeansModel> sequential = new BestOfMultipleKMeans<DoubleVector, KMeansModel>(5, //
+        new LloydKMeans<>(SquaredEuclideanDistance.STATIC, 5, 0, new RandomlyChosen<>(new RandomFactory(3))), //
+        new WithinClusterVariance()).run(rel);
+    assertFMeasure(db, concurrent, 0.998005);
+    assertClusterSizes(concurrent, new int[] { 199, 200, 200, 200, 201 });
+    List<Cluster<KMeansModel>> c1 = concurrent.getAllClusters(), c2 = sequential.getAllClusters();
+    assertEquals("Number of clusters differs.", c2.size(), c1.size());
+    for(int i = 0; i < c1.size(); i++) {
+      assertEquals("Cluster differs.", c2.get(i).size(), DBIDUtil.intersectionSize(c1.get(i).getIDs(), c2.get(i).getIDs()));
+    }
+  }
+}
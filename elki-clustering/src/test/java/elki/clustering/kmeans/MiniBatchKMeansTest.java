@@ -0,0 +1,99 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.kmeans;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import elki.clustering.AbstractClusterAlgorithmTest;
+import elki.data.Clustering;
+import elki.data.DoubleVector;
+import elki.database.Database;
+import elki.datasource.ArrayAdapterDatabaseConnection;
+import elki.datasource.bundle.StreamFromBundle;
+import elki.math.linearalgebra.VMath;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Regression test for mini-batch k-means.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class MiniBatchKMeansTest extends AbstractClusterAlgorithmTest {
+  @Test
+  public void testMiniBatchKMeans() {
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d-no-noise.ascii", 1000);
+    Clustering<?> result = new ELKIBuilder<MiniBatchKMeans<DoubleVector>>(MiniBatchKMeans.class) //
+        .with(KMeans.K_ID, 5) //
+        .with(KMeans.SEED_ID, 7) //
+        .with(MiniBatchKMeans.Par.SEED_ID, 7) //
+        .with(MiniBatchKMeans.Par.BATCHSIZE_ID, 100) //
+        .build().autorun(db);
+    assertFMeasure(db, result, 0.998005);
+    assertClusterSizes(result, new int[] { 199, 200, 200, 200, 201 });
+  }
+
+  @Test
+  public void testStreamFile() {
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d-no-noise.ascii", 1000);
+    Clustering<?> result = new ELKIBuilder<MiniBatchKMeans<DoubleVector>>(MiniBatchKMeans.class) //
+        .with(KMeans.K_ID, 5) //
+        .with(KMeans.SEED_ID, 7) //
+        .with(MiniBatchKMeans.Par.BATCHSIZE_ID, 100) //
+        .with(MiniBatchKMeans.Par.STREAM_ID, //
+            getClass().getClassLoader().getResource(UNITTEST + "different-densities-2d-no-noise.ascii")) //
+        .build().autorun(db);
+    // Single pass over a file sorted by cluster, hence worse than sampling:
+    assertFMeasure(db, result, 0.809449);
+    assertClusterSizes(result, new int[] { 0, 185, 200, 215, 400 });
+  }
+
+  @Test
+  public void testStream() {
+    Random rnd = new Random(0L);
+    double[][] centers = { { 0, 0 }, { 10, 0 }, { 0, 10 }, { 10, 10 } };
+    double[][] data = new double[10000][];
+    for(int i = 0; i < data.length; i++) {
+      double[] c = centers[rnd.nextInt(centers.length)];
+      data[i] = new double[] { c[0] + rnd.nextGaussian(), c[1] + rnd.nextGaussian() };
+    }
+    MiniBatchKMeans<DoubleVector> mbk = new ELKIBuilder<MiniBatchKMeans<DoubleVector>>(MiniBatchKMeans.class) //
+        .with(KMeans.K_ID, 4) //
+        .with(KMeans.SEED_ID, 0) //
+        .with(MiniBatchKMeans.Par.SEED_ID, 0) //
+        .with(MiniBatchKMeans.Par.BATCHSIZE_ID, 200) //
+        .build();
+    double[][] means = mbk.runStream(new StreamFromBundle(new ArrayAdapterDatabaseConnection(data).loadData()));
+    assertEquals("Wrong number of centers.", 4, means.length);
+    for(double[] c : centers) {
+      double best = Double.POSITIVE_INFINITY;
+      for(double[] m : means) {
+        best = Math.min(best, VMath.euclideanLength(VMath.minus(c, m)));
+      }
+      assertTrue("Center not found: " + best, best < 0.5);
+    }
+  }
+}
@@ -20,13 +20,27 @@
  */
 package elki.clustering.kmeans;
 
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Test;
 
 import elki.clustering.AbstractClusterAlgorithmTest;
+import elki.clustering.kmeans.initialization.RandomlyChosen;
+import elki.clustering.kmeans.quality.BayesianInformationCriterionXMeans;
+import elki.clustering.kmeans.quality.KMeansQualityMeasure;
+import elki.data.Cluster;
 import elki.data.Clustering;
 import elki.data.DoubleVector;
+import elki.data.model.KMeansModel;
 import elki.database.Database;
+import elki.database.ids.DBIDUtil;
+import elki.database.relation.Relation;
+import elki.distance.minkowski.SquaredEuclideanDistance;
 import elki.utilities.ELKIBuilder;
+import elki.utilities.random.RandomFactory;
 
 /**
  * Regression test for X-Means.
@@ -52,4 +66,29 @@ public class XMeansTest extends AbstractClusterAlgorithmTest {
     assertFMeasure(db, result, 0.959044);
     assertClusterSizes(result, new int[] { 1, 1, 2, 2, 2, 2, 2, 3, 5, 51, 106, 153 });
   }
+
+  /**
+   * Concurrent splitting must produce the same result as sequential splitting.
+   */
+  @Test
+  public void testConcurrentSplits() {
+    Database db = makeSimpleDatabase(UNITTEST + "3clusters-and-noise-2d.csv", 330);
+    Relation<DoubleVector> rel = db.getRelation(DoubleVector.FIELD);
+    @SuppressWarnings("unchecked")
+    KMeansQualityMeasure<DoubleVector> bic = (KMeansQualityMeasure<DoubleVector>) (KMeansQualityMeasure<?>) new BayesianInformationCriterionXMeans();
+    List<KMeans<DoubleVector, KMeansModel>> instances = new ArrayList<>();
+    for(int i = 0; i < 4; i++) {
+      instances.add(new ExponionKMeans<>(SquaredEuclideanDistance.STATIC, 2, 0, null, false));
+    }
+    Clustering<KMeansModel> concurrent = new XMeans<>(SquaredEuclideanDistance.STATIC, 2, 20, 0, instances, //
+        new RandomlyChosen<>(new RandomFactory(0)), bic, new RandomFactory(0)).run(rel);
+    Clustering<KMeansModel> sequential = new XMeans<>(SquaredEuclideanDistance.STATIC, 2, 20, 0, //
+        new ExponionKMeans<DoubleVector>(SquaredEuclideanDistance.STATIC, 2, 0, null, false), //
+        new RandomlyChosen<>(new RandomFactory(0)), bic, new RandomFactory(0)).run(rel);
+    List<Cluster<KMeansModel>> c1 = concurrent.getAllClusters(), c2 = sequential.getAllClusters();
+    assertEquals("Number of clusters differs.", c2.size(), c1.size());
+    for(int i = 0; i < c1.size(); i++) {
+      assertEquals("Cluster differs.", c2.get(i).size(), DBIDUtil.intersectionSize(c1.get(i).getIDs(), c2.get(i).getIDs()));
+    }
+  }
 }
@@ -0,0 +1,116 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.clustering.kmeans.parallel;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+import elki.clustering.AbstractClusterAlgorithmTest;
+import elki.clustering.kmeans.*;
+import elki.clustering.kmeans.initialization.Predefined;
+import elki.data.Cluster;
+import elki.data.Clustering;
+import elki.data.DoubleVector;
+import elki.database.Database;
+import elki.distance.minkowski.SquaredEuclideanDistance;
+
+/**
+ * Regression test for the shared update step of the parallel k-means
+ * variants: a cluster that is empty from the start must keep its previous
+ * mean, as in the sequential implementations.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class AbstractParallelKMeansTest extends AbstractClusterAlgorithmTest {
+  /**
+   * Initial means; the last one is far away from all data points.
+   * <p>
+   * A new array is used every time, as the means are updated in-place.
+   *
+   * @return Initialization
+   */
+  private static Predefined initial() {
+    return new Predefined(new double[][] { { 12, -2, 1 }, { 1, 0, 0 }, { 1000, 1000, 1000 } });
+  }
+
+  @Test
+  public void testEmptyClusterLloyd() {
+    assertSameSizes(new LloydKMeans<DoubleVector>(SquaredEuclideanDistance.STATIC, 3, 0, initial()), //
+        new ParallelLloydKMeans<DoubleVector>(SquaredEuclideanDistance.STATIC, 3, 0, initial()));
+  }
+
+  @Test
+  public void testEmptyClusterElkan() {
+    assertSameSizes(new ElkanKMeans<DoubleVector>(SquaredEuclideanDistance.STATIC, 3, 0, initial(), false), //
+        new ParallelElkanKMeans<DoubleVector>(SquaredEuclideanDistance.STATIC, 3, 0, initial(), false));
+  }
+
+  @Test
+  public void testEmptyClusterSimplifiedElkan() {
+    assertSameSizes(new SimplifiedElkanKMeans<DoubleVector>(SquaredEuclideanDistance.STATIC, 3, 0, initial(), false), //
+        new ParallelSimplifiedElkanKMeans<DoubleVector>(SquaredEuclideanDistance.STATIC, 3, 0, initial(), false));
+  }
+
+  @Test
+  public void testEmptyClusterHamerly() {
+    assertSameSizes(new HamerlyKMeans<DoubleVector>(SquaredEuclideanDistance.STATIC, 3, 0, initial(), false), //
+        new ParallelHamerlyKMeans<DoubleVector>(SquaredEuclideanDistance.STATIC, 3, 0, initial(), false));
+  }
+
+  @Test
+  public void testEmptyClusterExponion() {
+    assertSameSizes(new ExponionKMeans<DoubleVector>(SquaredEuclideanDistance.STATIC, 3, 0, initial(), false), //
+        new ParallelExponionKMeans<DoubleVector>(SquaredEuclideanDistance.STATIC, 3, 0, initial(), false));
+  }
+
+  @Test
+  public void testEmptyClusterYinYang() {
+    assertSameSizes(new YinYangKMeans<DoubleVector>(3, 0, initial(), 1), //
+        new ParallelYinYangKMeans<DoubleVector>(SquaredEuclideanDistance.STATIC, 3, 0, initial(), false, 1));
+  }
+
+  /**
+   * Run the sequential and the parallel variant, and compare the cluster
+   * sizes.
+   *
+   * @param sequential Sequential k-means
+   * @param parallel Parallel k-means
+   */
+  private void assertSameSizes(KMeans<DoubleVector, ?> sequential, KMeans<DoubleVector, ?> parallel) {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960);
+    int[] expected = sizes(sequential.autorun(db));
+    assertArrayEquals(expected, sizes(parallel.autorun(db)));
+  }
+
+  /**
+   * Get the sizes of the non-empty clusters; some variants do not report
+   * empty clusters at all.
+   *
+   * @param clustering Clustering
+   * @return Cluster sizes
+   */
+  private static int[] sizes(Clustering<?> clustering) {
+    return clustering.getAllClusters().stream() //
+        .mapToInt(Cluster::size).filter(s -> s > 0).toArray();
+  }
+}
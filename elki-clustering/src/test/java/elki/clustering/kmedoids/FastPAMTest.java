@@ -20,15 +20,29 @@
  */
 package elki.clustering.kmedoids;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import org.junit.Test;
 
 import elki.clustering.AbstractClusterAlgorithmTest;
 import elki.clustering.kmeans.KMeans;
+import elki.clustering.kmeans.initialization.RandomlyChosen;
 import elki.data.Clustering;
 import elki.data.DoubleVector;
 import elki.data.model.MedoidModel;
 import elki.database.Database;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableIntegerDataStore;
+import elki.database.ids.ArrayModifiableDBIDs;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DBIDs;
+import elki.database.query.distance.DistanceQuery;
+import elki.database.relation.Relation;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.parallel.ParallelCore;
 import elki.utilities.ELKIBuilder;
+import elki.utilities.random.RandomFactory;
 
 /**
  * Performs a full PAM run, and compares the result with a clustering derived
@@ -50,4 +64,32 @@ public class FastPAMTest extends AbstractClusterAlgorithmTest {
     assertFMeasure(db, result, 0.998005);
     assertClusterSizes(result, new int[] { 199, 200, 200, 200, 201 });
   }
+
+  /**
+   * Concurrent swap evaluation must give the same result as sequential.
+   */
+  @Test
+  public void testParallelSwaps() {
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d-no-noise.ascii", 1000);
+    Relation<DoubleVector> rel = db.getRelation(DoubleVector.FIELD);
+    DistanceQuery<DoubleVector> distQ = EuclideanDistance.STATIC.instantiate(rel);
+    DBIDs ids = rel.getDBIDs();
+    DBIDs init = new RandomlyChosen<DoubleVector>(new RandomFactory(0)).chooseInitialMedoids(10, ids, distQ);
+    ArrayModifiableDBIDs m1 = DBIDUtil.newArray(init), m2 = DBIDUtil.newArray(init);
+    WritableIntegerDataStore assignment = DataStoreUtil.makeIntegerStorage(ids, 0);
+    double c1 = new FastPAM.Instance(distQ, ids, assignment, 1.).run(m1, 0);
+    ParallelCore core = ParallelCore.getCore();
+    core.connect();
+    double c2;
+    try {
+      c2 = new FastPAM.Instance(distQ, ids, assignment, 1.).parallel().run(m2, 0);
+    }
+    finally {
+      core.disconnect();
+    }
+    assertEquals("Cost differs.", c1, c2, 0.);
+    for(int i = 0; i < 10; i++) {
+      assertTrue("Medoids differ.", DBIDUtil.equal(m1.iter().seek(i), m2.iter().seek(i)));
+    }
+  }
 }
@@ -24,6 +24,12 @@ import elki.database.ids.KNNList;
 
 /**
  * The interface of an actual instance.
+ * <p>
+ * Searcher instances are <em>not</em> thread-safe in general, as they may
+ * reuse internal buffers across queries. For concurrent queries, obtain one
+ * searcher per thread (e.g., using a {@link java.util.function.Supplier});
+ * the underlying indexes support concurrent readers as long as they are not
+ * modified at the same time.
  * 
  * @author Erich Schubert
  * @since 0.4.0
@@ -0,0 +1,50 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index;
+
+import elki.database.datastore.WritableDataStore;
+import elki.database.ids.KNNList;
+import elki.database.query.distance.DistanceQuery;
+
+/**
+ * Index that can compute the k nearest neighbors of all indexed objects at
+ * once (an all-kNN self-join), which is usually much faster than issuing one
+ * query per object.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @opt nodefillcolor LemonChiffon
+ *
+ * @param <O> Object type
+ */
+public interface KNNSelfJoinIndex<O> extends Index {
+  /**
+   * Compute the k nearest neighbors of all indexed objects.
+   * <p>
+   * This function MAY return null, when the given distance is not supported!
+   *
+   * @param distanceQuery Distance query
+   * @param k Number of neighbors
+   * @return kNN lists of all objects, or {@code null}
+   */
+  WritableDataStore<KNNList> kNNSelfJoin(DistanceQuery<O> distanceQuery, int k);
+}
@@ -84,12 +84,21 @@ public class ParallelCore {
 
   /**
    * Submit a task to the executor core.
+   * <p>
+   * Tasks submitted from within a worker thread (e.g., a k-means run inside a
+   * concurrent restart) are executed immediately in the calling thread, as
+   * waiting for them in a fully occupied pool would dead-lock.
    * 
    * @param task Submitted task
    * 
    * @return Future to observe completion
    */
   public <T> Future<T> submit(Callable<T> task) {
+    if(Thread.currentThread() instanceof Worker) {
+      FutureTask<T> inline = new FutureTask<>(task);
+      inline.run();
+      return inline;
+    }
     return executor.submit(task);
   }
 
@@ -98,7 +107,7 @@ public class ParallelCore {
    */
   public synchronized void connect() {
     if(executor == null) {
-      executor = new ThreadPoolExecutor(0, processors, 10L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+      executor = new ThreadPoolExecutor(0, processors, 10L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), Worker::new);
       executor.allowCoreThreadTimeOut(true);
     }
     if(++connected == 1) {
@@ -116,4 +125,20 @@ public class ParallelCore {
       executor.setCorePoolSize(0);
     }
   }
+
+  /**
+   * Worker threads of the pool, to detect nested submissions.
+   *
+   * @author Erich Schubert
+   */
+  private static class Worker extends Thread {
+    /**
+     * Constructor.
+     *
+     * @param r Runnable
+     */
+    Worker(Runnable r) {
+      super(r);
+    }
+  }
 }
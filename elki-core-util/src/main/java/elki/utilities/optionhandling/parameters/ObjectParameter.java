@@ -42,6 +42,11 @@ public class ObjectParameter<C> extends ClassParameter<C> {
    */
   private C instance;
 
+  /**
+   * Flag whether the instance was created by us, rather than given.
+   */
+  private boolean created;
+
   /**
    * Constructs a class parameter with the given optionID, restriction class,
    * and default value.
@@ -138,7 +143,23 @@ public class ObjectParameter<C> extends ClassParameter<C> {
    */
   @Override
   public C instantiateClass(Parameterization config) {
-    return (instance != null) ? instance : (instance = super.instantiateClass(config));
+    if(instance == null) {
+      instance = super.instantiateClass(config);
+      created = instance != null;
+    }
+    return instance;
     // NOTE: instance may remain null here, when instantiateClass failed.
   }
+
+  /**
+   * Returns an additional, independent instance of the class, e.g., for use
+   * in different threads. This is not possible when an instance rather than a
+   * class was given as value.
+   *
+   * @param config Parameterization
+   * @return New instance, or {@code null} if an instance was given as value
+   */
+  public C instantiateCopy(Parameterization config) {
+    return instance != null && !created ? null : super.instantiateClass(config);
+  }
 }
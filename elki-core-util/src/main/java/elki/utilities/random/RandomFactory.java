@@ -64,6 +64,11 @@ public class RandomFactory {
    */
   protected long seed;
 
+  /**
+   * Increment of the seed after each generator.
+   */
+  private final long step;
+
   /**
    * Factory method: Get a random factory for the given seed.
    * 
@@ -80,8 +85,37 @@ public class RandomFactory {
    * @param seed Random seed
    */
   public RandomFactory(long seed) {
+    this(seed, 1L);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param seed Random seed
+   * @param step Seed increment
+   */
+  private RandomFactory(long seed, long step) {
     super();
     this.seed = seed;
+    this.step = step;
+  }
+
+  /**
+   * Derive factories for concurrent use, e.g., for running restarts in
+   * parallel. The i-th factory produces the generators of the i-th, (i+n)-th,
+   * (i+2n)-th, ... call of this factory. If each user draws one generator at a
+   * time, results hence do not change compared to sequential use.
+   * 
+   * @param n Number of factories
+   * @return Derived factories
+   */
+  public RandomFactory[] split(int n) {
+    RandomFactory[] factories = new RandomFactory[n];
+    for(int i = 0; i < n; i++) {
+      factories[i] = new RandomFactory(seed + i * step, n * step);
+    }
+    seed += n * step;
+    return factories;
   }
 
   /**
@@ -90,7 +124,9 @@ public class RandomFactory {
    * @return Random generator
    */
   public Random getRandom() {
-    return new Random(seed++);
+    final long s = seed;
+    seed += step;
+    return new Random(s);
   }
 
   /**
@@ -99,7 +135,9 @@ public class RandomFactory {
    * @return Random generator
    */
   public Random getSingleThreadedRandom() {
-    return new Xoroshiro128NonThreadsafeRandom(seed++);
+    final long s = seed;
+    seed += step;
+    return new Xoroshiro128NonThreadsafeRandom(s);
   }
 
   @Override
@@ -21,6 +21,8 @@
 package elki.index.lsh;
 
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import elki.data.type.TypeInformation;
 import elki.database.ids.*;
@@ -45,10 +47,14 @@ import elki.utilities.optionhandling.parameterization.Parameterization;
 import elki.utilities.optionhandling.parameters.IntParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
-
 /**
  * Locality Sensitive Hashing.
+ * <p>
+ * The buckets of each hash table are stored in a compact layout (compressed
+ * sparse rows): an array of bucket offsets, and an array of object positions.
+ * The hash tables are built in parallel. Queries can probe additional buckets
+ * close to the query (multi-probe LSH), which allows using fewer tables for
+ * the same recall.
  *
  * @author Erich Schubert
  * @since 0.6.0
@@ -79,23 +85,30 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
    */
   int numberOfBuckets;
 
+  /**
+   * Number of additional buckets to probe in each table.
+   */
+  int probes;
+
   /**
    * Constructor.
    *
    * @param family Projection family
    * @param l Number of hash tables to use
    * @param numberOfBuckets Number of buckets to use.
+   * @param probes Number of additional buckets to probe in each table
    */
-  public InMemoryLSHIndex(LocalitySensitiveHashFunctionFamily<? super V> family, int l, int numberOfBuckets) {
+  public InMemoryLSHIndex(LocalitySensitiveHashFunctionFamily<? super V> family, int l, int numberOfBuckets, int probes) {
     super();
     this.family = family;
     this.l = l;
     this.numberOfBuckets = numberOfBuckets;
+    this.probes = probes;
   }
 
   @Override
   public Instance instantiate(Relation<V> relation) {
-    return new Instance(relation, family.generateHashFunctions(relation, l), numberOfBuckets);
+    return new Instance(relation, family.generateHashFunctions(relation, l), numberOfBuckets, probes);
   }
 
   @Override
@@ -117,78 +130,159 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
     ArrayList<? extends LocalitySensitiveHashFunction<? super V>> hashfunctions;
 
     /**
-     * The actual table
+     * Indexed objects.
+     */
+    ArrayDBIDs ids;
+
+    /**
+     * Bucket offsets of each table, of length {@code numberOfBuckets+1}.
+     */
+    int[][] offsets;
+
+    /**
+     * Positions of the objects in each table, ordered by bucket.
      */
-    ArrayList<Int2ObjectOpenHashMap<DBIDs>> hashtables;
+    int[][] members;
 
     /**
      * Number of buckets to use.
      */
     private int numberOfBuckets;
 
+    /**
+     * Number of additional buckets to probe in each table.
+     */
+    private int probes;
+
     /**
      * Constructor.
      *
      * @param relation Relation to index.
      * @param hashfunctions Hash functions.
+     * @param numberOfBuckets Number of buckets to use.
+     * @param probes Number of additional buckets to probe in each table
      */
-    public Instance(Relation<V> relation, ArrayList<? extends LocalitySensitiveHashFunction<? super V>> hashfunctions, int numberOfBuckets) {
+    public Instance(Relation<V> relation, ArrayList<? extends LocalitySensitiveHashFunction<? super V>> hashfunctions, int numberOfBuckets, int probes) {
       super(relation);
       this.hashfunctions = hashfunctions;
       this.numberOfBuckets = numberOfBuckets;
+      this.probes = probes;
     }
 
     @Override
     public void initialize() {
       final int numhash = hashfunctions.size();
-      hashtables = new ArrayList<>(numhash);
-      for(int i = 0; i < numhash; i++) {
-        hashtables.add(new Int2ObjectOpenHashMap<DBIDs>(numberOfBuckets));
+      ids = DBIDUtil.ensureArray(relation.getDBIDs());
+      offsets = new int[numhash][];
+      members = new int[numhash][];
+      FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("Building LSH index", numhash, LOG) : null;
+      // Each table has its own hash function, which need not be thread safe.
+      if(numhash > 1) {
+        ForkJoinPool.commonPool().invoke(new BuildTask(0, numhash, progress));
       }
-
-      // TODO: We assume all hash functions have the same dimensionality.
-      double[] buf = new double[hashfunctions.get(0).getNumberOfProjections()];
-      FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("Building LSH index", relation.size(), LOG) : null;
-      int expect = Math.max(2, (int) Math.ceil(relation.size() / (double) numberOfBuckets));
-      for(DBIDIter iter = relation.getDBIDs().iter(); iter.valid(); iter.advance()) {
-        V obj = relation.get(iter);
-        for(int i = 0; i < numhash; i++) {
-          final Int2ObjectOpenHashMap<DBIDs> table = hashtables.get(i);
-          final LocalitySensitiveHashFunction<? super V> hashfunc = hashfunctions.get(i);
-          // Get the initial (unbounded) hash code:
-          int hash = hashfunc.hashObject(obj, buf);
-          // Reduce to hash table size
-          int bucket = hash % numberOfBuckets;
-          DBIDs cur = table.get(bucket);
-          if(cur == null) {
-            table.put(bucket, DBIDUtil.deref(iter));
-          }
-          else if(cur.size() > 1) {
-            ((ModifiableDBIDs) cur).add(iter);
-          }
-          else {
-            ModifiableDBIDs newbuck = DBIDUtil.newArray(expect);
-            newbuck.addDBIDs(cur);
-            newbuck.add(iter);
-            table.put(bucket, newbuck);
-          }
-        }
+      else {
+        buildTable(0);
         LOG.incrementProcessed(progress);
       }
       LOG.ensureCompleted(progress);
       if(LOG.isStatistics()) {
         int min = Integer.MAX_VALUE, max = 0;
         for(int i = 0; i < numhash; i++) {
-          final Int2ObjectOpenHashMap<DBIDs> table = hashtables.get(i);
-          for(DBIDs set : table.values()) {
-            final int size = set.size();
-            min = size < min ? size : min;
-            max = size > max ? size : max;
+          final int[] offs = offsets[i];
+          for(int b = 0; b < numberOfBuckets; b++) {
+            final int size = offs[b + 1] - offs[b];
+            if(size > 0) {
+              min = size < min ? size : min;
+              max = size > max ? size : max;
+            }
           }
         }
         LOG.statistics(new LongStatistic(this.getClass().getName() + ".fill.min", min));
         LOG.statistics(new LongStatistic(this.getClass().getName() + ".fill.max", max));
-        LOG.statistics(new LongStatistic(this.getClass().getName() + ".hashtables", hashtables.size()));
+        LOG.statistics(new LongStatistic(this.getClass().getName() + ".hashtables", numhash));
+      }
+    }
+
+    /**
+     * Build a single hash table, using counting sort by bucket.
+     *
+     * @param i Table number
+     */
+    protected void buildTable(int i) {
+      final LocalitySensitiveHashFunction<? super V> hashfunc = hashfunctions.get(i);
+      final double[] buf = new double[hashfunc.getNumberOfProjections()];
+      final int size = ids.size();
+      final int[] buckets = new int[size], offs = new int[numberOfBuckets + 1];
+      for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+        final int bucket = buckets[iter.getOffset()] = bucket(hashfunc.hashObject(relation.get(iter), buf));
+        ++offs[bucket + 1];
+      }
+      for(int b = 0; b < numberOfBuckets; b++) {
+        offs[b + 1] += offs[b];
+      }
+      final int[] mem = new int[size], pos = new int[numberOfBuckets];
+      System.arraycopy(offs, 0, pos, 0, numberOfBuckets);
+      for(int j = 0; j < size; j++) {
+        mem[pos[buckets[j]]++] = j;
+      }
+      offsets[i] = offs;
+      members[i] = mem;
+    }
+
+    /**
+     * Reduce a hash code to the hash table size.
+     *
+     * @param hash Hash code
+     * @return Bucket number
+     */
+    private int bucket(int hash) {
+      final int bucket = hash % numberOfBuckets;
+      return bucket < 0 ? bucket + numberOfBuckets : bucket;
+    }
+
+    /**
+     * Task to build a range of hash tables.
+     *
+     * @author Erich Schubert
+     */
+    private class BuildTask extends RecursiveAction {
+      /**
+       * Serialization version.
+       */
+      private static final long serialVersionUID = 1L;
+
+      /**
+       * Range of tables.
+       */
+      private final int begin, end;
+
+      /**
+       * Progress.
+       */
+      private final FiniteProgress progress;
+
+      /**
+       * Constructor.
+       *
+       * @param begin First table
+       * @param end End of tables (exclusive)
+       * @param progress Progress
+       */
+      BuildTask(int begin, int end, FiniteProgress progress) {
+        this.begin = begin;
+        this.end = end;
+        this.progress = progress;
+      }
+
+      @Override
+      protected void compute() {
+        if(end - begin > 1) {
+          final int mid = (begin + end) >>> 1;
+          invokeAll(new BuildTask(begin, mid, progress), new BuildTask(mid, end, progress));
+          return;
+        }
+        buildTable(begin);
+        LOG.incrementProcessed(progress);
       }
     }
 
@@ -207,33 +301,39 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
     @Override
     public RangeSearcher<V> rangeByObject(DistanceQuery<V> distanceQuery, double maxradius, int flags) {
       return (flags & QueryBuilder.FLAG_EXACT_ONLY) == 0 && // approximate
-          !family.isCompatible(distanceQuery.getDistance()) ? // compatible
+          family.isCompatible(distanceQuery.getDistance()) ? // compatible
               new LSHRangeQuery(distanceQuery) : null;
     }
 
     /**
-     * Get the candidates: points which have at least one hash bucket in common.
+     * Get the candidates: points which have at least one probed hash bucket
+     * in common.
      * 
      * @param obj Query object
      * @return Candidates
      */
     protected DBIDs getCandidates(V obj) {
-      ModifiableDBIDs candidates = null;
-      final int numhash = hashtables.size();
+      HashSetModifiableDBIDs candidates = null;
+      final int numhash = hashfunctions.size();
       double[] buf = new double[hashfunctions.get(0).getNumberOfProjections()];
+      int[] hashes = new int[probes + 1];
+      DBIDArrayIter iter = ids.iter();
       for(int i = 0; i < numhash; i++) {
-        final Int2ObjectOpenHashMap<DBIDs> table = hashtables.get(i);
-        final LocalitySensitiveHashFunction<? super V> hashfunc = hashfunctions.get(i);
-        // Get the initial (unbounded) hash code:
-        int hash = hashfunc.hashObject(obj, buf);
-        // Reduce to hash table size
-        int bucket = hash % numberOfBuckets;
-        DBIDs cur = table.get(bucket);
-        if(cur != null) {
+        final int[] offs = offsets[i], mem = members[i];
+        // Hash codes of the query bucket, and further buckets to probe.
+        final int num = hashfunctions.get(i).hashProbes(obj, buf, hashes);
+        for(int p = 0; p < num; p++) {
+          final int bucket = bucket(hashes[p]);
+          final int begin = offs[bucket], end = offs[bucket + 1];
+          if(begin == end) {
+            continue;
+          }
           if(candidates == null) {
-            candidates = DBIDUtil.newHashSet(cur.size() * numhash);
+            candidates = DBIDUtil.newHashSet((end - begin) * numhash);
+          }
+          for(int j = begin; j < end; j++) {
+            candidates.add(iter.seek(mem[j]));
           }
-          candidates.addDBIDs(cur);
         }
       }
       return (candidates == null) ? DBIDUtil.EMPTYDBIDS : candidates;
@@ -320,6 +420,11 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
      */
     public static final OptionID BUCKETS_ID = new OptionID("lsh.buckets", "Number of hash buckets to use.");
 
+    /**
+     * Number of additional buckets to probe in each table.
+     */
+    public static final OptionID PROBES_ID = new OptionID("lsh.probes", "Number of additional buckets to probe in each hash table (multi-probe LSH).");
+
     /**
      * LSH hash function family to use.
      */
@@ -335,6 +440,11 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
      */
     int numberOfBuckets;
 
+    /**
+     * Number of additional buckets to probe in each table.
+     */
+    int probes;
+
     @Override
     public void configure(Parameterization config) {
       new ObjectParameter<LocalitySensitiveHashFunctionFamily<? super V>>(FAMILY_ID, LocalitySensitiveHashFunctionFamily.class) //
@@ -346,11 +456,14 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
           .setDefaultValue(7919) // Primes work best, apparently.
           .addConstraint(CommonConstraints.GREATER_THAN_ONE_INT) //
           .grab(config, x -> numberOfBuckets = x);
+      new IntParameter(PROBES_ID, 0) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_INT) //
+          .grab(config, x -> probes = x);
     }
 
     @Override
     public InMemoryLSHIndex<V> make() {
-      return new InMemoryLSHIndex<>(family, l, numberOfBuckets);
+      return new InMemoryLSHIndex<>(family, l, numberOfBuckets, probes);
     }
   }
 }
@@ -81,6 +81,31 @@ public class CosineLocalitySensitiveHashFunction implements LocalitySensitiveHas
     return hashValue;
   }
 
+  @Override
+  public int hashProbes(NumberVector obj, double[] buf, int[] hashes) {
+    projection.project(obj, buf);
+    final int num = projection.getOutputDimensionality();
+    // Flipping bits with small projected values is most promising.
+    double[] scores = new double[num];
+    int[] dims = new int[num];
+    int hashValue = 0;
+    for(int i = 0, j = 1; i < num; i++, j <<= 1) {
+      if(buf[i] > 0) {
+        hashValue = hashValue | j;
+      }
+      scores[i] = buf[i] * buf[i];
+      dims[i] = i;
+    }
+    final int base = hashes[0] = hashValue;
+    return PerturbationSequence.generate(scores, dims, hashes, (set, size) -> {
+      int hash = base;
+      for(int j = 0; j < size; j++) {
+        hash ^= 1 << set[j];
+      }
+      return hash;
+    });
+  }
+
   @Override
   public int getNumberOfProjections() {
     return projection.getOutputDimensionality();
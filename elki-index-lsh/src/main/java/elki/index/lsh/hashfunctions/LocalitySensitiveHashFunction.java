@@ -46,6 +46,22 @@ public interface LocalitySensitiveHashFunction<V> {
    */
   int hashObject(V obj, double[] buf);
 
+  /**
+   * Compute the hash value of an object, and of the most promising other
+   * buckets to probe for multi-probe queries.
+   * <p>
+   * The default implementation only produces the hash value of the object.
+   *
+   * @param obj Object to hash
+   * @param buf Buffer, sized according to the number of projections.
+   * @param hashes Output hash values; the first is the hash of the object.
+   * @return Number of hash values produced
+   */
+  default int hashProbes(V obj, double[] buf, int[] hashes) {
+    hashes[0] = hashObject(obj, buf);
+    return 1;
+  }
+
   /**
    * Get the number of projections performed.
    *
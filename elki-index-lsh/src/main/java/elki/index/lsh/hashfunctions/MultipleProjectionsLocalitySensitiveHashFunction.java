@@ -118,6 +118,36 @@ public class MultipleProjectionsLocalitySensitiveHashFunction implements Localit
     return fastModPrime(t1sum);
   }
 
+  @Override
+  public int hashProbes(NumberVector vec, double[] buf, int[] hashes) {
+    // Project the vector:
+    projection.project(vec, buf);
+    final int num = shift.length;
+    // Perturbations: 2*i to the lower, 2*i+1 to the upper bin.
+    double[] scores = new double[num << 1];
+    int[] dims = new int[num << 1];
+    long t1sum = 0L;
+    for(int i = 0; i < num; i++) {
+      final double v = (buf[i] + shift[i]) * iwidth, f = Math.floor(v);
+      t1sum += (randoms1[i] & MASK32) * (int) f; // unsigned math!
+      // Squared distance to the bin boundaries, relative to the width.
+      final double lo = v - f, hi = 1. - lo;
+      scores[i << 1] = lo * lo;
+      scores[(i << 1) + 1] = hi * hi;
+      dims[i << 1] = dims[(i << 1) + 1] = i;
+    }
+    hashes[0] = fastModPrime(t1sum);
+    final long base = t1sum;
+    return PerturbationSequence.generate(scores, dims, hashes, (set, size) -> {
+      long sum = base;
+      for(int j = 0; j < size; j++) {
+        final long r = randoms1[set[j] >>> 1] & MASK32;
+        sum += (set[j] & 1) == 0 ? -r : r;
+      }
+      return fastModPrime(sum);
+    });
+  }
+
   /**
    * Fast modulo operation for the largest unsigned integer prime.
    *
@@ -0,0 +1,147 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.lsh.hashfunctions;
+
+import java.util.Arrays;
+
+import elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
+import elki.utilities.datastructures.heap.DoubleObjectMinHeap;
+import elki.utilities.documentation.Reference;
+
+/**
+ * Query-directed probing sequence for multi-probe LSH.
+ * <p>
+ * Every candidate perturbation (e.g., moving one projection into the adjacent
+ * bin) has a score, where smaller scores indicate that the neighbors of the
+ * query are more likely to be found in the perturbed bucket. Perturbation sets
+ * are generated in the order of increasing total score, using the shift and
+ * expand operations on the sorted scores.
+ * <p>
+ * Reference:
+ * <p>
+ * Q. Lv, W. Josephson, Z. Wang, M. Charikar, K. Li<br>
+ * Multi-Probe LSH: Efficient Indexing for High-Dimensional Similarity
+ * Search<br>
+ * Proc. 33rd Int. Conf. on Very Large Data Bases (VLDB 2007)
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+@Reference(authors = "Q. Lv, W. Josephson, Z. Wang, M. Charikar, K. Li", //
+    title = "Multi-Probe LSH: Efficient Indexing for High-Dimensional Similarity Search", //
+    booktitle = "Proc. 33rd Int. Conf. on Very Large Data Bases (VLDB 2007)", //
+    url = "http://www.vldb.org/conf/2007/papers/research/p950-lv.pdf", //
+    bibkey = "DBLP:conf/vldb/LvJWCL07")
+public final class PerturbationSequence {
+  /**
+   * Fake constructor: do not instantiate.
+   */
+  private PerturbationSequence() {
+    // Do not use.
+  }
+
+  /**
+   * Compute the hash value of a perturbation set.
+   *
+   * @author Erich Schubert
+   */
+  @FunctionalInterface
+  public interface Perturbation {
+    /**
+     * Compute the hash value of the perturbed bucket.
+     *
+     * @param set Candidate perturbations in the set
+     * @param size Size of the set
+     * @return Hash value
+     */
+    int hash(int[] set, int size);
+  }
+
+  /**
+   * Generate the hash values of the best perturbation sets.
+   *
+   * @param scores Scores of the candidate perturbations
+   * @param dims Dimension of each candidate; at most one perturbation per
+   *        dimension is allowed in a set
+   * @param hashes Output hash values, position 0 is not modified
+   * @param perturb Hash function for perturbation sets
+   * @return Number of hash values including position 0
+   */
+  public static int generate(double[] scores, int[] dims, int[] hashes, Perturbation perturb) {
+    final int n = scores.length;
+    if(n == 0 || hashes.length <= 1) {
+      return 1;
+    }
+    double[] keys = scores.clone();
+    int[] order = new int[n];
+    for(int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    DoubleIntegerArrayQuickSort.sort(keys, order, n);
+    // Sets are stored as increasing positions in the sorted order.
+    DoubleObjectMinHeap<int[]> heap = new DoubleObjectMinHeap<>();
+    heap.add(keys[0], new int[] { 0 });
+    int[] set = new int[n];
+    int count = 1;
+    while(count < hashes.length && !heap.isEmpty()) {
+      final double score = heap.peekKey();
+      final int[] cur = heap.peekValue();
+      heap.poll();
+      final int last = cur[cur.length - 1];
+      if(last + 1 < n) {
+        // Shift: replace the last element with its successor
+        int[] shift = cur.clone();
+        shift[cur.length - 1] = last + 1;
+        heap.add(score - keys[last] + keys[last + 1], shift);
+        // Expand: add the successor
+        int[] expand = Arrays.copyOf(cur, cur.length + 1);
+        expand[cur.length] = last + 1;
+        heap.add(score + keys[last + 1], expand);
+      }
+      if(valid(cur, order, dims, set)) {
+        hashes[count++] = perturb.hash(set, cur.length);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Check that a set perturbs every dimension at most once, and translate
+   * it to candidate indexes.
+   *
+   * @param cur Perturbation set (positions in sorted order)
+   * @param order Sort order of the candidates
+   * @param dims Dimensions of the candidates
+   * @param set Output candidate indexes
+   * @return {@code true} if valid
+   */
+  private static boolean valid(int[] cur, int[] order, int[] dims, int[] set) {
+    for(int i = 0; i < cur.length; i++) {
+      final int c = set[i] = order[cur[i]];
+      for(int j = 0; j < i; j++) {
+        if(dims[set[j]] == dims[c]) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.lsh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import elki.algorithm.AbstractSimpleAlgorithmTest;
+import elki.data.NumberVector;
+import elki.data.type.TypeUtil;
+import elki.database.ids.*;
+import elki.database.query.distance.DistanceQuery;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.query.knn.LinearScanKNNByDBID;
+import elki.database.relation.Relation;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.index.lsh.hashfamilies.EuclideanHashFunctionFamily;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Unit test for the {@link InMemoryLSHIndex}.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class InMemoryLSHIndexTest {
+  /**
+   * Number of neighbors.
+   */
+  private static final int K = 10;
+
+  /**
+   * Multi-probe queries must find a superset of the candidates, and improve
+   * the recall.
+   */
+  @Test
+  public void testMultiProbe() {
+    Relation<NumberVector> rel = AbstractSimpleAlgorithmTest.makeSimpleDatabase(AbstractSimpleAlgorithmTest.UNITTEST + "outlier-axis-subspaces-6d.ascii", 1345).getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    InMemoryLSHIndex<NumberVector>.Instance single = build(rel, 0);
+    InMemoryLSHIndex<NumberVector>.Instance multi = build(rel, 20);
+    DistanceQuery<NumberVector> dq = EuclideanDistance.STATIC.instantiate(rel);
+    KNNSearcher<DBIDRef> lin = new LinearScanKNNByDBID<>(dq);
+    KNNSearcher<DBIDRef> q1 = single.kNNByDBID(dq, K, 0), q2 = multi.kNNByDBID(dq, K, 0);
+    int found1 = 0, found2 = 0, total = 0;
+    DBIDIter q = rel.iterDBIDs();
+    for(int i = 0; i < 200; i++, q.advance()) {
+      NumberVector obj = rel.get(q);
+      DBIDs c1 = single.getCandidates(obj), c2 = multi.getCandidates(obj);
+      assertEquals("Probing lost candidates.", c1.size(), DBIDUtil.intersectionSize(c1, c2));
+      KNNList exp = lin.getKNN(q, K);
+      found1 += DBIDUtil.intersectionSize(DBIDUtil.newHashSet(exp), q1.getKNN(q, K));
+      found2 += DBIDUtil.intersectionSize(DBIDUtil.newHashSet(exp), q2.getKNN(q, K));
+      total += exp.size();
+    }
+    assertTrue("Multi-probe did not improve recall: " + found1 + " " + found2, found2 > found1);
+    assertTrue("Recall too low: " + found2 / (double) total, found2 >= .9 * total);
+  }
+
+  /**
+   * Build the index.
+   *
+   * @param rel Relation
+   * @param probes Number of additional probes
+   * @return Index
+   */
+  private static InMemoryLSHIndex<NumberVector>.Instance build(Relation<NumberVector> rel, int probes) {
+    InMemoryLSHIndex<NumberVector>.Instance index = new ELKIBuilder<InMemoryLSHIndex<NumberVector>>(InMemoryLSHIndex.class) //
+        .with(InMemoryLSHIndex.Par.FAMILY_ID, EuclideanHashFunctionFamily.class) //
+        .with(EuclideanHashFunctionFamily.Par.RANDOM_ID, 0L) //
+        .with(EuclideanHashFunctionFamily.Par.WIDTH_ID, 10.) //
+        .with(EuclideanHashFunctionFamily.Par.NUMPROJ_ID, 4) //
+        .with(InMemoryLSHIndex.Par.L_ID, 4) //
+        .with(InMemoryLSHIndex.Par.PROBES_ID, probes) //
+        .build().instantiate(rel);
+    index.initialize();
+    return index;
+  }
+}
@@ -23,6 +23,7 @@ package elki.index.tree.metrical.mtreevariants;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 import elki.database.ids.DBID;
 import elki.database.ids.DBIDRef;
@@ -34,9 +35,11 @@ import elki.index.tree.metrical.MetricalIndexTree;
 import elki.index.tree.metrical.mtreevariants.strategies.split.distribution.Assignments;
 import elki.index.tree.metrical.mtreevariants.strategies.split.distribution.DistanceEntry;
 import elki.logging.Logging;
+import elki.logging.statistics.AtomicLongCounter;
 import elki.logging.statistics.Counter;
 import elki.logging.statistics.LongStatistic;
 import elki.persistent.PageFile;
+import elki.utilities.documentation.Reference;
 import elki.utilities.io.FormatUtil;
 import elki.utilities.pairs.DoubleIntPair;
 
@@ -145,8 +148,18 @@ public abstract class AbstractMTree<O, N extends AbstractMTreeNode<O, N, E>, E e
    * @param withPreInsert if this flag is true, the preInsert method will be
    *        called before inserting the object
    */
-  // todo: implement a bulk load for M-Tree and remove this method
   public void insert(E entry, boolean withPreInsert) {
+    insertEntry(entry, withPreInsert);
+  }
+
+  /**
+   * Inserts the specified object into this M-Tree.
+   * 
+   * @param entry the entry to be inserted
+   * @param withPreInsert if this flag is true, the preInsert method will be
+   *        called before inserting the object
+   */
+  private void insertEntry(E entry, boolean withPreInsert) {
     final Logging log = getLogger();
     if(log.isDebugging()) {
       log.debugFine("insert " + entry.getRoutingObjectID());
@@ -189,8 +202,121 @@ public abstract class AbstractMTree<O, N extends AbstractMTreeNode<O, N, E>, E e
     if(!initialized && !entries.isEmpty()) {
       initialize(entries.get(0));
     }
+    insertEntries(entries);
+  }
+
+  /**
+   * Insert entries without pre-insertion. If bulk loading is enabled and the
+   * tree is empty, the tree is bulk loaded instead.
+   * 
+   * @param entries Entries to insert
+   */
+  protected void insertEntries(List<E> entries) {
+    if(settings.bulkLoad && entries.size() > 1) {
+      N root = getNode(getRootID());
+      if(root.isLeaf() && root.getNumEntries() == 0) {
+        bulkLoad(entries);
+        doExtraIntegrityChecks();
+        return;
+      }
+    }
     for(E entry : entries) {
-      insert(entry, false);
+      insertEntry(entry, false);
+    }
+  }
+
+  /**
+   * Bulk load the tree, by recursively partitioning the entries around
+   * randomly sampled pivots, similar to the bulk loading of Ciaccia and
+   * Patella. To obtain a balanced tree, this is done level by level: the
+   * resulting directory entries are again partitioned by their routing
+   * objects, until they fit into the root.
+   * <p>
+   * Reference:
+   * <p>
+   * P. Ciaccia, M. Patella<br>
+   * Bulk loading the M-tree<br>
+   * Proc. 9th Australasian Database Conference (ADC'98)
+   * 
+   * @param entries Entries to insert
+   */
+  @Reference(authors = "P. Ciaccia, M. Patella", //
+      title = "Bulk loading the M-tree", //
+      booktitle = "Proc. 9th Australasian Database Conference (ADC'98)", //
+      bibkey = "DBLP:conf/adc/CiacciaP98")
+  protected void bulkLoad(List<E> entries) {
+    final Random rnd = settings.random.getSingleThreadedRandom();
+    entries = new ArrayList<>(entries);
+    boolean leaf = true;
+    while(entries.size() >= (leaf ? leafCapacity : dirCapacity)) {
+      List<E> next = new ArrayList<>();
+      partition(entries, (leaf ? leafCapacity : dirCapacity) - 1, leaf, rnd, next);
+      entries = next;
+      leaf = false;
+    }
+    // Remaining entries fit into the root.
+    N root = leaf ? getNode(getRootID()) : createNewDirectoryNode();
+    root.setPageID(getRootID());
+    for(E entry : entries) {
+      entry.setParentDistance(leaf ? Double.NaN : 0.);
+      root.addEntry(entry);
+    }
+    writeNode(root);
+    E rootEntry = getRootEntry();
+    root.adjustEntry(rootEntry, rootEntry.getRoutingObjectID(), rootEntry.getParentDistance(), this);
+  }
+
+  /**
+   * Partition entries around sampled pivots, until each partition fits into
+   * a node.
+   * 
+   * @param entries Entries to partition, will be reordered
+   * @param max Maximum number of entries per node
+   * @param leaf Build leaf nodes
+   * @param rnd Random generator
+   * @param out Output directory entries
+   */
+  private void partition(List<E> entries, int max, boolean leaf, Random rnd, List<E> out) {
+    final int size = entries.size();
+    // Aim at half-full partitions, to avoid many small remainders.
+    final int f = Math.max(2, Math.min(max, (2 * size + max - 1) / max));
+    List<List<E>> parts = new ArrayList<>(f);
+    for(int i = 0; i < f; i++) {
+      // Partial Fisher-Yates shuffle to sample pivots:
+      Collections.swap(entries, i, i + rnd.nextInt(size - i));
+      E pivot = entries.get(i);
+      pivot.setParentDistance(0.);
+      List<E> part = new ArrayList<>();
+      part.add(pivot);
+      parts.add(part);
+    }
+    for(int j = f; j < size; j++) {
+      E entry = entries.get(j);
+      double best = Double.POSITIVE_INFINITY;
+      int bestp = 0;
+      for(int i = 0; i < f; i++) {
+        final double d = distance(entries.get(i), entry);
+        // Break ties by size, to handle duplicates.
+        if(d < best || (d == best && parts.get(i).size() < parts.get(bestp).size())) {
+          best = d;
+          bestp = i;
+        }
+      }
+      entry.setParentDistance(best);
+      parts.get(bestp).add(entry);
+    }
+    for(int i = 0; i < f; i++) {
+      List<E> part = parts.get(i);
+      if(part.size() > max) {
+        partition(part, max, leaf, rnd, out);
+        continue;
+      }
+      N node = leaf ? createNewLeafNode() : createNewDirectoryNode();
+      for(E entry : part) {
+        node.addEntry(entry);
+      }
+      writeNode(node);
+      out.add(createNewDirectoryEntry(node, entries.get(i).getRoutingObjectID(), Double.NaN));
     }
   }
 
@@ -463,6 +589,8 @@ public abstract class AbstractMTree<O, N extends AbstractMTreeNode<O, N, E>, E e
 
   /**
    * Class for tracking some statistics.
+   * <p>
+   * The counters are thread-safe, as queries may run concurrently.
    * 
    * @author Erich Schubert
    * 
@@ -490,9 +618,9 @@ public abstract class AbstractMTree<O, N extends AbstractMTreeNode<O, N, E>, E e
     public Statistics() {
       super();
       Logging log = getLogger();
-      distanceCalcs = log.isStatistics() ? log.newCounter(this.getClass().getName() + ".distancecalcs") : null;
-      knnQueries = log.isStatistics() ? log.newCounter(this.getClass().getName() + ".knnqueries") : null;
-      rangeQueries = log.isStatistics() ? log.newCounter(this.getClass().getName() + ".rangequeries") : null;
+      distanceCalcs = log.isStatistics() ? new AtomicLongCounter(this.getClass().getName() + ".distancecalcs") : null;
+      knnQueries = log.isStatistics() ? new AtomicLongCounter(this.getClass().getName() + ".knnqueries") : null;
+      rangeQueries = log.isStatistics() ? new AtomicLongCounter(this.getClass().getName() + ".rangequeries") : null;
     }
 
     /**
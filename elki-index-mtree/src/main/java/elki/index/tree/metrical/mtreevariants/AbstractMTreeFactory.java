@@ -31,7 +31,9 @@ import elki.index.tree.metrical.mtreevariants.strategies.split.MTreeSplit;
 import elki.persistent.PageFileFactory;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.Flag;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
+import elki.utilities.optionhandling.parameters.RandomParameter;
 
 /**
  * Abstract factory for various MTrees
@@ -91,6 +93,17 @@ public abstract class AbstractMTreeFactory<O, N extends AbstractMTreeNode<O, N,
      */
     public static final OptionID INSERT_STRATEGY_ID = new OptionID("mtree.insert", "Insertion strategy to use for constructing the M-tree.");
 
+    /**
+     * Flag to enable bulk loading, by recursive partitioning around sampled
+     * pivots.
+     */
+    public static final OptionID BULK_LOAD_ID = new OptionID("mtree.bulkload", "Build the M-tree by bulk loading instead of repeated insertion.");
+
+    /**
+     * Random generator for choosing the pivots when bulk loading.
+     */
+    public static final OptionID BULK_SEED_ID = new OptionID("mtree.bulkload.seed", "Random generator seed for choosing the bulk loading pivots.");
+
     /**
      * Tree settings.
      */
@@ -106,6 +119,10 @@ public abstract class AbstractMTreeFactory<O, N extends AbstractMTreeNode<O, N,
           .grab(config, x -> settings.splitStrategy = x);
       new ObjectParameter<MTreeInsert<E, N>>(INSERT_STRATEGY_ID, MTreeInsert.class, MinimumEnlargementInsert.class) //
           .grab(config, x -> settings.insertStrategy = x);
+      new Flag(BULK_LOAD_ID).grab(config, x -> settings.bulkLoad = x);
+      if(settings.bulkLoad) {
+        new RandomParameter(BULK_SEED_ID).grab(config, x -> settings.random = x);
+      }
     }
 
     protected abstract S makeSettings();
@@ -23,6 +23,7 @@ package elki.index.tree.metrical.mtreevariants;
 import elki.distance.Distance;
 import elki.index.tree.metrical.mtreevariants.strategies.insert.MTreeInsert;
 import elki.index.tree.metrical.mtreevariants.strategies.split.MTreeSplit;
+import elki.utilities.random.RandomFactory;
 
 /**
  * Class to store the MTree settings.
@@ -49,4 +50,14 @@ public class MTreeSettings<O, N extends AbstractMTreeNode<O, N, E>, E extends MT
    * Insertion strategy.
    */
   protected MTreeInsert<E, N> insertStrategy;
+
+  /**
+   * Build the tree by bulk loading, when inserting into an empty tree.
+   */
+  protected boolean bulkLoad = false;
+
+  /**
+   * Random generator for choosing the pivots when bulk loading.
+   */
+  protected RandomFactory random = RandomFactory.DEFAULT;
 }
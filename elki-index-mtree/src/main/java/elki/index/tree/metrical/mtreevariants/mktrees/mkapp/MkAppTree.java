@@ -112,12 +112,11 @@ public abstract class MkAppTree<O> extends AbstractMkTree<O, MkAppTreeNode<O>, M
     }
 
     ModifiableDBIDs ids = DBIDUtil.newArray(entries.size());
-    // insert
     for(MkAppEntry entry : entries) {
       ids.add(entry.getRoutingObjectID());
-      // insert the object
-      super.insert(entry, false);
     }
+    // insert sequentially, or bulk load
+    insertEntries(entries);
 
     Map<DBID, KNNList> knnLists = batchNN(getNode(getRootID()), ids, settings.kmax + 1);
 
@@ -115,12 +115,11 @@ public abstract class MkCoPTree<O> extends AbstractMkTree<O, MkCoPTreeNode<O>, M
     }
 
     ModifiableDBIDs ids = DBIDUtil.newArray(entries.size());
-    // insert
     for(MkCoPEntry entry : entries) {
       ids.add(entry.getRoutingObjectID());
-      // insert the object
-      super.insert(entry, false);
     }
+    // insert sequentially, or bulk load
+    insertEntries(entries);
 
     Map<DBID, KNNList> knnLists = batchNN(getNode(getRootID()), ids, settings.kmax);
 
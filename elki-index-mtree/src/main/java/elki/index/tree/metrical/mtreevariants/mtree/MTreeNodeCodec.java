@@ -0,0 +1,93 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.tree.metrical.mtreevariants.mtree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import elki.database.ids.DBIDUtil;
+import elki.index.tree.AbstractNodeCodec;
+import elki.index.tree.metrical.mtreevariants.MTreeDirectoryEntry;
+import elki.index.tree.metrical.mtreevariants.MTreeEntry;
+import elki.index.tree.metrical.mtreevariants.MTreeLeafEntry;
+import elki.utilities.io.ByteArrayUtil;
+
+/**
+ * Binary codec for M-tree nodes.
+ * <p>
+ * Leaf entries are encoded as object id and parent distance; directory
+ * entries additionally store the page id and the covering radius.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @has - - - MTreeLeafEntry
+ * @has - - - MTreeDirectoryEntry
+ *
+ * @param <O> Object type
+ */
+public class MTreeNodeCodec<O> extends AbstractNodeCodec<MTreeNode<O>, MTreeEntry> {
+  /**
+   * Size of a leaf entry.
+   */
+  private static final int LEAF_SIZE = ByteArrayUtil.SIZE_INT + ByteArrayUtil.SIZE_DOUBLE;
+
+  /**
+   * Size of a directory entry.
+   */
+  private static final int DIRECTORY_SIZE = 2 * ByteArrayUtil.SIZE_INT + 2 * ByteArrayUtil.SIZE_DOUBLE;
+
+  /**
+   * Constructor.
+   */
+  public MTreeNodeCodec() {
+    super(MTreeNode::new);
+  }
+
+  @Override
+  protected MTreeEntry readLeafEntry(ByteBuffer buffer) throws IOException {
+    final int id = buffer.getInt();
+    return new MTreeLeafEntry(DBIDUtil.importInteger(id), buffer.getDouble());
+  }
+
+  @Override
+  protected MTreeEntry readDirectoryEntry(ByteBuffer buffer) throws IOException {
+    final int id = buffer.getInt();
+    final double parentDistance = buffer.getDouble();
+    final int pageID = buffer.getInt();
+    return new MTreeDirectoryEntry(DBIDUtil.importInteger(id), parentDistance, pageID, buffer.getDouble());
+  }
+
+  @Override
+  protected void writeEntry(ByteBuffer buffer, MTreeEntry entry) throws IOException {
+    buffer.putInt(DBIDUtil.asInteger(entry.getRoutingObjectID()));
+    buffer.putDouble(entry.getParentDistance());
+    if(entry instanceof MTreeDirectoryEntry) {
+      buffer.putInt(((MTreeDirectoryEntry) entry).getPageID());
+      buffer.putDouble(entry.getCoveringRadius());
+    }
+  }
+
+  @Override
+  protected int getEntryByteSize(MTreeEntry entry) {
+    return entry instanceof MTreeDirectoryEntry ? DIRECTORY_SIZE : LEAF_SIZE;
+  }
+}
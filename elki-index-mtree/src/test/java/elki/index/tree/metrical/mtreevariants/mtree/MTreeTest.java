@@ -24,6 +24,7 @@ import org.junit.Test;
 
 import elki.data.DoubleVector;
 import elki.index.AbstractIndexStructureTest;
+import elki.index.tree.metrical.mtreevariants.AbstractMTreeFactory;
 import elki.index.tree.metrical.mtreevariants.query.MTreeKNNByDBID;
 import elki.index.tree.metrical.mtreevariants.query.MTreeKNNByObject;
 import elki.index.tree.metrical.mtreevariants.query.MTreeRangeByDBID;
@@ -48,4 +49,17 @@ public class MTreeTest extends AbstractIndexStructureTest {
     assertExactEuclidean(factory, MTreeKNNByObject.class, MTreeRangeByObject.class);
     assertSinglePoint(factory, MTreeKNNByDBID.class, MTreeRangeByDBID.class);
   }
+
+  /**
+   * Test {@link MTree} with bulk loading.
+   */
+  @Test
+  public void testBulkLoad() {
+    MTreeFactory<DoubleVector> factory = new ELKIBuilder<>(MTreeFactory.class) //
+        .with(AbstractPageFileFactory.Par.PAGE_SIZE_ID, 300) //
+        .with(AbstractMTreeFactory.Par.BULK_LOAD_ID) //
+        .with(AbstractMTreeFactory.Par.BULK_SEED_ID, 0L).build();
+    assertExactEuclidean(factory, MTreeKNNByObject.class, MTreeRangeByObject.class);
+    assertSinglePoint(factory, MTreeKNNByDBID.class, MTreeRangeByDBID.class);
+  }
 }
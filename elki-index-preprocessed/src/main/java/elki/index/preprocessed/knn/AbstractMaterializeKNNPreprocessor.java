@@ -38,6 +38,7 @@ import elki.distance.minkowski.SquaredEuclideanDistance;
 import elki.index.IndexFactory;
 import elki.index.KNNIndex;
 import elki.logging.Logging;
+import elki.logging.statistics.LongStatistic;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.constraints.CommonConstraints;
@@ -79,6 +80,16 @@ public abstract class AbstractMaterializeKNNPreprocessor<O> implements KNNIndex<
    */
   protected WritableDataStore<KNNList> storage = null;
 
+  /**
+   * Use the packed storage layout, see {@link PackedKNNStore}.
+   */
+  protected final boolean packed;
+
+  /**
+   * Store distances with single precision in the packed layout.
+   */
+  protected final boolean singlePrecision;
+
   /**
    * Constructor.
    *
@@ -87,11 +98,27 @@ public abstract class AbstractMaterializeKNNPreprocessor<O> implements KNNIndex<
    * @param k k
    */
   public AbstractMaterializeKNNPreprocessor(Relation<O> relation, Distance<? super O> distance, int k) {
+    this(relation, distance, k, false, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param relation Relation
+   * @param distance Distance function
+   * @param k k
+   * @param packed Use the packed storage layout
+   * @param singlePrecision Store distances with single precision (packed
+   *        layout only)
+   */
+  public AbstractMaterializeKNNPreprocessor(Relation<O> relation, Distance<? super O> distance, int k, boolean packed, boolean singlePrecision) {
     super();
     this.k = k;
     this.relation = relation;
     this.distance = distance;
     this.distanceQuery = distance.instantiate(relation);
+    this.packed = packed;
+    this.singlePrecision = singlePrecision;
   }
 
   /**
@@ -107,6 +134,8 @@ public abstract class AbstractMaterializeKNNPreprocessor<O> implements KNNIndex<
     this.relation = relation;
     this.distance = distanceQuery.getDistance();
     this.distanceQuery = distanceQuery;
+    this.packed = false;
+    this.singlePrecision = false;
   }
 
   /**
@@ -152,7 +181,21 @@ public abstract class AbstractMaterializeKNNPreprocessor<O> implements KNNIndex<
    * Create the default storage.
    */
   void createStorage() {
-    storage = DataStoreUtil.makeStorage(distanceQuery.getRelation().getDBIDs(), DataStoreFactory.HINT_HOT, KNNList.class);
+    storage = packed ? new PackedKNNStore(distanceQuery.getRelation().getDBIDs(), k, singlePrecision) //
+        : DataStoreUtil.makeStorage(distanceQuery.getRelation().getDBIDs(), DataStoreFactory.HINT_HOT, KNNList.class);
+  }
+
+  /**
+   * Remove unused space from a packed storage after bulk loading.
+   */
+  void compactStorage() {
+    if(storage instanceof PackedKNNStore) {
+      PackedKNNStore pstorage = (PackedKNNStore) storage;
+      pstorage.compact();
+      if(getLogger().isStatistics()) {
+        getLogger().statistics(new LongStatistic(this.getClass().getName() + ".packed-neighbors", pstorage.numNeighbors()));
+      }
+    }
   }
 
   @Override
@@ -222,6 +265,16 @@ public abstract class AbstractMaterializeKNNPreprocessor<O> implements KNNIndex<
      */
     public static final OptionID DISTANCE_FUNCTION_ID = new OptionID("materialize.distance", "the distance function to materialize the nearest neighbors");
 
+    /**
+     * Flag to store the neighbors in a packed layout.
+     */
+    public static final OptionID PACKED_ID = new OptionID("materialize.packed", "Store all neighbors in shared flat arrays instead of one list object per object.");
+
+    /**
+     * Flag to store the distances with single precision.
+     */
+    public static final OptionID SINGLE_PRECISION_ID = new OptionID("materialize.float", "Store the distances of the packed layout with single precision only.");
+
     /**
      * Holds the value of {@link #K_ID}.
      */
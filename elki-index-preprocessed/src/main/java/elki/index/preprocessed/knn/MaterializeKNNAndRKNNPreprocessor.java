@@ -76,12 +76,27 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
     super(relation, distance, k);
   }
 
+  /**
+   * Constructor.
+   *
+   * @param relation Relation to process
+   * @param distance the distance function to use
+   * @param k query k
+   * @param packed Use the packed storage layout for the kNN
+   * @param singlePrecision Store distances with single precision (packed
+   *        layout only)
+   */
+  public MaterializeKNNAndRKNNPreprocessor(Relation<O> relation, Distance<? super O> distance, int k, boolean packed, boolean singlePrecision) {
+    super(relation, distance, k, packed, singlePrecision);
+  }
+
   @Override
   protected void preprocess() {
     createStorage();
     storageRkNN = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT, ModifiableDoubleDBIDList.class);
     FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("Materializing k nearest neighbors and reverse k nearest neighbors (k=" + k + ")", relation.size(), getLogger()) : null;
     materializeKNNAndRKNNs(DBIDUtil.ensureArray(relation.getDBIDs()), progress);
+    compactStorage();
   }
 
   /**
@@ -317,9 +332,22 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
       super(k, distance);
     }
 
+    /**
+     * Constructor.
+     *
+     * @param k k
+     * @param distance distance function
+     * @param packed Use the packed storage layout for the kNN
+     * @param singlePrecision Store distances with single precision (packed
+     *        layout only)
+     */
+    public Factory(int k, Distance<? super O> distance, boolean packed, boolean singlePrecision) {
+      super(k, distance, packed, singlePrecision);
+    }
+
     @Override
     public MaterializeKNNAndRKNNPreprocessor<O> instantiate(Relation<O> relation) {
-      return new MaterializeKNNAndRKNNPreprocessor<>(relation, distance, k);
+      return new MaterializeKNNAndRKNNPreprocessor<>(relation, distance, k, packed, singlePrecision);
     }
 
     /**
@@ -330,7 +358,7 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
     public static class Par<O> extends MaterializeKNNPreprocessor.Factory.Par<O> {
       @Override
       public Factory<O> make() {
-        return new Factory<>(k, distance);
+        return new Factory<>(k, distance, packed, singlePrecision);
       }
     }
   }
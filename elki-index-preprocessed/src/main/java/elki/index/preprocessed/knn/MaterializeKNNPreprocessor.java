@@ -22,6 +22,7 @@ package elki.index.preprocessed.knn;
 
 import javax.swing.event.EventListenerList;
 
+import elki.database.datastore.WritableDataStore;
 import elki.database.ids.*;
 import elki.database.query.QueryBuilder;
 import elki.database.query.distance.DistanceQuery;
@@ -30,19 +31,30 @@ import elki.database.query.knn.PreprocessorKNNQuery;
 import elki.database.relation.Relation;
 import elki.distance.Distance;
 import elki.index.DynamicIndex;
+import elki.index.KNNSelfJoinIndex;
 import elki.logging.Logging;
 import elki.logging.progress.FiniteProgress;
 import elki.logging.progress.StepProgress;
 import elki.logging.statistics.Duration;
 import elki.logging.statistics.LongStatistic;
+import elki.result.Metadata;
 import elki.utilities.documentation.Description;
+import elki.utilities.datastructures.iterator.It;
 import elki.utilities.documentation.Title;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.Flag;
 
 /**
  * A preprocessor for annotation of the k nearest neighbors (and their
  * distances) to each database object.
  * <p>
  * Automatically added by the query optimizer if memory permits.
+ * <p>
+ * If the relation has an index that supports an all-kNN self-join (see
+ * {@link KNNSelfJoinIndex}), this is used instead of one query per object.
+ * <p>
+ * Optionally, the neighbors can be stored in a packed layout (see
+ * {@link PackedKNNStore}) to avoid the overhead of one list object per point.
  *
  * @author Erich Schubert
  * @since 0.2
@@ -79,7 +91,21 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
    * @param k query k
    */
   public MaterializeKNNPreprocessor(Relation<O> relation, Distance<? super O> distance, int k) {
-    super(relation, distance, k);
+    this(relation, distance, k, false, false);
+  }
+
+  /**
+   * Constructor with preprocessing step.
+   *
+   * @param relation Relation to preprocess
+   * @param distance the distance function to use
+   * @param k query k
+   * @param packed Use the packed storage layout
+   * @param singlePrecision Store distances with single precision (packed
+   *        layout only)
+   */
+  public MaterializeKNNPreprocessor(Relation<O> relation, Distance<? super O> distance, int k, boolean packed, boolean singlePrecision) {
+    super(relation, distance, k, packed, singlePrecision);
     this.knnQuery = new QueryBuilder<>(distanceQuery).noCache().kNNByDBID(k);
     assert !(knnQuery instanceof PreprocessorKNNQuery) : knnQuery.toString();
   }
@@ -105,14 +131,20 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
   @Override
   protected void preprocess() {
     final Logging log = getLogger(); // Could be subclass
-    createStorage();
-
-    ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
-
     if(log.isStatistics()) {
       log.statistics(new LongStatistic(this.getClass().getName() + ".k", k));
     }
     Duration duration = log.isStatistics() ? log.newDuration(this.getClass().getName() + ".precomputation-time").begin() : null;
+    if(selfJoin()) {
+      compactStorage();
+      if(duration != null) {
+        log.statistics(duration.end());
+      }
+      return;
+    }
+    createStorage();
+
+    ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
     FiniteProgress progress = getLogger().isVerbose() ? new FiniteProgress("Materializing k nearest neighbors (k=" + k + ")", ids.size(), getLogger()) : null;
     // Try bulk
     final boolean ismetric = getDistanceQuery().getDistance().isMetric();
@@ -131,11 +163,43 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
       log.incrementProcessed(progress);
     }
     log.ensureCompleted(progress);
+    compactStorage();
     if(duration != null) {
       log.statistics(duration.end());
     }
   }
 
+  /**
+   * Try to compute all kNN at once, using a self-join index.
+   * <p>
+   * If the packed storage layout is enabled, the join result is copied into
+   * the packed storage.
+   *
+   * @return {@code true} if successful
+   */
+  @SuppressWarnings("unchecked")
+  protected boolean selfJoin() {
+    for(It<KNNSelfJoinIndex<O>> it = Metadata.hierarchyOf(relation).iterChildrenReverse().filter(KNNSelfJoinIndex.class); it.valid(); it.advance()) {
+      WritableDataStore<KNNList> result = it.get().kNNSelfJoin(distanceQuery, k);
+      if(result != null) {
+        if(getLogger().isVerbose()) {
+          getLogger().verbose("Materializing k nearest neighbors (k=" + k + ") with a self-join on " + it.get().getClass().getSimpleName());
+        }
+        if(!packed) {
+          storage = result;
+          return true;
+        }
+        createStorage();
+        for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+          storage.put(iter, result.get(iter));
+        }
+        result.destroy();
+        return true;
+      }
+    }
+    return false;
+  }
+
   @Override
   public final void insert(DBIDRef id) {
     objectsInserted(DBIDUtil.deref(id));
@@ -351,6 +415,16 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
    * @param <O> The object type
    */
   public static class Factory<O> extends AbstractMaterializeKNNPreprocessor.Factory<O> {
+    /**
+     * Use the packed storage layout.
+     */
+    protected boolean packed;
+
+    /**
+     * Store distances with single precision.
+     */
+    protected boolean singlePrecision;
+
     /**
      * Index factory.
      *
@@ -358,12 +432,27 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
      * @param distance distance function
      */
     public Factory(int k, Distance<? super O> distance) {
+      this(k, distance, false, false);
+    }
+
+    /**
+     * Index factory.
+     *
+     * @param k k parameter
+     * @param distance distance function
+     * @param packed Use the packed storage layout
+     * @param singlePrecision Store distances with single precision (packed
+     *        layout only)
+     */
+    public Factory(int k, Distance<? super O> distance, boolean packed, boolean singlePrecision) {
       super(k, distance);
+      this.packed = packed;
+      this.singlePrecision = singlePrecision;
     }
 
     @Override
     public MaterializeKNNPreprocessor<O> instantiate(Relation<O> relation) {
-      MaterializeKNNPreprocessor<O> instance = new MaterializeKNNPreprocessor<O>(relation, distance, k);
+      MaterializeKNNPreprocessor<O> instance = new MaterializeKNNPreprocessor<O>(relation, distance, k, packed, singlePrecision);
       return instance;
     }
 
@@ -373,9 +462,28 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
      * @author Erich Schubert
      */
     public static class Par<O> extends AbstractMaterializeKNNPreprocessor.Factory.Par<O> {
+      /**
+       * Use the packed storage layout.
+       */
+      protected boolean packed;
+
+      /**
+       * Store distances with single precision.
+       */
+      protected boolean singlePrecision;
+
+      @Override
+      public void configure(Parameterization config) {
+        super.configure(config);
+        new Flag(PACKED_ID).grab(config, x -> packed = x);
+        if(packed) {
+          new Flag(SINGLE_PRECISION_ID).grab(config, x -> singlePrecision = x);
+        }
+      }
+
       @Override
       public Factory<O> make() {
-        return new Factory<>(k, distance);
+        return new Factory<>(k, distance, packed, singlePrecision);
       }
     }
   }
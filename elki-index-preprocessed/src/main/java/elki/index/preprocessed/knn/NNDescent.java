@@ -21,6 +21,9 @@
 package elki.index.preprocessed.knn;
 
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
 
 import elki.database.datastore.DataStoreFactory;
 import elki.database.datastore.WritableDataStore;
@@ -43,12 +46,19 @@ import elki.utilities.optionhandling.parameters.Flag;
 import elki.utilities.optionhandling.parameters.IntParameter;
 import elki.utilities.optionhandling.parameters.RandomParameter;
 import elki.utilities.random.RandomFactory;
+import elki.utilities.random.Xoroshiro128NonThreadsafeRandom;
 
 /**
  * NN-descent (also known as KNNGraph) is an approximate nearest neighbor search
  * algorithm beginning with a random sample, then iteratively refining this
  * sample until.
  * <p>
+ * With multiple threads, the local joins are performed in parallel, with a
+ * lock on the neighbor heap of each object, and sampling uses a separate
+ * random generator for every chunk of objects, derived from the seed. With a
+ * single thread (the default), the objects are processed sequentially as in
+ * the original algorithm, and the result is deterministic for a fixed seed.
+ * <p>
  * Reference:
  * <p>
  * W. Dong and C. Moses and K. Li<br>
@@ -74,6 +84,11 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
    */
   private static final Logging LOG = Logging.getLogger(NNDescent.class);
 
+  /**
+   * Number of objects processed with the same random generator.
+   */
+  private static final int CHUNK_SIZE = 1024;
+
   /**
    * Log prefix.
    */
@@ -104,6 +119,11 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
    */
   private boolean noInitialNeighbors;
 
+  /**
+   * Number of threads, 0 for all processors.
+   */
+  private int threads;
+
   /**
    * store for neighbors
    */
@@ -120,19 +140,21 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
    * @param rho Rho threshold
    * @param noInitialNeighbors Do not use initial neighbors
    * @param iterations Maximum number of iterations
+   * @param threads Number of threads, 0 for all processors
    */
-  public NNDescent(Relation<O> relation, Distance<? super O> distance, int k, RandomFactory rnd, double delta, double rho, boolean noInitialNeighbors, int iterations) {
+  public NNDescent(Relation<O> relation, Distance<? super O> distance, int k, RandomFactory rnd, double delta, double rho, boolean noInitialNeighbors, int iterations, int threads) {
     super(relation, distance, k);
     this.rnd = rnd;
     this.delta = delta;
     this.rho = rho;
     this.noInitialNeighbors = noInitialNeighbors;
     this.iterations = iterations;
+    this.threads = threads;
   }
 
   @Override
   protected void preprocess() {
-    final DBIDs ids = relation.getDBIDs();
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
     final long starttime = System.currentTimeMillis();
     IndefiniteProgress progress = LOG.isVerbose() ? new IndefiniteProgress("KNNGraph iteration", LOG) : null;
 
@@ -147,105 +169,132 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
     WritableDataStore<HashSetModifiableDBIDs> oldReverseNeighbors = DataStoreFactory.FACTORY.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, HashSetModifiableDBIDs.class);
     // Sample of new forward neighbors.
     WritableDataStore<HashSetModifiableDBIDs> sampleNewNeighbors = DataStoreFactory.FACTORY.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, HashSetModifiableDBIDs.class);
+    // Old forward neighbors, for the current iteration.
+    WritableDataStore<HashSetModifiableDBIDs> oldNeighbors = DataStoreFactory.FACTORY.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, HashSetModifiableDBIDs.class);
     // data structures for new and sampled new neighbors
     WritableDataStore<HashSetModifiableDBIDs> flag = DataStoreFactory.FACTORY.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, HashSetModifiableDBIDs.class);
 
+    // this variable is the sampling size
+    final int items = (int) Math.ceil(rho * internal_k);
+
     // Initialize data structures:
     for(DBIDIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
       store.put(iditer, DBIDUtil.newHeap(internal_k));
-      newReverseNeighbors.put(iditer, DBIDUtil.newHashSet(internal_k));
+      newReverseNeighbors.put(iditer, DBIDUtil.newHashSet(items));
       oldReverseNeighbors.put(iditer, DBIDUtil.newHashSet(internal_k));
+      sampleNewNeighbors.put(iditer, DBIDUtil.newHashSet(items));
+      oldNeighbors.put(iditer, DBIDUtil.newHashSet());
+      flag.put(iditer, DBIDUtil.newHashSet());
     }
 
-    // this variable is the sampling size
-    final int items = (int) Math.ceil(rho * internal_k);
-
-    long counter_all = 0;
-
-    Random rand = rnd.getSingleThreadedRandom();
-
-    // initialize neighbors (depends on -setInitialNeighbors option)
-    for(DBIDIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
-      // initialize sampled NN
-      ModifiableDBIDs sampleNew = DBIDUtil.randomSampleExcept(ids, iditer, items, rand);
-      sampleNewNeighbors.put(iditer, DBIDUtil.newHashSet(sampleNew));
-      // initialize RNN
-      ModifiableDBIDs sampleRev = DBIDUtil.randomSampleExcept(ids, iditer, items, rand);
-      newReverseNeighbors.put(iditer, DBIDUtil.newHashSet(sampleRev));
-      // initialize new neighbors
-      flag.put(iditer, DBIDUtil.newHashSet());
-      // initialize store
-      if(!noInitialNeighbors) {
-        HashSetModifiableDBIDs flags = flag.get(iditer);
-        for(DBIDIter siter = sampleNew.iter(); siter.valid(); siter.advance()) {
-          if(add(iditer, siter, distanceQuery.distance(iditer, siter))) {
-            flags.add(siter);
+    final Random rand = rnd.getSingleThreadedRandom();
+    final ForkJoinPool pool = threads == 1 ? null : threads <= 0 ? ForkJoinPool.commonPool() : new ForkJoinPool(threads);
+    // In parallel, every chunk of objects derives its own generator from this.
+    // Sequentially, samples are bounded with a new generator of the factory.
+    final Random seeds = pool != null ? rand : null;
+    final LongAdder initial = new LongAdder();
+    try {
+      // initialize neighbors (depends on -setInitialNeighbors option)
+      run(pool, ids, rand, (iditer, r) -> {
+        // initialize sampled NN
+        ModifiableDBIDs sampleNew = DBIDUtil.randomSampleExcept(ids, iditer, items, r);
+        sampleNewNeighbors.get(iditer).addDBIDs(sampleNew);
+        // initialize RNN
+        newReverseNeighbors.get(iditer).addDBIDs(DBIDUtil.randomSampleExcept(ids, iditer, items, r));
+        // initialize store
+        if(!noInitialNeighbors) {
+          for(DBIDIter siter = sampleNew.iter(); siter.valid(); siter.advance()) {
+            add(flag, iditer, siter, distanceQuery.distance(iditer, siter));
           }
+          initial.add(sampleNew.size());
         }
-        counter_all += sampleNew.size();
-      }
-    }
-
-    final int size = relation.size();
-    double rate = 0.0;
-    int iter = 0;
+      });
+      long counter_all = initial.sum();
 
-    for(; iter < iterations; iter++) {
-      long counter = 0;
+      final int size = relation.size();
+      double rate = 0.0;
+      int iter = 0;
 
-      // iterate through dataset
-      for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-        // determine new and old neighbors
+      // determine old neighbors, and bound the reverse neighbors
+      final Processor prepare = (iditer, r) -> {
         HashSetModifiableDBIDs newNeighbors = flag.get(iditer);
-        HashSetModifiableDBIDs oldNeighbors = DBIDUtil.newHashSet();
+        HashSetModifiableDBIDs old = oldNeighbors.get(iditer).clear();
         KNNHeap heap = store.get(iditer);
         for(DoubleDBIDIter heapiter = heap.unorderedIterator(); heapiter.valid(); heapiter.advance()) {
           if(!newNeighbors.contains(heapiter)) {
-            oldNeighbors.add(heapiter);
+            old.add(heapiter);
           }
         }
-
-        // Sampling
-        HashSetModifiableDBIDs sampleNew = sampleNewNeighbors.get(iditer);
-
         HashSetModifiableDBIDs newRev = newReverseNeighbors.get(iditer);
-        newRev.removeDBIDs(sampleNew);
-        boundSize(newRev, items);
+        newRev.removeDBIDs(sampleNewNeighbors.get(iditer));
+        boundSize(newRev, items, r);
 
         HashSetModifiableDBIDs oldRev = oldReverseNeighbors.get(iditer);
-        oldRev.removeDBIDs(oldNeighbors);
-        boundSize(oldRev, items);
-        counter += processNewNeighbors(flag, sampleNew, oldNeighbors, newRev, oldRev);
-      }
-      counter_all += counter;
-      if(LOG.isStatistics()) {
-        LOG.statistics(new DoubleStatistic(prefix + ".scan-rate", counter_all * .5 / (size * (size - 1L))));
-      }
+        oldRev.removeDBIDs(old);
+        boundSize(oldRev, items, r);
+      };
+
+      for(; iter < iterations; iter++) {
+        // local join, updating the neighbor heaps concurrently
+        final LongAdder distances = new LongAdder(), updates = new LongAdder();
+        final Processor join = (iditer, r) -> processNewNeighbors(flag, sampleNewNeighbors.get(iditer), oldNeighbors.get(iditer), //
+            newReverseNeighbors.get(iditer), oldReverseNeighbors.get(iditer), distances, updates);
+        if(pool == null) {
+          // Sequentially, each object is joined right after its preparation.
+          run(null, ids, null, (iditer, r) -> {
+            oldNeighbors.put(iditer, DBIDUtil.newHashSet());
+            prepare.process(iditer, r);
+            join.process(iditer, r);
+          });
+        }
+        else {
+          run(pool, ids, seeds, prepare);
+          run(pool, ids, null, join);
+        }
+        final long counter = distances.sum();
+        counter_all += counter;
+        if(LOG.isStatistics()) {
+          LOG.statistics(new LongStatistic(prefix + ".distance-computations", counter));
+          LOG.statistics(new LongStatistic(prefix + ".updates", updates.sum()));
+          LOG.statistics(new DoubleStatistic(prefix + ".scan-rate", counter_all * .5 / (size * (size - 1L))));
+        }
 
-      // t is the number of new neighbors
-      int t = sampleNew(ids, sampleNewNeighbors, flag, items);
+        // t is the number of new neighbors
+        final LongAdder t = new LongAdder();
+        run(pool, ids, seeds, (iditer, r) -> t.add(sampleNew(iditer, sampleNewNeighbors, flag, items, r)));
 
-      // calculate old and new reverse neighbors
-      clearAll(ids, newReverseNeighbors);
-      clearAll(ids, oldReverseNeighbors);
-      reverse(sampleNewNeighbors, newReverseNeighbors, oldReverseNeighbors);
+        // calculate old and new reverse neighbors
+        run(pool, ids, null, (iditer, r) -> {
+          newReverseNeighbors.get(iditer).clear();
+          oldReverseNeighbors.get(iditer).clear();
+        });
+        run(pool, ids, null, (iditer, r) -> reverse(iditer, sampleNewNeighbors, newReverseNeighbors, oldReverseNeighbors));
 
-      rate = (double) t / (double) (internal_k * size);
-      if(LOG.isStatistics()) {
-        LOG.statistics(new DoubleStatistic(prefix + ".update-rate", rate));
+        rate = t.sum() / (double) (internal_k * size);
+        if(LOG.isStatistics()) {
+          LOG.statistics(new DoubleStatistic(prefix + ".update-rate", rate));
+        }
+        if(counter < delta * internal_k * size) {
+          LOG.verbose("KNNGraph terminated because we performaned delta*k*size distance computations.");
+          break;
+        }
+        if(rate < delta) {
+          LOG.verbose("KNNGraph terminated because update rate got smaller than delta.");
+          break;
+        }
+        LOG.incrementProcessed(progress);
       }
-      if(counter < delta * internal_k * size) {
-        LOG.verbose("KNNGraph terminated because we performaned delta*k*size distance computations.");
-        break;
+      if(LOG.isVerbose() && iter == iterations) {
+        LOG.verbose("KNNGraph terminated because the maximum number of iterations was reached.");
       }
-      if(rate < delta) {
-        LOG.verbose("KNNGraph terminated because update rate got smaller than delta.");
-        break;
+      if(LOG.isStatistics()) {
+        LOG.statistics(new LongStatistic(prefix + ".iterations", Math.min(iter + 1, iterations)));
       }
-      LOG.incrementProcessed(progress);
     }
-    if(LOG.isVerbose() && iter == iterations) {
-      LOG.verbose("KNNGraph terminated because the maximum number of iterations was reached.");
+    finally {
+      if(pool != null && pool != ForkJoinPool.commonPool()) {
+        pool.shutdown();
+      }
     }
     LOG.setCompleted(progress);
     // convert store to storage
@@ -267,14 +316,124 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
   }
 
   /**
-   * Clear (but reuse) all sets in the given storage.
-   * 
-   * @param ids Ids to process
-   * @param sets Sets to clear
+   * Process all objects, in parallel if a pool is given.
+   * <p>
+   * In parallel, the objects are processed in chunks of fixed size, each with a
+   * random generator derived from a seed drawn from the given generator and
+   * the chunk number. Phases that only modify the processed object are thus
+   * deterministic for any number of threads. Sequentially, all objects are
+   * processed in order with the given generator, as in the original
+   * algorithm.
+   *
+   * @param pool Thread pool, null to run in the current thread
+   * @param ids Objects to process
+   * @param rand Random generator, may be null if the phase is not randomized
+   * @param proc Processor
    */
-  private void clearAll(DBIDs ids, WritableDataStore<HashSetModifiableDBIDs> sets) {
-    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
-      sets.get(it).clear();
+  private static void run(ForkJoinPool pool, ArrayDBIDs ids, Random rand, Processor proc) {
+    if(pool == null) {
+      for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+        proc.process(it, rand);
+      }
+      return;
+    }
+    final long seed = rand != null ? rand.nextLong() : 0L;
+    final int chunks = (ids.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    if(chunks <= 1) {
+      ChunkTask.processChunk(ids, 0, seed, proc);
+      return;
+    }
+    pool.invoke(new ChunkTask(ids, 0, chunks, seed, proc));
+  }
+
+  /**
+   * Process a single object.
+   *
+   * @author Erich Schubert
+   */
+  @FunctionalInterface
+  private interface Processor {
+    /**
+     * Process an object.
+     *
+     * @param id Object
+     * @param r Random generator of the current chunk, may be null
+     */
+    void process(DBIDArrayIter id, Random r);
+  }
+
+  /**
+   * Task processing a range of chunks.
+   *
+   * @author Erich Schubert
+   */
+  private static class ChunkTask extends RecursiveAction {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Objects to process.
+     */
+    private final ArrayDBIDs ids;
+
+    /**
+     * Range of chunks.
+     */
+    private final int begin, end;
+
+    /**
+     * Random seed.
+     */
+    private final long seed;
+
+    /**
+     * Processor.
+     */
+    private final Processor proc;
+
+    /**
+     * Constructor.
+     *
+     * @param ids Objects to process
+     * @param begin First chunk
+     * @param end End chunk (exclusive)
+     * @param seed Random seed
+     * @param proc Processor
+     */
+    ChunkTask(ArrayDBIDs ids, int begin, int end, long seed, Processor proc) {
+      this.ids = ids;
+      this.begin = begin;
+      this.end = end;
+      this.seed = seed;
+      this.proc = proc;
+    }
+
+    @Override
+    protected void compute() {
+      if(end - begin > 1) {
+        final int mid = (begin + end) >>> 1;
+        invokeAll(new ChunkTask(ids, begin, mid, seed, proc), new ChunkTask(ids, mid, end, seed, proc));
+        return;
+      }
+      processChunk(ids, begin, seed, proc);
+    }
+
+    /**
+     * Process a single chunk.
+     *
+     * @param ids Objects to process
+     * @param chunk Chunk number
+     * @param seed Random seed
+     * @param proc Processor
+     */
+    static void processChunk(ArrayDBIDs ids, int chunk, long seed, Processor proc) {
+      final Random r = new Xoroshiro128NonThreadsafeRandom(seed + chunk);
+      final int stop = Math.min((chunk + 1) * CHUNK_SIZE, ids.size());
+      for(DBIDArrayIter it = ids.iter().seek(chunk * CHUNK_SIZE); it.getOffset() < stop; it.advance()) {
+        proc.process(it, r);
+      }
     }
   }
 
@@ -283,10 +442,11 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
    * 
    * @param set Set to process
    * @param items Maximum size
+   * @param r Random generator, null to use a new generator of the factory
    */
-  private void boundSize(HashSetModifiableDBIDs set, int items) {
+  private void boundSize(HashSetModifiableDBIDs set, int items, Random r) {
     if(set.size() > items) {
-      DBIDs sample = DBIDUtil.randomSample(set, items, rnd);
+      DBIDs sample = r != null ? DBIDUtil.randomSample(set, items, r) : DBIDUtil.randomSample(set, items, rnd);
       set.clear().addDBIDs(sample);
     }
   }
@@ -302,17 +462,18 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
    * @param oldFwd Old forward neighbors
    * @param newRev New reverse neighbors
    * @param oldRev Old reverse neighbors
-   * @return Number of new neighbors
+   * @param distances Counter for distance computations
+   * @param updates Counter for neighbor updates
    */
-  private int processNewNeighbors(WritableDataStore<HashSetModifiableDBIDs> flag, HashSetModifiableDBIDs newFwd, HashSetModifiableDBIDs oldFwd, HashSetModifiableDBIDs newRev, HashSetModifiableDBIDs oldRev) {
-    int counter = 0;
+  private void processNewNeighbors(WritableDataStore<HashSetModifiableDBIDs> flag, HashSetModifiableDBIDs newFwd, HashSetModifiableDBIDs oldFwd, HashSetModifiableDBIDs newRev, HashSetModifiableDBIDs oldRev, LongAdder distances, LongAdder updates) {
+    int counter = 0, updated = 0;
     // nn_new
     if(!newFwd.isEmpty()) {
       for(DBIDIter sniter = newFwd.iter(); sniter.valid(); sniter.advance()) {
         // nn_new X nn_new
         for(DBIDIter niter2 = newFwd.iter(); niter2.valid(); niter2.advance()) {
           if(DBIDUtil.compare(sniter, niter2) < 0) { // Only x < y.
-            addpair(flag, sniter, niter2);
+            updated += addpair(flag, sniter, niter2);
             counter++;
           }
         }
@@ -321,7 +482,7 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
           if(DBIDUtil.equal(sniter, niter2)) {
             continue;
           }
-          addpair(flag, sniter, niter2);
+          updated += addpair(flag, sniter, niter2);
           counter++;
         }
       }
@@ -332,7 +493,7 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
         // rnn_new X rnn_new
         for(DBIDIter niter2 = newRev.iter(); niter2.valid(); niter2.advance()) {
           if(DBIDUtil.compare(nriter, niter2) < 0) { // Only x < y
-            addpair(flag, nriter, niter2);
+            updated += addpair(flag, nriter, niter2);
             counter++;
           }
         }
@@ -341,7 +502,7 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
           if(DBIDUtil.equal(nriter, niter2)) {
             continue;
           }
-          addpair(flag, nriter, niter2);
+          updated += addpair(flag, nriter, niter2);
           counter++;
         }
       }
@@ -353,14 +514,14 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
         // nn_new X rnn_old
         for(DBIDIter niter2 = oldRev.iter(); niter2.valid(); niter2.advance()) {
           if(!DBIDUtil.equal(sniter2, niter2)) {
-            addpair(flag, sniter2, niter2);
+            updated += addpair(flag, sniter2, niter2);
             counter++;
           }
         }
         // nn_new X rnn_new
         for(DBIDIter niter2 = newRev.iter(); niter2.valid(); niter2.advance()) {
           if(DBIDUtil.compare(sniter2, niter2) < 0) {
-            addpair(flag, sniter2, niter2);
+            updated += addpair(flag, sniter2, niter2);
             counter++;
           }
         }
@@ -374,83 +535,96 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
           if(DBIDUtil.equal(niter, niter2)) {
             continue;
           }
-          addpair(flag, niter, niter2);
+          updated += addpair(flag, niter, niter2);
           counter++;
         }
       }
     }
-    return counter;
+    distances.add(counter);
+    updates.add(updated);
   }
 
   /**
-   * Add cand to cur's heap neighbors with distance
+   * Add cand to cur's heap neighbors with distance, and flag it as new.
+   * <p>
+   * The heap of each object is used as lock, so that concurrent updates of
+   * the same object are serialized.
    *
+   * @param flag Flags to mark new neighbors
    * @param cur Current object
    * @param cand Neighbor candidate
    * @param distance Distance
    * @return {@code true} if it was a new neighbor.
    */
-  private boolean add(DBIDRef cur, DBIDRef cand, double distance) {
+  private boolean add(WritableDataStore<HashSetModifiableDBIDs> flag, DBIDRef cur, DBIDRef cand, double distance) {
     KNNHeap neighbors = store.get(cur);
-    if(neighbors.contains(cand)) {
+    synchronized(neighbors) {
+      if(distance > neighbors.getKNNDistance() || neighbors.contains(cand)) {
+        return false;
+      }
+      double newKDistance = neighbors.insert(distance, cand);
+      if(distance <= newKDistance) {
+        flag.get(cur).add(cand);
+        return true;
+      }
       return false;
     }
-    double newKDistance = neighbors.insert(distance, cand);
-    return (distance <= newKDistance);
   }
 
-  private void addpair(WritableDataStore<HashSetModifiableDBIDs> newNeighbors, DBIDRef o1, DBIDRef o2) {
+  /**
+   * Join a pair of objects.
+   *
+   * @param flag Flags to mark new neighbors
+   * @param o1 First object
+   * @param o2 Second object
+   * @return Number of neighbor updates
+   */
+  private int addpair(WritableDataStore<HashSetModifiableDBIDs> flag, DBIDRef o1, DBIDRef o2) {
     final double distance = distanceQuery.distance(o1, o2);
-    if(add(o1, o2, distance)) {
-      newNeighbors.get(o1).add(o2);
-    }
-    if(add(o2, o1, distance)) {
-      newNeighbors.get(o2).add(o1);
-    }
+    return (add(flag, o1, o2, distance) ? 1 : 0) + (add(flag, o2, o1, distance) ? 1 : 0);
   }
 
   /**
-   * samples newNeighbors for every object
+   * Sample the new neighbors of an object.
    *
-   * @param ids All ids
+   * @param iditer Object
    * @param sampleNewNeighbors Output of sampled new neighbors
    * @param newNeighborHash - new neighbors for every object
    * @param items Number of items to collect
+   * @param r Random generator, null to use a new generator of the factory
    * @return Number of new neighbors
    */
-  private int sampleNew(DBIDs ids, WritableDataStore<HashSetModifiableDBIDs> sampleNewNeighbors, WritableDataStore<HashSetModifiableDBIDs> newNeighborHash, int items) {
+  private int sampleNew(DBIDRef iditer, WritableDataStore<HashSetModifiableDBIDs> sampleNewNeighbors, WritableDataStore<HashSetModifiableDBIDs> newNeighborHash, int items, Random r) {
     int t = 0;
-    for(DBIDIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
-      KNNHeap realNeighbors = store.get(iditer);
-      HashSetModifiableDBIDs newNeighbors = newNeighborHash.get(iditer);
-      HashSetModifiableDBIDs realNewNeighbors = sampleNewNeighbors.get(iditer).clear(); // Reuse
-      for(DoubleDBIDIter heapiter = realNeighbors.unorderedIterator(); heapiter.valid(); heapiter.advance()) {
-        if(newNeighbors.contains(heapiter)) {
-          realNewNeighbors.add(heapiter);
-          t++;
-        }
+    KNNHeap realNeighbors = store.get(iditer);
+    HashSetModifiableDBIDs newNeighbors = newNeighborHash.get(iditer);
+    HashSetModifiableDBIDs realNewNeighbors = sampleNewNeighbors.get(iditer).clear(); // Reuse
+    for(DoubleDBIDIter heapiter = realNeighbors.unorderedIterator(); heapiter.valid(); heapiter.advance()) {
+      if(newNeighbors.contains(heapiter)) {
+        realNewNeighbors.add(heapiter);
+        t++;
       }
-      boundSize(realNewNeighbors, items);
-
-      newNeighbors.removeDBIDs(realNewNeighbors);
-      newNeighborHash.put(iditer, newNeighbors);
     }
+    boundSize(realNewNeighbors, items, r);
+    newNeighbors.removeDBIDs(realNewNeighbors);
     return t;
   }
 
   /**
-   * calculates new and old neighbors for database
+   * Add an object to the new and old reverse neighbors of its neighbors.
    * 
+   * @param iditer Object
    * @param sampleNewHash new neighbors for every object
    * @param newReverseNeighbors new reverse neighbors
    * @param oldReverseNeighbors old reverse neighbors
    */
-  private void reverse(WritableDataStore<HashSetModifiableDBIDs> sampleNewHash, WritableDataStore<HashSetModifiableDBIDs> newReverseNeighbors, WritableDataStore<HashSetModifiableDBIDs> oldReverseNeighbors) {
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      KNNHeap heap = store.get(iditer);
-      HashSetDBIDs newNeighbors = sampleNewHash.get(iditer);
-      for(DoubleDBIDIter heapiter = heap.unorderedIterator(); heapiter.valid(); heapiter.advance()) {
-        (newNeighbors.contains(heapiter) ? newReverseNeighbors : oldReverseNeighbors).get(heapiter).add(iditer);
+  private void reverse(DBIDRef iditer, WritableDataStore<HashSetModifiableDBIDs> sampleNewHash, WritableDataStore<HashSetModifiableDBIDs> newReverseNeighbors, WritableDataStore<HashSetModifiableDBIDs> oldReverseNeighbors) {
+    KNNHeap heap = store.get(iditer);
+    HashSetDBIDs newNeighbors = sampleNewHash.get(iditer);
+    for(DoubleDBIDIter heapiter = heap.unorderedIterator(); heapiter.valid(); heapiter.advance()) {
+      HashSetModifiableDBIDs rev = (newNeighbors.contains(heapiter) ? newReverseNeighbors : oldReverseNeighbors).get(heapiter);
+      synchronized(rev) {
+        rev.add(iditer);
       }
     }
   }
@@ -499,6 +673,11 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
      */
     private final int iterations;
 
+    /**
+     * Number of threads
+     */
+    private final int threads;
+
     /**
      * Constructor.
      *
@@ -509,19 +688,21 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
      * @param rho Rho threshold
      * @param noInitialNeighbors Do not use initial neighbors
      * @param iterations Maximum number of iterations
+     * @param threads Number of threads, 0 for all processors
      */
-    public Factory(int k, Distance<? super O> distance, RandomFactory rnd, double delta, double rho, boolean noInitialNeighbors, int iterations) {
+    public Factory(int k, Distance<? super O> distance, RandomFactory rnd, double delta, double rho, boolean noInitialNeighbors, int iterations, int threads) {
       super(k, distance);
       this.rnd = rnd;
       this.delta = delta;
       this.rho = rho;
       this.noInitialNeighbors = noInitialNeighbors;
       this.iterations = iterations;
+      this.threads = threads;
     }
 
     @Override
     public NNDescent<O> instantiate(Relation<O> relation) {
-      return new NNDescent<>(relation, distance, k, rnd, delta, rho, noInitialNeighbors, iterations);
+      return new NNDescent<>(relation, distance, k, rnd, delta, rho, noInitialNeighbors, iterations, threads);
     }
 
     /**
@@ -559,6 +740,11 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
        */
       public static final OptionID ITER_ID = new OptionID("knngraph.maxiter", "maximum number of iterations");
 
+      /**
+       * Number of threads
+       */
+      public static final OptionID THREADS_ID = new OptionID("knngraph.threads", "Number of threads to use, 0 for all processors. With one thread, the result is deterministic for a fixed seed.");
+
       /**
        * Random generator
        */
@@ -584,6 +770,11 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
        */
       private int iterations;
 
+      /**
+       * Number of threads
+       */
+      private int threads;
+
       @Override
       public void configure(Parameterization config) {
         super.configure(config);
@@ -598,11 +789,14 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
         new IntParameter(ITER_ID, 100) //
             .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
             .grab(config, x -> iterations = x);
+        new IntParameter(THREADS_ID, 1) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_INT) //
+            .grab(config, x -> threads = x);
       }
 
       @Override
       public NNDescent.Factory<O> make() {
-        return new NNDescent.Factory<>(k, distance, rnd, delta, rho, noInitialNeighbors, iterations);
+        return new NNDescent.Factory<>(k, distance, rnd, delta, rho, noInitialNeighbors, iterations, threads);
       }
     }
   }
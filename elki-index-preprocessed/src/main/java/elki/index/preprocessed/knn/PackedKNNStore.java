@@ -0,0 +1,586 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.preprocessed.knn;
+
+import java.util.Arrays;
+import java.util.function.DoubleUnaryOperator;
+
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.ObjectNotFoundException;
+import elki.database.datastore.WritableDataStore;
+import elki.database.datastore.WritableIntegerDataStore;
+import elki.database.ids.*;
+import elki.utilities.exceptions.AbortException;
+
+/**
+ * Packed storage for materialized kNN lists.
+ * <p>
+ * Instead of one list object per point (each with its own arrays), all
+ * neighbor lists are stored in one shared {@code int[]} of neighbor offsets
+ * and one {@code double[]} (or {@code float[]}) of distances, in the style of
+ * a compressed sparse row (CSR) matrix. Lists may have different lengths,
+ * e.g., because of ties. {@link #get} returns lightweight {@link KNNList}
+ * views on these arrays.
+ * <p>
+ * Modifications never overwrite existing entries, but append to the arrays,
+ * and the arrays are compacted when they need to grow. Hence, previously
+ * returned views remain valid snapshots. After bulk loading, {@link #compact}
+ * trims the storage to a contiguous CSR layout in the order of the ids.
+ * <p>
+ * When using single precision, distances are rounded up to the next float,
+ * such that the order of the neighbors is preserved and the kNN distance
+ * remains an upper bound.
+ * <p>
+ * Because Java arrays are indexed by integers, at most
+ * {@code Integer.MAX_VALUE - 8} neighbors can be stored in total.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @has - - - KNNView
+ */
+public class PackedKNNStore implements WritableDataStore<KNNList> {
+  /**
+   * Maximum array size.
+   */
+  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+  /**
+   * Number of neighbors (lists may be longer because of ties).
+   */
+  private final int k;
+
+  /**
+   * Static range of ids, if available.
+   */
+  private DBIDRange range;
+
+  /**
+   * Mapping of ids to rows, if the ids are not a range.
+   */
+  private WritableIntegerDataStore rowmap;
+
+  /**
+   * Ids of the rows, if the ids are not a range.
+   */
+  private ArrayModifiableDBIDs rowids;
+
+  /**
+   * Ids of the rows, for decoding neighbor offsets.
+   */
+  private ArrayDBIDs rows;
+
+  /**
+   * Start position of each row, {@code -1} if not stored.
+   */
+  private int[] start;
+
+  /**
+   * Length of each row.
+   */
+  private int[] length;
+
+  /**
+   * Number of rows.
+   */
+  private int numrows;
+
+  /**
+   * Neighbor offsets (rows).
+   */
+  private int[] neighbors;
+
+  /**
+   * Distances, in double precision.
+   */
+  private double[] dists;
+
+  /**
+   * Distances, in single precision.
+   */
+  private float[] fdists;
+
+  /**
+   * Number of used array positions.
+   */
+  private int used;
+
+  /**
+   * Number of positions used by replaced or deleted lists.
+   */
+  private int garbage;
+
+  /**
+   * Row and start position of the list currently being appended.
+   */
+  private int currow = -1, curstart;
+
+  /**
+   * Constructor.
+   *
+   * @param ids Ids to store the neighbors for
+   * @param k Number of neighbors
+   * @param singlePrecision Store distances as float only
+   */
+  public PackedKNNStore(DBIDs ids, int k, boolean singlePrecision) {
+    super();
+    this.k = k;
+    final int size = ids.size();
+    if(ids instanceof DBIDRange) {
+      rows = range = (DBIDRange) ids;
+    }
+    else {
+      rows = rowids = DBIDUtil.newArray(size);
+      rowmap = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, -1);
+      for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+        rowmap.putInt(it, rowids.size());
+        rowids.add(it);
+      }
+    }
+    numrows = size;
+    start = new int[size];
+    Arrays.fill(start, -1);
+    length = new int[size];
+    final int capacity = (int) Math.min((long) size * k, MAX_ARRAY_SIZE);
+    neighbors = new int[capacity];
+    if(singlePrecision) {
+      fdists = new float[capacity];
+    }
+    else {
+      dists = new double[capacity];
+    }
+  }
+
+  /**
+   * Get the row of an object.
+   *
+   * @param id Object
+   * @param create Add new rows for unknown ids
+   * @return Row, or -1
+   */
+  private int row(DBIDRef id, boolean create) {
+    if(range != null) {
+      final int off = range.getOffset(id);
+      if(off < 0 || off >= numrows) {
+        throw new ObjectNotFoundException(id);
+      }
+      return off;
+    }
+    int r = rowmap.intValue(id);
+    if(r < 0 && create) {
+      if(numrows == start.length) {
+        final int newsize = start.length + (start.length >>> 1) + 1;
+        start = Arrays.copyOf(start, newsize);
+        Arrays.fill(start, numrows, newsize, -1);
+        length = Arrays.copyOf(length, newsize);
+      }
+      rowmap.putInt(id, r = numrows++);
+      rowids.add(id);
+    }
+    return r;
+  }
+
+  @Override
+  public KNNList get(DBIDRef id) {
+    final int r = row(id, false);
+    if(r < 0 || start[r] < 0) {
+      return null;
+    }
+    return new KNNView(rows, neighbors, dists, fdists, start[r], length[r], k);
+  }
+
+  @Override
+  public KNNList put(DBIDRef id, KNNList value) {
+    KNNList prev = get(id);
+    if(value == null) {
+      delete(id);
+      return prev;
+    }
+    startList(id);
+    for(DoubleDBIDListIter it = value.iter(); it.valid(); it.advance()) {
+      addNeighbor(it, it.doubleValue());
+    }
+    finishList();
+    return prev;
+  }
+
+  /**
+   * Begin a new list for an object, replacing any previous list. Neighbors are
+   * added with {@link #addNeighbor} in ascending order of distance, then the
+   * list is committed with {@link #finishList}.
+   *
+   * @param id Object
+   */
+  public void startList(DBIDRef id) {
+    if(currow >= 0) {
+      throw new IllegalStateException("Previous list was not finished.");
+    }
+    currow = row(id, true);
+    curstart = used;
+  }
+
+  /**
+   * Add a neighbor to the current list.
+   *
+   * @param neighbor Neighbor
+   * @param distance Distance
+   */
+  public void addNeighbor(DBIDRef neighbor, double distance) {
+    if(used == neighbors.length) {
+      grow();
+    }
+    neighbors[used] = row(neighbor, true);
+    if(fdists != null) {
+      fdists[used] = roundUp(distance);
+    }
+    else {
+      dists[used] = distance;
+    }
+    ++used;
+  }
+
+  /**
+   * Commit the current list.
+   */
+  public void finishList() {
+    final int r = currow;
+    if(start[r] >= 0) {
+      garbage += length[r];
+    }
+    start[r] = curstart;
+    length[r] = used - curstart;
+    currow = -1;
+  }
+
+  @Override
+  public void delete(DBIDRef id) {
+    final int r = row(id, false);
+    if(r >= 0 && start[r] >= 0) {
+      garbage += length[r];
+      start[r] = -1;
+      length[r] = 0;
+    }
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(start, -1);
+    Arrays.fill(length, 0);
+    // Fresh arrays, as previously returned views still reference the old.
+    neighbors = new int[neighbors.length];
+    dists = dists != null ? new double[dists.length] : null;
+    fdists = fdists != null ? new float[fdists.length] : null;
+    used = garbage = 0;
+    currow = -1;
+  }
+
+  @Override
+  public void destroy() {
+    start = length = neighbors = null;
+    dists = null;
+    fdists = null;
+    rowmap = null;
+    rows = rowids = null;
+    range = null;
+    numrows = used = garbage = 0;
+  }
+
+  /**
+   * Remove unused space, and store the lists in the order of the ids.
+   */
+  public void compact() {
+    rebuild(used - garbage);
+  }
+
+  /**
+   * Total number of neighbors stored.
+   *
+   * @return Number of neighbors
+   */
+  public int numNeighbors() {
+    return used - garbage;
+  }
+
+  /**
+   * Grow the arrays, removing unused space.
+   */
+  private void grow() {
+    final int live = used - garbage;
+    if(live >= MAX_ARRAY_SIZE) {
+      throw new AbortException("Too many neighbors for a packed kNN storage.");
+    }
+    rebuild((int) Math.min(live + (live >>> 1) + k + 1L, MAX_ARRAY_SIZE));
+  }
+
+  /**
+   * Copy all lists into new arrays. Existing views keep the old arrays.
+   *
+   * @param capacity New capacity
+   */
+  private void rebuild(int capacity) {
+    int[] nn = new int[capacity];
+    double[] nd = dists != null ? new double[capacity] : null;
+    float[] nf = fdists != null ? new float[capacity] : null;
+    int pos = 0;
+    for(int r = 0; r < numrows; r++) {
+      if(start[r] >= 0) {
+        pos = copy(start[r], length[r], nn, nd, nf, start[r] = pos);
+      }
+    }
+    if(currow >= 0) {
+      pos = copy(curstart, used - curstart, nn, nd, nf, curstart = pos);
+    }
+    neighbors = nn;
+    dists = nd;
+    fdists = nf;
+    used = pos;
+    garbage = 0;
+  }
+
+  /**
+   * Copy a range of entries.
+   *
+   * @param from Source position
+   * @param len Length
+   * @param nn Destination neighbors
+   * @param nd Destination distances, double precision
+   * @param nf Destination distances, single precision
+   * @param to Destination position
+   * @return End position in destination
+   */
+  private int copy(int from, int len, int[] nn, double[] nd, float[] nf, int to) {
+    System.arraycopy(neighbors, from, nn, to, len);
+    if(nd != null) {
+      System.arraycopy(dists, from, nd, to, len);
+    }
+    else {
+      System.arraycopy(fdists, from, nf, to, len);
+    }
+    return to + len;
+  }
+
+  /**
+   * Round a distance up to the next float.
+   *
+   * @param d Distance
+   * @return Float value not less than d
+   */
+  private static float roundUp(double d) {
+    final float f = (float) d;
+    return f < d ? Math.nextUp(f) : f;
+  }
+
+  /**
+   * View of a list in the packed storage.
+   *
+   * @author Erich Schubert
+   */
+  static class KNNView implements KNNList {
+    /**
+     * Ids of the rows.
+     */
+    final ArrayDBIDs rows;
+
+    /**
+     * Neighbor offsets.
+     */
+    final int[] neighbors;
+
+    /**
+     * Distances, one of which is {@code null}.
+     */
+    final double[] dists;
+
+    /**
+     * Distances, one of which is {@code null}.
+     */
+    final float[] fdists;
+
+    /**
+     * Start position and size.
+     */
+    final int start, size;
+
+    /**
+     * Number of neighbors requested.
+     */
+    final int k;
+
+    /**
+     * Constructor.
+     *
+     * @param rows Ids of the rows
+     * @param neighbors Neighbor offsets
+     * @param dists Distances, double precision
+     * @param fdists Distances, single precision
+     * @param start Start position
+     * @param size List size
+     * @param k Number of neighbors requested
+     */
+    KNNView(ArrayDBIDs rows, int[] neighbors, double[] dists, float[] fdists, int start, int size, int k) {
+      this.rows = rows;
+      this.neighbors = neighbors;
+      this.dists = dists;
+      this.fdists = fdists;
+      this.start = start;
+      this.size = size;
+      this.k = k;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public int getK() {
+      return k;
+    }
+
+    @Override
+    public double getKNNDistance() {
+      return size >= k ? doubleValue(k - 1) : Double.POSITIVE_INFINITY;
+    }
+
+    @Override
+    public double doubleValue(int index) {
+      return dists != null ? dists[start + index] : fdists[start + index];
+    }
+
+    @Override
+    public DBIDVar assignVar(int index, DBIDVar var) {
+      return rows.assignVar(neighbors[start + index], var);
+    }
+
+    @Override
+    public boolean contains(DBIDRef o) {
+      for(DBIDIter it = iter(); it.valid(); it.advance()) {
+        if(DBIDUtil.equal(it, o)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public DoubleDBIDListIter iter() {
+      return new Itr();
+    }
+
+    @Override
+    public KNNList slice(int begin, int end) {
+      return new KNNView(rows, neighbors, dists, fdists, start + begin, end - begin, k);
+    }
+
+    @Override
+    public KNNList subList(int k) {
+      if(k >= size) {
+        return new KNNView(rows, neighbors, dists, fdists, start, size, k);
+      }
+      final double kdist = doubleValue(k - 1);
+      int lim = k;
+      while(lim < size && doubleValue(lim) <= kdist) {
+        ++lim;
+      }
+      return new KNNView(rows, neighbors, dists, fdists, start, lim, k);
+    }
+
+    @Override
+    public KNNList map(DoubleUnaryOperator f) {
+      double[] nd = new double[size];
+      for(int i = 0; i < size; i++) {
+        nd[i] = f.applyAsDouble(doubleValue(i));
+      }
+      return new KNNView(rows, Arrays.copyOfRange(neighbors, start, start + size), nd, null, 0, size, k);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder buf = new StringBuilder(size * 20 + 20).append("kNNList[");
+      for(DoubleDBIDListIter iter = iter(); iter.valid(); iter.advance()) {
+        buf.append(iter.getOffset() > 0 ? "," : "").append(iter.doubleValue()).append(':').append(iter.internalGetIndex());
+      }
+      return buf.append(']').toString();
+    }
+
+    /**
+     * Iterator over the view.
+     *
+     * @author Erich Schubert
+     */
+    private class Itr implements DoubleDBIDListIter {
+      /**
+       * Current position.
+       */
+      private int pos = 0;
+
+      /**
+       * Iterator to decode the neighbor ids.
+       */
+      private final DBIDArrayIter dec = rows.iter();
+
+      @Override
+      public boolean valid() {
+        return pos >= 0 && pos < size;
+      }
+
+      @Override
+      public DoubleDBIDListIter advance() {
+        ++pos;
+        return this;
+      }
+
+      @Override
+      public DoubleDBIDListIter advance(int count) {
+        pos += count;
+        return this;
+      }
+
+      @Override
+      public DoubleDBIDListIter retract() {
+        --pos;
+        return this;
+      }
+
+      @Override
+      public DoubleDBIDListIter seek(int off) {
+        pos = off;
+        return this;
+      }
+
+      @Override
+      public int getOffset() {
+        return pos;
+      }
+
+      @Override
+      public double doubleValue() {
+        return KNNView.this.doubleValue(pos);
+      }
+
+      @Override
+      public int internalGetIndex() {
+        return dec.seek(neighbors[start + pos]).internalGetIndex();
+      }
+    }
+  }
+}
@@ -20,7 +20,9 @@
  */
 package elki.index.preprocessed.knn;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
@@ -28,7 +30,7 @@ import elki.algorithm.AbstractSimpleAlgorithmTest;
 import elki.data.DoubleVector;
 import elki.data.type.TypeUtil;
 import elki.database.Database;
-import elki.database.ids.DBIDRef;
+import elki.database.ids.*;
 import elki.database.query.QueryBuilder;
 import elki.database.query.distance.DistanceQuery;
 import elki.database.query.knn.KNNSearcher;
@@ -60,6 +62,12 @@ public class NNDescentTest {
   // size of the data set
   int shoulds = 330;
 
+  // a data set larger than one chunk of objects
+  static String largeDataset = "elki/testdata/unittests/outlier-axis-subspaces-6d.ascii";
+
+  // size of the larger data set
+  int largeSize = 1345;
+
   @Test
   public void testPreprocessor() {
     Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(dataset, shoulds);
@@ -88,4 +96,59 @@ public class NNDescentTest {
     // also test partial queries, forward only
     MaterializedKNNPreprocessorTest.testKNNQueries(relation, lin_knn_query, preproc_knn_query, k / 2, 6);
   }
+
+  /**
+   * Single-threaded runs must be reproducible.
+   */
+  @Test
+  public void testDeterministic() {
+    Relation<DoubleVector> relation = AbstractSimpleAlgorithmTest.makeSimpleDatabase(largeDataset, largeSize).getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    DistanceQuery<DoubleVector> dq = EuclideanDistance.STATIC.instantiate(relation);
+    KNNSearcher<DBIDRef> q1 = build(relation, 1).kNNByDBID(dq, k, 0);
+    KNNSearcher<DBIDRef> q2 = build(relation, 1).kNNByDBID(dq, k, 0);
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      KNNList r1 = q1.getKNN(it, k), r2 = q2.getKNN(it, k);
+      assertEquals("Result sizes differ.", r1.size(), r2.size());
+      for(DoubleDBIDListIter a = r1.iter(), b = r2.iter(); a.valid(); a.advance(), b.advance()) {
+        assertTrue("Results differ.", DBIDUtil.equal(a, b));
+      }
+    }
+  }
+
+  /**
+   * Check the recall of a multi-threaded run.
+   */
+  @Test
+  public void testParallel() {
+    Relation<DoubleVector> relation = AbstractSimpleAlgorithmTest.makeSimpleDatabase(largeDataset, largeSize).getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    DistanceQuery<DoubleVector> dq = EuclideanDistance.STATIC.instantiate(relation);
+    KNNSearcher<DBIDRef> knnq = build(relation, 4).kNNByDBID(dq, k, 0);
+    KNNSearcher<DBIDRef> lin = new LinearScanKNNByDBID<>(dq);
+    int found = 0, total = 0;
+    DBIDIter it = relation.iterDBIDs();
+    for(int i = 0; i < 200; i++, it.advance()) {
+      KNNList exp = lin.getKNN(it, k);
+      found += DBIDUtil.intersectionSize(DBIDUtil.newHashSet(exp), knnq.getKNN(it, k));
+      total += exp.size();
+    }
+    assertTrue("Recall too low: " + found / (double) total, found >= .9 * total);
+  }
+
+  /**
+   * Build the kNN graph.
+   *
+   * @param relation Data relation
+   * @param threads Number of threads
+   * @return Preprocessor
+   */
+  private NNDescent<DoubleVector> build(Relation<DoubleVector> relation, int threads) {
+    NNDescent<DoubleVector> preproc = new ELKIBuilder<NNDescent.Factory<DoubleVector>>(NNDescent.Factory.class) //
+        .with(NNDescent.Factory.DISTANCE_FUNCTION_ID, EuclideanDistance.STATIC) //
+        .with(NNDescent.Factory.K_ID, k) //
+        .with(NNDescent.Factory.Par.SEED_ID, seed) //
+        .with(NNDescent.Factory.Par.THREADS_ID, threads) //
+        .build().instantiate(relation);
+    preproc.initialize();
+    return preproc;
+  }
 }
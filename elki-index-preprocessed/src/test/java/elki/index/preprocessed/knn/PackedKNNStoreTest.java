@@ -0,0 +1,207 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.preprocessed.knn;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import elki.algorithm.AbstractSimpleAlgorithmTest;
+import elki.data.NumberVector;
+import elki.data.type.TypeUtil;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableDataStore;
+import elki.database.ids.*;
+import elki.database.query.distance.DistanceQuery;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.relation.Relation;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.index.KNNSelfJoinIndex;
+import elki.result.Metadata;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Unit test for the packed kNN storage.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class PackedKNNStoreTest {
+  /**
+   * Number of neighbors.
+   */
+  private static final int K = 7;
+
+  @Test
+  public void testDoublePrecision() {
+    Relation<NumberVector> rel = makeRelation();
+    MaterializeKNNPreprocessor<NumberVector> exp = build(rel, false, false);
+    MaterializeKNNPreprocessor<NumberVector> preproc = build(rel, true, false);
+    KNNSearcher<DBIDRef> pre = preproc.kNNByDBID(EuclideanDistance.STATIC.instantiate(rel), K, 0);
+    assertTrue("Not packed.", preproc.storage instanceof PackedKNNStore);
+    int total = 0;
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      KNNList e = exp.get(it), res = pre.getKNN(it, K);
+      assertEquals("Sizes do not agree.", e.size(), res.size());
+      assertEquals("kNN distances do not agree.", e.getKNNDistance(), res.getKNNDistance(), 0.);
+      for(DoubleDBIDListIter a = e.iter(), b = res.iter(); a.valid(); a.advance(), b.advance()) {
+        assertTrue("Neighbors do not agree.", DBIDUtil.equal(a, b));
+        assertEquals("Distances do not agree.", a.doubleValue(), b.doubleValue(), 0.);
+      }
+      total += res.size();
+    }
+    // All lists are stored contiguously.
+    assertEquals("Storage not compact.", total, ((PackedKNNStore) preproc.storage).numNeighbors());
+  }
+
+  @Test
+  public void testSinglePrecision() {
+    Relation<NumberVector> rel = makeRelation();
+    MaterializeKNNPreprocessor<NumberVector> exp = build(rel, false, false);
+    MaterializeKNNPreprocessor<NumberVector> preproc = build(rel, true, true);
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      KNNList e = exp.get(it), res = preproc.get(it);
+      assertEquals("Sizes do not agree.", e.size(), res.size());
+      assertTrue("kNN distance is not an upper bound.", res.getKNNDistance() >= e.getKNNDistance());
+      for(DoubleDBIDListIter a = e.iter(), b = res.iter(); a.valid(); a.advance(), b.advance()) {
+        assertTrue("Neighbors do not agree.", DBIDUtil.equal(a, b));
+        assertEquals("Distances do not agree.", a.doubleValue(), b.doubleValue(), 1e-6 * a.doubleValue());
+      }
+    }
+  }
+
+  @Test
+  public void testSelfJoin() {
+    Relation<NumberVector> rel = makeRelation();
+    MaterializeKNNPreprocessor<NumberVector> exp = build(rel, false, false);
+    // Self-join index that answers from the unpacked preprocessor.
+    Metadata.hierarchyOf(rel).addChild(new KNNSelfJoinIndex<NumberVector>() {
+      @Override
+      public void initialize() {
+        // Nothing to do.
+      }
+
+      @Override
+      public WritableDataStore<KNNList> kNNSelfJoin(DistanceQuery<NumberVector> distanceQuery, int k) {
+        WritableDataStore<KNNList> result = DataStoreUtil.makeStorage(rel.getDBIDs(), DataStoreFactory.HINT_DB, KNNList.class);
+        for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+          result.put(it, exp.get(it));
+        }
+        return result;
+      }
+    });
+    MaterializeKNNPreprocessor<NumberVector> preproc = build(rel, true, false);
+    assertTrue("Not packed.", preproc.storage instanceof PackedKNNStore);
+    int total = 0;
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      KNNList e = exp.get(it), res = preproc.get(it);
+      assertEquals("Sizes do not agree.", e.size(), res.size());
+      for(DoubleDBIDListIter a = e.iter(), b = res.iter(); a.valid(); a.advance(), b.advance()) {
+        assertTrue("Neighbors do not agree.", DBIDUtil.equal(a, b));
+        assertEquals("Distances do not agree.", a.doubleValue(), b.doubleValue(), 0.);
+      }
+      total += res.size();
+    }
+    assertEquals("Storage not compact.", total, ((PackedKNNStore) preproc.storage).numNeighbors());
+  }
+
+  @Test
+  public void testUpdates() {
+    ArrayModifiableDBIDs ids = DBIDUtil.newArray(DBIDUtil.generateStaticDBIDRange(20));
+    PackedKNNStore store = new PackedKNNStore(ids, 2, false);
+    DBIDArrayIter a = ids.iter(), b = ids.iter();
+    for(a.seek(0); a.valid(); a.advance()) {
+      assertNull("Unexpected list.", store.get(a));
+      KNNHeap heap = DBIDUtil.newHeap(2);
+      for(b.seek(0); b.valid(); b.advance()) {
+        heap.insert(Math.abs(a.getOffset() - b.getOffset()), b);
+      }
+      store.put(a, heap.toKNNList());
+    }
+    KNNList first = store.get(a.seek(0));
+    assertEquals("Wrong size.", 2, first.size());
+    assertEquals("Wrong size with ties.", 3, store.get(a.seek(5)).size());
+    assertEquals("Sublist has ties.", 1, store.get(a.seek(5)).subList(1).size());
+    assertEquals("Sublist lost ties.", 3, store.get(a.seek(5)).subList(2).size());
+    KNNList larger = store.get(a.seek(5)).subList(5);
+    assertEquals("Sublist size changed.", 3, larger.size());
+    assertEquals("Sublist k not changed.", 5, larger.getK());
+    // Overwrite the first list many times, forcing compaction.
+    for(int i = 0; i < 100; i++) {
+      KNNHeap heap = DBIDUtil.newHeap(2);
+      heap.insert(i, b.seek(i % 20));
+      store.put(a.seek(0), heap.toKNNList());
+    }
+    assertEquals("Old view modified.", 2, first.size());
+    assertTrue("Old view modified.", DBIDUtil.equal(first.iter(), a.seek(0)));
+    assertEquals("Wrong distance.", 99., store.get(a.seek(0)).doubleValue(0), 0.);
+    assertTrue("Wrong neighbor.", DBIDUtil.equal(store.get(a.seek(0)).iter(), b.seek(19)));
+    // Add an object that was not in the initial set.
+    DBID extra = DBIDUtil.generateSingleDBID();
+    KNNHeap heap = DBIDUtil.newHeap(2);
+    heap.insert(1., extra);
+    heap.insert(2., a.seek(3));
+    store.put(extra, heap.toKNNList());
+    assertTrue("New object not stored.", DBIDUtil.equal(store.get(extra).iter(), extra));
+    store.delete(a.seek(1));
+    assertNull("Object not deleted.", store.get(a.seek(1)));
+    store.compact();
+    // 1 for the first, 17 * 3 with ties, 2 for the last, and 2 for the extra
+    assertEquals("Wrong storage size.", 56, store.numNeighbors());
+    // Clearing must not modify previous views.
+    KNNList last = store.get(a.seek(19));
+    store.clear();
+    assertNull("Not cleared.", store.get(a.seek(19)));
+    store.put(a.seek(0), heap.toKNNList());
+    assertEquals("Old view modified.", 2, last.size());
+    assertTrue("Old view modified.", DBIDUtil.equal(last.iter(), a.seek(19)));
+  }
+
+  /**
+   * Build the preprocessor.
+   *
+   * @param rel Relation
+   * @param packed Use the packed layout
+   * @param singlePrecision Use single precision
+   * @return Preprocessor
+   */
+  private static MaterializeKNNPreprocessor<NumberVector> build(Relation<NumberVector> rel, boolean packed, boolean singlePrecision) {
+    ELKIBuilder<MaterializeKNNPreprocessor.Factory<NumberVector>> builder = new ELKIBuilder<MaterializeKNNPreprocessor.Factory<NumberVector>>(MaterializeKNNPreprocessor.Factory.class) //
+        .with(MaterializeKNNPreprocessor.Factory.K_ID, K) //
+        .with(MaterializeKNNPreprocessor.Factory.PACKED_ID, packed);
+    if(packed) {
+      builder.with(MaterializeKNNPreprocessor.Factory.SINGLE_PRECISION_ID, singlePrecision);
+    }
+    MaterializeKNNPreprocessor<NumberVector> preproc = builder.build().instantiate(rel);
+    preproc.initialize();
+    return preproc;
+  }
+
+  /**
+   * Load the test data relation.
+   *
+   * @return Relation
+   */
+  private static Relation<NumberVector> makeRelation() {
+    return AbstractSimpleAlgorithmTest.makeSimpleDatabase(AbstractSimpleAlgorithmTest.UNITTEST + "hierarchical-3d2d1d.csv", 600).getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+  }
+}
@@ -39,6 +39,7 @@ import elki.index.tree.spatial.SpatialEntry;
 import elki.index.tree.spatial.SpatialPointLeafEntry;
 import elki.index.tree.spatial.rstarvariants.util.NodeArrayAdapter;
 import elki.logging.Logging;
+import elki.logging.statistics.AtomicLongCounter;
 import elki.logging.statistics.Counter;
 import elki.logging.statistics.LongStatistic;
 import elki.persistent.PageFile;
@@ -784,6 +785,8 @@ public abstract class AbstractRStarTree<N extends AbstractRStarTreeNode<N, E>, E
 
   /**
    * Class for tracking some statistics.
+   * <p>
+   * The counters are thread-safe, as queries may run concurrently.
    *
    * @author Erich Schubert
    *
@@ -812,9 +815,9 @@ public abstract class AbstractRStarTree<N extends AbstractRStarTreeNode<N, E>, E
       super();
       Logging log = getLogger();
       final String prefix = AbstractRStarTree.this.getClass().getName();
-      distanceCalcs = log.isStatistics() ? log.newCounter(prefix + ".distancecalcs") : null;
-      knnQueries = log.isStatistics() ? log.newCounter(prefix + ".knnqueries") : null;
-      rangeQueries = log.isStatistics() ? log.newCounter(prefix + ".rangequeries") : null;
+      distanceCalcs = log.isStatistics() ? new AtomicLongCounter(prefix + ".distancecalcs") : null;
+      knnQueries = log.isStatistics() ? new AtomicLongCounter(prefix + ".knnqueries") : null;
+      rangeQueries = log.isStatistics() ? new AtomicLongCounter(prefix + ".rangequeries") : null;
     }
 
     /**
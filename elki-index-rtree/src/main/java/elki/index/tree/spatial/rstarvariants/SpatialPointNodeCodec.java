@@ -0,0 +1,104 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.tree.spatial.rstarvariants;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import elki.data.ModifiableHyperBoundingBox;
+import elki.database.ids.DBIDUtil;
+import elki.index.tree.AbstractNodeCodec;
+import elki.index.tree.spatial.SpatialDirectoryEntry;
+import elki.index.tree.spatial.SpatialEntry;
+import elki.index.tree.spatial.SpatialPointLeafEntry;
+import elki.utilities.io.ByteArrayUtil;
+
+/**
+ * Binary codec for R*-tree nodes storing points in the leaves.
+ * <p>
+ * Leaf entries are encoded as object id, dimensionality and coordinates;
+ * directory entries as page id, dimensionality and the MBR.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @has - - - SpatialPointLeafEntry
+ * @has - - - SpatialDirectoryEntry
+ *
+ * @param <N> Node type
+ */
+public class SpatialPointNodeCodec<N extends AbstractRStarTreeNode<N, SpatialEntry>> extends AbstractNodeCodec<N, SpatialEntry> {
+  /**
+   * Constructor.
+   *
+   * @param factory Node factory, usually a constructor reference
+   */
+  public SpatialPointNodeCodec(NodeFactory<N> factory) {
+    super(factory);
+  }
+
+  @Override
+  protected SpatialEntry readLeafEntry(ByteBuffer buffer) throws IOException {
+    final int id = buffer.getInt(), dim = buffer.getInt();
+    double[] values = new double[dim];
+    buffer.asDoubleBuffer().get(values);
+    buffer.position(buffer.position() + dim * ByteArrayUtil.SIZE_DOUBLE);
+    return new SpatialPointLeafEntry(DBIDUtil.importInteger(id), values);
+  }
+
+  @Override
+  protected SpatialEntry readDirectoryEntry(ByteBuffer buffer) throws IOException {
+    final int id = buffer.getInt(), dim = buffer.getInt();
+    double[] min = new double[dim], max = new double[dim];
+    buffer.asDoubleBuffer().get(min).get(max);
+    buffer.position(buffer.position() + (dim << 1) * ByteArrayUtil.SIZE_DOUBLE);
+    return new SpatialDirectoryEntry(id, new ModifiableHyperBoundingBox(min, max));
+  }
+
+  @Override
+  protected void writeEntry(ByteBuffer buffer, SpatialEntry entry) throws IOException {
+    final int dim = entry.getDimensionality();
+    if(entry instanceof SpatialPointLeafEntry) {
+      SpatialPointLeafEntry leaf = (SpatialPointLeafEntry) entry;
+      buffer.putInt(DBIDUtil.asInteger(leaf.getDBID())).putInt(dim);
+      for(int d = 0; d < dim; d++) {
+        buffer.putDouble(leaf.doubleValue(d));
+      }
+      return;
+    }
+    if(!(entry instanceof SpatialDirectoryEntry)) {
+      throw new IOException("Unsupported entry type: " + entry.getClass().getName());
+    }
+    buffer.putInt(((SpatialDirectoryEntry) entry).getPageID()).putInt(dim);
+    for(int d = 0; d < dim; d++) {
+      buffer.putDouble(entry.getMin(d));
+    }
+    for(int d = 0; d < dim; d++) {
+      buffer.putDouble(entry.getMax(d));
+    }
+  }
+
+  @Override
+  protected int getEntryByteSize(SpatialEntry entry) {
+    final int dim = entry.getDimensionality();
+    return 2 * ByteArrayUtil.SIZE_INT + (entry instanceof SpatialPointLeafEntry ? dim : dim << 1) * ByteArrayUtil.SIZE_DOUBLE;
+  }
+}
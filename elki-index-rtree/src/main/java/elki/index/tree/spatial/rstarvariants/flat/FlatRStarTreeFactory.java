@@ -25,6 +25,7 @@ import elki.database.relation.Relation;
 import elki.index.tree.spatial.SpatialEntry;
 import elki.index.tree.spatial.rstarvariants.AbstractRStarTreeFactory;
 import elki.index.tree.spatial.rstarvariants.RTreeSettings;
+import elki.index.tree.spatial.rstarvariants.SpatialPointNodeCodec;
 import elki.persistent.PageFileFactory;
 
 /**
@@ -51,7 +52,7 @@ public class FlatRStarTreeFactory<O extends NumberVector> extends AbstractRStarT
 
   @Override
   public FlatRStarTreeIndex<O> instantiate(Relation<O> relation) {
-    return new FlatRStarTreeIndex<>(relation, makePageFile(getNodeClass()), settings);
+    return new FlatRStarTreeIndex<>(relation, makePageFile(getNodeClass(), new SpatialPointNodeCodec<>(FlatRStarTreeNode::new)), settings);
   }
 
   protected Class<FlatRStarTreeNode> getNodeClass() {
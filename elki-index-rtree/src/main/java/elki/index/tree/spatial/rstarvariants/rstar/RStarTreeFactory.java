@@ -25,6 +25,7 @@ import elki.database.relation.Relation;
 import elki.index.tree.spatial.SpatialEntry;
 import elki.index.tree.spatial.rstarvariants.AbstractRStarTreeFactory;
 import elki.index.tree.spatial.rstarvariants.RTreeSettings;
+import elki.index.tree.spatial.rstarvariants.SpatialPointNodeCodec;
 import elki.persistent.PageFile;
 import elki.persistent.PageFileFactory;
 import elki.utilities.Alias;
@@ -54,7 +55,7 @@ public class RStarTreeFactory<O extends NumberVector> extends AbstractRStarTreeF
 
   @Override
   public RStarTreeIndex<O> instantiate(Relation<O> relation) {
-    PageFile<RStarTreeNode> pagefile = makePageFile(getNodeClass());
+    PageFile<RStarTreeNode> pagefile = makePageFile(getNodeClass(), new SpatialPointNodeCodec<>(RStarTreeNode::new));
     return new RStarTreeIndex<>(relation, pagefile, settings);
   }
 
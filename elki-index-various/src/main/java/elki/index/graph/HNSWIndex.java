@@ -0,0 +1,1105 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.graph;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import elki.data.type.TypeInformation;
+import elki.database.ids.*;
+import elki.database.query.PrioritySearcher;
+import elki.database.query.QueryBuilder;
+import elki.database.query.distance.DistanceQuery;
+import elki.database.relation.Relation;
+import elki.distance.Distance;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.index.DistancePriorityIndex;
+import elki.index.IndexFactory;
+import elki.logging.Logging;
+import elki.logging.progress.FiniteProgress;
+import elki.logging.statistics.DoubleStatistic;
+import elki.logging.statistics.LongStatistic;
+import elki.utilities.datastructures.heap.DoubleIntegerMaxHeap;
+import elki.utilities.datastructures.heap.DoubleIntegerMinHeap;
+import elki.utilities.documentation.Reference;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.Parameterizer;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.FileParameter;
+import elki.utilities.optionhandling.parameters.IntParameter;
+import elki.utilities.optionhandling.parameters.ObjectParameter;
+import elki.utilities.optionhandling.parameters.RandomParameter;
+import elki.utilities.random.RandomFactory;
+
+import net.jafama.FastMath;
+
+/**
+ * Hierarchical Navigable Small World (HNSW) graph index for approximate
+ * nearest neighbor search with arbitrary distances.
+ * <p>
+ * Every object is assigned a random level with exponentially decaying
+ * probability, and is linked to up to \(M\) neighbors on each of its levels
+ * (\(2M\) on the bottom level), chosen with the neighbor selection heuristic.
+ * Searches descend greedily through the upper levels, then perform a
+ * best-first search with a candidate list of size \(ef\) on the bottom level.
+ * <p>
+ * The graph is built by inserting objects concurrently, with a lock on the
+ * neighbor list of each object. With a single thread (or a small data set),
+ * the construction is deterministic for a fixed random seed. The graph can be
+ * stored to a binary file, and loaded again for the same data set.
+ * <p>
+ * Queries are <em>approximate</em>, hence this index is not used when exact
+ * results are requested.
+ * <p>
+ * Reference:
+ * <p>
+ * Y. A. Malkov, D. A. Yashunin<br>
+ * Efficient and robust approximate nearest neighbor search using Hierarchical
+ * Navigable Small World graphs<br>
+ * IEEE Trans. Pattern Analysis and Machine Intelligence 42(4)
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @has - - - HNSWPrioritySearcher
+ *
+ * @param <O> Object type
+ */
+@Reference(authors = "Y. A. Malkov, D. A. Yashunin", //
+    title = "Efficient and robust approximate nearest neighbor search using Hierarchical Navigable Small World graphs", //
+    booktitle = "IEEE Trans. Pattern Analysis and Machine Intelligence 42(4)", //
+    url = "https://doi.org/10.1109/TPAMI.2018.2889473", //
+    bibkey = "DBLP:journals/pami/MalkovY20")
+public class HNSWIndex<O> implements DistancePriorityIndex<O> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(HNSWIndex.class);
+
+  /**
+   * File format magic number ("HNSW").
+   */
+  private static final int MAGIC = 0x484E5357;
+
+  /**
+   * Minimum data set size to build in parallel.
+   */
+  private static final int PARALLEL_CUTOFF = 1 << 12;
+
+  /**
+   * Number of objects each build thread takes at once.
+   */
+  private static final int BATCH_SIZE = 64;
+
+  /**
+   * The relation we are bound to.
+   */
+  protected final Relation<O> relation;
+
+  /**
+   * Distance function.
+   */
+  protected final Distance<? super O> distance;
+
+  /**
+   * Distance query, on the data relation.
+   */
+  private final DistanceQuery<O> distanceQuery;
+
+  /**
+   * Maximum number of neighbors on the upper levels.
+   */
+  private final int m;
+
+  /**
+   * Maximum number of neighbors on the bottom level.
+   */
+  private final int m0;
+
+  /**
+   * Candidate list size during construction.
+   */
+  private final int efConstruction;
+
+  /**
+   * Candidate list size for queries.
+   */
+  private final int efSearch;
+
+  /**
+   * Random generator for the levels.
+   */
+  private final RandomFactory rnd;
+
+  /**
+   * File to load the graph from, or to store it to.
+   */
+  private final Path file;
+
+  /**
+   * Indexed objects, the graph uses offsets into this array.
+   */
+  private ArrayDBIDs ids;
+
+  /**
+   * Neighbor lists of each object. For each level, the number of neighbors is
+   * followed by the neighbor offsets, using {@code 2M+1} entries for the bottom
+   * level and {@code M+1} entries for each upper level.
+   */
+  private int[][] links;
+
+  /**
+   * Entry point of the graph, -1 if empty.
+   */
+  private int entry = -1;
+
+  /**
+   * Top level of the graph.
+   */
+  private int maxLevel = -1;
+
+  /**
+   * Lock for entry point updates.
+   */
+  private final Object entryLock = new Object();
+
+  /**
+   * Distance computations performed.
+   */
+  private final LongAdder distComputations = new LongAdder();
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param distance Distance function
+   * @param m Maximum number of neighbors on the upper levels
+   * @param efConstruction Candidate list size during construction
+   * @param efSearch Candidate list size for queries
+   * @param rnd Random generator
+   * @param file File to load the graph from or store it to, may be null
+   */
+  public HNSWIndex(Relation<O> relation, Distance<? super O> distance, int m, int efConstruction, int efSearch, RandomFactory rnd, Path file) {
+    super();
+    this.relation = relation;
+    this.distance = distance;
+    this.distanceQuery = distance.instantiate(relation);
+    this.m = m;
+    this.m0 = m << 1;
+    this.efConstruction = efConstruction;
+    this.efSearch = efSearch;
+    this.rnd = rnd;
+    this.file = file;
+  }
+
+  @Override
+  public void initialize() {
+    if(file != null && Files.exists(file)) {
+      try {
+        load(file);
+      }
+      catch(IOException e) {
+        throw new AbortException("Could not load the HNSW graph from " + file, e);
+      }
+      return;
+    }
+    build();
+    if(file != null) {
+      try {
+        save(file);
+      }
+      catch(IOException e) {
+        throw new AbortException("Could not store the HNSW graph to " + file, e);
+      }
+    }
+  }
+
+  /**
+   * Offset of the neighbor list of a level.
+   *
+   * @param level Level
+   * @return Offset in the neighbor array
+   */
+  private int offset(int level) {
+    return level == 0 ? 0 : m0 + 1 + (level - 1) * (m + 1);
+  }
+
+  /**
+   * Top level of an object.
+   *
+   * @param l Neighbor array
+   * @return Level
+   */
+  private int levelOf(int[] l) {
+    return (l.length - m0 - 1) / (m + 1);
+  }
+
+  /**
+   * Build the graph.
+   */
+  private void build() {
+    ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size();
+    links = new int[size][];
+    // Draw the levels in advance, to be independent of the thread scheduling:
+    final Random random = rnd.getSingleThreadedRandom();
+    final double ml = 1. / FastMath.log(m);
+    for(int i = 0; i < size; i++) {
+      final int level = (int) (-FastMath.log(1. - random.nextDouble()) * ml);
+      links[i] = new int[offset(level + 1)];
+    }
+    if(size == 0) {
+      return;
+    }
+    entry = 0;
+    maxLevel = levelOf(links[0]);
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Building HNSW graph", size, LOG) : null;
+    LOG.incrementProcessed(prog);
+    final AtomicInteger next = new AtomicInteger(1);
+    final int threads = size < PARALLEL_CUTOFF ? 1 : ForkJoinPool.getCommonPoolParallelism();
+    if(threads <= 1) {
+      new BuildTask(next, prog).compute();
+    }
+    else {
+      List<BuildTask> tasks = new ArrayList<>(threads);
+      for(int i = 0; i < threads; i++) {
+        tasks.add(new BuildTask(next, prog));
+      }
+      ForkJoinTask.invokeAll(tasks);
+    }
+    LOG.ensureCompleted(prog);
+  }
+
+  /**
+   * Sort candidates by distance (insertion sort, for short lists).
+   *
+   * @param dists Distances
+   * @param cands Candidates
+   * @param n Number of candidates
+   */
+  private static void sort(double[] dists, int[] cands, int n) {
+    for(int i = 1; i < n; i++) {
+      final double d = dists[i];
+      final int c = cands[i];
+      int j = i - 1;
+      for(; j >= 0 && dists[j] > d; j--) {
+        dists[j + 1] = dists[j];
+        cands[j + 1] = cands[j];
+      }
+      dists[j + 1] = d;
+      cands[j + 1] = c;
+    }
+  }
+
+  /**
+   * Task inserting objects into the graph. Each task has its own buffers, and
+   * takes batches of objects from a shared counter.
+   *
+   * @author Erich Schubert
+   */
+  private class BuildTask extends RecursiveAction {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Next object to insert.
+     */
+    private final AtomicInteger next;
+
+    /**
+     * Progress, may be null.
+     */
+    private final FiniteProgress prog;
+
+    /**
+     * Visited markers, and current marker.
+     */
+    private int[] visited;
+
+    /**
+     * Current visited marker.
+     */
+    private int tag = 0;
+
+    /**
+     * Iterators for distance computations.
+     */
+    private DBIDArrayIter a, b;
+
+    /**
+     * Candidate heap.
+     */
+    private DoubleIntegerMinHeap cand = new DoubleIntegerMinHeap();
+
+    /**
+     * Result heap.
+     */
+    private DoubleIntegerMaxHeap best = new DoubleIntegerMaxHeap();
+
+    /**
+     * Buffer for neighbor lists.
+     */
+    private int[] nbuf = new int[m0 + 1];
+
+    /**
+     * Buffer for candidate lists.
+     */
+    private int[] cbuf = new int[Math.max(efConstruction, m0 + 1)];
+
+    /**
+     * Buffer for candidate distances.
+     */
+    private double[] dbuf = new double[Math.max(efConstruction, m0 + 1)];
+
+    /**
+     * Buffer for selected neighbors.
+     */
+    private int[] sbuf = new int[m0];
+
+    /**
+     * Buffers for shrinking neighbor lists.
+     */
+    private int[] lbuf = new int[m0 + 1], lsel = new int[m0];
+
+    /**
+     * Buffer for distances when shrinking neighbor lists.
+     */
+    private double[] ldbuf = new double[m0 + 1];
+
+    /**
+     * Constructor.
+     *
+     * @param next Next object to insert
+     * @param prog Progress, may be null
+     */
+    BuildTask(AtomicInteger next, FiniteProgress prog) {
+      this.next = next;
+      this.prog = prog;
+    }
+
+    @Override
+    protected void compute() {
+      visited = new int[links.length];
+      a = ids.iter();
+      b = ids.iter();
+      for(int start = next.getAndAdd(BATCH_SIZE); start < links.length; start = next.getAndAdd(BATCH_SIZE)) {
+        final int end = Math.min(start + BATCH_SIZE, links.length);
+        for(int i = start; i < end; i++) {
+          insert(i);
+          LOG.incrementProcessed(prog);
+        }
+      }
+    }
+
+    /**
+     * Distance between two objects.
+     *
+     * @param x First object
+     * @param y Second object
+     * @return Distance
+     */
+    private double distance(int x, int y) {
+      distComputations.increment();
+      return distanceQuery.distance(a.seek(x), b.seek(y));
+    }
+
+    /**
+     * Copy a neighbor list.
+     *
+     * @param o Object
+     * @param level Level
+     * @return Number of neighbors, stored in {@link #nbuf}
+     */
+    private int neighbors(int o, int level) {
+      final int[] l = links[o];
+      final int off = offset(level);
+      synchronized(l) {
+        final int cnt = l[off];
+        System.arraycopy(l, off + 1, nbuf, 0, cnt);
+        return cnt;
+      }
+    }
+
+    /**
+     * Insert an object into the graph.
+     *
+     * @param q Object offset
+     */
+    private void insert(int q) {
+      final int level = levelOf(links[q]);
+      int ep, top;
+      synchronized(entryLock) {
+        ep = entry;
+        top = maxLevel;
+      }
+      double epd = distance(q, ep);
+      // Greedy search on the levels above the object:
+      for(int lc = top; lc > level; lc--) {
+        for(boolean changed = true; changed;) {
+          changed = false;
+          for(int i = 0, cnt = neighbors(ep, lc); i < cnt; i++) {
+            final int e = nbuf[i];
+            if(e == q) {
+              continue; // Linked by a concurrent insertion.
+            }
+            final double d = distance(q, e);
+            if(d < epd) {
+              epd = d;
+              ep = e;
+              changed = true;
+            }
+          }
+        }
+      }
+      for(int lc = Math.min(top, level); lc >= 0; lc--) {
+        searchLevel(q, ep, epd, lc);
+        // Sorted candidates:
+        int n = best.size();
+        for(int i = n - 1; i >= 0; i--) {
+          dbuf[i] = best.peekKey();
+          cbuf[i] = best.peekValue();
+          best.poll();
+        }
+        ep = cbuf[0];
+        epd = dbuf[0];
+        final int sel = select(dbuf, cbuf, n, m, sbuf);
+        final int[] ql = links[q];
+        final int off = offset(lc);
+        synchronized(ql) {
+          System.arraycopy(sbuf, 0, ql, off + 1, sel);
+          ql[off] = sel;
+        }
+        for(int i = 0; i < sel; i++) {
+          link(sbuf[i], q, lc);
+        }
+      }
+      if(level > top) {
+        synchronized(entryLock) {
+          if(level > maxLevel) {
+            maxLevel = level;
+            entry = q;
+          }
+        }
+      }
+    }
+
+    /**
+     * Best-first search on a single level, the results are in {@link #best}.
+     *
+     * @param q Query object
+     * @param ep Entry point
+     * @param epd Distance to the entry point
+     * @param lc Level
+     */
+    private void searchLevel(int q, int ep, double epd, int lc) {
+      if(++tag == 0) {
+        Arrays.fill(visited, 0);
+        tag = 1;
+      }
+      cand.clear();
+      best.clear();
+      visited[q] = tag; // May already be linked by concurrent insertions.
+      visited[ep] = tag;
+      cand.add(epd, ep);
+      best.add(epd, ep);
+      while(!cand.isEmpty()) {
+        final double cd = cand.peekKey();
+        final int c = cand.peekValue();
+        cand.poll();
+        if(cd > best.peekKey()) {
+          break;
+        }
+        for(int i = 0, cnt = neighbors(c, lc); i < cnt; i++) {
+          final int e = nbuf[i];
+          if(visited[e] == tag) {
+            continue;
+          }
+          visited[e] = tag;
+          final double d = distance(q, e);
+          if(best.size() < efConstruction || d < best.peekKey()) {
+            cand.add(d, e);
+            best.add(d, e, efConstruction);
+          }
+        }
+      }
+    }
+
+    /**
+     * Select neighbors with the heuristic of HNSW: a candidate is only used if
+     * it is closer to the query than to any already selected neighbor.
+     *
+     * @param dists Candidate distances, ascending
+     * @param cands Candidates
+     * @param n Number of candidates
+     * @param max Maximum number of neighbors
+     * @param out Output buffer
+     * @return Number of neighbors
+     */
+    private int select(double[] dists, int[] cands, int n, int max, int[] out) {
+      int sel = 0;
+      for(int i = 0; i < n && sel < max; i++) {
+        final int e = cands[i];
+        boolean good = true;
+        for(int j = 0; j < sel; j++) {
+          if(distance(e, out[j]) < dists[i]) {
+            good = false;
+            break;
+          }
+        }
+        if(good) {
+          out[sel++] = e;
+        }
+      }
+      return sel;
+    }
+
+    /**
+     * Add a link, and shrink the neighbor list if it is full.
+     *
+     * @param o Object to link from
+     * @param q New neighbor
+     * @param lc Level
+     */
+    private void link(int o, int q, int lc) {
+      final int[] l = links[o];
+      final int off = offset(lc), max = lc == 0 ? m0 : m;
+      synchronized(l) {
+        final int cnt = l[off];
+        if(cnt < max) {
+          l[off + 1 + cnt] = q;
+          l[off] = cnt + 1;
+          return;
+        }
+        // Full: select the neighbors again, including the new one.
+        for(int i = 0; i < cnt; i++) {
+          lbuf[i] = l[off + 1 + i];
+          ldbuf[i] = distance(o, lbuf[i]);
+        }
+        lbuf[cnt] = q;
+        ldbuf[cnt] = distance(o, q);
+        sort(ldbuf, lbuf, cnt + 1);
+        final int sel = select(ldbuf, lbuf, cnt + 1, max, lsel);
+        System.arraycopy(lsel, 0, l, off + 1, sel);
+        l[off] = sel;
+      }
+    }
+  }
+
+  /**
+   * Store the graph to a file.
+   *
+   * @param file Output file
+   * @throws IOException on write errors
+   */
+  public void save(Path file) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(links.length);
+      out.writeInt(m);
+      out.writeInt(entry);
+      out.writeInt(maxLevel);
+      for(int[] l : links) {
+        final int level = levelOf(l);
+        out.writeInt(level);
+        for(int lc = 0; lc <= level; lc++) {
+          final int off = offset(lc), cnt = l[off];
+          for(int i = 0; i <= cnt; i++) {
+            out.writeInt(l[off + i]);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Load the graph from a file. The file must have been written for the same
+   * data set, in the same order.
+   *
+   * @param file Input file
+   * @throws IOException on read errors or incompatible files
+   */
+  public void load(Path file) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if(in.readInt() != MAGIC) {
+        throw new IOException("Not a HNSW graph file.");
+      }
+      final int size = in.readInt();
+      if(size != relation.size()) {
+        throw new IOException("HNSW graph has " + size + " objects, but the relation has " + relation.size() + ".");
+      }
+      final int fm = in.readInt();
+      if(fm != m) {
+        throw new IOException("HNSW graph was built with M=" + fm + ", not " + m + ".");
+      }
+      final int fentry = in.readInt(), flevel = in.readInt();
+      int[][] flinks = new int[size][];
+      for(int o = 0; o < size; o++) {
+        final int level = in.readInt();
+        if(level < 0 || level > flevel) {
+          throw new IOException("Corrupt HNSW graph file.");
+        }
+        final int[] l = flinks[o] = new int[offset(level + 1)];
+        for(int lc = 0; lc <= level; lc++) {
+          final int off = offset(lc), cnt = l[off] = in.readInt();
+          if(cnt < 0 || cnt > (lc == 0 ? m0 : m)) {
+            throw new IOException("Corrupt HNSW graph file.");
+          }
+          for(int i = 1; i <= cnt; i++) {
+            l[off + i] = in.readInt();
+          }
+        }
+      }
+      ids = DBIDUtil.ensureArray(relation.getDBIDs());
+      links = flinks;
+      entry = fentry;
+      maxLevel = flevel;
+    }
+  }
+
+  @Override
+  public void logStatistics() {
+    final String prefix = this.getClass().getName();
+    LOG.statistics(new LongStatistic(prefix + ".distance-computations", distComputations.sum()));
+    if(links != null && links.length > 0) {
+      long edges = 0;
+      for(int[] l : links) {
+        edges += l[0];
+      }
+      LOG.statistics(new LongStatistic(prefix + ".levels", maxLevel + 1));
+      LOG.statistics(new DoubleStatistic(prefix + ".mean-degree", edges / (double) links.length));
+    }
+  }
+
+  @Override
+  public PrioritySearcher<O> priorityByObject(DistanceQuery<O> distanceQuery, double maxrange, int flags) {
+    return (flags & QueryBuilder.FLAG_EXACT_ONLY) == 0 && // approximate
+        distanceQuery.getRelation() == relation && this.distance.equals(distanceQuery.getDistance()) ? //
+            new HNSWPrioritySearcher(maxrange) : null;
+  }
+
+  /**
+   * Priority searcher for the HNSW graph. Objects are returned in the order
+   * of the best-first search on the bottom level. The search stops once the
+   * next candidate is beyond the cutoff and the \(ef\) best objects found.
+   *
+   * @author Erich Schubert
+   */
+  public class HNSWPrioritySearcher implements PrioritySearcher<O> {
+    /**
+     * Maximum search range.
+     */
+    private final double maxrange;
+
+    /**
+     * Current search cutoff.
+     */
+    private double threshold;
+
+    /**
+     * Candidate list size of the current search.
+     */
+    private int ef;
+
+    /**
+     * Query object.
+     */
+    private O query;
+
+    /**
+     * Visited markers, allocated on demand.
+     */
+    private int[] visited;
+
+    /**
+     * Current visited marker.
+     */
+    private int tag = 0;
+
+    /**
+     * Candidates to expand.
+     */
+    private DoubleIntegerMinHeap cand = new DoubleIntegerMinHeap();
+
+    /**
+     * Best objects found.
+     */
+    private DoubleIntegerMaxHeap best = new DoubleIntegerMaxHeap();
+
+    /**
+     * Iterator for distance computations and the current object.
+     */
+    private DBIDArrayIter iter = ids.iter(), cur = ids.iter();
+
+    /**
+     * Current object, -1 when done.
+     */
+    private int current = -1;
+
+    /**
+     * Distance of the current object.
+     */
+    private double currentDist;
+
+    /**
+     * Constructor.
+     *
+     * @param maxrange Maximum search range
+     */
+    public HNSWPrioritySearcher(double maxrange) {
+      this.maxrange = maxrange;
+    }
+
+    @Override
+    public PrioritySearcher<O> search(O query) {
+      return start(query, efSearch);
+    }
+
+    @Override
+    public KNNList getKNN(O obj, int k) {
+      final KNNHeap heap = DBIDUtil.newHeap(k);
+      double threshold = Double.POSITIVE_INFINITY;
+      for(PrioritySearcher<O> it = start(obj, Math.max(efSearch, k)); it.valid(); it.advance()) {
+        final double dist = it.computeExactDistance();
+        if(dist <= threshold) {
+          it.decreaseCutoff(threshold = heap.insert(dist, it));
+        }
+      }
+      return heap.toKNNList();
+    }
+
+    /**
+     * Distance to the query.
+     *
+     * @param o Object offset
+     * @return Distance
+     */
+    private double queryDistance(int o) {
+      distComputations.increment();
+      return distanceQuery.distance(query, iter.seek(o));
+    }
+
+    /**
+     * Start a new search.
+     *
+     * @param query Query object
+     * @param ef Candidate list size
+     * @return this
+     */
+    private PrioritySearcher<O> start(O query, int ef) {
+      this.query = query;
+      this.ef = ef;
+      this.threshold = maxrange;
+      cand.clear();
+      best.clear();
+      current = -1;
+      if(entry < 0) {
+        return this;
+      }
+      if(visited == null) {
+        visited = new int[links.length];
+      }
+      if(++tag == 0) {
+        Arrays.fill(visited, 0);
+        tag = 1;
+      }
+      // Greedy search on the upper levels:
+      int ep = entry;
+      double epd = queryDistance(ep);
+      for(int lc = maxLevel; lc > 0; lc--) {
+        for(boolean changed = true; changed;) {
+          changed = false;
+          final int[] l = links[ep];
+          final int off = offset(lc);
+          for(int i = 1, cnt = l[off]; i <= cnt; i++) {
+            final int e = l[off + i];
+            final double d = queryDistance(e);
+            if(d < epd) {
+              epd = d;
+              ep = e;
+              changed = true;
+            }
+          }
+        }
+      }
+      visited[ep] = tag;
+      cand.add(epd, ep);
+      best.add(epd, ep);
+      return advance();
+    }
+
+    @Override
+    public PrioritySearcher<O> advance() {
+      current = -1;
+      if(cand.isEmpty()) {
+        return this;
+      }
+      final double cd = cand.peekKey();
+      final int c = cand.peekValue();
+      cand.poll();
+      if(cd > threshold && best.size() >= ef && cd > best.peekKey()) {
+        cand.clear(); // Search has converged.
+        return this;
+      }
+      final int[] l = links[c];
+      for(int i = 1, cnt = l[0]; i <= cnt; i++) {
+        final int e = l[i];
+        if(visited[e] == tag) {
+          continue;
+        }
+        visited[e] = tag;
+        final double d = queryDistance(e);
+        if(d <= threshold || best.size() < ef || d < best.peekKey()) {
+          cand.add(d, e);
+          best.add(d, e, ef);
+        }
+      }
+      current = c;
+      currentDist = cd;
+      return this;
+    }
+
+    @Override
+    public boolean valid() {
+      return current >= 0;
+    }
+
+    @Override
+    public int internalGetIndex() {
+      return cur.seek(current).internalGetIndex();
+    }
+
+    @Override
+    public PrioritySearcher<O> decreaseCutoff(double threshold) {
+      this.threshold = threshold < this.threshold ? threshold : this.threshold;
+      return this;
+    }
+
+    @Override
+    public double computeExactDistance() {
+      return currentDist;
+    }
+
+    @Override
+    public double getApproximateDistance() {
+      return currentDist;
+    }
+
+    @Override
+    public double getApproximateAccuracy() {
+      return 0.;
+    }
+
+    @Override
+    public double getLowerBound() {
+      return currentDist;
+    }
+
+    @Override
+    public double getUpperBound() {
+      return currentDist;
+    }
+
+    /**
+     * The graph search does not give a lower bound on the remaining objects.
+     */
+    @Override
+    public double allLowerBound() {
+      return 0.;
+    }
+  }
+
+  /**
+   * Index factory.
+   *
+   * @author Erich Schubert
+   *
+   * @has - - - HNSWIndex
+   *
+   * @param <O> Object type
+   */
+  public static class Factory<O> implements IndexFactory<O> {
+    /**
+     * Distance function.
+     */
+    protected Distance<? super O> distance;
+
+    /**
+     * Maximum number of neighbors on the upper levels.
+     */
+    protected int m;
+
+    /**
+     * Candidate list size during construction.
+     */
+    protected int efConstruction;
+
+    /**
+     * Candidate list size for queries.
+     */
+    protected int efSearch;
+
+    /**
+     * Random generator.
+     */
+    protected RandomFactory rnd;
+
+    /**
+     * File to load the graph from, or to store it to.
+     */
+    protected Path file;
+
+    /**
+     * Constructor.
+     *
+     * @param distance Distance function
+     * @param m Maximum number of neighbors on the upper levels
+     * @param efConstruction Candidate list size during construction
+     * @param efSearch Candidate list size for queries
+     * @param rnd Random generator
+     * @param file File to load the graph from or store it to, may be null
+     */
+    public Factory(Distance<? super O> distance, int m, int efConstruction, int efSearch, RandomFactory rnd, Path file) {
+      super();
+      this.distance = distance;
+      this.m = m;
+      this.efConstruction = efConstruction;
+      this.efSearch = efSearch;
+      this.rnd = rnd;
+      this.file = file;
+    }
+
+    @Override
+    public HNSWIndex<O> instantiate(Relation<O> relation) {
+      return new HNSWIndex<>(relation, distance, m, efConstruction, efSearch, rnd, file);
+    }
+
+    @Override
+    public TypeInformation getInputTypeRestriction() {
+      return distance.getInputTypeRestriction();
+    }
+
+    /**
+     * Parameterization class.
+     *
+     * @author Erich Schubert
+     */
+    public static class Par<O> implements Parameterizer {
+      /**
+       * Distance function to index.
+       */
+      public static final OptionID DISTANCE_FUNCTION_ID = new OptionID("hnsw.distance", "Distance function to build the graph for.");
+
+      /**
+       * Maximum number of neighbors per level.
+       */
+      public static final OptionID M_ID = new OptionID("hnsw.m", "Maximum number of neighbors on the upper levels, twice this on the bottom level.");
+
+      /**
+       * Candidate list size during construction.
+       */
+      public static final OptionID EF_CONSTRUCTION_ID = new OptionID("hnsw.efconstruction", "Candidate list size during graph construction.");
+
+      /**
+       * Candidate list size for queries.
+       */
+      public static final OptionID EF_SEARCH_ID = new OptionID("hnsw.efsearch", "Candidate list size for queries; larger values increase recall.");
+
+      /**
+       * Random seed for the levels.
+       */
+      public static final OptionID SEED_ID = new OptionID("hnsw.seed", "Random seed for assigning levels.");
+
+      /**
+       * File to load the graph from, or to store it to.
+       */
+      public static final OptionID FILE_ID = new OptionID("hnsw.file", "Binary file to load the graph from if it exists, or to store the graph to otherwise.");
+
+      /**
+       * Distance function.
+       */
+      protected Distance<? super O> distance;
+
+      /**
+       * Maximum number of neighbors on the upper levels.
+       */
+      protected int m = 16;
+
+      /**
+       * Candidate list size during construction.
+       */
+      protected int efConstruction = 200;
+
+      /**
+       * Candidate list size for queries.
+       */
+      protected int efSearch = 50;
+
+      /**
+       * Random generator.
+       */
+      protected RandomFactory rnd;
+
+      /**
+       * Graph file.
+       */
+      protected Path file;
+
+      @Override
+      public void configure(Parameterization config) {
+        new ObjectParameter<Distance<? super O>>(DISTANCE_FUNCTION_ID, Distance.class, EuclideanDistance.class) //
+            .grab(config, x -> distance = x);
+        new IntParameter(M_ID, 16) //
+            .addConstraint(CommonConstraints.GREATER_THAN_ONE_INT) //
+            .grab(config, x -> m = x);
+        new IntParameter(EF_CONSTRUCTION_ID, 200) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+            .grab(config, x -> efConstruction = x);
+        new IntParameter(EF_SEARCH_ID, 50) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+            .grab(config, x -> efSearch = x);
+        new RandomParameter(SEED_ID).grab(config, x -> rnd = x);
+        new FileParameter(FILE_ID, FileParameter.FileType.OUTPUT_FILE) //
+            .setOptional(true) //
+            .grab(config, x -> file = Paths.get(x));
+      }
+
+      @Override
+      public HNSWIndex.Factory<O> make() {
+        return new HNSWIndex.Factory<>(distance, m, efConstruction, efSearch, rnd, file);
+      }
+    }
+  }
+}
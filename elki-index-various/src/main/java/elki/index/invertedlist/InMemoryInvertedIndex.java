@@ -20,15 +20,14 @@
  */
 package elki.index.invertedlist;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import elki.data.NumberVector;
 import elki.data.SparseNumberVector;
 import elki.data.type.TypeInformation;
 import elki.data.type.TypeUtil;
-import elki.database.datastore.DataStoreFactory;
-import elki.database.datastore.DataStoreUtil;
-import elki.database.datastore.WritableDoubleDataStore;
 import elki.database.ids.*;
 import elki.database.query.distance.DistanceQuery;
 import elki.database.query.knn.KNNSearcher;
@@ -42,6 +41,9 @@ import elki.index.KNNIndex;
 import elki.index.RangeIndex;
 import elki.logging.Logging;
 import elki.logging.statistics.DoubleStatistic;
+import elki.logging.statistics.LongStatistic;
+import elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
+import elki.utilities.documentation.Reference;
 import elki.utilities.optionhandling.Parameterizer;
 
 import net.jafama.FastMath;
@@ -49,11 +51,29 @@ import net.jafama.FastMath;
 /**
  * Simple index using inverted lists, for cosine distance only.
  * <p>
+ * The posting lists store the gaps between object positions as variable
+ * length integers, and the weights (normalized by the vector length) quantized
+ * to a single byte. The quantized weights yield upper bounds for the
+ * (absolute) cosine similarity, which are used for MaxScore top-k evaluation:
+ * lists that cannot bring an object into the result on their own are only
+ * probed for objects found in the other lists, and objects are only refined
+ * with the exact distance if their bound reaches the current threshold.
+ * Results are exact.
+ * <p>
+ * The posting lists are compressed in parallel, by dimension.
+ * <p>
+ * Reference:
+ * <p>
+ * H. R. Turtle, J. Flood<br>
+ * Query Evaluation: Strategies and Optimizations<br>
+ * Information Processing and Management 31(6)
+ * <p>
  * TODO: support additional distances.
  * 
  * @author Erich Schubert
  * @since 0.7.0
  *
+ * @has - - - PostingList
  * @has - - - ArcCosineKNNQuery
  * @has - - - ArcCosineRangeQuery
  * @has - - - CosineKNNQuery
@@ -61,26 +81,41 @@ import net.jafama.FastMath;
  *
  * @param <V> Vector type
  */
+@Reference(authors = "H. R. Turtle, J. Flood", //
+    title = "Query Evaluation: Strategies and Optimizations", //
+    booktitle = "Information Processing and Management 31(6)", //
+    url = "https://doi.org/10.1016/0306-4573(95)00020-H", //
+    bibkey = "DBLP:journals/ipm/TurtleF95")
 public class InMemoryInvertedIndex<V extends NumberVector> implements KNNIndex<V>, RangeIndex<V> {
   /**
    * Class logger.
    */
   private static final Logging LOG = Logging.getLogger(InMemoryInvertedIndex.class);
 
+  /**
+   * Tolerance for rounding errors when pruning with bounds.
+   */
+  private static final double SLACK = 1e-9;
+
+  /**
+   * Minimum number of postings to compress in a separate task.
+   */
+  private static final int PARALLEL_POSTINGS = 1 << 16;
+
   /**
    * The representation we are bound to.
    */
   protected final Relation<V> relation;
 
   /**
-   * Inverted index.
+   * Indexed objects; posting lists refer to positions in this array.
    */
-  protected ArrayList<ModifiableDoubleDBIDList> index;
+  protected ArrayDBIDs ids;
 
   /**
-   * Length storage.
+   * Inverted index, {@code null} for dimensions without postings.
    */
-  protected WritableDoubleDataStore length;
+  protected PostingList[] index;
 
   /**
    * Constructor.
@@ -96,178 +131,528 @@ public class InMemoryInvertedIndex<V extends NumberVector> implements KNNIndex<V
     if(index != null) {
       LOG.warning("Index was already initialized!");
     }
-    index = new ArrayList<>();
-    length = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_DB);
-    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+    ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size();
+    // Vector lengths and sizes of the posting lists.
+    double[] lengths = new double[size];
+    int[] counts = new int[16];
+    int maxdim = 0;
+    for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
       V obj = relation.get(iter);
+      double len = 0.;
       if(obj instanceof SparseNumberVector) {
-        indexSparse(iter, (SparseNumberVector) obj);
+        SparseNumberVector sobj = (SparseNumberVector) obj;
+        for(int it = sobj.iter(); sobj.iterValid(it); it = sobj.iterAdvance(it)) {
+          final double val = sobj.iterDoubleValue(it);
+          if(val == 0. || val != val) {
+            continue;
+          }
+          final int dim = sobj.iterDim(it);
+          counts = dim < counts.length ? counts : Arrays.copyOf(counts, Math.max(dim + 1, counts.length << 1));
+          counts[dim]++;
+          maxdim = dim >= maxdim ? dim + 1 : maxdim;
+          len += val * val;
+        }
       }
       else {
-        indexDense(iter, obj);
+        for(int dim = 0, max = obj.getDimensionality(); dim < max; dim++) {
+          final double val = obj.doubleValue(dim);
+          if(val == 0. || val != val) {
+            continue;
+          }
+          counts = dim < counts.length ? counts : Arrays.copyOf(counts, Math.max(dim + 1, counts.length << 1));
+          counts[dim]++;
+          maxdim = dim >= maxdim ? dim + 1 : maxdim;
+          len += val * val;
+        }
       }
+      lengths[iter.getOffset()] = FastMath.sqrt(len);
     }
-    // Sort indexes
+    // Transpose into uncompressed columns of normalized weights.
+    final int[][] docs = new int[maxdim][];
+    final double[][] weights = new double[maxdim][];
     long count = 0L;
-    for(ModifiableDoubleDBIDList column : index) {
-      count += column.sort().size();
+    for(int dim = 0; dim < maxdim; dim++) {
+      if(counts[dim] > 0) {
+        docs[dim] = new int[counts[dim]];
+        weights[dim] = new double[counts[dim]];
+        count += counts[dim];
+        counts[dim] = 0;
+      }
     }
-    double sparsity = count / (index.size() * (double) relation.size());
+    for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      V obj = relation.get(iter);
+      final int doc = iter.getOffset();
+      final double ilen = 1. / lengths[doc];
+      if(obj instanceof SparseNumberVector) {
+        SparseNumberVector sobj = (SparseNumberVector) obj;
+        for(int it = sobj.iter(); sobj.iterValid(it); it = sobj.iterAdvance(it)) {
+          final double val = sobj.iterDoubleValue(it);
+          if(val == 0. || val != val) {
+            continue;
+          }
+          final int dim = sobj.iterDim(it), pos = counts[dim]++;
+          docs[dim][pos] = doc;
+          weights[dim][pos] = val * ilen;
+        }
+      }
+      else {
+        for(int dim = 0, max = obj.getDimensionality(); dim < max; dim++) {
+          final double val = obj.doubleValue(dim);
+          if(val == 0. || val != val) {
+            continue;
+          }
+          final int pos = counts[dim]++;
+          docs[dim][pos] = doc;
+          weights[dim][pos] = val * ilen;
+        }
+      }
+    }
+    // Compress the columns, in parallel.
+    index = new PostingList[maxdim];
+    ForkJoinPool.commonPool().invoke(new CompressTask(docs, weights, 0, maxdim));
+    double sparsity = count / (maxdim * (double) size);
     if(sparsity > .2) {
       LOG.warning("Inverted list indexes only perform well for very sparse data. Your data set has a sparsity of " + sparsity);
     }
   }
 
   /**
-   * Index a single (sparse) instance.
-   * 
-   * @param ref Object reference
-   * @param obj Object to index.
+   * Task to compress a range of columns.
+   *
+   * @author Erich Schubert
    */
-  private void indexSparse(DBIDRef ref, SparseNumberVector obj) {
-    double len = 0.;
-    for(int iter = obj.iter(); obj.iterValid(iter); iter = obj.iterAdvance(iter)) {
-      final int dim = obj.iterDim(iter);
-      final double val = obj.iterDoubleValue(iter);
-      if(val == 0. || val != val) {
-        continue;
+  private class CompressTask extends RecursiveAction {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Uncompressed columns, released after compression.
+     */
+    private final int[][] docs;
+
+    /**
+     * Uncompressed weights, released after compression.
+     */
+    private final double[][] weights;
+
+    /**
+     * Range of dimensions.
+     */
+    private final int begin, end;
+
+    /**
+     * Constructor.
+     *
+     * @param docs Uncompressed columns
+     * @param weights Uncompressed weights
+     * @param begin First dimension
+     * @param end End of dimensions (exclusive)
+     */
+    CompressTask(int[][] docs, double[][] weights, int begin, int end) {
+      this.docs = docs;
+      this.weights = weights;
+      this.begin = begin;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      long postings = 0L;
+      for(int dim = begin; dim < end; dim++) {
+        postings += docs[dim] != null ? docs[dim].length : 0;
+      }
+      if(end - begin > 1 && postings > PARALLEL_POSTINGS) {
+        final int mid = (begin + end) >>> 1;
+        invokeAll(new CompressTask(docs, weights, begin, mid), new CompressTask(docs, weights, mid, end));
+        return;
+      }
+      for(int dim = begin; dim < end; dim++) {
+        if(docs[dim] != null) {
+          index[dim] = new PostingList(docs[dim], weights[dim]);
+          docs[dim] = null;
+          weights[dim] = null;
+        }
       }
-      len += val * val;
-      getOrCreateColumn(dim).add(val, ref);
     }
-    length.put(ref, len);
   }
 
-  /**
-   * Index a single (dense) instance.
-   * 
-   * @param ref Object reference
-   * @param obj Object to index.
-   */
-  private void indexDense(DBIDRef ref, V obj) {
-    double len = 0.;
-    for(int dim = 0, max = obj.getDimensionality(); dim < max; dim++) {
-      final double val = obj.doubleValue(dim);
-      if(val == 0. || val != val) {
-        continue;
+  @Override
+  public void logStatistics() {
+    long count = 0L, bytes = 0L;
+    for(PostingList column : index) {
+      if(column != null) {
+        count += column.size;
+        bytes += column.data.length;
       }
-      len += val * val;
-      getOrCreateColumn(dim).add(val, ref);
     }
-    length.put(ref, FastMath.sqrt(len));
+    double sparsity = count / (index.length * (double) relation.size());
+    LOG.statistics(new DoubleStatistic(this.getClass().getName() + ".sparsity", sparsity));
+    LOG.statistics(new LongStatistic(this.getClass().getName() + ".postings", count));
+    LOG.statistics(new LongStatistic(this.getClass().getName() + ".bytes", bytes));
   }
 
-  /**
-   * Get (or create) a column.
-   * 
-   * @param dim Dimension
-   * @return Column
-   */
-  private ModifiableDoubleDBIDList getOrCreateColumn(int dim) {
-    while(dim >= index.size()) {
-      index.add(DBIDUtil.newDistanceDBIDList());
-    }
-    return index.get(dim);
+  @Override
+  public KNNSearcher<V> kNNByObject(DistanceQuery<V> distanceQuery, int maxk, int flags) {
+    Distance<? super V> df = distanceQuery.getDistance();
+    return df instanceof CosineDistance ? new CosineKNNQuery(distanceQuery) : //
+        df instanceof ArcCosineDistance ? new ArcCosineKNNQuery(distanceQuery) : null;
+  }
+
+  @Override
+  public RangeSearcher<V> rangeByObject(DistanceQuery<V> distanceQuery, double maxradius, int flags) {
+    Distance<? super V> df = distanceQuery.getDistance();
+    return df instanceof CosineDistance ? new CosineRangeQuery(distanceQuery) : //
+        df instanceof ArcCosineDistance ? new ArcCosineRangeQuery(distanceQuery) : null;
   }
 
   /**
-   * Query the most similar objects, sparse version.
-   * 
-   * @param obj Query object
-   * @param scores Score storage
-   * @param cands Non-zero objects set
-   * @return Result
+   * Compressed posting list of a single dimension.
+   * <p>
+   * Postings are stored as the gap to the previous object position (variable
+   * length integer), followed by the weight quantized to a signed byte. Every
+   * {@link #BLOCK} postings, a skip entry stores the previous object position
+   * and the byte offset of the block.
+   *
+   * @author Erich Schubert
    */
-  private double naiveQuerySparse(SparseNumberVector obj, WritableDoubleDataStore scores, HashSetModifiableDBIDs cands) {
-    double len = 0.; // Length of query object, for final normalization
-    for(int iter = obj.iter(); obj.iterValid(iter); iter = obj.iterAdvance(iter)) {
-      final int dim = obj.iterDim(iter);
-      final double val = obj.iterDoubleValue(iter);
-      if(val == 0. || val != val) {
-        continue;
+  protected static class PostingList {
+    /**
+     * Number of postings per skip block.
+     */
+    static final int BLOCK = 128;
+
+    /**
+     * Number of postings.
+     */
+    final int size;
+
+    /**
+     * Quantization step; the maximum absolute weight is {@code 127 * step}.
+     */
+    final double step;
+
+    /**
+     * Compressed postings.
+     */
+    final byte[] data;
+
+    /**
+     * Object position preceding each block.
+     */
+    final int[] skipBase;
+
+    /**
+     * Byte offset of each block.
+     */
+    final int[] skipOffset;
+
+    /**
+     * Constructor.
+     *
+     * @param docs Object positions, increasing
+     * @param weights Weights
+     */
+    PostingList(int[] docs, double[] weights) {
+      this.size = docs.length;
+      double maxabs = 0.;
+      int bytes = 0;
+      for(int i = 0, prev = -1; i < size; prev = docs[i++]) {
+        maxabs = Math.max(maxabs, Math.abs(weights[i]));
+        bytes += varintLength(docs[i] - prev) + 1;
       }
-      len += val * val;
-      // No matching documents in index:
-      if(dim >= index.size()) {
-        continue;
+      this.step = maxabs > 0 ? maxabs / 127 : 1.;
+      final int blocks = (size + BLOCK - 1) / BLOCK;
+      this.data = new byte[bytes];
+      this.skipBase = new int[blocks];
+      this.skipOffset = new int[blocks];
+      final double iscale = 1. / step;
+      for(int i = 0, prev = -1, off = 0; i < size; prev = docs[i++]) {
+        if(i % BLOCK == 0) {
+          skipBase[i / BLOCK] = prev;
+          skipOffset[i / BLOCK] = off;
+        }
+        int gap = docs[i] - prev;
+        for(; gap >= 0x80; gap >>>= 7) {
+          data[off++] = (byte) (gap | 0x80);
+        }
+        data[off++] = (byte) gap;
+        data[off++] = (byte) Math.max(-127, Math.min(127, Math.round(weights[i] * iscale)));
       }
-      ModifiableDoubleDBIDList column = index.get(dim);
-      for(DoubleDBIDListIter n = column.iter(); n.valid(); n.advance()) {
-        scores.increment(n, n.doubleValue() * val);
-        cands.add(n);
+    }
+
+    /**
+     * Number of bytes of a variable length integer.
+     *
+     * @param v Value
+     * @return Number of bytes
+     */
+    private static int varintLength(int v) {
+      int len = 1;
+      while((v >>>= 7) != 0) {
+        ++len;
       }
+      return len;
+    }
+
+    /**
+     * Maximum absolute weight, including quantization error.
+     *
+     * @return Upper bound of the absolute weights
+     */
+    double maxAbs() {
+      return step * 127.5;
     }
-    return FastMath.sqrt(len);
   }
 
   /**
-   * Query the most similar objects, dense version.
-   * 
-   * @param obj Query object
-   * @param scores Score storage
-   * @param cands Non-zero objects set
-   * @return Result
+   * Cursor on a posting list.
+   *
+   * @author Erich Schubert
    */
-  private double naiveQueryDense(NumberVector obj, WritableDoubleDataStore scores, HashSetModifiableDBIDs cands) {
-    double len = 0.; // Length of query object, for final normalization
-    for(int dim = 0, max = obj.getDimensionality(); dim < max; dim++) {
-      final double val = obj.doubleValue(dim);
-      if(val == 0. || val != val) {
-        continue;
+  protected static class Cursor {
+    /**
+     * Posting list.
+     */
+    final PostingList list;
+
+    /**
+     * Number of postings decoded.
+     */
+    int pos;
+
+    /**
+     * Byte offset of the next posting.
+     */
+    int off;
+
+    /**
+     * Current object position, {@code Integer.MAX_VALUE} when exhausted.
+     */
+    int doc;
+
+    /**
+     * Current quantized weight.
+     */
+    int q;
+
+    /**
+     * Constructor.
+     *
+     * @param list Posting list
+     */
+    Cursor(PostingList list) {
+      this.list = list;
+      this.doc = -1;
+      next();
+    }
+
+    /**
+     * Advance to the next posting.
+     */
+    void next() {
+      if(pos >= list.size) {
+        doc = Integer.MAX_VALUE;
+        return;
       }
-      len += val * val;
-      // No matching documents in index:
-      if(dim >= index.size()) {
-        continue;
+      final byte[] data = list.data;
+      int gap = 0;
+      for(int shift = 0;; shift += 7) {
+        final byte b = data[off++];
+        gap |= (b & 0x7F) << shift;
+        if(b >= 0) {
+          break;
+        }
+      }
+      doc += gap;
+      q = data[off++];
+      ++pos;
+    }
+
+    /**
+     * Advance to the first posting with an object position of at least the
+     * target, using the skip entries.
+     *
+     * @param target Target position
+     */
+    void skipTo(int target) {
+      if(doc >= target) {
+        return;
+      }
+      final int[] base = list.skipBase;
+      int b = pos / PostingList.BLOCK; // Next block not yet decoded
+      if(b < base.length && base[b] < target) {
+        while(b + 1 < base.length && base[b + 1] < target) {
+          ++b;
+        }
+        pos = b * PostingList.BLOCK;
+        off = list.skipOffset[b];
+        doc = base[b];
+        next();
       }
-      ModifiableDoubleDBIDList column = index.get(dim);
-      for(DoubleDBIDListIter n = column.iter(); n.valid(); n.advance()) {
-        scores.increment(n, n.doubleValue() * val);
-        cands.add(n);
+      while(doc < target) {
+        next();
       }
     }
-    return FastMath.sqrt(len);
+
+    /**
+     * Decoded weight of the current posting.
+     *
+     * @return Weight
+     */
+    double weight() {
+      return q * list.step;
+    }
   }
 
   /**
-   * Query the most similar objects, abstract version.
-   * 
-   * @param obj Query object
-   * @param scores Score storage (must be initialized with zeros!)
-   * @param cands Non-zero objects set (must be empty)
-   * @return Result
+   * Abstract query using MaxScore document-at-a-time evaluation.
+   *
+   * @author Erich Schubert
    */
-  private double naiveQuery(V obj, WritableDoubleDataStore scores, HashSetModifiableDBIDs cands) {
-    if(obj instanceof SparseNumberVector) {
-      return naiveQuerySparse((SparseNumberVector) obj, scores, cands);
-    }
-    else {
-      return naiveQueryDense(obj, scores, cands);
-    }
-  }
+  protected abstract class AbstractMaxScoreQuery {
+    /**
+     * Distance query.
+     */
+    protected DistanceQuery<V> distanceQuery;
 
-  @Override
-  public void logStatistics() {
-    long count = 0L;
-    for(ModifiableDoubleDBIDList column : index) {
-      count += column.size();
+    /**
+     * Current similarity threshold, relative to the query length.
+     */
+    protected double threshold;
+
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query
+     */
+    public AbstractMaxScoreQuery(DistanceQuery<V> distanceQuery) {
+      this.distanceQuery = distanceQuery;
     }
-    double sparsity = count / (index.size() * (double) relation.size());
-    LOG.statistics(new DoubleStatistic(this.getClass().getName() + ".sparsity", sparsity));
-  }
 
-  @Override
-  public KNNSearcher<V> kNNByObject(DistanceQuery<V> distanceQuery, int maxk, int flags) {
-    Distance<? super V> df = distanceQuery.getDistance();
-    return df instanceof CosineDistance ? new CosineKNNQuery() : //
-        df instanceof ArcCosineDistance ? new ArcCosineKNNQuery() : null;
-  }
+    /**
+     * Process a candidate, with exact distance.
+     *
+     * @param dist Distance
+     * @param cand Candidate
+     */
+    protected abstract void candidate(double dist, DBIDRef cand);
 
-  @Override
-  public RangeSearcher<V> rangeByObject(DistanceQuery<V> distanceQuery, double maxradius, int flags) {
-    Distance<? super V> df = distanceQuery.getDistance();
-    return df instanceof CosineDistance ? new CosineRangeQuery() : //
-        df instanceof ArcCosineDistance ? new ArcCosineRangeQuery() : null;
+    /**
+     * Evaluate the query, calling {@link #candidate} for every object whose
+     * similarity bound reaches the threshold.
+     *
+     * @param obj Query object
+     */
+    protected void evaluate(V obj) {
+      // Collect the query terms, and their maximum contributions.
+      int m = 0;
+      double qlen = 0.;
+      int[] dims = new int[16];
+      double[] vals = new double[16];
+      if(obj instanceof SparseNumberVector) {
+        SparseNumberVector sobj = (SparseNumberVector) obj;
+        for(int it = sobj.iter(); sobj.iterValid(it); it = sobj.iterAdvance(it)) {
+          final double val = sobj.iterDoubleValue(it);
+          if(val == 0. || val != val) {
+            continue;
+          }
+          qlen += val * val;
+          final int dim = sobj.iterDim(it);
+          if(dim < index.length && index[dim] != null) {
+            dims = m < dims.length ? dims : Arrays.copyOf(dims, m << 1);
+            vals = m < vals.length ? vals : Arrays.copyOf(vals, m << 1);
+            dims[m] = dim;
+            vals[m++] = val;
+          }
+        }
+      }
+      else {
+        for(int dim = 0, max = obj.getDimensionality(); dim < max; dim++) {
+          final double val = obj.doubleValue(dim);
+          if(val == 0. || val != val) {
+            continue;
+          }
+          qlen += val * val;
+          if(dim < index.length && index[dim] != null) {
+            dims = m < dims.length ? dims : Arrays.copyOf(dims, m << 1);
+            vals = m < vals.length ? vals : Arrays.copyOf(vals, m << 1);
+            dims[m] = dim;
+            vals[m++] = val;
+          }
+        }
+      }
+      if(m == 0) {
+        return;
+      }
+      // Sort by maximum contribution, ascending.
+      final double iqlen = 1. / FastMath.sqrt(qlen);
+      final double[] bounds = new double[m];
+      final int[] order = new int[m];
+      for(int i = 0; i < m; i++) {
+        bounds[i] = Math.abs(vals[i] * iqlen) * index[dims[i]].maxAbs();
+        order[i] = i;
+      }
+      DoubleIntegerArrayQuickSort.sort(bounds, order, m);
+      final Cursor[] cursors = new Cursor[m];
+      final double[] qs = new double[m], errs = new double[m], prefix = new double[m];
+      for(int i = 0; i < m; i++) {
+        final PostingList list = index[dims[order[i]]];
+        cursors[i] = new Cursor(list);
+        qs[i] = vals[order[i]] * iqlen;
+        errs[i] = Math.abs(qs[i]) * list.step * .5;
+        prefix[i] = (i > 0 ? prefix[i - 1] : 0.) + bounds[i];
+      }
+      DBIDArrayIter iter = ids.iter();
+      int essential = essential(prefix, 0);
+      while(essential < m) {
+        // Next object in the essential lists.
+        int doc = Integer.MAX_VALUE;
+        for(int i = essential; i < m; i++) {
+          doc = cursors[i].doc < doc ? cursors[i].doc : doc;
+        }
+        if(doc == Integer.MAX_VALUE) {
+          break;
+        }
+        double ub = 0.;
+        for(int i = essential; i < m; i++) {
+          final Cursor c = cursors[i];
+          if(c.doc == doc) {
+            ub += Math.abs(qs[i] * c.weight()) + errs[i];
+            c.next();
+          }
+        }
+        // Probe the non-essential lists, while the object can still qualify.
+        for(int i = essential - 1; i >= 0 && ub + prefix[i] >= threshold - SLACK; i--) {
+          final Cursor c = cursors[i];
+          c.skipTo(doc);
+          if(c.doc == doc) {
+            ub += Math.abs(qs[i] * c.weight()) + errs[i];
+          }
+        }
+        if(ub >= threshold - SLACK) {
+          candidate(distanceQuery.distance(obj, iter.seek(doc)), iter);
+          essential = essential(prefix, essential);
+        }
+      }
+    }
+
+    /**
+     * Find the first essential list, i.e., the lists before cannot reach the
+     * threshold on their own.
+     *
+     * @param prefix Prefix sums of the maximum contributions
+     * @param start Previous value
+     * @return First essential list
+     */
+    private int essential(double[] prefix, int start) {
+      while(start < prefix.length && prefix[start] < threshold - SLACK) {
+        ++start;
+      }
+      return start;
+    }
   }
 
   /**
@@ -275,22 +660,46 @@ public class InMemoryInvertedIndex<V extends NumberVector> implements KNNIndex<V
    * 
    * @author Erich Schubert
    */
-  protected class CosineKNNQuery implements KNNSearcher<V> {
+  protected class CosineKNNQuery extends AbstractMaxScoreQuery implements KNNSearcher<V> {
+    /**
+     * Result heap.
+     */
+    protected KNNHeap heap;
+
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query
+     */
+    public CosineKNNQuery(DistanceQuery<V> distanceQuery) {
+      super(distanceQuery);
+    }
+
     @Override
     public KNNList getKNN(V obj, int k) {
-      HashSetModifiableDBIDs cands = DBIDUtil.newHashSet();
-      WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(cands, //
-          DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, 0.);
-      double len = naiveQuery(obj, scores, cands);
-      // TODO: delay the division by len!
-      KNNHeap heap = DBIDUtil.newHeap(k);
-      for(DBIDIter n = cands.iter(); n.valid(); n.advance()) {
-        double dist = 1. - scores.doubleValue(n) / (length.doubleValue(n) * len);
-        if(heap.getKNNDistance() >= dist) {
-          heap.insert(dist, n);
-        }
+      heap = DBIDUtil.newHeap(k);
+      threshold = Double.NEGATIVE_INFINITY;
+      evaluate(obj);
+      KNNList result = heap.toKNNList();
+      heap = null;
+      return result;
+    }
+
+    @Override
+    protected void candidate(double dist, DBIDRef cand) {
+      if(heap.insert(dist, cand) < Double.POSITIVE_INFINITY && heap.size() >= heap.getK()) {
+        threshold = similarity(heap.getKNNDistance());
       }
-      return heap.toKNNList();
+    }
+
+    /**
+     * Convert a distance to a similarity.
+     *
+     * @param dist Distance
+     * @return Similarity
+     */
+    protected double similarity(double dist) {
+      return 1. - dist;
     }
   }
 
@@ -299,70 +708,93 @@ public class InMemoryInvertedIndex<V extends NumberVector> implements KNNIndex<V
    * 
    * @author Erich Schubert
    */
-  protected class ArcCosineKNNQuery implements KNNSearcher<V> {
+  protected class ArcCosineKNNQuery extends CosineKNNQuery {
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query
+     */
+    public ArcCosineKNNQuery(DistanceQuery<V> distanceQuery) {
+      super(distanceQuery);
+    }
+
     @Override
-    public KNNList getKNN(V obj, int k) {
-      HashSetModifiableDBIDs cands = DBIDUtil.newHashSet();
-      WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(cands, //
-          DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, 0.);
-      double len = naiveQuery(obj, scores, cands);
-      // TODO: delay the division by len and acos!
-      KNNHeap heap = DBIDUtil.newHeap(k);
-      for(DBIDIter n = cands.iter(); n.valid(); n.advance()) {
-        double dist = Math.acos(scores.doubleValue(n) / (length.doubleValue(n) * len));
-        if(heap.getKNNDistance() >= dist) {
-          heap.insert(dist, n);
-        }
-      }
-      return heap.toKNNList();
+    protected double similarity(double dist) {
+      return FastMath.cos(dist);
     }
   }
 
   /**
-   * kNN query object, for cosine distance.
+   * Range query object, for cosine distance.
    * 
    * @author Erich Schubert
    */
-  protected class CosineRangeQuery implements RangeSearcher<V> {
+  protected class CosineRangeQuery extends AbstractMaxScoreQuery implements RangeSearcher<V> {
+    /**
+     * Query radius.
+     */
+    protected double range;
+
+    /**
+     * Output list.
+     */
+    protected ModifiableDoubleDBIDList result;
+
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query
+     */
+    public CosineRangeQuery(DistanceQuery<V> distanceQuery) {
+      super(distanceQuery);
+    }
+
     @Override
     public ModifiableDoubleDBIDList getRange(V obj, double range, ModifiableDoubleDBIDList result) {
-      HashSetModifiableDBIDs cands = DBIDUtil.newHashSet();
-      WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(cands, //
-          DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, 0.);
-      double len = naiveQuery(obj, scores, cands);
-      // dist = 1 - sim/len <-> sim = len * (1-dist)
-      double simrange = (1. - range) * len;
-      for(DBIDIter n = cands.iter(); n.valid(); n.advance()) {
-        double sim = scores.doubleValue(n) / length.doubleValue(n);
-        if(sim >= simrange) {
-          result.add(1. - sim / len, n);
-        }
-      }
+      this.range = range;
+      this.result = result;
+      threshold = similarity(range);
+      evaluate(obj);
+      this.result = null;
       return result;
     }
+
+    @Override
+    protected void candidate(double dist, DBIDRef cand) {
+      if(dist <= range) {
+        result.add(dist, cand);
+      }
+    }
+
+    /**
+     * Convert a distance to a similarity.
+     *
+     * @param dist Distance
+     * @return Similarity
+     */
+    protected double similarity(double dist) {
+      return 1. - dist;
+    }
   }
 
   /**
-   * Range query object, for cosine distance.
+   * Range query object, for arc cosine distance.
    * 
    * @author Erich Schubert
    */
-  protected class ArcCosineRangeQuery implements RangeSearcher<V> {
+  protected class ArcCosineRangeQuery extends CosineRangeQuery {
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query
+     */
+    public ArcCosineRangeQuery(DistanceQuery<V> distanceQuery) {
+      super(distanceQuery);
+    }
+
     @Override
-    public ModifiableDoubleDBIDList getRange(V obj, double range, ModifiableDoubleDBIDList result) {
-      HashSetModifiableDBIDs cands = DBIDUtil.newHashSet();
-      WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(cands, //
-          DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, 0.);
-      double len = naiveQuery(obj, scores, cands), f = 1. / len;
-      // dist = acos(sim/len) <-> sim = cos(dist)*len
-      double simrange = FastMath.cos(range) * len;
-      for(DBIDIter n = cands.iter(); n.valid(); n.advance()) {
-        double sim = scores.doubleValue(n) / length.doubleValue(n);
-        if(sim >= simrange) {
-          result.add(FastMath.acos(sim * f), n);
-        }
-      }
-      return result;
+    protected double similarity(double dist) {
+      return dist < Math.PI ? FastMath.cos(dist) : Double.NEGATIVE_INFINITY;
     }
   }
 
@@ -20,6 +20,8 @@
  */
 package elki.index.tree.metrical.covertree;
 
+import java.util.concurrent.atomic.LongAdder;
+
 import elki.data.type.TypeInformation;
 import elki.database.ids.*;
 import elki.database.query.distance.DistanceQuery;
@@ -82,9 +84,9 @@ public abstract class AbstractCoverTree<O> implements Index {
   private DistanceQuery<O> distanceQuery;
 
   /**
-   * Distance computations performed.
+   * Distance computations performed (thread-safe, for parallel construction).
    */
-  protected long distComputations = 0L;
+  protected final LongAdder distComputations = new LongAdder();
 
   /**
    * Stop refining the tree at this size, but build a leaf.
@@ -153,7 +155,7 @@ public abstract class AbstractCoverTree<O> implements Index {
    * @return Distance
    */
   protected double distance(DBIDRef a, DBIDRef b) {
-    ++distComputations;
+    distComputations.increment();
     return distanceQuery.distance(a, b);
   }
 
@@ -165,7 +167,7 @@ public abstract class AbstractCoverTree<O> implements Index {
    * @return Distance
    */
   protected double distance(O a, DBIDRef b) {
-    ++distComputations;
+    distComputations.increment();
     return distanceQuery.distance(a, b);
   }
 
@@ -214,7 +216,7 @@ public abstract class AbstractCoverTree<O> implements Index {
 
   @Override
   public void logStatistics() {
-    getLogger().statistics(new LongStatistic(this.getClass().getName() + ".distance-computations", distComputations));
+    getLogger().statistics(new LongStatistic(this.getClass().getName() + ".distance-computations", distComputations.sum()));
   }
 
   /**
@@ -23,7 +23,13 @@ package elki.index.tree.metrical.covertree;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableDataStore;
 import elki.database.ids.*;
 import elki.database.query.PrioritySearcher;
 import elki.database.query.QueryBuilder;
@@ -33,6 +39,8 @@ import elki.database.query.range.RangeSearcher;
 import elki.database.relation.Relation;
 import elki.distance.Distance;
 import elki.index.DistancePriorityIndex;
+import elki.index.DynamicIndex;
+import elki.index.KNNSelfJoinIndex;
 import elki.logging.Logging;
 import elki.logging.statistics.DoubleStatistic;
 import elki.logging.statistics.LongStatistic;
@@ -64,7 +72,18 @@ import elki.utilities.documentation.Reference;
  * parent nodes. It thus needs more than twice the memory of
  * {@link SimplifiedCoverTree}, but computes fewer distances.
  * <p>
- * TODO: allow insertions and removals, as in the original publication.
+ * The all-kNN self-join processes the objects stored at each node as one
+ * query group, sharing the tree traversal and pruning of the group.
+ * <p>
+ * Large subtrees are bulk-loaded in parallel, as the child subtrees of a node
+ * are independent once the objects have been assigned to their covers.
+ * Objects can be appended after construction: they are added to the closest
+ * covering node, and small groups of inserted objects are periodically
+ * bulk-loaded into new subtrees. This keeps the tree usable with updatable
+ * databases, but it does not enforce the separation invariant of the original
+ * publication, so query performance may degrade after many insertions.
+ * Deleted objects are removed from their node; if an object routes a subtree,
+ * this subtree is bulk-loaded again without it.
  *
  * @author Erich Schubert
  * @since 0.7.0
@@ -78,12 +97,17 @@ import elki.utilities.documentation.Reference;
     url = "https://doi.org/10.1145/1143844.1143857", //
     bibkey = "DBLP:conf/icml/BeygelzimerKL06")
 @Priority(Priority.RECOMMENDED)
-public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriorityIndex<O> {
+public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriorityIndex<O>, KNNSelfJoinIndex<O>, DynamicIndex {
   /**
    * Class logger.
    */
   private static final Logging LOG = Logging.getLogger(CoverTree.class);
 
+  /**
+   * Minimum subtree size to build in parallel.
+   */
+  private static final int PARALLEL_CUTOFF = 1 << 12;
+
   /**
    * Tree root.
    */
@@ -138,6 +162,11 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
      */
     List<Node> children;
 
+    /**
+     * Number of objects inserted into this node since it was built.
+     */
+    int inserted = 0;
+
     /**
      * Constructor.
      *
@@ -203,9 +232,13 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
     // Compute distances to all neighbors:
     ModifiableDoubleDBIDList candidates = DBIDUtil.newDistanceDBIDList(ids.size() - 1);
     for(it.advance(); it.valid(); it.advance()) {
-      candidates.add(distance(first, it), it);
+      candidates.add(0., it);
     }
-    root = bulkConstruct(first, Integer.MAX_VALUE, 0., candidates);
+    final double[] dists = computeDistances(first, candidates, 0);
+    for(DoubleDBIDListMIter c = candidates.iter(); c.valid(); c.advance()) {
+      c.setDouble(dists[c.getOffset()]);
+    }
+    root = new BuildTask(first, Integer.MAX_VALUE, 0., candidates).invoke();
   }
 
   /**
@@ -221,6 +254,7 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
    * @return Root node of subtree
    */
   protected Node bulkConstruct(DBIDRef cur, int maxScale, double parentDist, ModifiableDoubleDBIDList elems) {
+    final int size = elems.size();
     final double max = maxDistance(elems);
     final int scale = Math.min(distToScale(max) - 1, maxScale);
     final int nextScale = scale - 1;
@@ -241,35 +275,407 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
     Node node = new Node(cur, max, parentDist);
     // Routing element now is a singleton:
     final boolean curSingleton = elems.isEmpty();
+    List<BuildTask> tasks = new ArrayList<>();
     if(!curSingleton) {
       // Add node for the routing object:
-      node.children.add(bulkConstruct(cur, nextScale, 0, elems));
+      tasks.add(new BuildTask(DBIDUtil.deref(cur), nextScale, 0, elems));
     }
     final double fmax = scaleToDist(nextScale);
     // Build additional cover nodes:
     for(DoubleDBIDListIter it = candidates.iter(); it.valid();) {
       assert it.getOffset() == 0;
       DBID t = DBIDUtil.deref(it);
-      collectByCover(it, candidates, fmax, elems.clear());
+      ModifiableDoubleDBIDList celems = DBIDUtil.newDistanceDBIDList();
+      collectByCover(it, candidates, fmax, celems);
       assert DBIDUtil.equal(t, it) : "First element in candidates must not change!";
-      if(elems.isEmpty()) { // Singleton
+      if(celems.isEmpty()) { // Singleton
         node.singletons.add(it.doubleValue(), it);
       }
       else {
         // Build a full child node:
-        node.children.add(bulkConstruct(it, nextScale, it.doubleValue(), elems));
+        tasks.add(new BuildTask(t, nextScale, it.doubleValue(), celems));
       }
       candidates.removeSwap(0);
     }
     assert candidates.isEmpty();
+    // Child subtrees are independent, build large ones in parallel:
+    if(size >= PARALLEL_CUTOFF && tasks.size() > 1) {
+      ForkJoinTask.invokeAll(tasks);
+      for(BuildTask task : tasks) {
+        node.children.add(task.getRawResult());
+      }
+    }
+    else {
+      for(BuildTask task : tasks) {
+        node.children.add(bulkConstruct(task.cur, task.maxScale, task.parentDist, task.elems));
+      }
+    }
     // Routing object is not yet handled:
     if(curSingleton && !node.children.isEmpty()) {
       node.singletons.add(parentDist, cur); // Add as regular singleton.
     }
-    // TODO: improve recycling of lists?
     return node;
   }
 
+  @Override
+  protected void collectByCover(DBIDRef cur, ModifiableDoubleDBIDList candidates, double fmax, ModifiableDoubleDBIDList collect) {
+    if(candidates.size() < PARALLEL_CUTOFF) {
+      super.collectByCover(cur, candidates, fmax, collect);
+      return;
+    }
+    assert collect.isEmpty() : "Not empty";
+    final double[] dists = computeDistances(DBIDUtil.deref(cur), candidates, 1);
+    int end = candidates.size();
+    // Same order of removals as the sequential version:
+    DoubleDBIDListIter it = candidates.iter().advance(); // Except first = cur!
+    while(it.valid()) {
+      final int i = it.getOffset();
+      if(dists[i] <= fmax) { // Collect
+        collect.add(dists[i], it);
+        candidates.removeSwap(i);
+        dists[i] = dists[--end];
+      }
+      else {
+        it.advance(); // Keep in candidates, outside cover radius.
+      }
+    }
+  }
+
+  /**
+   * Compute the distances of candidates to a routing object, in parallel for
+   * large lists.
+   *
+   * @param cur Routing object
+   * @param candidates Candidates
+   * @param start First candidate offset
+   * @return Distances, indexed by candidate offset
+   */
+  private double[] computeDistances(DBIDRef cur, DoubleDBIDList candidates, int start) {
+    final double[] dists = new double[candidates.size()];
+    if(candidates.size() - start < PARALLEL_CUTOFF) {
+      for(DoubleDBIDListIter it = candidates.iter().seek(start); it.valid(); it.advance()) {
+        dists[it.getOffset()] = distance(cur, it);
+      }
+    }
+    else {
+      new DistanceTask(cur, candidates, dists, start, candidates.size()).invoke();
+    }
+    return dists;
+  }
+
+  /**
+   * Task to build a subtree.
+   *
+   * @author Erich Schubert
+   */
+  private class BuildTask extends RecursiveTask<Node> {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Routing object.
+     */
+    DBID cur;
+
+    /**
+     * Maximum scale.
+     */
+    int maxScale;
+
+    /**
+     * Distance to parent element.
+     */
+    double parentDist;
+
+    /**
+     * Candidates.
+     */
+    ModifiableDoubleDBIDList elems;
+
+    /**
+     * Constructor.
+     *
+     * @param cur Routing object
+     * @param maxScale Maximum scale
+     * @param parentDist Distance to parent element
+     * @param elems Candidates
+     */
+    BuildTask(DBID cur, int maxScale, double parentDist, ModifiableDoubleDBIDList elems) {
+      this.cur = cur;
+      this.maxScale = maxScale;
+      this.parentDist = parentDist;
+      this.elems = elems;
+    }
+
+    @Override
+    protected Node compute() {
+      return bulkConstruct(cur, maxScale, parentDist, elems);
+    }
+  }
+
+  /**
+   * Task to compute the distances to a routing object.
+   *
+   * @author Erich Schubert
+   */
+  private class DistanceTask extends RecursiveAction {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Routing object.
+     */
+    DBIDRef cur;
+
+    /**
+     * Candidates.
+     */
+    DoubleDBIDList candidates;
+
+    /**
+     * Output distances.
+     */
+    double[] dists;
+
+    /**
+     * Range of candidates.
+     */
+    int begin, end;
+
+    /**
+     * Constructor.
+     *
+     * @param cur Routing object
+     * @param candidates Candidates
+     * @param dists Output distances
+     * @param begin First offset
+     * @param end End offset (exclusive)
+     */
+    DistanceTask(DBIDRef cur, DoubleDBIDList candidates, double[] dists, int begin, int end) {
+      this.cur = cur;
+      this.candidates = candidates;
+      this.dists = dists;
+      this.begin = begin;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if(end - begin > PARALLEL_CUTOFF) {
+        final int mid = (begin + end) >>> 1;
+        ForkJoinTask.invokeAll(new DistanceTask(cur, candidates, dists, begin, mid), new DistanceTask(cur, candidates, dists, mid, end));
+        return;
+      }
+      for(DoubleDBIDListIter it = candidates.iter().seek(begin); it.getOffset() < end; it.advance()) {
+        dists[it.getOffset()] = distance(cur, it);
+      }
+    }
+  }
+
+  @Override
+  public void insert(DBIDRef id) {
+    if(root == null) {
+      root = new Node(id, 0., 0., DBIDUtil.newDistanceDBIDList(0));
+      return;
+    }
+    root = insert(root, id, distance(root.singletons.assignVar(0, DBIDUtil.newVar()), id));
+  }
+
+  @Override
+  public void insertAll(DBIDs ids) {
+    if(root == null) {
+      bulkLoad(ids);
+      return;
+    }
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      insert(it);
+    }
+  }
+
+  /**
+   * Insert an object into a subtree.
+   * <p>
+   * The object is passed to the closest child covering it, or else stored in
+   * the current node. Leaves that received many objects are rebuilt, inner
+   * nodes bulk-load their inserted objects into a new child instead.
+   *
+   * @param cur Subtree root
+   * @param id Object to insert
+   * @param d Distance to the routing object of the subtree
+   * @return New subtree root
+   */
+  private Node insert(Node cur, DBIDRef id, double d) {
+    cur.maxDist = d > cur.maxDist ? d : cur.maxDist;
+    DBIDVar r = cur.singletons.assignVar(0, DBIDUtil.newVar());
+    DBIDVar tmp = DBIDUtil.newVar();
+    int best = -1;
+    double bestd = Double.POSITIVE_INFINITY;
+    for(int i = 0; i < cur.children.size(); i++) {
+      final Node c = cur.children.get(i);
+      // Triangle inequality: child cannot cover the object.
+      if(Math.abs(d - c.parentDist) > c.maxDist) {
+        continue;
+      }
+      final double dc = DBIDUtil.equal(c.singletons.assignVar(0, tmp), r) ? d : distance(tmp, id);
+      if(dc <= c.maxDist && dc < bestd) {
+        best = i;
+        bestd = dc;
+      }
+    }
+    if(best >= 0) {
+      cur.children.set(best, insert(cur.children.get(best), id, bestd));
+      return cur;
+    }
+    cur.singletons.add(d, id);
+    if(++cur.inserted < truncate) {
+      return cur;
+    }
+    if(cur.children.isEmpty()) {
+      if(cur.maxDist <= 0) {
+        return cur; // Duplicates only, keep as a leaf.
+      }
+      // Rebuild the leaf, the distances to the routing object are known:
+      ModifiableDoubleDBIDList elems = DBIDUtil.newDistanceDBIDList(cur.singletons.size() - 1);
+      for(DoubleDBIDListIter it = cur.singletons.iter().advance(); it.valid(); it.advance()) {
+        elems.add(it.doubleValue(), it);
+      }
+      return bulkConstruct(r, Integer.MAX_VALUE, cur.parentDist, elems);
+    }
+    // Bulk-load the inserted objects into a new child:
+    final int start = cur.singletons.size() - cur.inserted;
+    DBID first = DBIDUtil.deref(cur.singletons.assignVar(start, tmp));
+    double firstDist = cur.singletons.doubleValue(start);
+    ModifiableDoubleDBIDList elems = DBIDUtil.newDistanceDBIDList(cur.inserted - 1);
+    for(DoubleDBIDListIter it = cur.singletons.iter().seek(start + 1); it.valid(); it.advance()) {
+      elems.add(distance(first, it), it);
+    }
+    while(cur.singletons.size() > start) {
+      cur.singletons.remove(cur.singletons.size() - 1);
+    }
+    cur.inserted = 0;
+    cur.children.add(bulkConstruct(first, Integer.MAX_VALUE, firstDist, elems));
+    return cur;
+  }
+
+  @Override
+  public boolean delete(DBIDRef id) {
+    if(root == null) {
+      return false;
+    }
+    DBIDVar r = root.singletons.assignVar(0, DBIDUtil.newVar());
+    if(DBIDUtil.equal(r, id)) {
+      // Routing object of the root, rebuild the entire tree:
+      HashSetModifiableDBIDs rest = collect(root, DBIDUtil.newHashSet());
+      rest.remove(id);
+      root = null;
+      bulkLoad(rest);
+      return true;
+    }
+    return delete(root, id, distance(r, id));
+  }
+
+  @Override
+  public void deleteAll(DBIDs ids) {
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      delete(it);
+    }
+  }
+
+  /**
+   * Delete an object from a subtree.
+   * <p>
+   * Objects stored in a node are simply removed. If the object is the routing
+   * object of a child, the child subtree is bulk-loaded again without it.
+   * The bounds of all ancestors remain valid, as the subtree only shrinks.
+   *
+   * @param cur Subtree root, must not be routed by the object
+   * @param id Object to delete
+   * @param d Distance to the routing object of the subtree
+   * @return {@code true} if the object was found
+   */
+  private boolean delete(Node cur, DBIDRef id, double d) {
+    if(d > cur.maxDist) {
+      return false; // Not covered by this subtree.
+    }
+    for(DoubleDBIDListIter it = cur.singletons.iter().advance(); it.valid(); it.advance()) {
+      if(DBIDUtil.equal(it, id)) {
+        final int off = it.getOffset();
+        cur.inserted -= off >= cur.singletons.size() - cur.inserted ? 1 : 0;
+        cur.singletons.remove(off);
+        return true;
+      }
+    }
+    DBIDVar r = cur.singletons.assignVar(0, DBIDUtil.newVar());
+    DBIDVar tmp = DBIDUtil.newVar();
+    for(int i = 0; i < cur.children.size(); i++) {
+      final Node c = cur.children.get(i);
+      // Triangle inequality: child cannot contain the object.
+      if(Math.abs(d - c.parentDist) > c.maxDist) {
+        continue;
+      }
+      c.singletons.assignVar(0, tmp);
+      if(DBIDUtil.equal(tmp, id)) {
+        HashSetModifiableDBIDs rest = collect(c, DBIDUtil.newHashSet());
+        rest.remove(id);
+        if(!rest.isEmpty()) {
+          cur.children.set(i, rebuild(r, rest));
+          return true;
+        }
+        cur.children.remove(i);
+        if(cur.children.isEmpty()) {
+          // Now a leaf, which reports its routing object itself:
+          for(int j = cur.singletons.size() - 1; j > 0; j--) {
+            if(DBIDUtil.equal(cur.singletons.assignVar(j, tmp), r)) {
+              cur.inserted -= j >= cur.singletons.size() - cur.inserted ? 1 : 0;
+              cur.singletons.remove(j);
+            }
+          }
+        }
+        return true;
+      }
+      if(delete(c, id, DBIDUtil.equal(tmp, r) ? d : distance(tmp, id))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Bulk-load a replacement subtree.
+   *
+   * @param parent Routing object of the parent node
+   * @param ids Objects of the subtree
+   * @return New subtree root
+   */
+  private Node rebuild(DBIDRef parent, DBIDs ids) {
+    DBIDIter it = ids.iter();
+    DBID first = DBIDUtil.deref(it);
+    ModifiableDoubleDBIDList elems = DBIDUtil.newDistanceDBIDList(ids.size() - 1);
+    for(it.advance(); it.valid(); it.advance()) {
+      elems.add(distance(first, it), it);
+    }
+    return bulkConstruct(first, Integer.MAX_VALUE, distance(parent, first), elems);
+  }
+
+  /**
+   * Collect all objects stored in a subtree.
+   *
+   * @param cur Subtree root
+   * @param ids Output set
+   * @return Output set
+   */
+  private HashSetModifiableDBIDs collect(Node cur, HashSetModifiableDBIDs ids) {
+    ids.addDBIDs(cur.singletons);
+    for(Node c : cur.children) {
+      collect(c, ids);
+    }
+    return ids;
+  }
+
   /**
    * Collect some statistics on the tree.
    *
@@ -333,6 +739,155 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements DistancePriori
             new CoverTreePriorityDBIDSearcher() : null;
   }
 
+  @Override
+  public WritableDataStore<KNNList> kNNSelfJoin(DistanceQuery<O> distanceQuery, int k) {
+    if(distanceQuery.getRelation() != relation || !this.distance.equals(distanceQuery.getDistance()) || root == null) {
+      return null;
+    }
+    WritableDataStore<KNNHeap> heaps = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, KNNHeap.class);
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      heaps.put(it, DBIDUtil.newHeap(k));
+    }
+    new SelfJoin(heaps).joinSubtree(root);
+    WritableDataStore<KNNList> storage = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT, KNNList.class);
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      storage.put(it, heaps.get(it).toKNNList());
+    }
+    heaps.destroy();
+    return storage;
+  }
+
+  /**
+   * All-kNN self-join, processing the objects stored at each node as a group.
+   * <p>
+   * For a group with routing object \(r_Q\) and radius \(\rho_Q\), a node
+   * with routing object \(r_R\) and radius \(\rho_R\) can be pruned if
+   * \(d(r_Q,r_R)-\rho_Q-\rho_R\) exceeds the largest kNN distance of the group.
+   *
+   * @author Erich Schubert
+   */
+  private class SelfJoin {
+    /**
+     * kNN heaps of all objects.
+     */
+    private final WritableDataStore<KNNHeap> heaps;
+
+    /**
+     * Priority queue of reference nodes.
+     */
+    private final DoubleObjectMinHeap<Node> pq = new DoubleObjectMinHeap<>();
+
+    /**
+     * Temporary storage.
+     */
+    private final DBIDVar rq = DBIDUtil.newVar(), rr = DBIDUtil.newVar(), tmp = DBIDUtil.newVar();
+
+    /**
+     * Constructor.
+     *
+     * @param heaps kNN heaps
+     */
+    SelfJoin(WritableDataStore<KNNHeap> heaps) {
+      this.heaps = heaps;
+    }
+
+    /**
+     * Process all groups in a subtree.
+     *
+     * @param q Subtree root
+     */
+    void joinSubtree(Node q) {
+      // The routing object of inner nodes is stored in the first child.
+      if(q.children.isEmpty() || q.singletons.size() > 1) {
+        joinGroup(q, q.children.isEmpty() ? 0 : 1);
+      }
+      for(Node c : q.children) {
+        joinSubtree(c);
+      }
+    }
+
+    /**
+     * Find the neighbors of the objects of one node.
+     *
+     * @param q Query node
+     * @param start First object of the node to process
+     */
+    private void joinGroup(Node q, int start) {
+      q.singletons.assignVar(0, rq);
+      double bound = groupBound(q, start);
+      pq.clear();
+      pq.add(distance(rq, root.singletons.assignVar(0, tmp)) - root.maxDist, root);
+      while(!pq.isEmpty()) {
+        final Node r = pq.peekValue();
+        final double prio = pq.peekKey();
+        pq.poll();
+        if(prio - q.maxDist > bound) {
+          break; // All remaining nodes are farther away.
+        }
+        final double dqr = prio + r.maxDist; // Distance of routing objects
+        r.singletons.assignVar(0, rr);
+        for(Node c : r.children) {
+          double dc = DBIDUtil.equal(c.singletons.assignVar(0, tmp), rr) ? dqr : distance(rq, tmp);
+          if(dc - c.maxDist - q.maxDist <= bound) {
+            pq.add(dc - c.maxDist, c);
+          }
+        }
+        // Objects stored in the reference node:
+        final DoubleDBIDListIter it = r.singletons.iter();
+        if(!r.children.isEmpty()) {
+          it.advance(); // Skip routing object
+        }
+        for(; it.valid(); it.advance()) {
+          final double sr = DBIDUtil.equal(it, rr) ? 0. : it.doubleValue();
+          if(Math.abs(dqr - sr) - q.maxDist > bound) {
+            continue;
+          }
+          final double dr = DBIDUtil.equal(it, rr) ? dqr : DBIDUtil.equal(it, rq) ? 0. : distance(rq, it);
+          joinObject(q, start, it, dr);
+        }
+        bound = groupBound(q, start);
+      }
+    }
+
+    /**
+     * Offer a reference object to all objects of a query group.
+     *
+     * @param q Query node
+     * @param start First object of the node to process
+     * @param r Reference object
+     * @param dr Distance of the reference object to the routing object
+     */
+    private void joinObject(Node q, int start, DBIDRef r, double dr) {
+      for(DoubleDBIDListIter it = q.singletons.iter().seek(start); it.valid(); it.advance()) {
+        final KNNHeap heap = heaps.get(it);
+        final double kdist = heap.getKNNDistance();
+        final boolean isrouting = DBIDUtil.equal(it, rq);
+        if(Math.abs(dr - (isrouting ? 0. : it.doubleValue())) > kdist) {
+          continue;
+        }
+        final double d = isrouting ? dr : DBIDUtil.equal(it, r) ? 0. : distance(it, r);
+        if(d <= kdist) {
+          heap.insert(d, r);
+        }
+      }
+    }
+
+    /**
+     * Compute the largest kNN distance of a group.
+     *
+     * @param q Query node
+     * @param start First object of the node to process
+     * @return Largest kNN distance
+     */
+    private double groupBound(Node q, int start) {
+      double bound = 0.;
+      for(DoubleDBIDListIter it = q.singletons.iter().seek(start); it.valid(); it.advance()) {
+        bound = Math.max(bound, heaps.get(it).getKNNDistance());
+      }
+      return bound;
+    }
+  }
+
   @Override
   protected Logging getLogger() {
     return LOG;
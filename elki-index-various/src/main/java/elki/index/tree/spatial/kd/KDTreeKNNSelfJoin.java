@@ -0,0 +1,440 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.tree.spatial.kd;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import elki.data.NumberVector;
+import elki.data.SparseNumberVector;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableDataStore;
+import elki.database.ids.*;
+import elki.database.relation.Relation;
+import elki.distance.Distance;
+import elki.distance.minkowski.LPNormDistance;
+import elki.distance.minkowski.SquaredEuclideanDistance;
+import elki.distance.minkowski.WeightedLPNormDistance;
+import elki.utilities.documentation.Reference;
+
+import net.jafama.FastMath;
+
+/**
+ * Dual-tree all-k-nearest-neighbor self-join on the data order of a k-d-tree.
+ * <p>
+ * The objects are organized in a binary tree of bounding boxes over the tree
+ * order of a k-d-tree (the boxes are computed from the data, so any order with
+ * spatial locality yields exact results). Pairs of query and reference nodes
+ * are pruned when the minimum distance of their boxes exceeds the largest
+ * current k-nearest-neighbor distance within the query node. Query subtrees
+ * are processed in parallel.
+ * <p>
+ * Reference:
+ * <p>
+ * A. G. Gray, A. W. Moore<br>
+ * 'N-Body' Problems in Statistical Learning<br>
+ * Advances in Neural Information Processing Systems 13 (NIPS 2000)
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+@Reference(authors = "A. G. Gray, A. W. Moore", //
+    title = "'N-Body' Problems in Statistical Learning", //
+    booktitle = "Advances in Neural Information Processing Systems 13 (NIPS 2000)", //
+    url = "http://papers.nips.cc/paper/1886-n-body-problems-in-statistical-learning", //
+    bibkey = "DBLP:conf/nips/GrayM00")
+public class KDTreeKNNSelfJoin {
+  /**
+   * Minimum number of objects in a leaf of the join tree.
+   */
+  private static final int MIN_BLOCK_SIZE = 16;
+
+  /**
+   * Minimum query subtree size to process the two halves in parallel.
+   */
+  private static final int PARALLEL_CUTOFF = 1 << 12;
+
+  /**
+   * Maximum size of the coordinate array.
+   */
+  private static final long MAX_COORDS = Integer.MAX_VALUE - 8;
+
+  /**
+   * Data relation.
+   */
+  private final Relation<? extends NumberVector> relation;
+
+  /**
+   * Objects in tree order.
+   */
+  private final ArrayDBIDs order;
+
+  /**
+   * Coordinates in tree order.
+   */
+  private final double[] coords;
+
+  /**
+   * Dimensionality.
+   */
+  private final int dims;
+
+  /**
+   * Maximum number of objects in a leaf.
+   */
+  private final int blocksize;
+
+  /**
+   * Exponent of the distance, see {@link #exponent}.
+   */
+  private final double p;
+
+  /**
+   * Nearest neighbor heaps, in tree order.
+   */
+  private KNNHeap[] heaps;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param order Objects in the order of a k-d-tree
+   * @param coords Coordinates in tree order (from {@link #copyCoordinates})
+   * @param dims Dimensionality
+   * @param leafsize Leaf size of the k-d-tree
+   * @param p Distance exponent (from {@link #exponent})
+   */
+  public KDTreeKNNSelfJoin(Relation<? extends NumberVector> relation, DBIDs order, double[] coords, int dims, int leafsize, double p) {
+    this.relation = relation;
+    this.order = DBIDUtil.ensureArray(order);
+    this.coords = coords;
+    this.dims = dims;
+    this.blocksize = Math.max(leafsize, MIN_BLOCK_SIZE);
+    this.p = p;
+  }
+
+  /**
+   * Get the exponent to compute a distance on coordinates.
+   *
+   * @param distance Distance function
+   * @return Exponent, 0 for squared Euclidean, NaN if not supported.
+   */
+  public static double exponent(Distance<?> distance) {
+    if(distance instanceof SquaredEuclideanDistance) {
+      return 0;
+    }
+    return distance instanceof LPNormDistance && !(distance instanceof WeightedLPNormDistance) //
+        ? ((LPNormDistance) distance).getP() : Double.NaN;
+  }
+
+  /**
+   * Copy the coordinates of dense vectors into an array, in the given order.
+   *
+   * @param relation Data relation
+   * @param order Object order
+   * @param dims Dimensionality
+   * @return Coordinates, or {@code null} if too large or sparse.
+   */
+  public static double[] copyCoordinates(Relation<? extends NumberVector> relation, DBIDs order, int dims) {
+    final int size = order.size();
+    if(size == 0 || size * (long) dims > MAX_COORDS || relation.get(order.iter()) instanceof SparseNumberVector) {
+      return null;
+    }
+    double[] coords = new double[size * dims];
+    int off = 0;
+    for(DBIDIter it = order.iter(); it.valid(); it.advance()) {
+      final NumberVector v = relation.get(it);
+      for(int d = 0; d < dims; d++) {
+        coords[off++] = v.doubleValue(d);
+      }
+    }
+    return coords;
+  }
+
+  /**
+   * Compute the k nearest neighbors of all objects.
+   *
+   * @param k Number of neighbors
+   * @return kNN lists
+   */
+  public WritableDataStore<KNNList> run(int k) {
+    final int size = order.size();
+    heaps = new KNNHeap[size];
+    for(int i = 0; i < size; i++) {
+      heaps[i] = DBIDUtil.newHeap(k);
+    }
+    if(size > 0) {
+      Node root = build(0, size);
+      new JoinTask(root, root).invoke();
+    }
+    WritableDataStore<KNNList> storage = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT, KNNList.class);
+    for(DBIDArrayIter it = order.iter(); it.valid(); it.advance()) {
+      storage.put(it, heaps[it.getOffset()].toKNNList());
+    }
+    heaps = null;
+    return storage;
+  }
+
+  /**
+   * Build the join tree.
+   *
+   * @param left Interval begin
+   * @param right Interval end (exclusive)
+   * @return Node
+   */
+  private Node build(int left, int right) {
+    Node node = new Node(left, right, dims);
+    if(right - left <= blocksize) {
+      for(int i = left, off = left * dims; i < right; i++) {
+        for(int d = 0; d < dims; d++, off++) {
+          node.min[d] = Math.min(node.min[d], coords[off]);
+          node.max[d] = Math.max(node.max[d], coords[off]);
+        }
+      }
+      return node;
+    }
+    final int middle = (left + right) >>> 1;
+    node.lchild = build(left, middle);
+    node.rchild = build(middle, right);
+    for(int d = 0; d < dims; d++) {
+      node.min[d] = Math.min(node.lchild.min[d], node.rchild.min[d]);
+      node.max[d] = Math.max(node.lchild.max[d], node.rchild.max[d]);
+    }
+    return node;
+  }
+
+  /**
+   * Process a pair of query and reference nodes.
+   *
+   * @param q Query node
+   * @param r Reference node
+   * @param mindist Minimum distance of the nodes
+   * @param iter Iterator for the reference objects
+   */
+  private void dualTree(Node q, Node r, double mindist, DBIDArrayIter iter) {
+    if(mindist > q.bound) {
+      return;
+    }
+    if(r.lchild == null && q.lchild == null) {
+      baseCase(q, r, iter);
+      return;
+    }
+    // Descend on the query side:
+    if(r.lchild == null || (q.lchild != null && q.right - q.left >= r.right - r.left)) {
+      dualTree(q.lchild, r, minDist(q.lchild, r), iter);
+      dualTree(q.rchild, r, minDist(q.rchild, r), iter);
+      q.bound = Math.max(q.lchild.bound, q.rchild.bound);
+      return;
+    }
+    // Descend on the reference side, nearest first:
+    final double ldist = minDist(q, r.lchild), rdist = minDist(q, r.rchild);
+    if(ldist <= rdist) {
+      dualTree(q, r.lchild, ldist, iter);
+      dualTree(q, r.rchild, rdist, iter);
+    }
+    else {
+      dualTree(q, r.rchild, rdist, iter);
+      dualTree(q, r.lchild, ldist, iter);
+    }
+  }
+
+  /**
+   * Compare all objects of two leaf nodes.
+   *
+   * @param q Query node
+   * @param r Reference node
+   * @param iter Iterator for the reference objects
+   */
+  private void baseCase(Node q, Node r, DBIDArrayIter iter) {
+    double bound = 0.;
+    for(int i = q.left; i < q.right; i++) {
+      final KNNHeap heap = heaps[i];
+      double kdist = heap.getKNNDistance();
+      if(pointMinDist(i, r) <= kdist) {
+        for(int j = r.left; j < r.right; j++) {
+          final double dist = distance(i, j);
+          if(dist <= kdist) {
+            kdist = heap.insert(dist, iter.seek(j));
+          }
+        }
+      }
+      bound = Math.max(bound, kdist);
+    }
+    q.bound = bound;
+  }
+
+  /**
+   * Distance of two objects.
+   *
+   * @param i First object (tree position)
+   * @param j Second object (tree position)
+   * @return Distance
+   */
+  private double distance(int i, int j) {
+    double agg = 0.;
+    for(int d = 0, a = i * dims, b = j * dims; d < dims; d++) {
+      agg = aggregate(agg, Math.abs(coords[a++] - coords[b++]));
+    }
+    return finish(agg);
+  }
+
+  /**
+   * Minimum distance of an object to a node.
+   *
+   * @param i Object (tree position)
+   * @param n Node
+   * @return Minimum distance
+   */
+  private double pointMinDist(int i, Node n) {
+    double agg = 0.;
+    for(int d = 0, a = i * dims; d < dims; d++, a++) {
+      final double v = coords[a];
+      agg = aggregate(agg, v < n.min[d] ? n.min[d] - v : v > n.max[d] ? v - n.max[d] : 0.);
+    }
+    return finish(agg);
+  }
+
+  /**
+   * Minimum distance of two nodes.
+   *
+   * @param a First node
+   * @param b Second node
+   * @return Minimum distance
+   */
+  private double minDist(Node a, Node b) {
+    double agg = 0.;
+    for(int d = 0; d < dims; d++) {
+      final double gap = Math.max(a.min[d] - b.max[d], b.min[d] - a.max[d]);
+      agg = gap > 0 ? aggregate(agg, gap) : agg;
+    }
+    return finish(agg);
+  }
+
+  /**
+   * Aggregate the distance in one dimension.
+   *
+   * @param agg Previous aggregate
+   * @param delta Absolute difference
+   * @return New aggregate
+   */
+  private double aggregate(double agg, double delta) {
+    return p == 0 || p == 2 ? agg + delta * delta : //
+        p == 1 ? agg + delta : //
+            p == Double.POSITIVE_INFINITY ? Math.max(agg, delta) : //
+                agg + FastMath.pow(delta, p);
+  }
+
+  /**
+   * Finish the distance computation.
+   *
+   * @param agg Aggregate
+   * @return Distance
+   */
+  private double finish(double agg) {
+    return p == 2 ? Math.sqrt(agg) : //
+        p == 0 || p == 1 || p == Double.POSITIVE_INFINITY ? agg : //
+            FastMath.pow(agg, 1. / p);
+  }
+
+  /**
+   * Node of the join tree.
+   *
+   * @author Erich Schubert
+   */
+  private static final class Node {
+    /**
+     * Interval of objects (in tree order).
+     */
+    final int left, right;
+
+    /**
+     * Bounding box.
+     */
+    final double[] min, max;
+
+    /**
+     * Child nodes, {@code null} for leaves.
+     */
+    Node lchild, rchild;
+
+    /**
+     * Largest kNN distance of the objects in this node.
+     */
+    double bound = Double.POSITIVE_INFINITY;
+
+    /**
+     * Constructor.
+     *
+     * @param left Interval begin
+     * @param right Interval end (exclusive)
+     * @param dims Dimensionality
+     */
+    Node(int left, int right, int dims) {
+      this.left = left;
+      this.right = right;
+      this.min = new double[dims];
+      this.max = new double[dims];
+      Arrays.fill(min, Double.POSITIVE_INFINITY);
+      Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    }
+  }
+
+  /**
+   * Task to join a query subtree with the full tree, splitting large query
+   * subtrees into parallel tasks.
+   *
+   * @author Erich Schubert
+   */
+  private class JoinTask extends RecursiveAction {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Query node and reference root.
+     */
+    private final Node q, root;
+
+    /**
+     * Constructor.
+     *
+     * @param q Query node
+     * @param root Reference root
+     */
+    JoinTask(Node q, Node root) {
+      this.q = q;
+      this.root = root;
+    }
+
+    @Override
+    protected void compute() {
+      if(q.lchild == null || q.right - q.left < PARALLEL_CUTOFF) {
+        dualTree(q, root, minDist(q, root), order.iter());
+        return;
+      }
+      ForkJoinTask.invokeAll(new JoinTask(q.lchild, root), new JoinTask(q.rchild, root));
+      q.bound = Math.max(q.lchild.bound, q.rchild.bound);
+    }
+  }
+}
@@ -25,6 +25,7 @@ import elki.data.VectorUtil;
 import elki.data.VectorUtil.SortDBIDsBySingleDimension;
 import elki.data.type.TypeInformation;
 import elki.data.type.TypeUtil;
+import elki.database.datastore.WritableDataStore;
 import elki.database.ids.*;
 import elki.database.query.PrioritySearcher;
 import elki.database.query.distance.DistanceQuery;
@@ -39,6 +40,7 @@ import elki.distance.minkowski.SparseLPNormDistance;
 import elki.distance.minkowski.SquaredEuclideanDistance;
 import elki.index.DistancePriorityIndex;
 import elki.index.IndexFactory;
+import elki.index.KNNSelfJoinIndex;
 import elki.logging.Logging;
 import elki.logging.statistics.Counter;
 import elki.utilities.Alias;
@@ -74,6 +76,7 @@ import elki.utilities.optionhandling.parameters.IntParameter;
  *
  * @has - - - KDTreeKNNSearcher
  * @has - - - KDTreeRangeSearcher
+ * @has - - - KDTreeKNNSelfJoin
  *
  * @param <O> Vector type
  */
@@ -82,7 +85,7 @@ import elki.utilities.optionhandling.parameters.IntParameter;
     booktitle = "Communications of the ACM 18(9)", //
     url = "https://doi.org/10.1145/361002.361007", //
     bibkey = "DBLP:journals/cacm/Bentley75")
-public class MinimalisticMemoryKDTree<O extends NumberVector> implements DistancePriorityIndex<O> {
+public class MinimalisticMemoryKDTree<O extends NumberVector> implements DistancePriorityIndex<O>, KNNSelfJoinIndex<O> {
   /**
    * Class logger
    */
@@ -245,6 +248,17 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> implements Distanc
     }
   }
 
+  @Override
+  public WritableDataStore<KNNList> kNNSelfJoin(DistanceQuery<O> distanceQuery, int k) {
+    final double p = KDTreeKNNSelfJoin.exponent(distanceQuery.getDistance());
+    if(distanceQuery.getRelation() != relation || p != p) {
+      return null;
+    }
+    // Temporary copy of the coordinates, as this tree does not store them:
+    double[] coords = KDTreeKNNSelfJoin.copyCoordinates(relation, sorted, dims);
+    return coords != null ? new KDTreeKNNSelfJoin(relation, sorted, coords, dims, leafsize, p).run(k) : null;
+  }
+
   @Override
   public KNNSearcher<O> kNNByObject(DistanceQuery<O> distanceQuery, int maxk, int flags) {
     Distance<? super O> df = distanceQuery.getDistance();
@@ -20,9 +20,14 @@
  */
 package elki.index.tree.spatial.kd;
 
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
 import elki.data.NumberVector;
+import elki.data.SparseNumberVector;
 import elki.data.type.TypeInformation;
 import elki.data.type.TypeUtil;
+import elki.database.datastore.WritableDataStore;
 import elki.database.ids.*;
 import elki.database.query.PrioritySearcher;
 import elki.database.query.distance.DistanceQuery;
@@ -37,7 +42,9 @@ import elki.distance.minkowski.SparseLPNormDistance;
 import elki.distance.minkowski.SquaredEuclideanDistance;
 import elki.index.DistancePriorityIndex;
 import elki.index.IndexFactory;
+import elki.index.KNNSelfJoinIndex;
 import elki.logging.Logging;
+import elki.logging.statistics.AtomicLongCounter;
 import elki.logging.statistics.Counter;
 import elki.utilities.Alias;
 import elki.utilities.datastructures.heap.ComparableMinHeap;
@@ -48,6 +55,8 @@ import elki.utilities.optionhandling.constraints.CommonConstraints;
 import elki.utilities.optionhandling.parameterization.Parameterization;
 import elki.utilities.optionhandling.parameters.IntParameter;
 
+import net.jafama.FastMath;
+
 /**
  * Simple implementation of a static in-memory K-D-tree. Does not support
  * dynamic updates or anything, but also is very simple and memory efficient:
@@ -58,6 +67,11 @@ import elki.utilities.optionhandling.parameters.IntParameter;
  * it is also considerably faster because it does not need to lookup this value
  * from the vectors.
  * <p>
+ * The tree is built in parallel, using fork-join on the two halves of large
+ * subtrees. For dense vectors, the coordinates are copied into a contiguous
+ * array in tree order, so leaf scans with Minkowski distances read memory
+ * sequentially instead of fetching each vector from the relation.
+ * <p>
  * Reference:
  * <p>
  * J. L. Bentley<br>
@@ -71,6 +85,7 @@ import elki.utilities.optionhandling.parameters.IntParameter;
  *
  * @has - - - KDTreeKNNSearcher
  * @has - - - KDTreeRangeSearcher
+ * @has - - - KDTreeKNNSelfJoin
  *
  * @param <O> Vector type
  */
@@ -79,7 +94,7 @@ import elki.utilities.optionhandling.parameters.IntParameter;
     booktitle = "Communications of the ACM 18(9)", //
     url = "https://doi.org/10.1145/361002.361007", //
     bibkey = "DBLP:journals/cacm/Bentley75")
-public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriorityIndex<O> {
+public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriorityIndex<O>, KNNSelfJoinIndex<O> {
   /**
    * Class logger
    */
@@ -100,6 +115,21 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
    */
   protected int dims = -1;
 
+  /**
+   * Coordinates of the objects, in tree order (may be {@code null}).
+   */
+  protected double[] coords = null;
+
+  /**
+   * Minimum subtree size to build the two halves in parallel.
+   */
+  private static final int PARALLEL_CUTOFF = 1 << 14;
+
+  /**
+   * Maximum size of the coordinate array.
+   */
+  private static final long MAX_COORDS = Integer.MAX_VALUE - 8;
+
   /**
    * Maximum size of leaf nodes.
    */
@@ -127,8 +157,8 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     assert (leafsize >= 1);
     if(LOG.isStatistics()) {
       String prefix = this.getClass().getName();
-      this.objaccess = LOG.newCounter(prefix + ".objaccess");
-      this.distcalc = LOG.newCounter(prefix + ".distancecalcs");
+      this.objaccess = new AtomicLongCounter(prefix + ".objaccess");
+      this.distcalc = new AtomicLongCounter(prefix + ".distancecalcs");
     }
     else {
       this.objaccess = null;
@@ -143,7 +173,19 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
       sorted.add(Double.NaN, it);
     }
-    buildTree(0, sorted.size(), 0, sorted.iter());
+    final int size = sorted.size();
+    if(size == 0) {
+      return;
+    }
+    // Copy the coordinates of dense vectors only:
+    coords = size * (long) dims <= MAX_COORDS && !(relation.get(sorted.iter()) instanceof SparseNumberVector) //
+        ? new double[size * dims] : null;
+    if(size < PARALLEL_CUTOFF) {
+      buildTree(0, size, 0, sorted.iter());
+    }
+    else {
+      new BuildTask(0, size, 0).invoke();
+    }
   }
 
   /**
@@ -158,16 +200,11 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
    */
   private void buildTree(int left, int right, int axis, DoubleDBIDListMIter iter) {
     assert (left < right);
-    for(iter.seek(left); iter.getOffset() < right; iter.advance()) {
-      iter.setDouble(relation.get(iter).doubleValue(axis));
-      countObjectAccess();
-    }
     if(right - left <= leafsize) {
+      copyCoordinates(left, right, iter);
       return;
     }
-
-    int middle = (left + right) >>> 1;
-    QuickSelectDBIDs.quickSelect(sorted, left, right, middle);
+    int middle = split(left, right, axis, iter);
     final int next = next(axis);
     if(left < middle) {
       buildTree(left, middle, next, iter);
@@ -178,6 +215,142 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     }
   }
 
+  /**
+   * Split an interval at the median of the given axis.
+   *
+   * @param left Interval minimum
+   * @param right Interval maximum
+   * @param axis Current splitting axis
+   * @param iter Iterator
+   * @return Middle (splitting) position
+   */
+  private int split(int left, int right, int axis, DoubleDBIDListMIter iter) {
+    for(iter.seek(left); iter.getOffset() < right; iter.advance()) {
+      iter.setDouble(relation.get(iter).doubleValue(axis));
+      countObjectAccess();
+    }
+    final int middle = (left + right) >>> 1;
+    QuickSelectDBIDs.quickSelect(sorted, left, right, middle);
+    copyCoordinates(middle, middle + 1, iter);
+    return middle;
+  }
+
+  /**
+   * Copy the coordinates of an interval into the coordinate array.
+   *
+   * @param left Interval minimum
+   * @param right Interval maximum
+   * @param iter Iterator
+   */
+  private void copyCoordinates(int left, int right, DoubleDBIDListMIter iter) {
+    if(coords == null) {
+      return;
+    }
+    for(iter.seek(left); iter.getOffset() < right; iter.advance()) {
+      final O v = relation.get(iter);
+      countObjectAccess();
+      for(int d = 0, off = iter.getOffset() * dims; d < dims; d++) {
+        coords[off + d] = v.doubleValue(d);
+      }
+    }
+  }
+
+  /**
+   * Task to build a subtree, processing both halves in parallel.
+   *
+   * @author Erich Schubert
+   */
+  private class BuildTask extends RecursiveAction {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Interval and splitting axis.
+     */
+    private final int left, right, axis;
+
+    /**
+     * Constructor.
+     *
+     * @param left Interval minimum
+     * @param right Interval maximum
+     * @param axis Splitting axis
+     */
+    BuildTask(int left, int right, int axis) {
+      this.left = left;
+      this.right = right;
+      this.axis = axis;
+    }
+
+    @Override
+    protected void compute() {
+      DoubleDBIDListMIter iter = sorted.iter();
+      if(right - left < PARALLEL_CUTOFF) {
+        buildTree(left, right, axis, iter);
+        return;
+      }
+      final int middle = split(left, right, axis, iter);
+      final int next = next(axis);
+      ForkJoinTask.invokeAll(new BuildTask(left, middle, next), new BuildTask(middle + 1, right, next));
+    }
+  }
+
+  /**
+   * Get the exponent for computing distances on the coordinate array.
+   *
+   * @param distance Distance function
+   * @return Exponent, 0 for squared Euclidean, NaN if not supported.
+   */
+  private double exponent(Distance<?> distance) {
+    return coords != null ? KDTreeKNNSelfJoin.exponent(distance) : Double.NaN;
+  }
+
+  /**
+   * Compute the distance from the query to the object at the iterator
+   * position, using the coordinate array where possible.
+   *
+   * @param distance Distance function
+   * @param p Exponent, see {@link #exponent}
+   * @param query Query object
+   * @param iter Iterator position
+   * @return Distance
+   */
+  protected double distance(PrimitiveDistance<? super O> distance, double p, O query, DoubleDBIDListIter iter) {
+    countDistanceComputation();
+    if(p != p) { // NaN: use the distance function
+      countObjectAccess();
+      return distance.distance(query, relation.get(iter));
+    }
+    final double[] coords = this.coords;
+    double agg = 0.;
+    int off = iter.getOffset() * dims;
+    if(p == 0 || p == 2) {
+      for(int d = 0; d < dims; d++) {
+        final double v = query.doubleValue(d) - coords[off++];
+        agg += v * v;
+      }
+      return p == 0 ? agg : Math.sqrt(agg);
+    }
+    if(p == 1) {
+      for(int d = 0; d < dims; d++) {
+        agg += Math.abs(query.doubleValue(d) - coords[off++]);
+      }
+      return agg;
+    }
+    if(p == Double.POSITIVE_INFINITY) {
+      for(int d = 0; d < dims; d++) {
+        agg = Math.max(agg, Math.abs(query.doubleValue(d) - coords[off++]));
+      }
+      return agg;
+    }
+    for(int d = 0; d < dims; d++) {
+      agg += FastMath.pow(Math.abs(query.doubleValue(d) - coords[off++]), p);
+    }
+    return FastMath.pow(agg, 1. / p);
+  }
+
   /**
    * Next axis.
    *
@@ -216,6 +389,13 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     }
   }
 
+  @Override
+  public WritableDataStore<KNNList> kNNSelfJoin(DistanceQuery<O> distanceQuery, int k) {
+    final double p = exponent(distanceQuery.getDistance());
+    return distanceQuery.getRelation() == relation && p == p ? //
+        new KDTreeKNNSelfJoin(relation, sorted, coords, dims, leafsize, p).run(k) : null;
+  }
+
   @Override
   public KNNSearcher<O> kNNByObject(DistanceQuery<O> distanceQuery, int maxk, int flags) {
     Distance<? super O> df = distanceQuery.getDistance();
@@ -260,6 +440,16 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
      */
     private PrimitiveDistance<? super O> distance;
 
+    /**
+     * Exponent for distances on the coordinate array.
+     */
+    private final double exponent;
+
+    /**
+     * Exponent used for the current query.
+     */
+    private double p;
+
     /**
      * Constructor.
      *
@@ -268,11 +458,13 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     public KDTreeKNNSearcher(PrimitiveDistance<? super O> distance) {
       super();
       this.distance = distance;
+      this.exponent = exponent(distance);
     }
 
     @Override
     public KNNList getKNN(O obj, int k) {
       final KNNHeap knns = DBIDUtil.newHeap(k);
+      p = obj.getDimensionality() == dims ? exponent : Double.NaN;
       kdKNNSearch(0, sorted.size(), 0, obj, knns, sorted.iter(), Double.POSITIVE_INFINITY);
       return knns.toKNNList();
     }
@@ -292,9 +484,7 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     private double kdKNNSearch(int left, int right, int axis, O query, KNNHeap knns, DoubleDBIDListIter iter, double maxdist) {
       if(right - left <= leafsize) {
         for(iter.seek(left); iter.getOffset() < right; iter.advance()) {
-          double dist = distance.distance(query, relation.get(iter));
-          countObjectAccess();
-          countDistanceComputation();
+          double dist = distance(distance, p, query, iter);
           if(dist <= maxdist) {
             knns.insert(dist, iter);
           }
@@ -317,10 +507,7 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
       // Exact match chance (delta == 0)!
       // process first, then descend both sides.
       if(onleft && onright) {
-        O split = relation.get(iter.seek(middle));
-        countObjectAccess();
-        double dist = distance.distance(query, split);
-        countDistanceComputation();
+        double dist = distance(distance, p, query, iter.seek(middle));
         if(dist <= maxdist) {
           assert (iter.getOffset() == middle);
           knns.insert(dist, iter /* .seek(middle) */);
@@ -341,10 +528,7 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
           }
           // Look at splitting element (unless already above):
           if(mindist <= maxdist) {
-            O split = relation.get(iter.seek(middle));
-            countObjectAccess();
-            double dist = distance.distance(query, split);
-            countDistanceComputation();
+            double dist = distance(distance, p, query, iter.seek(middle));
             if(dist <= maxdist) {
               knns.insert(dist, iter);
               maxdist = knns.getKNNDistance();
@@ -360,10 +544,7 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
           }
           // Look at splitting element (unless already above):
           if(mindist <= maxdist) {
-            O split = relation.get(iter.seek(middle));
-            countObjectAccess();
-            double dist = distance.distance(query, split);
-            countDistanceComputation();
+            double dist = distance(distance, p, query, iter.seek(middle));
             if(dist <= maxdist) {
               knns.insert(dist, iter);
               maxdist = knns.getKNNDistance();
@@ -389,6 +570,16 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
      */
     private PrimitiveDistance<? super O> distance;
 
+    /**
+     * Exponent for distances on the coordinate array.
+     */
+    private final double exponent;
+
+    /**
+     * Exponent used for the current query.
+     */
+    private double p;
+
     /**
      * Constructor.
      *
@@ -397,10 +588,12 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     public KDTreeRangeSearcher(PrimitiveDistance<? super O> distance) {
       super();
       this.distance = distance;
+      this.exponent = exponent(distance);
     }
 
     @Override
     public ModifiableDoubleDBIDList getRange(O obj, double range, ModifiableDoubleDBIDList result) {
+      p = obj.getDimensionality() == dims ? exponent : Double.NaN;
       kdRangeSearch(0, sorted.size(), 0, obj, result, sorted.iter(), range);
       return result;
     }
@@ -419,9 +612,7 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     private void kdRangeSearch(int left, int right, int axis, O query, ModifiableDoubleDBIDList res, DoubleDBIDListIter iter, double radius) {
       if(right - left <= leafsize) {
         for(iter.seek(left); iter.getOffset() < right; iter.advance()) {
-          double dist = distance.distance(query, relation.get(iter));
-          countObjectAccess();
-          countDistanceComputation();
+          double dist = distance(distance, p, query, iter);
           if(dist <= radius) {
             res.add(dist, iter);
           }
@@ -442,10 +633,7 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
 
       // Current object:
       if(close) {
-        O split = relation.get(iter.seek(middle));
-        countObjectAccess();
-        double dist = distance.distance(query, split);
-        countDistanceComputation();
+        double dist = distance(distance, p, query, iter.seek(middle));
         if(dist <= radius) {
           assert (iter.getOffset() == middle);
           res.add(dist, iter /* .seek(middle) */);
@@ -518,6 +706,16 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
      */
     private PrimitiveDistance<? super O> distance;
 
+    /**
+     * Exponent for distances on the coordinate array.
+     */
+    private final double exponent;
+
+    /**
+     * Exponent used for the current query.
+     */
+    private double p;
+
     /**
      * Min heap for searching.
      */
@@ -556,11 +754,13 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
     public KDTreePrioritySearcher(PrimitiveDistance<? super O> distance) {
       super();
       this.distance = distance;
+      this.exponent = exponent(distance);
     }
 
     @Override
     public PrioritySearcher<O> search(O query) {
       this.query = query;
+      this.p = query.getDimensionality() == dims ? exponent : Double.NaN;
       this.threshold = Double.POSITIVE_INFINITY;
       this.pos = Integer.MIN_VALUE;
       this.heap.clear();
@@ -630,9 +830,7 @@ public class SmallMemoryKDTree<O extends NumberVector> implements DistancePriori
 
     @Override
     public double computeExactDistance() {
-      countDistanceComputation();
-      countObjectAccess();
-      return distance.distance(query, relation.get(iter.seek(pos)));
+      return distance(distance, p, query, iter.seek(pos));
     }
 
     @Override
@@ -0,0 +1,117 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import elki.algorithm.AbstractSimpleAlgorithmTest;
+import elki.data.NumberVector;
+import elki.data.type.TypeUtil;
+import elki.database.ids.*;
+import elki.database.query.distance.DistanceQuery;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.query.knn.WrappedKNNDBIDByLookup;
+import elki.database.query.range.WrappedRangeDBIDByLookup;
+import elki.database.relation.Relation;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.index.AbstractIndexStructureTest;
+import elki.utilities.ELKIBuilder;
+import elki.utilities.random.RandomFactory;
+
+/**
+ * Unit test for the {@link HNSWIndex}.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class HNSWIndexTest extends AbstractIndexStructureTest {
+  @Test
+  public void testHNSW() {
+    HNSWIndex.Factory<?> factory = new ELKIBuilder<>(HNSWIndex.Factory.class) //
+        .with(HNSWIndex.Factory.Par.SEED_ID, 0L).build();
+    assertExactEuclidean(factory, HNSWIndex.HNSWPrioritySearcher.class, HNSWIndex.HNSWPrioritySearcher.class);
+    assertPrioritySearchEuclidean(factory, HNSWIndex.HNSWPrioritySearcher.class);
+    assertSinglePoint(factory, WrappedKNNDBIDByLookup.class, WrappedRangeDBIDByLookup.class);
+  }
+
+  /**
+   * Test the recall on a larger data set, which is built in parallel.
+   */
+  @Test
+  public void testParallelRecall() {
+    Relation<NumberVector> rel = AbstractSimpleAlgorithmTest.makeRandomDatabase(20000, 16, 1, 0L).getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    HNSWIndex<NumberVector> index = new HNSWIndex<>(rel, EuclideanDistance.STATIC, 12, 100, 50, RandomFactory.get(0L), null);
+    index.initialize();
+    DistanceQuery<NumberVector> dq = EuclideanDistance.STATIC.instantiate(rel);
+    KNNSearcher<DBIDRef> knn = index.kNNByDBID(dq, 10, 0);
+    int found = 0, total = 0;
+    DBIDIter q = rel.iterDBIDs();
+    for(int i = 0; i < 100; i++, q.advance()) {
+      KNNHeap heap = DBIDUtil.newHeap(10);
+      for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+        heap.insert(dq.distance(q, it), it);
+      }
+      KNNList exp = heap.toKNNList(), res = knn.getKNN(q, 10);
+      assertEquals("Wrong number of results.", 10, res.size());
+      found += DBIDUtil.intersectionSize(DBIDUtil.newHashSet(exp), res);
+      total += exp.size();
+    }
+    assertTrue("Recall too low: " + found / (double) total, found >= .95 * total);
+  }
+
+  /**
+   * Test storing and loading the graph.
+   *
+   * @throws IOException on errors
+   */
+  @Test
+  public void testSaveLoad() throws IOException {
+    Relation<NumberVector> rel = AbstractSimpleAlgorithmTest.makeSimpleDatabase(AbstractSimpleAlgorithmTest.UNITTEST + "hierarchical-3d2d1d.csv", 600).getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    File file = File.createTempFile("hnsw", ".bin");
+    try {
+      file.delete();
+      HNSWIndex<NumberVector> built = new HNSWIndex<>(rel, EuclideanDistance.STATIC, 8, 50, 20, RandomFactory.get(0L), file.toPath());
+      built.initialize(); // Builds and stores the graph.
+      assertTrue("Graph was not stored.", file.exists());
+      HNSWIndex<NumberVector> loaded = new HNSWIndex<>(rel, EuclideanDistance.STATIC, 8, 50, 20, RandomFactory.get(1L), file.toPath());
+      loaded.initialize(); // Loads the graph.
+      DistanceQuery<NumberVector> dq = EuclideanDistance.STATIC.instantiate(rel);
+      KNNSearcher<DBIDRef> k1 = built.kNNByDBID(dq, 10, 0), k2 = loaded.kNNByDBID(dq, 10, 0);
+      DBIDIter q = rel.iterDBIDs();
+      for(int i = 0; i < 50; i++, q.advance()) {
+        KNNList r1 = k1.getKNN(q, 10), r2 = k2.getKNN(q, 10);
+        assertEquals("Result sizes differ.", r1.size(), r2.size());
+        for(DoubleDBIDListIter a = r1.iter(), b = r2.iter(); a.valid(); a.advance(), b.advance()) {
+          assertTrue("Results differ.", DBIDUtil.equal(a, b));
+        }
+      }
+    }
+    finally {
+      file.delete();
+    }
+  }
+}
@@ -20,8 +20,34 @@
  */
 package elki.index.invertedlist;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.Test;
 
+import elki.data.SparseDoubleVector;
+import elki.data.SparseNumberVector;
+import elki.data.type.TypeUtil;
+import elki.data.type.VectorFieldTypeInformation;
+import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.database.ids.*;
+import elki.database.query.distance.DistanceQuery;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.query.knn.LinearScanKNNByObject;
+import elki.database.query.range.LinearScanDistanceRangeByObject;
+import elki.database.query.range.RangeSearcher;
+import elki.database.relation.Relation;
+import elki.datasource.MultipleObjectsBundleDatabaseConnection;
+import elki.datasource.bundle.MultipleObjectsBundle;
+import elki.distance.ArcCosineDistance;
+import elki.distance.CosineDistance;
+import elki.distance.Distance;
 import elki.index.AbstractIndexStructureTest;
 import elki.utilities.ELKIBuilder;
 
@@ -39,4 +65,69 @@ public class InMemoryInvertedIndexTest extends AbstractIndexStructureTest {
     InMemoryInvertedIndex.Factory<?> factory = new ELKIBuilder<>(InMemoryInvertedIndex.Factory.class).build();
     assertExactCosine(factory, InMemoryInvertedIndex.CosineKNNQuery.class, InMemoryInvertedIndex.CosineRangeQuery.class);
   }
+
+  /**
+   * Test on sparse data with long posting lists, which exercises skipping and
+   * pruning.
+   */
+  @Test
+  public void testSparse() {
+    Relation<SparseNumberVector> rel = makeSparseRelation(3000, 200, 8);
+    InMemoryInvertedIndex<SparseNumberVector> index = new InMemoryInvertedIndex<>(rel);
+    index.initialize();
+    assertSame(rel, index, CosineDistance.STATIC, .6);
+    assertSame(rel, index, ArcCosineDistance.STATIC, 1.2);
+  }
+
+  /**
+   * Compare the index queries to a linear scan.
+   *
+   * @param rel Relation
+   * @param index Index
+   * @param dist Distance function
+   * @param radius Query radius
+   */
+  private static void assertSame(Relation<SparseNumberVector> rel, InMemoryInvertedIndex<SparseNumberVector> index, Distance<? super SparseNumberVector> dist, double radius) {
+    DistanceQuery<SparseNumberVector> dq = dist.instantiate(rel);
+    KNNSearcher<SparseNumberVector> knn = index.kNNByObject(dq, 10, 0);
+    KNNSearcher<SparseNumberVector> lknn = new LinearScanKNNByObject<>(dq);
+    RangeSearcher<SparseNumberVector> range = index.rangeByObject(dq, radius, 0);
+    RangeSearcher<SparseNumberVector> lrange = new LinearScanDistanceRangeByObject<>(dq);
+    DBIDIter q = rel.iterDBIDs();
+    for(int i = 0; i < 100; i++, q.advance()) {
+      SparseNumberVector obj = rel.get(q);
+      KNNList exp = lknn.getKNN(obj, 10), res = knn.getKNN(obj, 10);
+      assertEquals("kNN distance differs.", exp.getKNNDistance(), res.getKNNDistance(), 1e-10);
+      DoubleDBIDList rexp = lrange.getRange(obj, radius), rres = range.getRange(obj, radius);
+      assertEquals("Range query size differs.", rexp.size(), rres.size());
+      assertEquals("Range query results differ.", rexp.size(), DBIDUtil.intersectionSize(DBIDUtil.newHashSet(rexp), rres));
+    }
+    assertTrue("Too few range query results.", lrange.getRange(rel.get(rel.iterDBIDs()), radius).size() > 1);
+  }
+
+  /**
+   * Make a sparse random data relation, with skewed term frequencies.
+   *
+   * @param size Size
+   * @param dim Dimensionality
+   * @param nnz Number of non-zero values per vector
+   * @return Relation
+   */
+  private static Relation<SparseNumberVector> makeSparseRelation(int size, int dim, int nnz) {
+    Random rnd = new Random(0L);
+    List<SparseDoubleVector> data = new ArrayList<>(size);
+    double[] values = new double[dim];
+    for(int i = 0; i < size; i++) {
+      for(int j = 0; j < nnz; j++) {
+        // Skewed: low dimensions are frequent.
+        values[(int) (dim * Math.pow(rnd.nextDouble(), 3))] += rnd.nextDouble() * 2 - .5;
+      }
+      data.add(new SparseDoubleVector(values));
+      Arrays.fill(values, 0.);
+    }
+    VectorFieldTypeInformation<SparseDoubleVector> type = new VectorFieldTypeInformation<>(SparseDoubleVector.FACTORY, dim);
+    Database db = new StaticArrayDatabase(new MultipleObjectsBundleDatabaseConnection(MultipleObjectsBundle.makeSimple(type, data)));
+    db.initialize();
+    return db.getRelation(TypeUtil.SPARSE_VECTOR_FIELD);
+  }
 }
@@ -20,8 +20,19 @@
  */
 package elki.index.tree.metrical.covertree;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
 import org.junit.Test;
 
+import elki.algorithm.AbstractSimpleAlgorithmTest;
+import elki.data.NumberVector;
+import elki.data.type.TypeUtil;
+import elki.database.ids.*;
+import elki.database.query.distance.DistanceQuery;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.query.range.RangeSearcher;
+import elki.database.relation.Relation;
 import elki.distance.minkowski.EuclideanDistance;
 import elki.index.AbstractIndexStructureTest;
 import elki.utilities.ELKIBuilder;
@@ -40,5 +51,95 @@ public class CoverTreeTest extends AbstractIndexStructureTest {
     assertExactEuclidean(factory, CoverTree.CoverTreePrioritySearcher.class, CoverTree.CoverTreeRangeSearcher.class);
     assertPrioritySearchEuclidean(factory, CoverTree.CoverTreePrioritySearcher.class);
     assertSinglePoint(factory, CoverTree.CoverTreePrioritySearcher.class, CoverTree.CoverTreeRangeSearcher.class);
+    assertSelfJoinEuclidean(factory);
+  }
+
+  /**
+   * Test a larger data set, which is built in parallel.
+   */
+  @Test
+  public void testParallelBuild() {
+    Relation<NumberVector> rel = AbstractSimpleAlgorithmTest.makeRandomDatabase(20000, 3, 20, 0L).getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    CoverTree<NumberVector> tree = new CoverTree<>(rel, EuclideanDistance.STATIC);
+    tree.initialize();
+    assertQueries(rel, tree);
+  }
+
+  /**
+   * Test appending objects after construction.
+   */
+  @Test
+  public void testInsert() {
+    Relation<NumberVector> rel = AbstractSimpleAlgorithmTest.makeSimpleDatabase(AbstractSimpleAlgorithmTest.UNITTEST + "hierarchical-3d2d1d.csv", 600).getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    CoverTree<NumberVector> tree = new CoverTree<>(rel, EuclideanDistance.STATIC);
+    ArrayModifiableDBIDs first = DBIDUtil.newArray(), rest = DBIDUtil.newArray();
+    DBIDIter it = rel.iterDBIDs();
+    for(int i = 0; it.valid(); it.advance(), i++) {
+      (i < 100 ? first : rest).add(it);
+    }
+    tree.insertAll(first);
+    for(DBIDIter r = rest.iter(); r.valid(); r.advance()) {
+      tree.insert(r);
+    }
+    assertQueries(rel, tree);
+  }
+
+  /**
+   * Test deleting objects, including the routing object of the root.
+   */
+  @Test
+  public void testDelete() {
+    Relation<NumberVector> rel = AbstractSimpleAlgorithmTest.makeSimpleDatabase(AbstractSimpleAlgorithmTest.UNITTEST + "hierarchical-3d2d1d.csv", 600).getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    CoverTree<NumberVector> tree = new CoverTree<>(rel, EuclideanDistance.STATIC);
+    tree.initialize();
+    ArrayModifiableDBIDs del = DBIDUtil.newArray(), keep = DBIDUtil.newArray();
+    DBIDIter it = rel.iterDBIDs();
+    for(int i = 0; it.valid(); it.advance(), i++) {
+      (i % 3 == 0 ? del : keep).add(it);
+    }
+    tree.deleteAll(del);
+    assertFalse(tree.delete(del.iter()));
+    assertQueries(rel, keep, tree);
+  }
+
+  /**
+   * Compare kNN and range results to a linear scan.
+   *
+   * @param rel Data relation
+   * @param tree Tree
+   */
+  private static void assertQueries(Relation<NumberVector> rel, CoverTree<NumberVector> tree) {
+    assertQueries(rel, rel.getDBIDs(), tree);
+  }
+
+  /**
+   * Compare kNN and range results to a linear scan.
+   *
+   * @param rel Data relation
+   * @param ids Objects in the tree
+   * @param tree Tree
+   */
+  private static void assertQueries(Relation<NumberVector> rel, DBIDs ids, CoverTree<NumberVector> tree) {
+    final int k = 10;
+    final double range = .1;
+    DistanceQuery<NumberVector> dq = EuclideanDistance.STATIC.instantiate(rel);
+    KNNSearcher<DBIDRef> knn = tree.kNNByDBID(dq, k, 0);
+    RangeSearcher<DBIDRef> rq = tree.rangeByDBID(dq, range, 0);
+    DBIDIter q = ids.iter();
+    for(int i = 0; i < 50; i++, q.advance()) {
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      int inrange = 0;
+      for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+        final double d = dq.distance(q, it);
+        heap.insert(d, it);
+        inrange += d <= range ? 1 : 0;
+      }
+      KNNList exp = heap.toKNNList(), res = knn.getKNN(q, k);
+      assertEquals("kNN sizes do not agree.", exp.size(), res.size());
+      for(DoubleDBIDListIter a = exp.iter(), b = res.iter(); a.valid(); a.advance(), b.advance()) {
+        assertEquals("kNN distances do not agree.", a.doubleValue(), b.doubleValue(), 1e-10);
+      }
+      assertEquals("Range query sizes do not agree.", inrange, rq.getRange(q, range).size());
+    }
   }
 }
@@ -40,5 +40,6 @@ public class MinimalisticMemoryKDTreeTest extends AbstractIndexStructureTest {
     assertExactEuclidean(factory, MinimalisticMemoryKDTree.KDTreeKNNSearcher.class, MinimalisticMemoryKDTree.KDTreeRangeSearcher.class);
     assertPrioritySearchEuclidean(factory, MinimalisticMemoryKDTree.KDTreePrioritySearcher.class);
     assertSinglePoint(factory, WrappedKNNDBIDByLookup.class, WrappedRangeDBIDByLookup.class);
+    assertSelfJoinEuclidean(factory);
   }
 }
@@ -20,10 +20,28 @@
  */
 package elki.index.tree.spatial.kd;
 
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
 import org.junit.Test;
 
+import elki.data.NumberVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.database.ids.*;
+import elki.database.query.knn.KNNSearcher;
 import elki.database.query.knn.WrappedKNNDBIDByLookup;
 import elki.database.query.range.WrappedRangeDBIDByLookup;
+import elki.database.relation.Relation;
+import elki.datasource.ArrayAdapterDatabaseConnection;
+import elki.distance.PrimitiveDistance;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.distance.minkowski.LPNormDistance;
+import elki.distance.minkowski.ManhattanDistance;
+import elki.distance.minkowski.MaximumDistance;
+import elki.distance.minkowski.SquaredEuclideanDistance;
 import elki.index.AbstractIndexStructureTest;
 import elki.utilities.ELKIBuilder;
 
@@ -40,5 +58,54 @@ public class SmallMemoryKDTreeTest extends AbstractIndexStructureTest {
     assertExactEuclidean(factory, SmallMemoryKDTree.KDTreeKNNSearcher.class, SmallMemoryKDTree.KDTreeRangeSearcher.class);
     assertPrioritySearchEuclidean(factory, SmallMemoryKDTree.KDTreePrioritySearcher.class);
     assertSinglePoint(factory, WrappedKNNDBIDByLookup.class, WrappedRangeDBIDByLookup.class);
+    assertSelfJoinEuclidean(factory);
+  }
+
+  /**
+   * Test a larger data set, which is built in parallel, with several
+   * distances computed on the coordinate array.
+   */
+  @Test
+  public void testParallelBuild() {
+    Random rnd = new Random(0L);
+    double[][] data = new double[50000][];
+    for(int i = 0; i < data.length; i++) {
+      data[i] = new double[] { rnd.nextDouble(), rnd.nextDouble(), rnd.nextInt(100) * .01 };
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data));
+    db.initialize();
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    SmallMemoryKDTree<NumberVector> tree = new SmallMemoryKDTree<>(rel, 4);
+    tree.initialize();
+    assertKNN(rel, tree, EuclideanDistance.STATIC);
+    assertKNN(rel, tree, SquaredEuclideanDistance.STATIC);
+    assertKNN(rel, tree, ManhattanDistance.STATIC);
+    assertKNN(rel, tree, MaximumDistance.STATIC);
+    assertKNN(rel, tree, new LPNormDistance(3));
+  }
+
+  /**
+   * Compare kNN results to a linear scan.
+   *
+   * @param rel Data relation
+   * @param tree Tree
+   * @param dist Distance
+   */
+  private static void assertKNN(Relation<NumberVector> rel, SmallMemoryKDTree<NumberVector> tree, PrimitiveDistance<? super NumberVector> dist) {
+    final int k = 10;
+    KNNSearcher<NumberVector> searcher = tree.kNNByObject(dist.instantiate(rel), k, 0);
+    DBIDIter q = rel.iterDBIDs();
+    for(int i = 0; i < 20; i++, q.advance()) {
+      NumberVector query = rel.get(q);
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+        heap.insert(dist.distance(query, rel.get(it)), it);
+      }
+      KNNList exp = heap.toKNNList(), res = searcher.getKNN(query, k);
+      assertEquals("kNN sizes do not agree.", exp.size(), res.size());
+      for(DoubleDBIDListIter a = exp.iter(), b = res.iter(); a.valid(); a.advance(), b.advance()) {
+        assertEquals("kNN distances do not agree.", a.doubleValue(), b.doubleValue(), 1e-10);
+      }
+    }
   }
 }
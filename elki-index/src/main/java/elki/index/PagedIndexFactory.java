@@ -24,6 +24,7 @@ import java.io.Externalizable;
 
 import elki.persistent.MemoryPageFileFactory;
 import elki.persistent.Page;
+import elki.persistent.PageCodec;
 import elki.persistent.PageFile;
 import elki.persistent.PageFileFactory;
 import elki.utilities.optionhandling.Parameterizer;
@@ -74,6 +75,23 @@ public abstract class PagedIndexFactory<O> implements IndexFactory<O> {
     return castFactory.newPageFile(cls);
   }
 
+  /**
+   * Make the page file for this index, with a binary codec for the pages.
+   * 
+   * @param <N>
+   *        page type
+   * @param cls
+   *        Class information
+   * @param codec
+   *        Page codec
+   * @return Page file
+   */
+  protected <N extends Page & Externalizable> PageFile<N> makePageFile(Class<N> cls, PageCodec<N> codec) {
+    @SuppressWarnings("unchecked")
+    final PageFileFactory<N> castFactory = (PageFileFactory<N>) pageFileFactory;
+    return castFactory.newPageFile(cls, codec);
+  }
+
   /**
    * Parameterization class.
    *
@@ -0,0 +1,151 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.tree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import elki.persistent.PageCodec;
+import elki.utilities.io.ByteArrayUtil;
+
+/**
+ * Abstract base class for binary codecs of tree nodes.
+ * <p>
+ * The node header consists of the page id, the leaf flag, the number of
+ * entries and the node capacity; the entries are encoded by the subclasses.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @param <N> Node type
+ * @param <E> Entry type
+ */
+public abstract class AbstractNodeCodec<N extends AbstractNode<E>, E> implements PageCodec<N> {
+  /**
+   * Size of the node header.
+   */
+  protected static final int HEADER_SIZE = 3 * ByteArrayUtil.SIZE_INT + 1;
+
+  /**
+   * Factory to create new nodes.
+   */
+  protected final NodeFactory<N> factory;
+
+  /**
+   * Constructor.
+   *
+   * @param factory Node factory, usually a constructor reference
+   */
+  public AbstractNodeCodec(NodeFactory<N> factory) {
+    super();
+    this.factory = factory;
+  }
+
+  @Override
+  public N fromByteBuffer(ByteBuffer buffer) throws IOException {
+    final int pageID = buffer.getInt();
+    final boolean isLeaf = buffer.get() != 0;
+    final int numEntries = buffer.getInt(), capacity = buffer.getInt();
+    if(numEntries < 0 || numEntries > capacity) {
+      throw new IOException("Corrupt node header: " + numEntries + " entries, capacity " + capacity);
+    }
+    N node = factory.make(capacity, isLeaf);
+    node.setPageID(pageID);
+    for(int i = 0; i < numEntries; i++) {
+      node.addEntry(isLeaf ? readLeafEntry(buffer) : readDirectoryEntry(buffer));
+    }
+    return node;
+  }
+
+  @Override
+  public void toByteBuffer(ByteBuffer buffer, N node) throws IOException {
+    buffer.putInt(node.getPageID());
+    buffer.put((byte) (node.isLeaf() ? 1 : 0));
+    buffer.putInt(node.getNumEntries());
+    buffer.putInt(node.getCapacity());
+    for(int i = 0; i < node.getNumEntries(); i++) {
+      writeEntry(buffer, node.getEntry(i));
+    }
+  }
+
+  @Override
+  public int getByteSize(N node) throws IOException {
+    int size = HEADER_SIZE;
+    for(int i = 0; i < node.getNumEntries(); i++) {
+      size += getEntryByteSize(node.getEntry(i));
+    }
+    return size;
+  }
+
+  /**
+   * Read a leaf entry.
+   *
+   * @param buffer Buffer to read from
+   * @return Entry
+   * @throws IOException on decoding errors
+   */
+  protected abstract E readLeafEntry(ByteBuffer buffer) throws IOException;
+
+  /**
+   * Read a directory entry.
+   *
+   * @param buffer Buffer to read from
+   * @return Entry
+   * @throws IOException on decoding errors
+   */
+  protected abstract E readDirectoryEntry(ByteBuffer buffer) throws IOException;
+
+  /**
+   * Write an entry (leaf or directory).
+   *
+   * @param buffer Buffer to write to
+   * @param entry Entry to write
+   * @throws IOException on encoding errors
+   */
+  protected abstract void writeEntry(ByteBuffer buffer, E entry) throws IOException;
+
+  /**
+   * Size of an encoded entry.
+   *
+   * @param entry Entry
+   * @return Size in bytes
+   */
+  protected abstract int getEntryByteSize(E entry);
+
+  /**
+   * Factory for empty nodes.
+   *
+   * @author Erich Schubert
+   *
+   * @param <N> Node type
+   */
+  @FunctionalInterface
+  public interface NodeFactory<N> {
+    /**
+     * Create a new, empty node.
+     *
+     * @param capacity Node capacity
+     * @param isLeaf Leaf flag
+     * @return New node
+     */
+    N make(int capacity, boolean isLeaf);
+  }
+}
@@ -21,10 +21,15 @@
 package elki.persistent;
 
 import elki.logging.Logging;
+import elki.logging.statistics.AtomicLongCounter;
 import elki.logging.statistics.Counter;
+
 /**
  * Abstract base class for the page file API for both caches and true page files
  * (in-memory and on-disk).
+ * <p>
+ * Page files must allow concurrent calls to {@link #readPage}; the access
+ * counters are thread-safe for this reason.
  * 
  * @author Erich Schubert
  * @since 0.4.0
@@ -48,8 +53,8 @@ public abstract class AbstractPageFile<P extends Page> implements PageFile<P> {
   public AbstractPageFile() {
     super();
     Logging log = getLogger();
-    this.readAccess = log.isStatistics() ? log.newCounter(this.getClass().getName() + ".reads") : null;
-    this.writeAccess = log.isStatistics() ? log.newCounter(this.getClass().getName() + ".writes") : null;
+    this.readAccess = log.isStatistics() ? new AtomicLongCounter(this.getClass().getName() + ".reads") : null;
+    this.writeAccess = log.isStatistics() ? new AtomicLongCounter(this.getClass().getName() + ".writes") : null;
   }
 
   /**
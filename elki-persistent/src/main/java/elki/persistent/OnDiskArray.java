@@ -39,14 +39,18 @@ import elki.utilities.io.ByteArrayUtil;
  * This can be used to implement various fixed size record-based data
  * structures. The file format is designed to have a fixed-size header followed
  * by the actual data.
+ * <p>
+ * The data is memory mapped in segments of about 1 GB each (as
+ * {@link FileChannel#map} is limited to 2 GB), with records never crossing a
+ * segment boundary. The number of records is stored as an unsigned integer,
+ * hence files may hold up to 2<sup>32</sup>-1 records. When the file grows,
+ * only the last, partially filled, segment is remapped.
  * 
  * @author Erich Schubert
  * @since 0.2
  * 
  * @composed - - - RandomAccessFile
  */
-// TODO: ensure file doesn't become to big - check for overflows in recordsize *
-// numrecs + headersize
 public class OnDiskArray implements AutoCloseable {
   /**
    * Serial version.
@@ -76,7 +80,12 @@ public class OnDiskArray implements AutoCloseable {
   /**
    * Number of records in the file.
    */
-  private int numrecs;
+  private long numrecs;
+
+  /**
+   * Number of records per mapped segment.
+   */
+  private final long segmentrecs;
 
   /**
    * File name.
@@ -99,9 +108,12 @@ public class OnDiskArray implements AutoCloseable {
   private boolean writable;
 
   /**
-   * The memory mapped buffer.
+   * The memory mapped segments.
+   * <p>
+   * Volatile, because readers access it without locking. The array is
+   * replaced, never modified, when the file is resized.
    */
-  private MappedByteBuffer map;
+  private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
 
   /**
    * Size of the classes header size.
@@ -113,6 +125,16 @@ public class OnDiskArray implements AutoCloseable {
    */
   private static final int HEADER_POS_SIZE = 3 * ByteArrayUtil.SIZE_INT;
 
+  /**
+   * Default size of a mapped segment, in bytes.
+   */
+  private static final int SEGMENT_SIZE = 1 << 30;
+
+  /**
+   * Maximum number of records (stored as unsigned integer).
+   */
+  private static final long MAX_RECORDS = 0xFFFFFFFFL;
+
   /**
    * Constructor to write a new file.
    * 
@@ -123,12 +145,31 @@ public class OnDiskArray implements AutoCloseable {
    * @param initialsize Initial file size (in records)
    * @throws IOException on IO errors
    */
-  public OnDiskArray(Path filename, int magicseed, int extraheadersize, int recordsize, int initialsize) throws IOException {
+  public OnDiskArray(Path filename, int magicseed, int extraheadersize, int recordsize, long initialsize) throws IOException {
+    this(filename, magicseed, extraheadersize, recordsize, initialsize, SEGMENT_SIZE);
+  }
+
+  /**
+   * Constructor to write a new file, with a custom segment size.
+   * 
+   * @param filename File name to be opened.
+   * @param magicseed Magic number to derive real magic from.
+   * @param extraheadersize header size NOT including the internal header
+   * @param recordsize Record size
+   * @param initialsize Initial file size (in records)
+   * @param segmentsize Maximum size of a mapped segment in bytes
+   * @throws IOException on IO errors
+   */
+  OnDiskArray(Path filename, int magicseed, int extraheadersize, int recordsize, long initialsize, int segmentsize) throws IOException {
     this.magic = mixMagic((int) serialVersionUID, magicseed);
     this.headersize = extraheadersize + INTERNAL_HEADER_SIZE;
     this.recordsize = recordsize;
+    this.segmentrecs = Math.max(1, segmentsize / recordsize);
     this.filename = filename;
     this.writable = true;
+    if(initialsize < 0 || initialsize > MAX_RECORDS) {
+      throw new IOException("Invalid number of records: " + initialsize);
+    }
 
     // do not allow overwriting, unless empty (for pre-created temp files)
     if(Files.exists(filename) && Files.size(filename) != 0) {
@@ -144,7 +185,7 @@ public class OnDiskArray implements AutoCloseable {
     bbuf.putInt(this.magic) // write magic header
         .putInt(this.headersize) // write header size
         .putInt(this.recordsize) // write size of a single record
-        .putInt(initialsize) // write number of records
+        .putInt((int) initialsize) // write number of records (unsigned)
         .flip();
     file.write(bbuf, 0);
     // resize file
@@ -179,6 +220,7 @@ public class OnDiskArray implements AutoCloseable {
     lock = writable ? file.lock() : null;
 
     validateHeader(true);
+    this.segmentrecs = Math.max(1, SEGMENT_SIZE / recordsize);
     mapArray();
   }
 
@@ -204,25 +246,38 @@ public class OnDiskArray implements AutoCloseable {
     lock = writable ? file.lock() : null;
 
     validateHeader(false);
+    this.segmentrecs = Math.max(1, SEGMENT_SIZE / recordsize);
     mapArray();
   }
 
   /**
    * (Re-) map the data array.
+   * <p>
+   * Complete segments that are already mapped are kept; only the last segment
+   * and new segments are mapped.
    * 
    * @throws IOException on mapping error.
    */
   private synchronized void mapArray() throws IOException {
-    if(map != null) {
-      map.force();
-      map = null;
-    }
+    final MappedByteBuffer[] old = segments;
+    final int nseg = (int) ((numrecs + segmentrecs - 1) / segmentrecs);
+    final long segbytes = segmentrecs * recordsize;
+    MappedByteBuffer[] segs = new MappedByteBuffer[nseg];
     MapMode mode = writable ? MapMode.READ_WRITE : MapMode.READ_ONLY;
-    long size = recordsize * (long) numrecs;
-    if(size > Integer.MAX_VALUE) {
-      throw new ArrayIndexOutOfBoundsException("OnDiskArray currently has a maximum size of: " + Integer.MAX_VALUE + " (see Java FileChannel#map).");
+    for(int i = 0; i < nseg; i++) {
+      final long size = Math.min(numrecs - i * segmentrecs, segmentrecs) * recordsize;
+      if(i < old.length && old[i].capacity() == size) {
+        segs[i] = old[i]; // Reuse unchanged segment
+        continue;
+      }
+      segs[i] = file.map(mode, headersize + i * segbytes, size);
+    }
+    for(int i = 0; i < old.length; i++) {
+      if(i >= nseg || segs[i] != old[i]) {
+        old[i].force();
+      }
     }
-    map = file.map(mode, headersize, size);
+    segments = segs;
   }
 
   /**
@@ -265,7 +320,7 @@ public class OnDiskArray implements AutoCloseable {
     }
 
     // read the number of records and validate with file size.
-    this.numrecs = bbuf.getInt();
+    this.numrecs = Integer.toUnsignedLong(bbuf.getInt());
     if(numrecs < 0 || file.size() != indexToFileposition(numrecs)) {
       throw new IOException("File size and number of records do not agree.");
     }
@@ -300,14 +355,17 @@ public class OnDiskArray implements AutoCloseable {
    * @param newsize New file size.
    * @throws IOException on IO errors
    */
-  public synchronized void resizeFile(int newsize) throws IOException {
+  public synchronized void resizeFile(long newsize) throws IOException {
     if(!writable) {
       throw new IOException("File is not writeable!");
     }
+    if(newsize < 0 || newsize > MAX_RECORDS) {
+      throw new IOException("Invalid number of records: " + newsize);
+    }
     // update the number of records
     this.numrecs = newsize;
     ByteBuffer bbuf = ByteBuffer.allocateDirect(4);
-    bbuf.putInt(numrecs).flip();
+    bbuf.putInt((int) numrecs).flip();
     file.write(bbuf, HEADER_POS_SIZE);
 
     // resize file
@@ -317,21 +375,26 @@ public class OnDiskArray implements AutoCloseable {
 
   /**
    * Get a record buffer
+   * <p>
+   * This method does not lock: it operates on a private duplicate of the
+   * mapping, so concurrent readers do not interfere with each other.
    * 
    * @param index Record index
    * @return Byte buffer for the record
    * @throws IOException on IO errors
    */
-  public synchronized ByteBuffer getRecordBuffer(int index) throws IOException {
-    if(index < 0 || index >= numrecs) {
+  public ByteBuffer getRecordBuffer(long index) throws IOException {
+    final MappedByteBuffer[] segs = segments;
+    final int seg = (int) (index / segmentrecs);
+    if(index < 0 || seg >= segs.length || index >= numrecs) {
       throw new IOException("Access beyond end of file.");
     }
-    // Adjust buffer view
-    synchronized(map) {
-      map.limit(recordsize * (index + 1));
-      map.position(recordsize * index);
-      return map.slice();
-    }
+    final int off = (int) (index - seg * segmentrecs) * recordsize;
+    // Adjust buffer view, on a duplicate to not modify the shared buffer
+    ByteBuffer buf = segs[seg].duplicate();
+    buf.limit(off + recordsize);
+    buf.position(off);
+    return buf.slice();
   }
 
   /**
@@ -390,10 +453,10 @@ public class OnDiskArray implements AutoCloseable {
    */
   public synchronized void close() throws IOException {
     writable = false;
-    if(map != null) {
-      map.force();
-      map = null;
+    for(MappedByteBuffer seg : segments) {
+      seg.force();
     }
+    segments = new MappedByteBuffer[0];
     if(lock != null) {
       lock.release();
       lock = null;
@@ -406,7 +469,7 @@ public class OnDiskArray implements AutoCloseable {
    * 
    * @return Number of records in the file.
    */
-  public int getNumRecords() {
+  public long getNumRecords() {
     return numrecs;
   }
 
@@ -416,7 +479,7 @@ public class OnDiskArray implements AutoCloseable {
    * @param size Size
    * @throws IOException
    */
-  public void ensureSize(int size) throws IOException {
+  public void ensureSize(long size) throws IOException {
     if(size > getNumRecords()) {
       resizeFile(size);
     }
@@ -27,6 +27,8 @@ import java.nio.file.Path;
 /**
  * Class representing an upper triangle matrix backed by an on-disk array of
  * O((n+1)*n/2) size
+ * <p>
+ * As the backing array is mapped in segments, the matrix may exceed 2 GB.
  *
  * @composed - - - OnDiskArray
  *
@@ -44,6 +46,11 @@ public class OnDiskUpperTriangleMatrix implements AutoCloseable {
    */
   private static final int TRIANGLE_HEADER_SIZE = 4;
 
+  /**
+   * Maximum matrix size, such that the number of records fits into the array.
+   */
+  private static final int MAX_MATRIX_SIZE = 92681;
+
   /**
    * Size of the matrix
    */
@@ -84,8 +91,8 @@ public class OnDiskUpperTriangleMatrix implements AutoCloseable {
    * @throws IOException on IO errors
    */
   public OnDiskUpperTriangleMatrix(Path filename, int magicseed, int extraheadersize, int recordsize, int matrixsize) throws IOException {
-    if(matrixsize >= 0xFFFF) {
-      throw new RuntimeException("Matrix size is too big and will overflow the integer datatype.");
+    if(matrixsize > MAX_MATRIX_SIZE) {
+      throw new RuntimeException("Matrix size is too big, the maximum supported size is " + MAX_MATRIX_SIZE);
     }
     this.matrixsize = matrixsize;
     array = new OnDiskArray(filename, OnDiskArray.mixMagic((int) serialVersionUID, magicseed), extraheadersize + TRIANGLE_HEADER_SIZE, recordsize, arraysize(matrixsize));
@@ -100,8 +107,8 @@ public class OnDiskUpperTriangleMatrix implements AutoCloseable {
    * @throws IOException on IO errors
    */
   public synchronized void resizeMatrix(int newsize) throws IOException {
-    if(newsize >= 0xFFFF) {
-      throw new RuntimeException("Matrix size is too big and will overflow the integer datatype.");
+    if(newsize > MAX_MATRIX_SIZE) {
+      throw new RuntimeException("Matrix size is too big, the maximum supported size is " + MAX_MATRIX_SIZE);
     }
     if(!array.isWritable()) {
       throw new IOException("Can't resize a read-only array.");
@@ -118,8 +125,8 @@ public class OnDiskUpperTriangleMatrix implements AutoCloseable {
    * @param matrixsize size of the matrix
    * @return size of the array
    */
-  private static int arraysize(int matrixsize) {
-    return (matrixsize * (matrixsize + 1)) >> 1;
+  private static long arraysize(int matrixsize) {
+    return (matrixsize * (matrixsize + 1L)) >>> 1;
   }
 
   /**
@@ -129,8 +136,8 @@ public class OnDiskUpperTriangleMatrix implements AutoCloseable {
    * @param y Second coordinate
    * @return Linear offset
    */
-  private int computeOffset(int x, int y) {
-    return y > x ? ((y * (y + 1)) >>> 1) + x : ((x * (x + 1)) >>> 1) + y;
+  private static long computeOffset(int x, int y) {
+    return y > x ? ((y * (y + 1L)) >>> 1) + x : ((x * (x + 1L)) >>> 1) + y;
   }
 
   /**
@@ -141,7 +148,7 @@ public class OnDiskUpperTriangleMatrix implements AutoCloseable {
    * @return Byte buffer for the record
    * @throws IOException on IO errors
    */
-  public synchronized ByteBuffer getRecordBuffer(int x, int y) throws IOException {
+  public ByteBuffer getRecordBuffer(int x, int y) throws IOException {
     if(x >= matrixsize || y >= matrixsize) {
       throw new ArrayIndexOutOfBoundsException();
     }
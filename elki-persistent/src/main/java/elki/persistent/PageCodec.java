@@ -0,0 +1,39 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.persistent;
+
+import elki.utilities.io.ByteBufferSerializer;
+
+/**
+ * Binary codec for pages, as an efficient alternative to Java serialization.
+ * <p>
+ * Implementations read and write pages directly from and to byte buffers, so
+ * that loading a page does not require object streams and reflection.
+ * The encoded size of a page must not exceed the page size of the page file.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @param <P> Page type
+ */
+public interface PageCodec<P extends Page> extends ByteBufferSerializer<P> {
+  // Currently no additional methods.
+}
@@ -36,6 +36,19 @@ public interface PageFileFactory<P extends Page> {
    * @return Page file
    */
   PageFile<P> newPageFile(Class<P> cls);
+
+  /**
+   * Make a new page file, using a binary page codec where supported.
+   * <p>
+   * Page files that do not need to serialize pages ignore the codec.
+   * 
+   * @param cls Page class
+   * @param codec Page codec
+   * @return Page file
+   */
+  default PageFile<P> newPageFile(Class<P> cls, PageCodec<P> codec) {
+    return newPageFile(cls);
+  }
   
   /**
    * Query the page size.
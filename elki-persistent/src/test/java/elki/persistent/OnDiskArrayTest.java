@@ -93,4 +93,40 @@ public class OnDiskArrayTest {
     Files.delete(file); // Note: probably fails on Windows.
     // We cannot reliably delete mmaped files on Windows, apparently.
   }
+
+  /**
+   * Test with tiny segments, to exercise the segmented mapping.
+   *
+   * @throws IOException on errors.
+   */
+  @Test
+  public void testSegmented() throws IOException {
+    Path file = Files.createTempFile("ELKIUnitTest", null);
+    file.toFile().deleteOnExit();
+
+    final int recsize = 4, numrec = 100;
+    // Segments of 10 bytes hold 2 records each:
+    OnDiskArray array = new OnDiskArray(file, 1, 0, recsize, 7, 10);
+    for(int i = 0; i < 7; i++) {
+      array.getRecordBuffer(i).putInt(i * 31);
+    }
+    // Grow, and fill the remainder:
+    array.ensureSize(numrec);
+    for(int i = 7; i < numrec; i++) {
+      array.getRecordBuffer(i).putInt(i * 31);
+    }
+    for(int i = 0; i < numrec; i++) {
+      assertEquals("Record " + i + " doesn't match.", i * 31, array.getRecordBuffer(i).getInt());
+    }
+    array.close();
+
+    OnDiskArray roarray = new OnDiskArray(file, 1, 0, recsize, false);
+    assertEquals("Number of records incorrect.", numrec, roarray.getNumRecords());
+    for(int i = 0; i < numrec; i++) {
+      assertEquals("Record " + i + " doesn't match.", i * 31, roarray.getRecordBuffer(i).getInt());
+    }
+    roarray.close();
+
+    Files.delete(file);
+  }
 }
@@ -104,12 +104,13 @@ public class CacheFloatDistanceInOnDiskMatrix<O> extends AbstractApplication {
     DBIDRange ids = DBIDUtil.assertRange(relation.getDBIDs());
     int size = ids.size();
 
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Precomputing distances", (int) (((size + 1) * (long) size) >>> 1), LOG) : null;
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Precomputing distances", size, LOG) : null;
     try (OnDiskUpperTriangleMatrix matrix = //
         new OnDiskUpperTriangleMatrix(out, DiskCacheBasedFloatDistance.FLOAT_CACHE_MAGIC, 0, ByteArrayUtil.SIZE_FLOAT, size)) {
       DBIDArrayIter id1 = ids.iter(), id2 = ids.iter();
-      for(; id1.valid(); id1.advance()) {
-        for(id2.seek(id1.getOffset()); id2.valid(); id2.advance()) {
+      // Fill the matrix column by column, which is the file order:
+      for(; id2.valid(); id2.advance()) {
+        for(id1.seek(0); id1.getOffset() <= id2.getOffset(); id1.advance()) {
           float d = (float) distanceQuery.distance(id1, id2);
           if(debugExtraCheckSymmetry) {
             float d2 = (float) distanceQuery.distance(id2, id1);
@@ -124,9 +125,7 @@ public class CacheFloatDistanceInOnDiskMatrix<O> extends AbstractApplication {
             throw new AbortException("Error writing distance record " + DBIDUtil.toString(id1) + "," + DBIDUtil.toString(id2) + " to matrix.", e);
           }
         }
-        if(prog != null) {
-          prog.setProcessed(prog.getProcessed() + (size - id1.getOffset()), LOG);
-        }
+        LOG.incrementProcessed(prog);
       }
     }
     catch(IOException e) {
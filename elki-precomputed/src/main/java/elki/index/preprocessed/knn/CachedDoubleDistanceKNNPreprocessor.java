@@ -29,8 +29,10 @@ import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 
 import elki.application.cache.CacheDoubleDistanceKNNLists;
+import elki.database.ids.DBIDFactory;
 import elki.database.ids.DBIDIter;
 import elki.database.ids.DBIDUtil;
+import elki.database.ids.DBIDVar;
 import elki.database.ids.KNNHeap;
 import elki.database.relation.Relation;
 import elki.distance.Distance;
@@ -40,9 +42,14 @@ import elki.utilities.io.ByteArrayUtil;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.parameterization.Parameterization;
 import elki.utilities.optionhandling.parameters.FileParameter;
+import elki.utilities.optionhandling.parameters.Flag;
 
 /**
  * Preprocessor that loads an existing cached kNN result.
+ * <p>
+ * The cache file is memory-mapped; with the packed layout (see
+ * {@link PackedKNNStore}) the lists are decoded directly into the flat
+ * arrays, without creating intermediate list objects.
  *
  * @author Erich Schubert
  * @since 0.6.0
@@ -64,7 +71,22 @@ public class CachedDoubleDistanceKNNPreprocessor<O> extends AbstractMaterializeK
    * @param file File to load
    */
   public CachedDoubleDistanceKNNPreprocessor(Relation<O> relation, Distance<? super O> distance, int k, Path file) {
-    super(relation, distance, k);
+    this(relation, distance, k, file, false, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param relation Relation to index
+   * @param distance Distance function
+   * @param k K
+   * @param file File to load
+   * @param packed Use the packed storage layout
+   * @param singlePrecision Store distances with single precision (packed
+   *        layout only)
+   */
+  public CachedDoubleDistanceKNNPreprocessor(Relation<O> relation, Distance<? super O> distance, int k, Path file, boolean packed, boolean singlePrecision) {
+    super(relation, distance, k, packed, singlePrecision);
     this.filename = file;
   }
 
@@ -85,25 +107,44 @@ public class CachedDoubleDistanceKNNPreprocessor<O> extends AbstractMaterializeK
       if(header != CacheDoubleDistanceKNNLists.KNN_CACHE_MAGIC) {
         throw new AbortException("Cache magic number does not match.");
       }
+      PackedKNNStore pstorage = storage instanceof PackedKNNStore ? (PackedKNNStore) storage : null;
+      DBIDVar id = DBIDUtil.newVar(), nid = DBIDUtil.newVar();
       for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
-        int dbid = ByteArrayUtil.readUnsignedVarint(buffer);
+        DBIDFactory.FACTORY.assignVar(id, ByteArrayUtil.readUnsignedVarint(buffer));
         int nnsize = ByteArrayUtil.readUnsignedVarint(buffer);
         if(nnsize < k) {
           throw new AbortException("kNN cache contains fewer than k objects!");
         }
+        if(pstorage != null) {
+          // Decode directly into the packed storage, keeping k and ties.
+          pstorage.startList(id);
+          double prev = Double.NEGATIVE_INFINITY;
+          for(int i = 0; i < nnsize; i++) {
+            DBIDFactory.FACTORY.assignVar(nid, ByteArrayUtil.readUnsignedVarint(buffer));
+            double dist = buffer.getDouble();
+            if(dist < prev) {
+              throw new AbortException("kNN cache is not sorted by distance.");
+            }
+            if(i < k || dist <= prev) {
+              pstorage.addNeighbor(nid, prev = dist);
+            }
+          }
+          pstorage.finishList();
+          continue;
+        }
         // FIXME: avoid the KNNHeap to KNNList roundtrip.
-        // FIXME: use a DBIDVar instead of importInteger.
         KNNHeap knn = DBIDUtil.newHeap(k);
         for(int i = 0; i < nnsize; i++) {
-          int nid = ByteArrayUtil.readUnsignedVarint(buffer);
+          DBIDFactory.FACTORY.assignVar(nid, ByteArrayUtil.readUnsignedVarint(buffer));
           double dist = buffer.getDouble();
-          knn.insert(dist, DBIDUtil.importInteger(nid));
+          knn.insert(dist, nid);
         }
-        storage.put(DBIDUtil.importInteger(dbid), knn.toKNNList());
+        storage.put(id, knn.toKNNList());
       }
       if(buffer.hasRemaining()) {
         LOG.warning("kNN cache has " + buffer.remaining() + " bytes remaining!");
       }
+      compactStorage();
     }
     catch(IOException e) {
       throw new AbortException("I/O error in loading kNN cache: " + e.getMessage(), e);
@@ -132,6 +173,16 @@ public class CachedDoubleDistanceKNNPreprocessor<O> extends AbstractMaterializeK
      */
     private Path filename;
 
+    /**
+     * Use the packed storage layout.
+     */
+    private boolean packed;
+
+    /**
+     * Store distances with single precision.
+     */
+    private boolean singlePrecision;
+
     /**
      * Index factory.
      *
@@ -140,13 +191,29 @@ public class CachedDoubleDistanceKNNPreprocessor<O> extends AbstractMaterializeK
      * @param filename Cache file
      */
     public Factory(int k, Distance<? super O> distance, Path filename) {
+      this(k, distance, filename, false, false);
+    }
+
+    /**
+     * Index factory.
+     *
+     * @param k k parameter
+     * @param distance distance function
+     * @param filename Cache file
+     * @param packed Use the packed storage layout
+     * @param singlePrecision Store distances with single precision (packed
+     *        layout only)
+     */
+    public Factory(int k, Distance<? super O> distance, Path filename, boolean packed, boolean singlePrecision) {
       super(k, distance);
       this.filename = filename;
+      this.packed = packed;
+      this.singlePrecision = singlePrecision;
     }
 
     @Override
     public CachedDoubleDistanceKNNPreprocessor<O> instantiate(Relation<O> relation) {
-      CachedDoubleDistanceKNNPreprocessor<O> instance = new CachedDoubleDistanceKNNPreprocessor<>(relation, distance, k, filename);
+      CachedDoubleDistanceKNNPreprocessor<O> instance = new CachedDoubleDistanceKNNPreprocessor<>(relation, distance, k, filename, packed, singlePrecision);
       return instance;
     }
 
@@ -166,17 +233,31 @@ public class CachedDoubleDistanceKNNPreprocessor<O> extends AbstractMaterializeK
        */
       private Path filename;
 
+      /**
+       * Use the packed storage layout.
+       */
+      private boolean packed;
+
+      /**
+       * Store distances with single precision.
+       */
+      private boolean singlePrecision;
+
       @Override
       public void configure(Parameterization config) {
         super.configure(config);
         // Input file parameter
         new FileParameter(CACHE_ID, FileParameter.FileType.INPUT_FILE) //
             .grab(config, x -> filename = Paths.get(x));
+        new Flag(PACKED_ID).grab(config, x -> packed = x);
+        if(packed) {
+          new Flag(SINGLE_PRECISION_ID).grab(config, x -> singlePrecision = x);
+        }
       }
 
       @Override
       public Factory<O> make() {
-        return new Factory<>(k, distance, filename);
+        return new Factory<>(k, distance, filename, packed, singlePrecision);
       }
     }
   }
@@ -0,0 +1,84 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.preprocessed.knn;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.Test;
+
+import elki.application.cache.CacheDoubleDistanceKNNLists;
+import elki.data.NumberVector;
+import elki.data.type.TypeUtil;
+import elki.database.Database;
+import elki.database.StaticArrayDatabase;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DoubleDBIDListIter;
+import elki.database.ids.KNNList;
+import elki.database.relation.Relation;
+import elki.datasource.ArrayAdapterDatabaseConnection;
+import elki.distance.minkowski.EuclideanDistance;
+
+/**
+ * Unit test for loading cached kNN lists.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class CachedDoubleDistanceKNNPreprocessorTest {
+  @Test
+  public void testPacked() throws IOException {
+    Random rnd = new Random(0L);
+    double[][] data = new double[300][2];
+    for(double[] row : data) {
+      row[0] = rnd.nextInt(20);
+      row[1] = rnd.nextInt(20);
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data));
+    Path file = Files.createTempFile("knncache", ".bin");
+    try {
+      new CacheDoubleDistanceKNNLists<NumberVector>(db, EuclideanDistance.STATIC, 10, file).run();
+      Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+      CachedDoubleDistanceKNNPreprocessor<NumberVector> exp = new CachedDoubleDistanceKNNPreprocessor<>(rel, EuclideanDistance.STATIC, 5, file);
+      CachedDoubleDistanceKNNPreprocessor<NumberVector> packed = new CachedDoubleDistanceKNNPreprocessor<>(rel, EuclideanDistance.STATIC, 5, file, true, false);
+      exp.initialize();
+      packed.initialize();
+      assertTrue("Not packed.", packed.storage instanceof PackedKNNStore);
+      for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+        KNNList e = exp.get(it), res = packed.get(it);
+        assertEquals("Sizes do not agree.", e.size(), res.size());
+        assertEquals("kNN distances do not agree.", e.getKNNDistance(), res.getKNNDistance(), 0.);
+        for(DoubleDBIDListIter a = e.iter(), b = res.iter(); a.valid(); a.advance(), b.advance()) {
+          assertEquals("Distances do not agree.", a.doubleValue(), b.doubleValue(), 0.);
+          assertTrue("Neighbor not found.", DBIDUtil.equal(a, b) || res.contains(a));
+        }
+      }
+    }
+    finally {
+      Files.delete(file);
+    }
+  }
+}
@@ -22,10 +22,13 @@ package elki.algorithm;
 
 import static org.junit.Assert.*;
 
+import java.util.Random;
+
 import elki.data.type.TypeUtil;
 import elki.database.Database;
 import elki.database.StaticArrayDatabase;
 import elki.datasource.AbstractDatabaseConnection;
+import elki.datasource.ArrayAdapterDatabaseConnection;
 import elki.datasource.FileBasedDatabaseConnection;
 import elki.datasource.filter.FixedDBIDsFilter;
 import elki.utilities.ClassGenericsUtil;
@@ -88,4 +91,49 @@ public abstract class AbstractSimpleAlgorithmTest {
     }
     return db;
   }
+
+  /**
+   * Generate a random database of Gaussian clusters, for tests that need more
+   * objects than the unit test files provide.
+   *
+   * @param size Number of objects
+   * @param dim Dimensionality
+   * @param clusters Number of clusters, with centers in [0;10]
+   * @param seed Random seed
+   * @return Database
+   */
+  public static Database makeRandomDatabase(int size, int dim, int clusters, long seed) {
+    // Use fixed DBIDs, as above.
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(makeRandomData(size, dim, clusters, seed), null, 1), null);
+    db.initialize();
+    return db;
+  }
+
+  /**
+   * Generate random data of Gaussian clusters, as used by
+   * {@link #makeRandomDatabase}.
+   *
+   * @param size Number of objects
+   * @param dim Dimensionality
+   * @param clusters Number of clusters, with centers in [0;10]
+   * @param seed Random seed
+   * @return Data
+   */
+  public static double[][] makeRandomData(int size, int dim, int clusters, long seed) {
+    Random rnd = new Random(seed);
+    double[][] centers = new double[clusters][dim];
+    for(double[] c : centers) {
+      for(int d = 0; d < dim; d++) {
+        c[d] = rnd.nextDouble() * 10;
+      }
+    }
+    double[][] data = new double[size][dim];
+    for(double[] v : data) {
+      double[] c = centers[rnd.nextInt(clusters)];
+      for(int d = 0; d < dim; d++) {
+        v[d] = c[d] + rnd.nextGaussian();
+      }
+    }
+    return data;
+  }
 }
@@ -29,6 +29,7 @@ import elki.data.DoubleVector;
 import elki.data.type.TypeUtil;
 import elki.database.Database;
 import elki.database.StaticArrayDatabase;
+import elki.database.datastore.WritableDataStore;
 import elki.database.ids.*;
 import elki.database.query.ExactPrioritySearcher;
 import elki.database.query.PrioritySearcher;
@@ -42,6 +43,8 @@ import elki.datasource.ArrayAdapterDatabaseConnection;
 import elki.datasource.filter.FixedDBIDsFilter;
 import elki.distance.CosineDistance;
 import elki.distance.minkowski.EuclideanDistance;
+import elki.result.Metadata;
+import elki.utilities.datastructures.iterator.It;
 import elki.utilities.optionhandling.parameterization.ListParameterization;
 
 /**
@@ -434,4 +437,33 @@ public abstract class AbstractIndexStructureTest {
       assertEquals("Incomplete results.", relation.size(), c);
     }
   }
+
+  /**
+   * Test helper for all-kNN self-joins, verified against a linear scan.
+   *
+   * @param factory Index factory
+   */
+  protected static void assertSelfJoinEuclidean(IndexFactory<?> factory) {
+    ListParameterization inputparams = new ListParameterization() //
+        .addParameter(StaticArrayDatabase.Par.INDEX_ID, factory);
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(dataset, shoulds, inputparams);
+    Relation<DoubleVector> relation = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    DistanceQuery<DoubleVector> dist = new QueryBuilder<>(relation, EuclideanDistance.STATIC).distanceQuery();
+    @SuppressWarnings("unchecked")
+    It<KNNSelfJoinIndex<DoubleVector>> it = Metadata.hierarchyOf(relation).iterChildren().filter(KNNSelfJoinIndex.class);
+    assertTrue("No self-join index found.", it.valid());
+    WritableDataStore<KNNList> result = it.get().kNNSelfJoin(dist, k);
+    assertNotNull("Self-join not supported.", result);
+    for(DBIDIter q = relation.iterDBIDs(); q.valid(); q.advance()) {
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      for(DBIDIter r = relation.iterDBIDs(); r.valid(); r.advance()) {
+        heap.insert(dist.distance(q, r), r);
+      }
+      KNNList exp = heap.toKNNList(), res = result.get(q);
+      assertEquals("kNN sizes do not agree.", exp.size(), res.size());
+      for(DoubleDBIDListIter a = exp.iter(), b = res.iter(); a.valid(); a.advance(), b.advance()) {
+        assertEquals("kNN distances do not agree.", a.doubleValue(), b.doubleValue(), 1e-12);
+      }
+    }
+  }
 }
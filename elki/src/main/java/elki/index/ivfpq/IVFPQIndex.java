@@ -0,0 +1,640 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.ivfpq;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import elki.clustering.kmeans.KMeans;
+import elki.clustering.kmeans.LloydKMeans;
+import elki.data.Cluster;
+import elki.data.NumberVector;
+import elki.data.type.TypeInformation;
+import elki.data.type.TypeUtil;
+import elki.database.datastore.DataStoreFactory;
+import elki.database.datastore.DataStoreUtil;
+import elki.database.datastore.WritableIntegerDataStore;
+import elki.database.ids.*;
+import elki.database.query.QueryBuilder;
+import elki.database.query.distance.DistanceQuery;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.relation.Relation;
+import elki.database.relation.RelationUtil;
+import elki.distance.Distance;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.distance.minkowski.SquaredEuclideanDistance;
+import elki.index.AbstractRefiningIndex;
+import elki.index.IndexFactory;
+import elki.index.KNNIndex;
+import elki.logging.Logging;
+import elki.logging.statistics.DoubleStatistic;
+import elki.logging.statistics.LongStatistic;
+import elki.math.MeanVarianceMinMax;
+import elki.math.linearalgebra.Centroid;
+import elki.utilities.documentation.Reference;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.Parameterizer;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.constraints.LessEqualConstraint;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.IntParameter;
+import elki.utilities.optionhandling.parameters.ObjectParameter;
+import elki.utilities.optionhandling.parameters.RandomParameter;
+import elki.utilities.pairs.DoubleIntPair;
+import elki.utilities.random.RandomFactory;
+
+/**
+ * Inverted file index with product quantization (IVF-PQ).
+ * <p>
+ * The data is partitioned with a k-means clustering (the coarse quantizer).
+ * The residual of every vector with respect to its cluster center is split
+ * into {@code m} subspaces, each of which is quantized to one of (at most) 256
+ * codewords, so that every vector is stored as {@code m} bytes only.
+ * <p>
+ * Queries probe the {@code nprobe} closest clusters, and estimate distances
+ * using asymmetric distance computation: the distances of the query residual
+ * to all codewords are precomputed in small tables, and the distance to a
+ * vector is the sum of {@code m} table lookups. Optionally, a multiple of the
+ * requested number of neighbors is re-ranked using exact distances.
+ * <p>
+ * This index is approximate, and only supports (squared) Euclidean distance.
+ * <p>
+ * Reference:
+ * <p>
+ * H. Jégou, M. Douze, C. Schmid<br>
+ * Product Quantization for Nearest Neighbor Search<br>
+ * IEEE Transactions on Pattern Analysis and Machine Intelligence 33(1)
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @has - - - IVFPQKNNSearcher
+ *
+ * @param <V> Vector type
+ */
+@Reference(authors = "H. Jégou, M. Douze, C. Schmid", //
+    title = "Product Quantization for Nearest Neighbor Search", //
+    booktitle = "IEEE Transactions on Pattern Analysis and Machine Intelligence 33(1)", //
+    url = "https://doi.org/10.1109/TPAMI.2010.57", //
+    bibkey = "DBLP:journals/pami/JegouDS11")
+public class IVFPQIndex<V extends NumberVector> extends AbstractRefiningIndex<V> implements KNNIndex<V> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(IVFPQIndex.class);
+
+  /**
+   * Number of training samples per codeword.
+   */
+  private static final int SAMPLES_PER_CODEWORD = 256;
+
+  /**
+   * Maximum number of iterations for training the codebooks.
+   */
+  private static final int MAXITER = 25;
+
+  /**
+   * Coarse quantizer.
+   */
+  private KMeans<V, ?> coarse;
+
+  /**
+   * Number of subquantizers.
+   */
+  private int m;
+
+  /**
+   * Number of codewords per subquantizer.
+   */
+  private int ksub;
+
+  /**
+   * Number of lists to probe.
+   */
+  private int nprobe;
+
+  /**
+   * Re-ranking factor, 0 to disable.
+   */
+  private int rerank;
+
+  /**
+   * Random generator for sampling.
+   */
+  private RandomFactory rnd;
+
+  /**
+   * Centers of the coarse quantizer.
+   */
+  private double[][] centroids;
+
+  /**
+   * Subspace boundaries, of length {@code m+1}.
+   */
+  private int[] split;
+
+  /**
+   * Codebooks of the subquantizers, one flat array per subspace.
+   */
+  private double[][] codebooks;
+
+  /**
+   * Objects in each inverted list.
+   */
+  private ArrayDBIDs[] lists;
+
+  /**
+   * Codes of each inverted list, {@code m} bytes per object.
+   */
+  private byte[][] codes;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param coarse Coarse quantizer
+   * @param m Number of subquantizers
+   * @param ksub Number of codewords per subquantizer
+   * @param nprobe Number of lists to probe
+   * @param rerank Re-ranking factor, 0 to disable
+   * @param rnd Random generator
+   */
+  public IVFPQIndex(Relation<V> relation, KMeans<V, ?> coarse, int m, int ksub, int nprobe, int rerank, RandomFactory rnd) {
+    super(relation);
+    this.coarse = coarse;
+    this.m = m;
+    this.ksub = ksub;
+    this.nprobe = nprobe;
+    this.rerank = rerank;
+    this.rnd = rnd;
+  }
+
+  @Override
+  public void initialize() {
+    final int dim = RelationUtil.dimensionality(relation);
+    // Coarse quantization
+    List<? extends Cluster<?>> clusters = coarse.run(relation).getAllClusters();
+    List<double[]> cs = new ArrayList<>(clusters.size());
+    List<ArrayDBIDs> ls = new ArrayList<>(clusters.size());
+    for(Cluster<?> c : clusters) {
+      if(c.size() > 0) {
+        ls.add(DBIDUtil.newArray(c.getIDs()));
+        cs.add(Centroid.make(relation, c.getIDs()).toArray());
+      }
+    }
+    centroids = cs.toArray(new double[cs.size()][]);
+    lists = ls.toArray(new ArrayDBIDs[ls.size()]);
+
+    // Subspaces
+    final int nsub = Math.max(1, Math.min(m, dim));
+    split = new int[nsub + 1];
+    for(int j = 0; j <= nsub; j++) {
+      split[j] = (int) ((j * (long) dim) / nsub);
+    }
+
+    // Train the subquantizers on a sample of residuals
+    WritableIntegerDataStore assignment = DataStoreUtil.makeIntegerStorage(relation.getDBIDs(), DataStoreFactory.HINT_TEMP, -1);
+    for(int l = 0; l < lists.length; l++) {
+      for(DBIDIter it = lists[l].iter(); it.valid(); it.advance()) {
+        assignment.putInt(it, l);
+      }
+    }
+    DBIDs sample = DBIDUtil.randomSample(relation.getDBIDs(), Math.min(relation.size(), SAMPLES_PER_CODEWORD * ksub), rnd);
+    double[][] residuals = new double[sample.size()][];
+    int i = 0;
+    for(DBIDIter it = sample.iter(); it.valid(); it.advance(), i++) {
+      residuals[i] = residual(relation.get(it), centroids[assignment.intValue(it)], new double[dim]);
+    }
+    assignment.destroy();
+    codebooks = new double[nsub][];
+    for(int j = 0; j < nsub; j++) {
+      codebooks[j] = train(residuals, split[j], split[j + 1], ksub);
+    }
+
+    // Encode all objects
+    codes = new byte[lists.length][];
+    double[] buf = new double[dim];
+    for(int l = 0; l < lists.length; l++) {
+      byte[] code = codes[l] = new byte[lists[l].size() * nsub];
+      int off = 0;
+      for(DBIDIter it = lists[l].iter(); it.valid(); it.advance(), off += nsub) {
+        residual(relation.get(it), centroids[l], buf);
+        for(int j = 0; j < nsub; j++) {
+          code[off + j] = (byte) nearest(codebooks[j], buf, split[j], split[j + 1]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Compute the residual of a vector.
+   *
+   * @param v Vector
+   * @param center Cluster center
+   * @param buf Output buffer
+   * @return Output buffer
+   */
+  private static double[] residual(NumberVector v, double[] center, double[] buf) {
+    for(int d = 0; d < buf.length; d++) {
+      buf[d] = v.doubleValue(d) - center[d];
+    }
+    return buf;
+  }
+
+  /**
+   * Find the nearest codeword.
+   *
+   * @param codebook Codebook
+   * @param vec Vector
+   * @param begin First dimension of the subspace
+   * @param end End of the subspace (exclusive)
+   * @return Index of the nearest codeword
+   */
+  private static int nearest(double[] codebook, double[] vec, int begin, int end) {
+    final int dsub = end - begin;
+    double best = Double.POSITIVE_INFINITY;
+    int besti = 0;
+    for(int c = 0, off = 0; off < codebook.length; c++, off += dsub) {
+      double dist = 0.;
+      for(int d = 0; d < dsub && dist < best; d++) {
+        final double v = vec[begin + d] - codebook[off + d];
+        dist += v * v;
+      }
+      if(dist < best) {
+        best = dist;
+        besti = c;
+      }
+    }
+    return besti;
+  }
+
+  /**
+   * Train the codebook of one subspace with Lloyd-style k-means.
+   * <p>
+   * As the sample is random, its first vectors are used as initial codewords.
+   *
+   * @param data Training residuals
+   * @param begin First dimension of the subspace
+   * @param end End of the subspace (exclusive)
+   * @param k Number of codewords
+   * @return Codebook, stored as flat array
+   */
+  private static double[] train(double[][] data, int begin, int end, int k) {
+    final int dsub = end - begin, n = data.length;
+    k = Math.max(1, Math.min(k, n));
+    double[] codebook = new double[k * dsub];
+    for(int c = 0; c < k && c < n; c++) {
+      System.arraycopy(data[c], begin, codebook, c * dsub, dsub);
+    }
+    int[] assignment = new int[n];
+    Arrays.fill(assignment, -1);
+    double[] sums = new double[k * dsub];
+    int[] sizes = new int[k];
+    for(int iter = 0; iter < MAXITER; iter++) {
+      int changed = 0;
+      for(int i = 0; i < n; i++) {
+        final int c = nearest(codebook, data[i], begin, end);
+        if(c != assignment[i]) {
+          assignment[i] = c;
+          ++changed;
+        }
+      }
+      if(changed == 0) {
+        break;
+      }
+      Arrays.fill(sums, 0.);
+      Arrays.fill(sizes, 0);
+      for(int i = 0; i < n; i++) {
+        final int off = assignment[i] * dsub;
+        for(int d = 0; d < dsub; d++) {
+          sums[off + d] += data[i][begin + d];
+        }
+        sizes[assignment[i]]++;
+      }
+      for(int c = 0; c < k; c++) {
+        if(sizes[c] > 0) { // Keep empty codewords unchanged.
+          final double s = 1. / sizes[c];
+          for(int d = 0, off = c * dsub; d < dsub; d++) {
+            codebook[off + d] = sums[off + d] * s;
+          }
+        }
+      }
+    }
+    return codebook;
+  }
+
+  @Override
+  public KNNSearcher<V> kNNByObject(DistanceQuery<V> distanceQuery, int maxk, int flags) {
+    if((flags & QueryBuilder.FLAG_EXACT_ONLY) != 0 || distanceQuery.getRelation() != relation) {
+      return null;
+    }
+    Distance<? super V> df = distanceQuery.getDistance();
+    return df instanceof SquaredEuclideanDistance ? new IVFPQKNNSearcher(distanceQuery, true) : //
+        df instanceof EuclideanDistance ? new IVFPQKNNSearcher(distanceQuery, false) : null;
+  }
+
+  @Override
+  public Logging getLogger() {
+    return LOG;
+  }
+
+  @Override
+  public void logStatistics() {
+    super.logStatistics();
+    MeanVarianceMinMax mm = new MeanVarianceMinMax();
+    long bytes = 0;
+    for(int i = 0; i < lists.length; i++) {
+      mm.put(lists[i].size());
+      bytes += codes[i].length;
+    }
+    final String prefix = IVFPQIndex.class.getName();
+    LOG.statistics(new LongStatistic(prefix + ".lists", lists.length));
+    LOG.statistics(new LongStatistic(prefix + ".size.min", (int) mm.getMin()));
+    LOG.statistics(new DoubleStatistic(prefix + ".size.mean", mm.getMean()));
+    LOG.statistics(new LongStatistic(prefix + ".size.max", (int) mm.getMax()));
+    LOG.statistics(new LongStatistic(prefix + ".code-bytes", bytes));
+  }
+
+  /**
+   * kNN query using asymmetric distance computation.
+   *
+   * @author Erich Schubert
+   */
+  protected class IVFPQKNNSearcher extends AbstractRefiningIndex<V>.AbstractRefiningQuery implements KNNSearcher<V> {
+    /**
+     * Return squared distances.
+     */
+    private boolean squared;
+
+    /**
+     * Query residual.
+     */
+    private double[] buf;
+
+    /**
+     * Distance table, {@code m * ksub} entries.
+     */
+    private double[] table;
+
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query
+     * @param squared Return squared distances
+     */
+    public IVFPQKNNSearcher(DistanceQuery<V> distanceQuery, boolean squared) {
+      super(distanceQuery);
+      this.squared = squared;
+      this.buf = new double[split[split.length - 1]];
+      this.table = new double[codebooks.length * ksub];
+    }
+
+    @Override
+    public KNNList getKNN(V obj, int k) {
+      // Rank the lists by their distance to the query.
+      DoubleIntPair[] priority = new DoubleIntPair[centroids.length];
+      for(int l = 0; l < centroids.length; l++) {
+        residual(obj, centroids[l], buf);
+        double dist = 0.;
+        for(int d = 0; d < buf.length; d++) {
+          dist += buf[d] * buf[d];
+        }
+        priority[l] = new DoubleIntPair(dist, l);
+      }
+      Arrays.sort(priority);
+      final int nsub = codebooks.length;
+      KNNHeap heap = DBIDUtil.newHeap(rerank > 0 ? k * rerank : k);
+      for(int p = 0; p < priority.length && p < nprobe; p++) {
+        final int l = priority[p].second;
+        // Precompute the distances of the residual to all codewords.
+        residual(obj, centroids[l], buf);
+        for(int j = 0; j < nsub; j++) {
+          final double[] codebook = codebooks[j];
+          final int begin = split[j], dsub = split[j + 1] - begin;
+          for(int c = 0, off = 0; off < codebook.length; c++, off += dsub) {
+            double dist = 0.;
+            for(int d = 0; d < dsub; d++) {
+              final double v = buf[begin + d] - codebook[off + d];
+              dist += v * v;
+            }
+            table[j * ksub + c] = dist;
+          }
+        }
+        // Scan the list.
+        final byte[] code = codes[l];
+        double kdist = heap.getKNNDistance();
+        int off = 0;
+        for(DBIDIter it = lists[l].iter(); it.valid(); it.advance(), off += nsub) {
+          double dist = 0.;
+          for(int j = 0; j < nsub; j++) {
+            dist += table[j * ksub + (code[off + j] & 0xFF)];
+          }
+          if(dist <= kdist) {
+            kdist = heap.insert(dist, it);
+          }
+        }
+      }
+      if(rerank > 0) {
+        KNNHeap exact = DBIDUtil.newHeap(k);
+        for(DoubleDBIDIter it = heap.unorderedIterator(); it.valid(); it.advance()) {
+          exact.insert(refine(it, obj), it);
+        }
+        return exact.toKNNList();
+      }
+      if(!squared) {
+        KNNHeap res = DBIDUtil.newHeap(k);
+        for(DoubleDBIDIter it = heap.unorderedIterator(); it.valid(); it.advance()) {
+          res.insert(Math.sqrt(it.doubleValue()), it);
+        }
+        return res.toKNNList();
+      }
+      return heap.toKNNList();
+    }
+  }
+
+  /**
+   * Index factory for IVF-PQ indexes.
+   *
+   * @author Erich Schubert
+   *
+   * @has - - - IVFPQIndex
+   *
+   * @param <V> Vector type
+   */
+  public static class Factory<V extends NumberVector> implements IndexFactory<V> {
+    /**
+     * Coarse quantizer.
+     */
+    KMeans<V, ?> coarse;
+
+    /**
+     * Number of subquantizers.
+     */
+    int m;
+
+    /**
+     * Number of codewords per subquantizer.
+     */
+    int ksub;
+
+    /**
+     * Number of lists to probe.
+     */
+    int nprobe;
+
+    /**
+     * Re-ranking factor.
+     */
+    int rerank;
+
+    /**
+     * Random generator.
+     */
+    RandomFactory rnd;
+
+    /**
+     * Constructor.
+     *
+     * @param coarse Coarse quantizer
+     * @param m Number of subquantizers
+     * @param ksub Number of codewords per subquantizer
+     * @param nprobe Number of lists to probe
+     * @param rerank Re-ranking factor, 0 to disable
+     * @param rnd Random generator
+     */
+    public Factory(KMeans<V, ?> coarse, int m, int ksub, int nprobe, int rerank, RandomFactory rnd) {
+      super();
+      this.coarse = coarse;
+      this.m = m;
+      this.ksub = ksub;
+      this.nprobe = nprobe;
+      this.rerank = rerank;
+      this.rnd = rnd;
+    }
+
+    @Override
+    public IVFPQIndex<V> instantiate(Relation<V> relation) {
+      return new IVFPQIndex<>(relation, coarse, m, ksub, nprobe, rerank, rnd);
+    }
+
+    @Override
+    public TypeInformation getInputTypeRestriction() {
+      return TypeUtil.NUMBER_VECTOR_FIELD;
+    }
+
+    /**
+     * Parameterization class.
+     *
+     * @author Erich Schubert
+     *
+     * @hidden
+     *
+     * @param <V> Vector type
+     */
+    public static class Par<V extends NumberVector> implements Parameterizer {
+      /**
+       * Coarse quantizer.
+       */
+      public static final OptionID COARSE_ID = new OptionID("ivfpq.coarse", "k-means algorithm used as coarse quantizer; its k is the number of inverted lists.");
+
+      /**
+       * Number of subquantizers.
+       */
+      public static final OptionID M_ID = new OptionID("ivfpq.m", "Number of subquantizers, i.e., bytes per vector.");
+
+      /**
+       * Number of codewords per subquantizer.
+       */
+      public static final OptionID KSUB_ID = new OptionID("ivfpq.ksub", "Number of codewords per subquantizer (at most 256).");
+
+      /**
+       * Number of lists to probe.
+       */
+      public static final OptionID NPROBE_ID = new OptionID("ivfpq.nprobe", "Number of inverted lists to probe for each query.");
+
+      /**
+       * Re-ranking factor.
+       */
+      public static final OptionID RERANK_ID = new OptionID("ivfpq.rerank", "Re-rank k times this many candidates with exact distances, 0 to disable.");
+
+      /**
+       * Random seed.
+       */
+      public static final OptionID SEED_ID = new OptionID("ivfpq.seed", "Random seed for sampling the training data.");
+
+      /**
+       * Coarse quantizer.
+       */
+      KMeans<V, ?> coarse;
+
+      /**
+       * Number of subquantizers.
+       */
+      int m;
+
+      /**
+       * Number of codewords per subquantizer.
+       */
+      int ksub;
+
+      /**
+       * Number of lists to probe.
+       */
+      int nprobe;
+
+      /**
+       * Re-ranking factor.
+       */
+      int rerank;
+
+      /**
+       * Random generator.
+       */
+      RandomFactory rnd;
+
+      @Override
+      public void configure(Parameterization config) {
+        new ObjectParameter<KMeans<V, ?>>(COARSE_ID, KMeans.class, LloydKMeans.class) //
+            .grab(config, x -> coarse = x);
+        new IntParameter(M_ID, 16) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+            .grab(config, x -> m = x);
+        new IntParameter(KSUB_ID, 256) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+            .addConstraint(new LessEqualConstraint(256)) //
+            .grab(config, x -> ksub = x);
+        new IntParameter(NPROBE_ID, 8) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+            .grab(config, x -> nprobe = x);
+        new IntParameter(RERANK_ID, 0) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_INT) //
+            .grab(config, x -> rerank = x);
+        new RandomParameter(SEED_ID).grab(config, x -> rnd = x);
+      }
+
+      @Override
+      public IVFPQIndex.Factory<V> make() {
+        return new IVFPQIndex.Factory<>(coarse, m, ksub, nprobe, rerank, rnd);
+      }
+    }
+  }
+}
@@ -0,0 +1,506 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.laesa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import elki.clustering.kmeans.initialization.FarthestPoints;
+import elki.clustering.kmedoids.initialization.KMedoidsInitialization;
+import elki.data.type.TypeInformation;
+import elki.database.ids.*;
+import elki.database.query.distance.DistanceQuery;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.query.range.RangeSearcher;
+import elki.database.relation.Relation;
+import elki.distance.Distance;
+import elki.index.AbstractRefiningIndex;
+import elki.index.IndexFactory;
+import elki.index.KNNIndex;
+import elki.index.RangeIndex;
+import elki.logging.Logging;
+import elki.logging.statistics.LongStatistic;
+import elki.parallel.ParallelCore;
+import elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
+import elki.utilities.documentation.Reference;
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.Parameterizer;
+import elki.utilities.optionhandling.constraints.CommonConstraints;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.IntParameter;
+import elki.utilities.optionhandling.parameters.ObjectParameter;
+
+/**
+ * Linear Approximating Eliminating Search Algorithm (LAESA), a pivot table
+ * index for metric data.
+ * <p>
+ * The distances of all objects to a small set of pivot objects are stored in a
+ * compact float matrix. By the triangle inequality, the largest difference of
+ * the distances to the pivots is a lower bound of the distance to the query.
+ * Only objects whose lower bound does not exceed the query radius are refined
+ * with the actual distance function, in the order of increasing lower bounds
+ * for kNN queries. For expensive distance functions, this avoids most distance
+ * computations.
+ * <p>
+ * The pivot table can be computed in parallel.
+ * <p>
+ * Reference:
+ * <p>
+ * L. Micó, J. Oncina, E. Vidal<br>
+ * A new version of the nearest-neighbour approximating and eliminating search
+ * algorithm (AESA) with linear preprocessing time and memory requirements<br>
+ * Pattern Recognition Letters 15(1)
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @has - - - LAESAKNNSearcher
+ * @has - - - LAESARangeSearcher
+ *
+ * @param <O> Object type
+ */
+@Reference(authors = "L. Micó, J. Oncina, E. Vidal", //
+    title = "A new version of the nearest-neighbour approximating and eliminating search algorithm (AESA) with linear preprocessing time and memory requirements", //
+    booktitle = "Pattern Recognition Letters 15(1)", //
+    url = "https://doi.org/10.1016/0167-8655(94)90095-7", //
+    bibkey = "DBLP:journals/prl/MicoOV94")
+public class LAESA<O> extends AbstractRefiningIndex<O> implements RangeIndex<O>, KNNIndex<O> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(LAESA.class);
+
+  /**
+   * Minimum number of objects per build task.
+   */
+  private static final int CHUNK_SIZE = 1024;
+
+  /**
+   * Distance query.
+   */
+  private DistanceQuery<O> distanceQuery;
+
+  /**
+   * Pivot selection method.
+   */
+  private KMedoidsInitialization<O> initialization;
+
+  /**
+   * Number of pivots.
+   */
+  private int numref;
+
+  /**
+   * Number of threads, 0 for all processors.
+   */
+  private int threads;
+
+  /**
+   * Indexed objects.
+   */
+  private ArrayDBIDs ids;
+
+  /**
+   * Pivot objects.
+   */
+  private ArrayDBIDs pivots;
+
+  /**
+   * Flag for pivot objects, whose distance is known after the first step.
+   */
+  private boolean[] isPivot;
+
+  /**
+   * Distances to the pivots, one row of pivot distances per object.
+   */
+  private float[] table;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param distance Distance
+   * @param initialization Pivot selection method
+   * @param numref Number of pivots
+   * @param threads Number of threads, 0 for all processors
+   */
+  public LAESA(Relation<O> relation, DistanceQuery<O> distance, KMedoidsInitialization<O> initialization, int numref, int threads) {
+    super(relation);
+    this.distanceQuery = distance;
+    this.initialization = initialization;
+    this.numref = numref;
+    this.threads = threads;
+    if(!distance.getDistance().isMetric()) {
+      LOG.warning("LAESA assumes metric distance functions.\n" //
+          + distance.getDistance().getClass() + " does not report itself as metric.\n" //
+          + "LAESA will run, but may yield approximate results.");
+    }
+  }
+
+  @Override
+  public void initialize() {
+    ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    // Remove duplicates, e.g., on tiny data sets:
+    DBIDs chosen = initialization.chooseInitialMedoids(numref, ids, distanceQuery);
+    HashSetModifiableDBIDs pset = DBIDUtil.newHashSet(chosen.size());
+    ArrayModifiableDBIDs pivots = DBIDUtil.newArray(chosen.size());
+    for(DBIDIter it = chosen.iter(); it.valid(); it.advance()) {
+      if(pset.add(it)) {
+        pivots.add(it);
+      }
+    }
+    this.pivots = pivots;
+    final int size = ids.size();
+    if((long) size * pivots.size() > Integer.MAX_VALUE) {
+      throw new AbortException("Pivot table too large, use fewer pivots.");
+    }
+    table = new float[size * pivots.size()];
+    isPivot = new boolean[size];
+    for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+      isPivot[it.getOffset()] = pset.contains(it);
+    }
+    final int numparts = Math.max(1, Math.min(threads > 0 ? threads : ParallelCore.getCore().getParallelism(), size / CHUNK_SIZE));
+    if(numparts == 1) {
+      buildTable(0, size);
+      return;
+    }
+    ParallelCore core = ParallelCore.getCore();
+    core.connect();
+    try {
+      List<Future<?>> futures = new ArrayList<>(numparts);
+      for(int p = 0; p < numparts; p++) {
+        final int start = (int) ((long) size * p / numparts), end = (int) ((long) size * (p + 1) / numparts);
+        futures.add(core.submit(() -> {
+          buildTable(start, end);
+          return null;
+        }));
+      }
+      for(Future<?> f : futures) {
+        f.get();
+      }
+    }
+    catch(ExecutionException e) {
+      throw new RuntimeException("Processor execution failed.", e);
+    }
+    catch(InterruptedException e) {
+      throw new RuntimeException("Parallel execution interrupted.");
+    }
+    finally {
+      core.disconnect();
+    }
+  }
+
+  /**
+   * Compute the pivot distances of a range of objects.
+   *
+   * @param begin First object
+   * @param end End of objects (exclusive)
+   */
+  private void buildTable(int begin, int end) {
+    final int m = pivots.size();
+    DBIDArrayIter it = ids.iter(), piter = pivots.iter();
+    for(int i = begin; i < end; i++) {
+      it.seek(i);
+      for(piter.seek(0); piter.valid(); piter.advance()) {
+        table[i * m + piter.getOffset()] = (float) distanceQuery.distance(it, piter);
+      }
+    }
+  }
+
+  @Override
+  public KNNSearcher<O> kNNByObject(DistanceQuery<O> distanceQuery, int maxk, int flags) {
+    return distanceQuery.getRelation() == relation && this.getDistance().equals(distanceQuery.getDistance()) ? //
+        new LAESAKNNSearcher(distanceQuery) : null;
+  }
+
+  @Override
+  public RangeSearcher<O> rangeByObject(DistanceQuery<O> distanceQuery, double maxradius, int flags) {
+    return distanceQuery.getRelation() == relation && this.getDistance().equals(distanceQuery.getDistance()) ? //
+        new LAESARangeSearcher(distanceQuery) : null;
+  }
+
+  /**
+   * Distance function.
+   *
+   * @return Distance function
+   */
+  private Distance<? super O> getDistance() {
+    return distanceQuery.getDistance();
+  }
+
+  @Override
+  public Logging getLogger() {
+    return LOG;
+  }
+
+  @Override
+  public void logStatistics() {
+    super.logStatistics();
+    LOG.statistics(new LongStatistic(LAESA.class.getName() + ".pivots", pivots.size()));
+    LOG.statistics(new LongStatistic(LAESA.class.getName() + ".table.bytes", table.length * 4L));
+  }
+
+  /**
+   * Lower bound of the distance of an object to the query.
+   * <p>
+   * Stored distances are rounded to floats, so the bound is reduced by the
+   * rounding error.
+   *
+   * @param qdists Distances of the query to the pivots
+   * @param row Offset of the object's pivot distances
+   * @param threshold Threshold for early termination
+   * @return Lower bound, may be incomplete if larger than the threshold
+   */
+  private double lowerBound(double[] qdists, int row, double threshold) {
+    double lb = 0.;
+    for(int j = 0; j < qdists.length; j++) {
+      final float t = table[row + j];
+      final double d = Math.abs(qdists[j] - t) - Math.ulp(t);
+      if(d > lb) {
+        lb = d;
+        if(lb > threshold) {
+          break;
+        }
+      }
+    }
+    return lb;
+  }
+
+  /**
+   * kNN query implementation.
+   *
+   * @author Erich Schubert
+   */
+  protected class LAESAKNNSearcher extends AbstractRefiningIndex<O>.AbstractRefiningQuery implements KNNSearcher<O> {
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query
+     */
+    public LAESAKNNSearcher(DistanceQuery<O> distanceQuery) {
+      super(distanceQuery);
+    }
+
+    @Override
+    public KNNList getKNN(O obj, int k) {
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      final int m = pivots.size();
+      double[] qdists = new double[m];
+      for(DBIDArrayIter piter = pivots.iter(); piter.valid(); piter.advance()) {
+        heap.insert(qdists[piter.getOffset()] = refine(piter, obj), piter);
+      }
+      // Collect the candidates that can still improve the result:
+      double kdist = heap.getKNNDistance();
+      final int size = ids.size();
+      double[] bounds = new double[size];
+      int[] cands = new int[size];
+      int n = 0;
+      for(int i = 0, row = 0; i < size; i++, row += m) {
+        if(!isPivot[i]) {
+          final double lb = lowerBound(qdists, row, kdist);
+          if(lb <= kdist) {
+            bounds[n] = lb;
+            cands[n++] = i;
+          }
+        }
+      }
+      // Refine in order of increasing lower bound:
+      DoubleIntegerArrayQuickSort.sort(bounds, cands, n);
+      DBIDArrayIter it = ids.iter();
+      for(int i = 0; i < n && bounds[i] <= kdist; i++) {
+        final double dist = refine(it.seek(cands[i]), obj);
+        if(dist <= kdist) {
+          heap.insert(dist, it);
+          kdist = heap.getKNNDistance();
+        }
+      }
+      return heap.toKNNList();
+    }
+  }
+
+  /**
+   * Range query implementation.
+   *
+   * @author Erich Schubert
+   */
+  protected class LAESARangeSearcher extends AbstractRefiningIndex<O>.AbstractRefiningQuery implements RangeSearcher<O> {
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query
+     */
+    public LAESARangeSearcher(DistanceQuery<O> distanceQuery) {
+      super(distanceQuery);
+    }
+
+    @Override
+    public ModifiableDoubleDBIDList getRange(O obj, double range, ModifiableDoubleDBIDList result) {
+      final int m = pivots.size();
+      double[] qdists = new double[m];
+      for(DBIDArrayIter piter = pivots.iter(); piter.valid(); piter.advance()) {
+        final double dist = qdists[piter.getOffset()] = refine(piter, obj);
+        if(dist <= range) {
+          result.add(dist, piter);
+        }
+      }
+      DBIDArrayIter it = ids.iter();
+      for(int i = 0, row = 0, size = ids.size(); i < size; i++, row += m) {
+        if(!isPivot[i] && lowerBound(qdists, row, range) <= range) {
+          final double dist = refine(it.seek(i), obj);
+          if(dist <= range) {
+            result.add(dist, it);
+          }
+        }
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Index factory for LAESA indexes.
+   *
+   * @author Erich Schubert
+   *
+   * @has - - - LAESA
+   *
+   * @param <V> Data type.
+   */
+  public static class Factory<V> implements IndexFactory<V> {
+    /**
+     * Distance function to use.
+     */
+    Distance<? super V> distance;
+
+    /**
+     * Pivot selection method.
+     */
+    KMedoidsInitialization<V> initialization;
+
+    /**
+     * Number of pivots.
+     */
+    int k;
+
+    /**
+     * Number of threads, 0 for all processors.
+     */
+    int threads;
+
+    /**
+     * Constructor.
+     *
+     * @param distance Distance function
+     * @param initialization Pivot selection method
+     * @param k Number of pivots
+     * @param threads Number of threads, 0 for all processors
+     */
+    public Factory(Distance<? super V> distance, KMedoidsInitialization<V> initialization, int k, int threads) {
+      super();
+      this.distance = distance;
+      this.initialization = initialization;
+      this.k = k;
+      this.threads = threads;
+    }
+
+    @Override
+    public LAESA<V> instantiate(Relation<V> relation) {
+      return new LAESA<>(relation, distance.instantiate(relation), initialization, k, threads);
+    }
+
+    @Override
+    public TypeInformation getInputTypeRestriction() {
+      return distance.getInputTypeRestriction();
+    }
+
+    /**
+     * Parameterization class.
+     *
+     * @author Erich Schubert
+     *
+     * @hidden
+     *
+     * @param <V> object type.
+     */
+    public static class Par<V> implements Parameterizer {
+      /**
+       * Parameter for the distance function
+       */
+      public static final OptionID DISTANCE_ID = new OptionID("laesa.distance", "Distance function to build the index for.");
+
+      /**
+       * Pivot selection method.
+       */
+      public static final OptionID REFERENCE_ID = new OptionID("laesa.pivots", "Method to choose the pivot objects.");
+
+      /**
+       * Number of pivots.
+       */
+      public static final OptionID K_ID = new OptionID("laesa.k", "Number of pivot objects to use.");
+
+      /**
+       * Number of threads.
+       */
+      public static final OptionID THREADS_ID = new OptionID("laesa.threads", "Number of threads to use for building the pivot table, 0 for all processors.");
+
+      /**
+       * Distance function to use.
+       */
+      Distance<? super V> distance;
+
+      /**
+       * Pivot selection method.
+       */
+      KMedoidsInitialization<V> initialization;
+
+      /**
+       * Number of pivots.
+       */
+      int k;
+
+      /**
+       * Number of threads.
+       */
+      int threads;
+
+      @Override
+      public void configure(Parameterization config) {
+        new ObjectParameter<Distance<? super V>>(DISTANCE_ID, Distance.class) //
+            .grab(config, x -> distance = x);
+        new ObjectParameter<KMedoidsInitialization<V>>(REFERENCE_ID, KMedoidsInitialization.class, FarthestPoints.class) //
+            .grab(config, x -> initialization = x);
+        new IntParameter(K_ID, 16)//
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT) //
+            .grab(config, x -> k = x);
+        new IntParameter(THREADS_ID, 0) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_INT) //
+            .grab(config, x -> threads = x);
+      }
+
+      @Override
+      public LAESA.Factory<V> make() {
+        return new LAESA.Factory<>(distance, initialization, k, threads);
+      }
+    }
+  }
+}
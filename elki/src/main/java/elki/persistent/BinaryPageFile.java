@@ -0,0 +1,301 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.persistent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import elki.index.tree.TreeIndexHeader;
+import elki.logging.Logging;
+import elki.utilities.exceptions.AbortException;
+
+/**
+ * A page file on disk that encodes pages with a binary {@link PageCodec}
+ * instead of Java serialization.
+ * <p>
+ * Pages are read with positional reads into a per-thread buffer and decoded
+ * directly from there, so reading does not require object streams and can be
+ * performed concurrently.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @composed - - - PageCodec
+ * @composed - - - PageHeader
+ *
+ * @param <P> Page type
+ */
+public class BinaryPageFile<P extends Page> extends AbstractStoringPageFile<P> {
+  /**
+   * Our logger
+   */
+  private static final Logging LOG = Logging.getLogger(BinaryPageFile.class);
+
+  /**
+   * Indicates an empty page.
+   */
+  private static final int EMPTY_PAGE = 0;
+
+  /**
+   * Indicates a filled page.
+   */
+  private static final int FILLED_PAGE = 1;
+
+  /**
+   * The file storing the pages.
+   */
+  private final FileChannel file;
+
+  /**
+   * Codec for pages.
+   */
+  private final PageCodec<P> codec;
+
+  /**
+   * The header of this page file.
+   */
+  protected PageHeader header;
+
+  /**
+   * Whether we are initializing from an existing file.
+   */
+  private final boolean existed;
+
+  /**
+   * Per-thread I/O buffer.
+   */
+  private final ThreadLocal<ByteBuffer> buffers;
+
+  /**
+   * Constructor.
+   *
+   * @param pageSize the page size
+   * @param filename File name
+   * @param codec Page codec
+   */
+  public BinaryPageFile(int pageSize, Path filename, PageCodec<P> codec) {
+    super(pageSize);
+    this.codec = codec;
+    this.existed = Files.exists(filename);
+    this.buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(this.pageSize));
+    try {
+      file = FileChannel.open(filename, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+    catch(IOException e) {
+      throw new AbortException("IO error in loading binary page file.", e);
+    }
+  }
+
+  /**
+   * Get the I/O buffer of the current thread.
+   *
+   * @return Cleared buffer
+   */
+  private ByteBuffer getBuffer() {
+    ByteBuffer buffer = buffers.get();
+    if(buffer.capacity() != pageSize) {
+      buffers.set(buffer = ByteBuffer.allocate(pageSize));
+    }
+    buffer.clear();
+    return buffer;
+  }
+
+  /**
+   * File offset of a page.
+   *
+   * @param pageID Page id
+   * @return Offset
+   */
+  private long offset(int pageID) {
+    return ((long) (header.getReservedPages() + pageID)) * (long) pageSize;
+  }
+
+  @Override
+  public P readPage(int pageID) {
+    countRead();
+    final long offset = offset(pageID);
+    ByteBuffer buffer = getBuffer();
+    try {
+      while(buffer.hasRemaining()) {
+        if(file.read(buffer, offset + buffer.position()) < 0) {
+          throw new IOException("Incomplete read at offset " + offset + " read " + buffer.position() + " bytes, expected " + pageSize);
+        }
+      }
+      buffer.flip();
+      final int type = buffer.getInt();
+      if(type == EMPTY_PAGE) {
+        return null;
+      }
+      if(type != FILLED_PAGE) {
+        throw new IOException("Unknown page type: " + type);
+      }
+      return codec.fromByteBuffer(buffer);
+    }
+    catch(IOException e) {
+      throw new AbortException("IO error reading page " + pageID, e);
+    }
+  }
+
+  @Override
+  protected void writePage(int pageID, P page) {
+    countWrite();
+    ByteBuffer buffer = getBuffer();
+    try {
+      int size = codec.getByteSize(page) + 4;
+      if(size > pageSize) {
+        throw new IllegalArgumentException("Size of page " + page + " is greater than specified pagesize: " + size + " > " + pageSize);
+      }
+      buffer.putInt(FILLED_PAGE);
+      codec.toByteBuffer(buffer, page);
+      writeBuffer(buffer, offset(pageID));
+      page.setDirty(false);
+    }
+    catch(IOException e) {
+      throw new AbortException("IO error writing page " + pageID, e);
+    }
+  }
+
+  @Override
+  public synchronized void deletePage(int pageID) {
+    super.deletePage(pageID);
+    countWrite();
+    ByteBuffer buffer = getBuffer();
+    buffer.putInt(EMPTY_PAGE);
+    try {
+      writeBuffer(buffer, offset(pageID));
+    }
+    catch(IOException e) {
+      throw new AbortException("IO error deleting page " + pageID, e);
+    }
+  }
+
+  /**
+   * Write a full page buffer, padded with zeros.
+   *
+   * @param buffer Buffer
+   * @param offset File offset
+   * @throws IOException on errors
+   */
+  private void writeBuffer(ByteBuffer buffer, long offset) throws IOException {
+    while(buffer.hasRemaining()) {
+      buffer.put((byte) 0);
+    }
+    buffer.flip();
+    while(buffer.hasRemaining()) {
+      file.write(buffer, offset + buffer.position());
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      super.close();
+      if(header instanceof TreeIndexHeader) {
+        if(!emptyPages.isEmpty()) {
+          // write the list of empty pages to the end of the file
+          ((TreeIndexHeader) header).writeEmptyPages(emptyPages, file);
+        }
+        ((TreeIndexHeader) header).setLargestPageID(nextPageID);
+      }
+      header.writeHeader(file);
+      file.close();
+    }
+    catch(IOException e) {
+      throw new AbortException("IO error closing page file.", e);
+    }
+  }
+
+  @Override
+  public void clear() {
+    try {
+      file.truncate(header.size());
+    }
+    catch(IOException e) {
+      throw new AbortException("IO error clearing page file.", e);
+    }
+  }
+
+  @Override
+  public void setNextPageID(int nextPageID) {
+    this.nextPageID = nextPageID;
+    while(!emptyPages.isEmpty() && emptyPages.get(emptyPages.size - 1) >= this.nextPageID) {
+      --emptyPages.size;
+    }
+  }
+
+  @Override
+  public boolean initialize(PageHeader header) {
+    this.header = header;
+    try {
+      if(!existed || file.size() == 0) {
+        LOG.debug("Initializing with a new page file.");
+        header.writeHeader(file);
+        return false;
+      }
+      LOG.debug("Initializing from an existing page file.");
+      header.readHeader(file);
+      this.pageSize = header.getPageSize();
+      if(header instanceof TreeIndexHeader) {
+        TreeIndexHeader tiHeader = (TreeIndexHeader) header;
+        nextPageID = tiHeader.getLargestPageID();
+        try {
+          emptyPages = tiHeader.readEmptyPages(file);
+        }
+        catch(ClassNotFoundException e) {
+          throw new AbortException("Error reading empty pages.", e);
+        }
+        return true;
+      }
+      // Scan the page markers.
+      ByteBuffer marker = ByteBuffer.allocate(4);
+      for(int i = 0; offset(i) + pageSize <= file.size(); i++) {
+        marker.clear();
+        if(file.read(marker, offset(i)) != 4) {
+          throw new IOException("Incomplete read at page " + i);
+        }
+        marker.flip();
+        final int type = marker.getInt();
+        if(type == EMPTY_PAGE) {
+          emptyPages.add(i);
+        }
+        else if(type == FILLED_PAGE) {
+          nextPageID = i + 1;
+        }
+        else {
+          throw new IOException("Unknown page type: " + type);
+        }
+      }
+      return true;
+    }
+    catch(IOException e) {
+      throw new AbortException("IO error initializing page file.", e);
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.persistent;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import elki.utilities.exceptions.AbortException;
+import elki.utilities.optionhandling.OptionID;
+import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.FileParameter;
+
+/**
+ * Page file factory for disk-based page files using binary page codecs.
+ * <p>
+ * This requires the index to provide a {@link PageCodec}; currently supported
+ * by the R*-tree and the M-tree.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @has - - - BinaryPageFile
+ *
+ * @param <P> Page type
+ */
+public class BinaryPageFileFactory<P extends Page> extends AbstractPageFileFactory<P> {
+  /**
+   * File name.
+   */
+  private Path fileName;
+
+  /**
+   * Constructor.
+   *
+   * @param pageSize Page size
+   * @param fileName File name
+   */
+  public BinaryPageFileFactory(int pageSize, Path fileName) {
+    super(pageSize);
+    this.fileName = fileName;
+  }
+
+  @Override
+  public PageFile<P> newPageFile(Class<P> cls) {
+    throw new AbortException("Index with page type " + cls.getName() + " does not support binary page codecs. Use a different page file.");
+  }
+
+  @Override
+  public PageFile<P> newPageFile(Class<P> cls, PageCodec<P> codec) {
+    if(fileName == null) {
+      throw new AbortException("Disk-backed page file may only be instantiated once!");
+    }
+    BinaryPageFile<P> pfile = new BinaryPageFile<>(pageSize, fileName, codec);
+    fileName = null; // To avoid double instantiation.
+    return pfile;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @hidden
+   *
+   * @author Erich Schubert
+   */
+  public static class Par extends AbstractPageFileFactory.Par<Page> {
+    /**
+     * File name.
+     */
+    private Path fileName;
+
+    @Override
+    public void configure(Parameterization config) {
+      super.configure(config);
+      new FileParameter(PersistentPageFileFactory.Par.FILE_ID, FileParameter.FileType.OUTPUT_FILE) //
+          .grab(config, x -> fileName = Paths.get(x));
+    }
+
+    @Override
+    public BinaryPageFileFactory<Page> make() {
+      return new BinaryPageFileFactory<>(pageSize, fileName);
+    }
+  }
+}
@@ -34,6 +34,10 @@ import elki.utilities.exceptions.AbortException;
  * This cache has a fixed maximum number of objects (<code>cacheSize</code>). If
  * the cache is full and another object is added, the LRU (least recently used)
  * object is dropped.
+ * <p>
+ * To allow concurrent readers, the cache is split into a number of independent
+ * segments by page id, each with its own lock and LRU order. Eviction hence is
+ * LRU within each segment only.
  * 
  * @author Elke Achtert
  * @since 0.1
@@ -59,9 +63,14 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
   protected int cacheSize;
 
   /**
-   * The map holding the objects of this cache.
+   * Maximum number of segments (lock stripes).
    */
-  private LinkedHashMap<Integer, P> map;
+  private static final int MAX_SEGMENTS = 16;
+
+  /**
+   * The segments holding the objects of this cache.
+   */
+  private List<Segment> segments;
 
   /**
    * The underlying file of this cache. If an object is dropped it is written to
@@ -90,29 +99,35 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
    *         exists in the cache
    */
   @Override
-  public synchronized P readPage(int pageID) {
+  public P readPage(int pageID) {
     countRead();
-    P page = map.get(pageID);
-    if(page != null) {
-      if(LOG.isDebuggingFine()) {
-        LOG.debugFine("Read from cache: " + pageID);
+    final Segment seg = segment(pageID);
+    synchronized(seg) {
+      P page = seg.get(pageID);
+      if(page != null) {
+        if(LOG.isDebuggingFine()) {
+          LOG.debugFine("Read from cache: " + pageID);
+        }
       }
-    }
-    else {
-      if(LOG.isDebuggingFine()) {
-        LOG.debugFine("Read from backing: " + pageID);
+      else {
+        if(LOG.isDebuggingFine()) {
+          LOG.debugFine("Read from backing: " + pageID);
+        }
+        page = file.readPage(pageID);
+        seg.put(pageID, page);
       }
-      page = file.readPage(pageID);
-      map.put(pageID, page);
+      return page;
     }
-    return page;
   }
 
   @Override
-  public synchronized void writePage(int pageID, P page) {
+  public void writePage(int pageID, P page) {
     countWrite();
     page.setDirty(true);
-    map.put(pageID, page);
+    final Segment seg = segment(pageID);
+    synchronized(seg) {
+      seg.put(pageID, page);
+    }
     if(LOG.isDebuggingFine()) {
       LOG.debugFine("Write to cache: " + pageID);
     }
@@ -121,10 +136,23 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
   @Override
   public void deletePage(int pageID) {
     countWrite();
-    map.remove(pageID);
+    final Segment seg = segment(pageID);
+    synchronized(seg) {
+      seg.remove(pageID);
+    }
     file.deletePage(pageID);
   }
 
+  /**
+   * Get the segment responsible for a page.
+   *
+   * @param pageID Page id
+   * @return Segment
+   */
+  private Segment segment(int pageID) {
+    return segments.get(pageID % segments.size());
+  }
+
   /**
    * Write page through to disk.
    * 
@@ -174,21 +202,13 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
       LOG.debug("LRU cache size is " + cacheSize + " pages.");
     }
 
-    float hashTableLoadFactor = 0.75f;
-    int hashTableCapacity = (int) Math.ceil(cacheSize / hashTableLoadFactor) + 1;
-
-    this.map = new LinkedHashMap<Integer, P>(hashTableCapacity, hashTableLoadFactor, true) {
-      private static final long serialVersionUID = 1L;
-
-      @Override
-      protected boolean removeEldestEntry(Map.Entry<Integer, P> eldest) {
-        if(size() > LRUCache.this.cacheSize) {
-          expirePage(eldest.getValue());
-          return true;
-        }
-        return false;
-      }
-    };
+    // Use fewer segments for small caches, to keep the LRU order meaningful.
+    final int numseg = Math.max(1, Math.min(MAX_SEGMENTS, cacheSize >> 3));
+    this.segments = new ArrayList<>(numseg);
+    for(int i = 0; i < numseg; i++) {
+      // Distribute the remainder over the first segments:
+      segments.add(new Segment(cacheSize / numseg + (i < cacheSize % numseg ? 1 : 0)));
+    }
     return created;
   }
 
@@ -202,10 +222,14 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
    * Flushes this caches by writing any entry to the underlying file.
    */
   public void flush() {
-    for(P object : map.values()) {
-      expirePage(object);
+    for(Segment seg : segments) {
+      synchronized(seg) {
+        for(P object : seg.values()) {
+          expirePage(object);
+        }
+        seg.clear();
+      }
     }
-    map.clear();
   }
 
   /**
@@ -215,7 +239,13 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
    */
   @Override
   public String toString() {
-    return map.toString();
+    StringBuilder buf = new StringBuilder(1000);
+    for(Segment seg : segments) {
+      synchronized(seg) {
+        buf.append(seg.toString());
+      }
+    }
+    return buf.toString();
   }
 
   /**
@@ -223,7 +253,11 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
    */
   @Override
   public void clear() {
-    map.clear();
+    for(Segment seg : segments) {
+      synchronized(seg) {
+        seg.clear();
+      }
+    }
   }
 
   /**
@@ -233,18 +267,22 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
    */
   public void setCacheSize(int cacheSize) {
     this.cacheSize = cacheSize;
-
-    long toDelete = map.size() - this.cacheSize;
-    if(toDelete <= 0) {
-      return;
-    }
-
-    List<Integer> keys = new ArrayList<>(map.keySet());
-    Collections.reverse(keys);
-
-    for(Integer id : keys) {
-      P page = map.remove(id);
-      file.writePage(page);
+    final int numseg = segments.size();
+    for(int i = 0; i < numseg; i++) {
+      Segment seg = segments.get(i);
+      synchronized(seg) {
+        seg.capacity = Math.max(1, cacheSize / numseg + (i < cacheSize % numseg ? 1 : 0));
+        long toDelete = seg.size() - seg.capacity;
+        if(toDelete <= 0) {
+          continue;
+        }
+        List<Integer> keys = new ArrayList<>(seg.keySet());
+        Collections.reverse(keys);
+        for(Integer id : keys) {
+          P page = seg.remove(id);
+          file.writePage(page);
+        }
+      }
     }
   }
 
@@ -258,4 +296,40 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
   protected Logging getLogger() {
     return LOG;
   }
+
+  /**
+   * A single segment of the cache, in LRU order.
+   *
+   * @author Erich Schubert
+   */
+  private class Segment extends LinkedHashMap<Integer, P> {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Maximum number of pages in this segment.
+     */
+    int capacity;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity Maximum number of pages
+     */
+    Segment(int capacity) {
+      super((int) Math.ceil(capacity / 0.75f) + 1, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Integer, P> eldest) {
+      if(size() > capacity) {
+        expirePage(eldest.getValue());
+        return true;
+      }
+      return false;
+    }
+  }
 }
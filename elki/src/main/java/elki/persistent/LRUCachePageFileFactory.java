@@ -24,6 +24,7 @@ import elki.utilities.optionhandling.Parameterizer;
 import elki.utilities.optionhandling.OptionID;
 import elki.utilities.optionhandling.constraints.CommonConstraints;
 import elki.utilities.optionhandling.parameterization.Parameterization;
+import elki.utilities.optionhandling.parameters.EnumParameter;
 import elki.utilities.optionhandling.parameters.IntParameter;
 import elki.utilities.optionhandling.parameters.ObjectParameter;
 
@@ -34,11 +35,33 @@ import elki.utilities.optionhandling.parameters.ObjectParameter;
  * @since 0.6.0
  * 
  * @has - - - LRUCache
+ * @has - - - TwoQueueCache
  * @composed - - - PageFileFactory
  * 
  * @param <P> Page type
  */
 public class LRUCachePageFileFactory<P extends Page> implements PageFileFactory<P> {
+  /**
+   * Cache replacement policies.
+   *
+   * @author Erich Schubert
+   */
+  public enum Policy {
+    /**
+     * Least-recently-used, see {@link LRUCache}.
+     */
+    LRU,
+    /**
+     * Scan-resistant 2Q policy, see {@link TwoQueueCache}.
+     */
+    TWO_QUEUE
+  }
+
+  /**
+   * Number of dirty pages written back at once by the 2Q cache.
+   */
+  private static final int WRITE_BATCH = 32;
+
   /**
    * Inner page file factory.
    */
@@ -49,6 +72,11 @@ public class LRUCachePageFileFactory<P extends Page> implements PageFileFactory<
    */
   private int cacheSize;
 
+  /**
+   * Replacement policy.
+   */
+  private Policy policy;
+
   /**
    * Constructor.
    * 
@@ -56,15 +84,41 @@ public class LRUCachePageFileFactory<P extends Page> implements PageFileFactory<
    * @param cacheSize Size of cache, in bytes.
    */
   public LRUCachePageFileFactory(PageFileFactory<P> pageFileFactory, int cacheSize) {
+    this(pageFileFactory, cacheSize, Policy.LRU);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param pageFileFactory Inner page file
+   * @param cacheSize Size of cache, in bytes.
+   * @param policy Replacement policy
+   */
+  public LRUCachePageFileFactory(PageFileFactory<P> pageFileFactory, int cacheSize, Policy policy) {
     super();
     this.cacheSize = cacheSize;
     this.pageFileFactory = pageFileFactory;
+    this.policy = policy;
   }
 
   @Override
   public PageFile<P> newPageFile(Class<P> cls) {
-    PageFile<P> inner = pageFileFactory.newPageFile(cls);
-    return new LRUCache<>(cacheSize, inner);
+    return wrap(pageFileFactory.newPageFile(cls));
+  }
+
+  @Override
+  public PageFile<P> newPageFile(Class<P> cls, PageCodec<P> codec) {
+    return wrap(pageFileFactory.newPageFile(cls, codec));
+  }
+
+  /**
+   * Wrap the inner page file with the cache.
+   *
+   * @param inner Inner page file
+   * @return Cached page file
+   */
+  private PageFile<P> wrap(PageFile<P> inner) {
+    return policy == Policy.TWO_QUEUE ? new TwoQueueCache<>(cacheSize, WRITE_BATCH, inner) : new LRUCache<>(cacheSize, inner);
   }
 
   @Override
@@ -89,6 +143,11 @@ public class LRUCachePageFileFactory<P extends Page> implements PageFileFactory<
      */
     public static final OptionID PAGEFILE_ID = new OptionID("pagefile.pagefile", "The backing pagefile for the cache.");
 
+    /**
+     * Parameter to choose the cache replacement policy.
+     */
+    public static final OptionID POLICY_ID = new OptionID("pagefile.cachepolicy", "The page replacement policy of the cache. TWO_QUEUE is resistant to large scans.");
+
     /**
      * Inner page file factory.
      */
@@ -99,6 +158,11 @@ public class LRUCachePageFileFactory<P extends Page> implements PageFileFactory<
      */
     protected int cacheSize;
 
+    /**
+     * Replacement policy.
+     */
+    protected Policy policy;
+
     @Override
     public void configure(Parameterization config) {
       new ObjectParameter<PageFileFactory<Page>>(PAGEFILE_ID, PageFileFactory.class, PersistentPageFileFactory.class) //
@@ -106,11 +170,13 @@ public class LRUCachePageFileFactory<P extends Page> implements PageFileFactory<
       new IntParameter(CACHE_SIZE_ID) //
           .addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_INT) //
           .grab(config, x -> cacheSize = x);
+      new EnumParameter<Policy>(POLICY_ID, Policy.class, Policy.LRU) //
+          .grab(config, x -> policy = x);
     }
 
     @Override
     public LRUCachePageFileFactory<Page> make() {
-      return new LRUCachePageFileFactory<>(pageFileFactory, cacheSize);
+      return new LRUCachePageFileFactory<>(pageFileFactory, cacheSize, policy);
     }
   }
 }
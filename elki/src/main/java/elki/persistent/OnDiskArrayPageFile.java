@@ -140,6 +140,7 @@ public class OnDiskArrayPageFile<P extends Page> extends AbstractStoringPageFile
       try {
         countWrite();
         byte[] array = pageToByteArray(page);
+        file.ensureSize(pageID + 1L);
         file.getRecordBuffer(pageID).put(array);
         page.setDirty(false);
       }
@@ -243,7 +244,7 @@ public class OnDiskArrayPageFile<P extends Page> extends AbstractStoringPageFile
 
         header.readHeader(file.getExtraHeader());
         // reading empty nodes in Stack
-        for(int i = 0; i < file.getNumRecords(); i++) {
+        for(int i = 0, n = (int) file.getNumRecords(); i < n; i++) {
           ByteBuffer buffer = file.getRecordBuffer(i);
           int type = buffer.getInt();
           if(type == EMPTY_PAGE) {
@@ -255,7 +256,6 @@ public class OnDiskArrayPageFile<P extends Page> extends AbstractStoringPageFile
           else {
             throw new IllegalArgumentException("Unknown type: " + type);
           }
-          i++;
         }
         return true;
       }
@@ -0,0 +1,484 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.persistent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import elki.index.tree.Node;
+import elki.logging.Logging;
+import elki.logging.statistics.DoubleStatistic;
+import elki.logging.statistics.LongStatistic;
+import elki.utilities.documentation.Reference;
+import elki.utilities.exceptions.AbortException;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+/**
+ * Scan-resistant page cache using the 2Q replacement strategy.
+ * <p>
+ * Pages read for the first time enter a small FIFO queue. Only pages that are
+ * requested again after leaving it (tracked by a queue of "ghost" page ids)
+ * are promoted to the main LRU queue. Hence, a single scan over many pages
+ * (e.g., a large range query or bulk reinsertion) does not flush the
+ * frequently used pages from the cache.
+ * <p>
+ * In addition, directory pages of tree indexes are pinned in the cache (up to
+ * a quarter of the cache size), evicted dirty pages are written back in
+ * batches sorted by page id, and the cache is split into independently locked
+ * segments to allow concurrent readers.
+ * <p>
+ * Reference:
+ * <p>
+ * T. Johnson, D. Shasha<br>
+ * 2Q: A Low Overhead High Performance Buffer Management Replacement
+ * Algorithm<br>
+ * Proc. 20th Int. Conf. on Very Large Data Bases (VLDB'94)
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @assoc - - - PageFile
+ *
+ * @param <P> Page type
+ */
+@Reference(authors = "T. Johnson, D. Shasha", //
+    title = "2Q: A Low Overhead High Performance Buffer Management Replacement Algorithm", //
+    booktitle = "Proc. 20th Int. Conf. on Very Large Data Bases (VLDB'94)", //
+    url = "http://www.vldb.org/conf/1994/P439.PDF", //
+    bibkey = "DBLP:conf/vldb/JohnsonS94")
+public class TwoQueueCache<P extends Page> extends AbstractPageFile<P> {
+  /**
+   * Our class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(TwoQueueCache.class);
+
+  /**
+   * Maximum number of segments (lock stripes).
+   */
+  private static final int MAX_SEGMENTS = 16;
+
+  /**
+   * Cache size in bytes.
+   */
+  protected int cacheSizeBytes;
+
+  /**
+   * Number of dirty pages to collect before writing them back.
+   */
+  protected int writeBatch;
+
+  /**
+   * The segments of this cache.
+   */
+  private List<Segment> segments;
+
+  /**
+   * The underlying file of this cache.
+   */
+  protected PageFile<P> file;
+
+  /**
+   * Constructor.
+   *
+   * @param cacheSizeBytes the maximum number of bytes for this cache
+   * @param writeBatch number of dirty pages to write back at once
+   * @param file the underlying file of this cache
+   */
+  public TwoQueueCache(int cacheSizeBytes, int writeBatch, PageFile<P> file) {
+    this.file = file;
+    this.cacheSizeBytes = cacheSizeBytes;
+    this.writeBatch = writeBatch > 0 ? writeBatch : 1;
+  }
+
+  @Override
+  public P readPage(int pageID) {
+    countRead();
+    final Segment seg = segment(pageID);
+    synchronized(seg) {
+      return seg.get(pageID);
+    }
+  }
+
+  @Override
+  protected void writePage(int pageID, P page) {
+    countWrite();
+    page.setDirty(true);
+    final Segment seg = segment(pageID);
+    synchronized(seg) {
+      seg.put(pageID, page);
+    }
+  }
+
+  @Override
+  public void deletePage(int pageID) {
+    countWrite();
+    final Segment seg = segment(pageID);
+    synchronized(seg) {
+      seg.remove(pageID);
+    }
+    file.deletePage(pageID);
+  }
+
+  /**
+   * Get the segment responsible for a page.
+   *
+   * @param pageID Page id
+   * @return Segment
+   */
+  private Segment segment(int pageID) {
+    return segments.get(pageID % segments.size());
+  }
+
+  @Override
+  public int setPageID(P page) {
+    return file.setPageID(page);
+  }
+
+  @Override
+  public int getNextPageID() {
+    return file.getNextPageID();
+  }
+
+  @Override
+  public void setNextPageID(int nextPageID) {
+    file.setNextPageID(nextPageID);
+  }
+
+  @Override
+  public int getPageSize() {
+    return file.getPageSize();
+  }
+
+  @Override
+  public boolean initialize(PageHeader header) {
+    boolean created = file.initialize(header);
+    final int cacheSize = cacheSizeBytes / header.getPageSize();
+    if(cacheSize <= 0) {
+      throw new AbortException("Invalid cache size: " + cacheSizeBytes + " / " + header.getPageSize() + " = " + cacheSize);
+    }
+    if(LOG.isDebugging()) {
+      LOG.debug("2Q cache size is " + cacheSize + " pages.");
+    }
+    final int numseg = Math.max(1, Math.min(MAX_SEGMENTS, cacheSize >> 3));
+    this.segments = new ArrayList<>(numseg);
+    for(int i = 0; i < numseg; i++) {
+      segments.add(new Segment(cacheSize / numseg + (i < cacheSize % numseg ? 1 : 0)));
+    }
+    return created;
+  }
+
+  @Override
+  public void close() {
+    flush();
+    file.close();
+  }
+
+  /**
+   * Write all dirty pages to the underlying file, and empty the cache.
+   */
+  public void flush() {
+    for(Segment seg : segments) {
+      synchronized(seg) {
+        seg.flush();
+      }
+    }
+  }
+
+  @Override
+  public void clear() {
+    for(Segment seg : segments) {
+      synchronized(seg) {
+        seg.clear();
+      }
+    }
+  }
+
+  /**
+   * Get the hit rate of the cache.
+   *
+   * @return Fraction of read accesses served from the cache
+   */
+  public double getHitRate() {
+    long hits = 0, misses = 0;
+    for(Segment seg : segments) {
+      synchronized(seg) {
+        hits += seg.hits;
+        misses += seg.misses;
+      }
+    }
+    return hits + misses > 0 ? hits / (double) (hits + misses) : 0.;
+  }
+
+  @Override
+  public void logStatistics() {
+    super.logStatistics();
+    if(LOG.isStatistics()) {
+      long hits = 0, misses = 0, writebacks = 0;
+      for(Segment seg : segments) {
+        synchronized(seg) {
+          hits += seg.hits;
+          misses += seg.misses;
+          writebacks += seg.writebacks;
+        }
+      }
+      final String prefix = this.getClass().getName();
+      LOG.statistics(new LongStatistic(prefix + ".hits", hits));
+      LOG.statistics(new LongStatistic(prefix + ".misses", misses));
+      LOG.statistics(new DoubleStatistic(prefix + ".hitrate", getHitRate()));
+      LOG.statistics(new LongStatistic(prefix + ".writebacks", writebacks));
+    }
+    file.logStatistics();
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Test whether a page should be pinned, i.e., is a tree directory page.
+   *
+   * @param page Page
+   * @return {@code true} when the page should be pinned
+   */
+  protected boolean isPinned(P page) {
+    return page instanceof Node && !((Node<?>) page).isLeaf();
+  }
+
+  /**
+   * A single segment of the cache.
+   *
+   * @author Erich Schubert
+   */
+  private class Segment {
+    /**
+     * Pages seen once, in FIFO order ("A1in").
+     */
+    final LinkedHashMap<Integer, P> fifo = new LinkedHashMap<>();
+
+    /**
+     * Pages seen repeatedly, in LRU order ("Am").
+     */
+    final LinkedHashMap<Integer, P> lru = new LinkedHashMap<>(16, .75f, true);
+
+    /**
+     * Ids of pages recently evicted from the FIFO queue ("A1out").
+     */
+    final LinkedHashSet<Integer> ghosts = new LinkedHashSet<>();
+
+    /**
+     * Pinned directory pages.
+     */
+    final Int2ObjectOpenHashMap<P> pinned = new Int2ObjectOpenHashMap<>();
+
+    /**
+     * Evicted dirty pages awaiting write-back.
+     */
+    final Int2ObjectOpenHashMap<P> pending = new Int2ObjectOpenHashMap<>();
+
+    /**
+     * Capacity of the segment, and of the queues.
+     */
+    final int capacity, maxFifo, maxGhosts, maxPinned;
+
+    /**
+     * Statistics.
+     */
+    long hits, misses, writebacks;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity Maximum number of pages
+     */
+    Segment(int capacity) {
+      this.capacity = Math.max(capacity, 1);
+      this.maxFifo = Math.max(this.capacity >> 2, 1);
+      this.maxGhosts = Math.max(this.capacity >> 1, 1);
+      this.maxPinned = this.capacity >> 2;
+    }
+
+    /**
+     * Get a page, loading it if necessary.
+     *
+     * @param pageID Page id
+     * @return Page
+     */
+    P get(int pageID) {
+      P page = pinned.get(pageID);
+      page = page != null ? page : lru.get(pageID);
+      page = page != null ? page : fifo.get(pageID);
+      if(page != null) {
+        ++hits;
+        return page;
+      }
+      ++misses;
+      page = pending.remove(pageID);
+      if(page == null) {
+        page = file.readPage(pageID);
+        if(page == null) {
+          return null;
+        }
+      }
+      admit(pageID, page);
+      return page;
+    }
+
+    /**
+     * Store a (modified) page.
+     *
+     * @param pageID Page id
+     * @param page Page
+     */
+    void put(int pageID, P page) {
+      if(pinned.containsKey(pageID)) {
+        pinned.put(pageID, page);
+      }
+      else if(lru.containsKey(pageID)) {
+        lru.put(pageID, page);
+      }
+      else if(fifo.containsKey(pageID)) {
+        fifo.put(pageID, page);
+      }
+      else {
+        pending.remove(pageID);
+        admit(pageID, page);
+      }
+    }
+
+    /**
+     * Admit a page not currently cached.
+     *
+     * @param pageID Page id
+     * @param page Page
+     */
+    void admit(int pageID, P page) {
+      if(pinned.size() < maxPinned && isPinned(page)) {
+        pinned.put(pageID, page);
+      }
+      else if(ghosts.remove(pageID)) {
+        lru.put(pageID, page);
+      }
+      else {
+        fifo.put(pageID, page);
+      }
+      reclaim();
+    }
+
+    /**
+     * Evict pages until the segment is within its capacity.
+     */
+    void reclaim() {
+      while(fifo.size() + lru.size() + pinned.size() > capacity && !(fifo.isEmpty() && lru.isEmpty())) {
+        if(fifo.size() > maxFifo || lru.isEmpty()) {
+          Iterator<Map.Entry<Integer, P>> it = fifo.entrySet().iterator();
+          Map.Entry<Integer, P> e = it.next();
+          it.remove();
+          evict(e.getValue());
+          ghosts.add(e.getKey());
+          if(ghosts.size() > maxGhosts) {
+            Iterator<Integer> g = ghosts.iterator();
+            g.next();
+            g.remove();
+          }
+        }
+        else {
+          Iterator<P> it = lru.values().iterator();
+          P page = it.next();
+          it.remove();
+          evict(page);
+        }
+      }
+    }
+
+    /**
+     * Evict a page, scheduling it for write-back if dirty.
+     *
+     * @param page Page
+     */
+    void evict(P page) {
+      if(page.isDirty()) {
+        pending.put(page.getPageID(), page);
+        if(pending.size() >= writeBatch) {
+          writeBack();
+        }
+      }
+    }
+
+    /**
+     * Write all pending pages, in the order of their page ids.
+     */
+    void writeBack() {
+      int[] ids = pending.keySet().toIntArray();
+      Arrays.sort(ids);
+      for(int id : ids) {
+        file.writePage(pending.get(id));
+      }
+      writebacks += ids.length;
+      pending.clear();
+    }
+
+    /**
+     * Remove a page from the segment.
+     *
+     * @param pageID Page id
+     */
+    void remove(int pageID) {
+      if(pinned.remove(pageID) == null && lru.remove(pageID) == null && fifo.remove(pageID) == null) {
+        pending.remove(pageID);
+      }
+      ghosts.remove(pageID);
+    }
+
+    /**
+     * Write back all dirty pages and empty the segment.
+     */
+    void flush() {
+      for(P page : pinned.values()) {
+        evict(page);
+      }
+      for(P page : lru.values()) {
+        evict(page);
+      }
+      for(P page : fifo.values()) {
+        evict(page);
+      }
+      writeBack();
+      clear();
+    }
+
+    /**
+     * Empty the segment, without writing back.
+     */
+    void clear() {
+      pinned.clear();
+      lru.clear();
+      fifo.clear();
+      ghosts.clear();
+      pending.clear();
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.ivfpq;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import elki.algorithm.AbstractSimpleAlgorithmTest;
+import elki.clustering.kmeans.KMeans;
+import elki.data.NumberVector;
+import elki.data.type.TypeUtil;
+import elki.database.ids.*;
+import elki.database.query.QueryBuilder;
+import elki.database.query.distance.DistanceQuery;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.query.knn.LinearScanKNNByDBID;
+import elki.database.relation.Relation;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.distance.minkowski.SquaredEuclideanDistance;
+import elki.result.Metadata;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Unit test for the {@link IVFPQIndex}.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class IVFPQIndexTest {
+  /**
+   * Number of neighbors.
+   */
+  private static final int K = 10;
+
+  /**
+   * Test with exact re-ranking.
+   */
+  @Test
+  public void testReranking() {
+    Relation<NumberVector> rel = AbstractSimpleAlgorithmTest.makeSimpleDatabase(AbstractSimpleAlgorithmTest.UNITTEST + "outlier-axis-subspaces-6d.ascii", 1345).getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    Metadata.hierarchyOf(rel).addChild(build(rel, 10));
+    DistanceQuery<NumberVector> dq = EuclideanDistance.STATIC.instantiate(rel);
+    KNNSearcher<DBIDRef> knn = new QueryBuilder<>(rel, EuclideanDistance.STATIC).kNNByDBID(K);
+    KNNSearcher<DBIDRef> lin = new LinearScanKNNByDBID<>(dq);
+    assertTrue("Index was not used.", new QueryBuilder<>(rel, EuclideanDistance.STATIC).kNNByObject(K) instanceof IVFPQIndex.IVFPQKNNSearcher);
+    int found = 0, total = 0;
+    DBIDIter q = rel.iterDBIDs();
+    for(int i = 0; i < 100; i++, q.advance()) {
+      KNNList exp = lin.getKNN(q, K), res = knn.getKNN(q, K);
+      assertEquals("Wrong number of results.", K, res.size());
+      for(DoubleDBIDListIter it = res.iter(); it.valid(); it.advance()) {
+        assertEquals("Distance not re-ranked.", dq.distance(q, it), it.doubleValue(), 0.);
+      }
+      found += DBIDUtil.intersectionSize(DBIDUtil.newHashSet(exp), res);
+      total += exp.size();
+    }
+    assertTrue("Recall too low: " + found / (double) total, found >= .9 * total);
+  }
+
+  /**
+   * Test the compressed distance estimates only.
+   */
+  @Test
+  public void testApproximate() {
+    Relation<NumberVector> rel = AbstractSimpleAlgorithmTest.makeSimpleDatabase(AbstractSimpleAlgorithmTest.UNITTEST + "outlier-axis-subspaces-6d.ascii", 1345).getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    Metadata.hierarchyOf(rel).addChild(build(rel, 0));
+    KNNSearcher<DBIDRef> knn = new QueryBuilder<>(rel, SquaredEuclideanDistance.STATIC).kNNByDBID(K);
+    KNNSearcher<DBIDRef> lin = new LinearScanKNNByDBID<>(SquaredEuclideanDistance.STATIC.instantiate(rel));
+    assertTrue("Index was not used.", new QueryBuilder<>(rel, SquaredEuclideanDistance.STATIC).kNNByObject(K) instanceof IVFPQIndex.IVFPQKNNSearcher);
+    assertFalse("Approximate index used for exact queries.", //
+        new QueryBuilder<>(rel, SquaredEuclideanDistance.STATIC).exactOnly().kNNByObject(K) instanceof IVFPQIndex.IVFPQKNNSearcher);
+    int found = 0, total = 0;
+    DBIDIter q = rel.iterDBIDs();
+    for(int i = 0; i < 100; i++, q.advance()) {
+      KNNList exp = lin.getKNN(q, K), res = knn.getKNN(q, K);
+      assertEquals("Wrong number of results.", K, res.size());
+      found += DBIDUtil.intersectionSize(DBIDUtil.newHashSet(exp), res);
+      total += exp.size();
+    }
+    assertTrue("Recall too low: " + found / (double) total, found >= .5 * total);
+  }
+
+  /**
+   * Build the index.
+   *
+   * @param rel Relation
+   * @param rerank Re-ranking factor
+   * @return Index
+   */
+  private static IVFPQIndex<NumberVector> build(Relation<NumberVector> rel, int rerank) {
+    IVFPQIndex<NumberVector> index = new ELKIBuilder<IVFPQIndex.Factory<NumberVector>>(IVFPQIndex.Factory.class) //
+        .with(KMeans.K_ID, 16) //
+        .with(KMeans.SEED_ID, 0) //
+        .with(IVFPQIndex.Factory.Par.M_ID, 3) //
+        .with(IVFPQIndex.Factory.Par.NPROBE_ID, 4) //
+        .with(IVFPQIndex.Factory.Par.RERANK_ID, rerank) //
+        .with(IVFPQIndex.Factory.Par.SEED_ID, 0) //
+        .build().instantiate(rel);
+    index.initialize();
+    return index;
+  }
+}
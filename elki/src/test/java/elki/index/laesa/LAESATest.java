@@ -0,0 +1,87 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.index.laesa;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import elki.algorithm.AbstractSimpleAlgorithmTest;
+import elki.clustering.kmeans.initialization.FarthestPoints;
+import elki.data.NumberVector;
+import elki.data.type.TypeUtil;
+import elki.database.ids.DBIDIter;
+import elki.database.ids.DBIDUtil;
+import elki.database.ids.DoubleDBIDListIter;
+import elki.database.ids.KNNHeap;
+import elki.database.ids.KNNList;
+import elki.database.query.distance.DistanceQuery;
+import elki.database.query.knn.KNNSearcher;
+import elki.database.query.knn.WrappedKNNDBIDByLookup;
+import elki.database.query.range.WrappedRangeDBIDByLookup;
+import elki.database.relation.Relation;
+import elki.distance.minkowski.EuclideanDistance;
+import elki.index.AbstractIndexStructureTest;
+import elki.utilities.ELKIBuilder;
+import elki.utilities.random.RandomFactory;
+
+/**
+ * Unit test for the LAESA index.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class LAESATest extends AbstractIndexStructureTest {
+  @Test
+  public void testLAESA() {
+    LAESA.Factory<NumberVector> factory = new ELKIBuilder<>(LAESA.Factory.class) //
+        .with(LAESA.Factory.Par.K_ID, 8) //
+        .with(LAESA.Factory.Par.DISTANCE_ID, EuclideanDistance.class) //
+        .build();
+    assertExactEuclidean(factory, LAESA.LAESAKNNSearcher.class, LAESA.LAESARangeSearcher.class);
+    assertSinglePoint(factory, WrappedKNNDBIDByLookup.class, WrappedRangeDBIDByLookup.class);
+  }
+
+  /**
+   * Test a data set larger than the build chunk size, built in parallel.
+   */
+  @Test
+  public void testParallelBuild() {
+    Relation<NumberVector> rel = AbstractSimpleAlgorithmTest.makeRandomDatabase(5000, 3, 20, 0L).getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    LAESA<NumberVector> index = new LAESA.Factory<NumberVector>(EuclideanDistance.STATIC, new FarthestPoints<>(new RandomFactory(0L), false), 8, 4).instantiate(rel);
+    index.initialize();
+    final int k = 10;
+    DistanceQuery<NumberVector> dq = EuclideanDistance.STATIC.instantiate(rel);
+    KNNSearcher<NumberVector> knn = index.kNNByObject(dq, k, 0);
+    DBIDIter q = rel.iterDBIDs();
+    for(int i = 0; i < 50; i++, q.advance()) {
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+        heap.insert(dq.distance(q, it), it);
+      }
+      KNNList exp = heap.toKNNList(), res = knn.getKNN(rel.get(q), k);
+      assertEquals("kNN sizes do not agree.", exp.size(), res.size());
+      for(DoubleDBIDListIter a = exp.iter(), b = res.iter(); a.valid(); a.advance(), b.advance()) {
+        assertEquals("kNN distances do not agree.", a.doubleValue(), b.doubleValue(), 1e-10);
+      }
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.persistent;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import elki.data.DoubleVector;
+import elki.data.NumberVector;
+import elki.index.AbstractIndexStructureTest;
+import elki.index.PagedIndexFactory;
+import elki.index.tree.metrical.mtreevariants.mtree.MTreeFactory;
+import elki.index.tree.metrical.mtreevariants.query.MTreeKNNByObject;
+import elki.index.tree.metrical.mtreevariants.query.MTreeRangeByObject;
+import elki.index.tree.spatial.rstarvariants.query.RStarTreeKNNSearcher;
+import elki.index.tree.spatial.rstarvariants.query.RStarTreeRangeSearcher;
+import elki.index.tree.spatial.rstarvariants.rstar.RStarTreeFactory;
+import elki.utilities.ELKIBuilder;
+
+/**
+ * Test the binary page file with the R*-tree and M-tree codecs.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class BinaryPageFileTest extends AbstractIndexStructureTest {
+  @Test
+  public void testRStarTree() throws IOException {
+    Path file = Files.createTempFile("ELKIUnitTest", null);
+    file.toFile().deleteOnExit();
+    RStarTreeFactory<NumberVector> factory = new ELKIBuilder<>(RStarTreeFactory.class) //
+        .with(PagedIndexFactory.Par.PAGEFILE_ID, BinaryPageFileFactory.class) //
+        .with(AbstractPageFileFactory.Par.PAGE_SIZE_ID, 300) //
+        .with(PersistentPageFileFactory.Par.FILE_ID, file.toString()) //
+        .build();
+    assertExactEuclidean(factory, RStarTreeKNNSearcher.class, RStarTreeRangeSearcher.class);
+    Files.delete(file);
+  }
+
+  @Test
+  public void testRStarTreeCached() throws IOException {
+    Path file = Files.createTempFile("ELKIUnitTest", null);
+    file.toFile().deleteOnExit();
+    RStarTreeFactory<NumberVector> factory = new ELKIBuilder<>(RStarTreeFactory.class) //
+        .with(PagedIndexFactory.Par.PAGEFILE_ID, LRUCachePageFileFactory.class) //
+        .with(LRUCachePageFileFactory.Par.PAGEFILE_ID, BinaryPageFileFactory.class) //
+        .with(LRUCachePageFileFactory.Par.CACHE_SIZE_ID, 3000) //
+        .with(AbstractPageFileFactory.Par.PAGE_SIZE_ID, 300) //
+        .with(PersistentPageFileFactory.Par.FILE_ID, file.toString()) //
+        .build();
+    assertExactEuclidean(factory, RStarTreeKNNSearcher.class, RStarTreeRangeSearcher.class);
+    Files.delete(file);
+  }
+
+  @Test
+  public void testRStarTreeTwoQueue() throws IOException {
+    Path file = Files.createTempFile("ELKIUnitTest", null);
+    file.toFile().deleteOnExit();
+    RStarTreeFactory<NumberVector> factory = new ELKIBuilder<>(RStarTreeFactory.class) //
+        .with(PagedIndexFactory.Par.PAGEFILE_ID, LRUCachePageFileFactory.class) //
+        .with(LRUCachePageFileFactory.Par.PAGEFILE_ID, BinaryPageFileFactory.class) //
+        .with(LRUCachePageFileFactory.Par.CACHE_SIZE_ID, 3000) //
+        .with(LRUCachePageFileFactory.Par.POLICY_ID, LRUCachePageFileFactory.Policy.TWO_QUEUE) //
+        .with(AbstractPageFileFactory.Par.PAGE_SIZE_ID, 300) //
+        .with(PersistentPageFileFactory.Par.FILE_ID, file.toString()) //
+        .build();
+    assertExactEuclidean(factory, RStarTreeKNNSearcher.class, RStarTreeRangeSearcher.class);
+    Files.delete(file);
+  }
+
+  @Test
+  public void testMTree() throws IOException {
+    Path file = Files.createTempFile("ELKIUnitTest", null);
+    file.toFile().deleteOnExit();
+    MTreeFactory<DoubleVector> factory = new ELKIBuilder<>(MTreeFactory.class) //
+        .with(PagedIndexFactory.Par.PAGEFILE_ID, BinaryPageFileFactory.class) //
+        .with(AbstractPageFileFactory.Par.PAGE_SIZE_ID, 300) //
+        .with(PersistentPageFileFactory.Par.FILE_ID, file.toString()) //
+        .build();
+    assertExactEuclidean(factory, MTreeKNNByObject.class, MTreeRangeByObject.class);
+    Files.delete(file);
+  }
+}
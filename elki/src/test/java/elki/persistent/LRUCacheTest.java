@@ -0,0 +1,104 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Test the LRU cache, in particular concurrent reads.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class LRUCacheTest {
+  /**
+   * Number of pages to use.
+   */
+  private static final int NUMPAGES = 1000;
+
+  @Test
+  public void testEviction() {
+    MemoryPageFile<TestPage> file = new MemoryPageFile<>(1);
+    LRUCache<TestPage> cache = new LRUCache<>(100, file);
+    cache.initialize(new DefaultPageHeader(1));
+    for(int i = 0; i < NUMPAGES; i++) {
+      assertEquals("Page id not as expected.", i, cache.writePage(new TestPage()));
+    }
+    // Evicted pages must have been written to the backing file:
+    for(int i = 0; i < NUMPAGES; i++) {
+      assertEquals("Page not found.", i, cache.readPage(i).getPageID());
+    }
+    cache.flush();
+    for(int i = 0; i < NUMPAGES; i++) {
+      assertEquals("Page not written back.", i, file.readPage(i).getPageID());
+    }
+  }
+
+  @Test
+  public void testConcurrentReads() throws InterruptedException {
+    MemoryPageFile<TestPage> file = new MemoryPageFile<>(1);
+    LRUCache<TestPage> cache = new LRUCache<>(200, file);
+    cache.initialize(new DefaultPageHeader(1));
+    TestPage[] pages = new TestPage[NUMPAGES];
+    for(int i = 0; i < NUMPAGES; i++) {
+      cache.writePage(pages[i] = new TestPage());
+    }
+    final AtomicInteger errors = new AtomicInteger();
+    Thread[] threads = new Thread[4];
+    for(int t = 0; t < threads.length; t++) {
+      final int seed = t;
+      threads[t] = new Thread(() -> {
+        for(int j = 0, i = seed; j < 20000; j++, i = (i * 31 + 7) % NUMPAGES) {
+          if(cache.readPage(i) != pages[i]) {
+            errors.incrementAndGet();
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for(Thread t : threads) {
+      t.join();
+    }
+    assertEquals("Concurrent reads returned wrong pages.", 0, errors.get());
+    assertSame("Page identity not preserved.", pages[42], cache.readPage(42));
+  }
+
+  /**
+   * Trivial page for testing.
+   *
+   * @author Erich Schubert
+   */
+  public static class TestPage extends AbstractExternalizablePage {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Public constructor for externalization.
+     */
+    public TestPage() {
+      super();
+    }
+  }
+}
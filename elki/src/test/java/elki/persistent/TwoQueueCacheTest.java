@@ -0,0 +1,133 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2019
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package elki.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import elki.persistent.LRUCacheTest.TestPage;
+
+/**
+ * Test the 2Q cache: write-back, scan resistance, and concurrent reads.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class TwoQueueCacheTest {
+  /**
+   * Number of pages to use.
+   */
+  private static final int NUMPAGES = 1000;
+
+  @Test
+  public void testEviction() {
+    MemoryPageFile<TestPage> file = new MemoryPageFile<>(1);
+    TwoQueueCache<TestPage> cache = new TwoQueueCache<>(100, 8, file);
+    cache.initialize(new DefaultPageHeader(1));
+    for(int i = 0; i < NUMPAGES; i++) {
+      assertEquals("Page id not as expected.", i, cache.writePage(new TestPage()));
+    }
+    for(int i = 0; i < NUMPAGES; i++) {
+      assertEquals("Page not found.", i, cache.readPage(i).getPageID());
+    }
+    cache.deletePage(17);
+    cache.flush();
+    for(int i = 0; i < NUMPAGES; i++) {
+      TestPage page = file.readPage(i);
+      if(i == 17) {
+        assertEquals("Deleted page was written back.", null, page);
+        continue;
+      }
+      assertEquals("Page not written back.", i, page.getPageID());
+    }
+  }
+
+  @Test
+  public void testScanResistance() {
+    final AtomicInteger reads = new AtomicInteger();
+    MemoryPageFile<TestPage> file = new MemoryPageFile<TestPage>(1) {
+      @Override
+      public TestPage readPage(int pageID) {
+        reads.incrementAndGet();
+        return super.readPage(pageID);
+      }
+    };
+    for(int i = 0; i < NUMPAGES; i++) {
+      file.writePage(new TestPage());
+    }
+    TwoQueueCache<TestPage> cache = new TwoQueueCache<>(40, 8, file);
+    cache.initialize(new DefaultPageHeader(1));
+    // Access the hot pages twice, with a short gap that evicts them to the
+    // ghost queue, so they are promoted to the main queue.
+    for(int round = 0; round < 2; round++) {
+      for(int i = 0; i < 4; i++) {
+        cache.readPage(i);
+      }
+      for(int i = 100 + round * 50, e = i + 50; i < e; i++) {
+        cache.readPage(i);
+      }
+    }
+    // A long scan must not evict the hot pages.
+    for(int i = 200; i < NUMPAGES; i++) {
+      cache.readPage(i);
+    }
+    reads.set(0);
+    for(int i = 0; i < 4; i++) {
+      cache.readPage(i);
+    }
+    assertEquals("Hot pages were evicted by the scan.", 0, reads.get());
+    assertTrue("Hit rate not tracked.", cache.getHitRate() > 0);
+  }
+
+  @Test
+  public void testConcurrentReads() throws InterruptedException {
+    MemoryPageFile<TestPage> file = new MemoryPageFile<>(1);
+    TwoQueueCache<TestPage> cache = new TwoQueueCache<>(200, 16, file);
+    cache.initialize(new DefaultPageHeader(1));
+    TestPage[] pages = new TestPage[NUMPAGES];
+    for(int i = 0; i < NUMPAGES; i++) {
+      cache.writePage(pages[i] = new TestPage());
+    }
+    final AtomicInteger errors = new AtomicInteger();
+    Thread[] threads = new Thread[4];
+    for(int t = 0; t < threads.length; t++) {
+      final int seed = t;
+      threads[t] = new Thread(() -> {
+        for(int j = 0, i = seed; j < 20000; j++, i = (i * 31 + 7) % NUMPAGES) {
+          if(cache.readPage(i) != pages[i]) {
+            errors.incrementAndGet();
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for(Thread t : threads) {
+      t.join();
+    }
+    assertEquals("Concurrent reads returned wrong pages.", 0, errors.get());
+    assertSame("Page identity not preserved.", pages[42], cache.readPage(42));
+  }
+}